@@ -5,27 +5,47 @@ import java.io.UncheckedIOException;
 import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.CancelledKeyException;
+import java.nio.channels.Channel;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayDeque;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Scanner;
 import java.util.Set;
-import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Future;
 import java.util.stream.Collectors;
 
 import fr.umlv.chatos.context.Context;
+import fr.umlv.chatos.context.BufferProfile;
 import fr.umlv.chatos.context.Context.ContextAbstract;
+import fr.umlv.chatos.utils.AsyncIO;
 import fr.umlv.chatos.utils.ClientReader;
+import fr.umlv.chatos.utils.ConsolePrinter;
+import fr.umlv.chatos.utils.HTTPResourceCache;
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.PseudonymIndex;
 import fr.umlv.chatos.utils.ReaderProcessor;
 import fr.umlv.chatos.utils.Sender;
+import fr.umlv.chatos.utils.Utf8Codec;
+import fr.umlv.chatos.utils.data.DirectOffer;
+import fr.umlv.chatos.utils.data.OfflineMessage;
+import fr.umlv.chatos.utils.data.RosterPage;
+import fr.umlv.chatos.utils.data.SearchHit;
 import fr.umlv.chatos.utils.data.ShortString;
+import fr.umlv.chatos.utils.data.Version;
 import fr.umlv.chatos.utils.reader.http.HTTPReader;
 
 /**
@@ -36,6 +56,43 @@ import fr.umlv.chatos.utils.reader.http.HTTPReader;
  */
 public class ClientChatOS {
 
+	/**
+	 * 
+	 * Represents a ServerSocketChannel waiting for the direct private connection
+	 * of the client who asked for it, the connections accepted are kept until
+	 * they send the token of the offer.
+	 *
+	 */
+	static private class DirectListener {
+		private final ServerSocketChannel ssc;
+		private final short clientID;
+		private final long token;
+		private final long deadline;
+		private final HashSet<SocketChannel> handshakes = new HashSet<>();
+
+		private DirectListener(ServerSocketChannel ssc, short clientID, long token, long deadline) {
+			this.ssc = ssc;
+			this.clientID = clientID;
+			this.token = token;
+			this.deadline = deadline;
+		}
+	}
+
+	/**
+	 * 
+	 * Represents a direct private connection accepted, reading the token of the
+	 * offer before being used.
+	 *
+	 */
+	static private class DirectHandshake {
+		private final DirectListener listener;
+		private final ByteBuffer bb = ByteBuffer.allocate(Long.BYTES);
+
+		private DirectHandshake(DirectListener listener) {
+			this.listener = listener;
+		}
+	}
+
 	/**
 	 * 
 	 * Represents the HTTP context for private TCP connections.
@@ -54,10 +111,11 @@ public class ClientChatOS {
 		 * @param clientChatOS The client.
 		 */
 		private ContextHTTP(SelectionKey key, short clientID, ClientChatOS clientChatOS) {
-			super(key);
+			super(key, BufferProfile.RELAY);
 			this.clientID = clientID;
 			this.clientChatOS = clientChatOS;
-			this.reader = new HTTPReader(clientChatOS.folder, this);
+			this.reader = new HTTPReader(clientChatOS.folder, this, clientChatOS.httpCache, clientChatOS.asyncIO,
+					clientChatOS.printer::println);
 		}
 
 		@Override
@@ -84,7 +142,6 @@ public class ClientChatOS {
 	 *
 	 */
 	static private class ContextClient extends ContextAbstract {
-		static private final Charset cs = StandardCharsets.UTF_8;
 		private final ReaderProcessor readerProcessor;
 		private final String login;
 		private final ClientChatOS clientChatOS;
@@ -100,7 +157,7 @@ public class ClientChatOS {
 			super(key);
 			this.login = login;
 			this.clientChatOS = clientChatOS;
-			var clientReader = new ClientReader(clientChatOS);
+			var clientReader = new ClientReader(clientChatOS, this);
 			this.readerProcessor = new ReaderProcessor(() -> close());
 			readerProcessor.put(-2, () -> clientReader.receiveTCPRefusal());
 			readerProcessor.put(-1, () -> clientReader.receiveError(clientChatOS.setup));
@@ -111,6 +168,20 @@ public class ClientChatOS {
 			readerProcessor.put(4, () -> clientReader.receiveTCPDemand());
 			readerProcessor.put(5, () -> clientReader.receiveTCPAcceptance());
 			readerProcessor.put(6, () -> clientReader.receiveTCPValidation());
+			readerProcessor.put(7, () -> clientReader.receiveVersion());
+			readerProcessor.put(8, () -> clientReader.receiveDirectOffer());
+			readerProcessor.put(9, () -> clientReader.receiveDirectFallback());
+			readerProcessor.put(10, () -> clientReader.receiveQueryResult());
+			readerProcessor.put(11, () -> clientReader.receiveRosterPage());
+			readerProcessor.put(12, () -> clientReader.receiveRosterEntry());
+			readerProcessor.put(13, () -> clientReader.receivePing());
+			readerProcessor.put(14, () -> clientReader.receiveThrottled());
+			readerProcessor.put(15, () -> clientReader.receiveNewSession());
+			readerProcessor.put(16, () -> clientReader.receiveSessionResumed());
+			readerProcessor.put(17, () -> clientReader.receiveOfflineMessage());
+			readerProcessor.put(18, () -> clientReader.receiveMailboxStatus());
+			readerProcessor.put(19, () -> clientReader.receiveSearchResult());
+			readerProcessor.put(20, () -> clientReader.receiveMailboxKey());
 		}
 
 		@Override
@@ -121,13 +192,28 @@ public class ClientChatOS {
 		@Override
 		public void doConnect() throws IOException {
 			super.doConnect();
-			Sender.sendString(this, ContextClient.cs.encode(login));
+			if (clientChatOS.resuming) {
+				Sender.sendResume(this, clientChatOS.protocol, clientChatOS.flags | Protocol.FLAG_RESUME,
+						Utf8Codec.get().encode(login), clientChatOS.mailboxKey, clientChatOS.sessionToken,
+						clientChatOS.sequence);
+			} else {
+				Sender.sendLogin(this, clientChatOS.protocol, clientChatOS.flags, Utf8Codec.get().encode(login),
+						clientChatOS.mailboxKey);
+			}
+			if (clientChatOS.protocol == Protocol.V1) {
+				clientChatOS.processWaitingCommands();
+			}
 		}
 
 		@Override
 		public void silentlyClose() {
-			System.out.println("Connexion avec le serveur perdue faites entrée pour terminer le client");
-			clientChatOS.console.interrupt();
+			if (clientChatOS.hasSession) {
+				super.silentlyClose();
+				clientChatOS.connectionLost(this);
+				return;
+			}
+			clientChatOS.printer.println("Connexion avec le serveur perdue faites entrée pour terminer le client");
+			clientChatOS.console.cancel(true);
 			super.silentlyClose();
 			throw new UncheckedIOException(new IOException("Connexion closed"));
 		}
@@ -139,21 +225,123 @@ public class ClientChatOS {
 
 	}
 
-	private final SocketChannel sc;
+	/**
+	 * Maximum number of bytes of HTTP responses kept in memory.
+	 */
+	private static final long HTTP_CACHE_CAPACITY = 4 * 1_024 * 1_024;
+
+	/**
+	 * Number of threads reading and writing the files of the folder.
+	 */
+	private static final int IO_THREADS = 2;
+
+	/**
+	 * Maximum number of file reads and writes waiting for a thread.
+	 */
+	private static final int IO_MAX_PENDING = 64;
+
+	/**
+	 * Maximum number of pseudonymes kept when the client list is received page per
+	 * page, the least recently used are forgotten first.
+	 */
+	private static final int ROSTER_CAPACITY = 256;
+
+	/**
+	 * Milliseconds to wait for a direct private connection before falling back to
+	 * the relay of the server.
+	 */
+	private static final int DIRECT_CONNECT_TIMEOUT = 2_000;
+
+	/**
+	 * Milliseconds to wait for the direct private connection of the other client
+	 * and its token, the listener is closed after.
+	 */
+	private static final long DIRECT_ACCEPT_TIMEOUT = 10_000;
+
+	/**
+	 * Milliseconds between two attempts to resume the session after the
+	 * connection with the server was lost.
+	 */
+	private static final long RECONNECT_DELAY = 1_000;
+
+	/**
+	 * Milliseconds after which the client stops trying to resume its session.
+	 */
+	private static final long RECONNECT_TIMEOUT = 60_000;
+
+	/**
+	 * Maximum number of lines waiting to be printed on the console, the lines
+	 * received when the console is that late are dropped.
+	 */
+	private static final int CONSOLE_CAPACITY = 1_024;
+
+	/**
+	 * Default number of milliseconds between two prints of the clients who joined
+	 * or left.
+	 */
+	private static final long ROSTER_INTERVAL = 1_000;
+
+	/**
+	 * Number of pseudonymes per page of the client list printed by the "$"
+	 * command.
+	 */
+	private static final int ROSTER_PAGE_SIZE = 20;
+
+	private static final DateTimeFormatter OFFLINE_DATE_FORMAT = DateTimeFormatter.ofPattern("dd/MM HH:mm");
+
+	private SocketChannel sc;
 	private final Selector selector;
 	private final InetSocketAddress serverAddress;
 	private final String login;
 	private final String folder;
-	private final Thread console;
-	private final ArrayBlockingQueue<String> commandQueue = new ArrayBlockingQueue<>(10);
+	private final Protocol protocol;
+	private final int flags;
+	private final AsyncIO asyncIO;
+	private Future<?> console;
 	private ContextClient uniqueContext;
 	private boolean setup = false;
-	private final Map<Short, String> connectedUsers = new HashMap<>();
 	private final Map<String, Short> connectedUsersLogin = new HashMap<>();
+	private final PseudonymIndex connectedUsersIndex = new PseudonymIndex();
+	private final Map<Short, String> connectedUsers = new LinkedHashMap<>(16, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<Short, String> eldest) {
+			if (size() <= rosterCapacity) {
+				return false;
+			}
+			connectedUsersLogin.remove(eldest.getValue());
+			connectedUsersIndex.remove(eldest.getValue());
+			roster.forget(eldest.getKey());
+			return true;
+		}
+	};
+	private boolean lazyRoster;
+	private int rosterCapacity = Integer.MAX_VALUE;
+	private int rosterTotal;
+	private short rosterNext = -1;
 	private final Map<Short, SocketChannel> pendingConnections = new HashMap<>();
 	private final Map<Short, String> pendingRequests = new HashMap<>();
 	private Set<Short> pendingDemands = new HashSet<>();
 	private Map<Short, Context> privateConnections = new HashMap<>();
+	private final Map<Short, DirectListener> directListeners = new HashMap<>();
+	private final SecureRandom tokens = new SecureRandom();
+	private boolean direct;
+	private long heartbeats;
+	private boolean hasSession;
+	private long sessionToken;
+	private long mailboxKey;
+	private Path mailboxKeyFile;
+	private int sequence;
+	private boolean resuming;
+	private boolean negotiating;
+	private final ArrayDeque<String> waitingCommands = new ArrayDeque<>();
+	private long lostAt;
+	private long reconnectAt;
+	private final HTTPResourceCache httpCache = new HTTPResourceCache(HTTP_CACHE_CAPACITY);
+	private final ConsolePrinter printer = new ConsolePrinter(System.out, CONSOLE_CAPACITY);
+	private RosterView roster = new RosterView(ROSTER_INTERVAL);
+	private boolean demandsChanged;
 
 	/**
 	 * Creates a new ClientChatOs.
@@ -164,14 +352,61 @@ public class ClientChatOS {
 	 * @throws IOException If an I/O error occurs when opening channel and selector.
 	 */
 	public ClientChatOS(String folder, String login, InetSocketAddress serverAddress) throws IOException {
+		this(folder, login, serverAddress, new Version(Protocol.V1.getVersion(), 0));
+	}
+
+	/**
+	 * Creates a new ClientChatOs which asks the server for the given protocol
+	 * version and options.
+	 * 
+	 * @param folder        Folder location for HTTP resources.
+	 * @param login         Client login for server communication.
+	 * @param serverAddress Server address.
+	 * @param version       Protocol version and options asked at login.
+	 * @throws IOException If an I/O error occurs when opening channel and selector.
+	 */
+	public ClientChatOS(String folder, String login, InetSocketAddress serverAddress, Version version)
+			throws IOException {
+		this(folder, login, serverAddress, version, false);
+	}
+
+	/**
+	 * Creates a new ClientChatOs which asks the server for the given protocol
+	 * version and options, and which may run its blocking tasks, the console and
+	 * the files of the folder, on virtual threads.
+	 * 
+	 * @param folder        Folder location for HTTP resources.
+	 * @param login         Client login for server communication.
+	 * @param serverAddress Server address.
+	 * @param version       Protocol version and options asked at login.
+	 * @param async         If the console and the files of the folder are run on
+	 *                      virtual threads instead of a pool of threads.
+	 * @throws IOException If an I/O error occurs when opening channel and selector.
+	 */
+	public ClientChatOS(String folder, String login, InetSocketAddress serverAddress, Version version,
+			boolean async) throws IOException {
 		Objects.requireNonNull(folder, login);
 		Objects.requireNonNull(serverAddress);
+		Objects.requireNonNull(version);
 		this.serverAddress = serverAddress;
 		this.login = login;
 		this.folder = folder;
+		this.protocol = Protocol.negotiate(version.getVersion());
+		this.flags = version.getFlags();
 		this.sc = SocketChannel.open();
 		this.selector = Selector.open();
-		this.console = new Thread(this::consoleRun);
+		this.asyncIO = async ? AsyncIO.virtual(selector, IO_MAX_PENDING)
+				: AsyncIO.pooled(selector, IO_THREADS, IO_MAX_PENDING);
+	}
+
+	/**
+	 * Sets the minimum number of milliseconds between two prints of the clients
+	 * who joined or left, must be called before {@link #launch()}.
+	 * 
+	 * @param interval Interval in milliseconds.
+	 */
+	public void setRosterInterval(long interval) {
+		roster = new RosterView(interval);
 	}
 
 	/**
@@ -183,7 +418,7 @@ public class ClientChatOS {
 	public void connectionTCPAccepted(short clientB) {
 
 		Sender.sendHTTPGET(connectContextHTTP(clientB), pendingRequests.get(clientB));
-		System.out.println("Nouvelle demande de connexion TCP acceptée par " + connectedUsers.get(clientB));
+		printer.println("Nouvelle demande de connexion TCP acceptée par " + pseudonymeOf(clientB));
 	}
 
 	/**
@@ -202,14 +437,94 @@ public class ClientChatOS {
 	 */
 	public void connectionTCPRefused(short clientB) {
 		pendingConnections.remove(clientB);
-		System.out.println("Nouvelle demande de connexion TCP refusée par " + connectedUsers.get(clientB));
+		printer.println("Nouvelle demande de connexion TCP refusée par " + pseudonymeOf(clientB));
+	}
+
+	/**
+	 * Prints that the server drops messages because they are sent too fast.
+	 * 
+	 * @param traffic Class of the messages dropped.
+	 */
+	public void throttled(short traffic) {
+		var messages = switch (traffic) {
+		case 0 -> "messages publics";
+		case 1 -> "messages privés";
+		case 2 -> "demandes de connexion privée";
+		default -> "messages";
+		};
+		printer.println("Trop de " + messages + " envoyés, le serveur les ignore pour le moment");
+	}
+
+	/**
+	 * Uses the protocol accepted by the server for the next packets, compressed
+	 * only if the server accepted the compression. The commands typed while
+	 * waiting for the answer of the server are sent afterwards, framed with the
+	 * protocol accepted.
+	 * 
+	 * @param version Version accepted by the server.
+	 */
+	public void versionAccepted(Version version) {
+		var accepted = Protocol.negotiate(version.getVersion());
+		uniqueContext.setProtocol(accepted);
+		if (accepted != Protocol.V1 && version.hasFlag(Protocol.FLAG_DEFLATE)) {
+			uniqueContext.enableDeflate();
+			uniqueContext.enableInflate();
+		}
+		direct = version.hasFlag(Protocol.FLAG_DIRECT);
+		lazyRoster = version.hasFlag(Protocol.FLAG_LAZY_ROSTER);
+		if (lazyRoster) {
+			rosterCapacity = ROSTER_CAPACITY;
+		}
+		processWaitingCommands();
+	}
+
+	/**
+	 * Processes the commands typed while the connection was opened and the login
+	 * was waiting for the answer of the server, the next commands are processed
+	 * at once.
+	 */
+	private void processWaitingCommands() {
+		negotiating = false;
+		while (!waitingCommands.isEmpty()) {
+			processCommand(waitingCommands.poll());
+		}
+	}
+
+	/**
+	 * Connects directly to the client who accepted a private connection. The
+	 * connection is made by a blocking task so the selector thread doesn't wait
+	 * for it, if it fails the server is told to relay the connection.
+	 * 
+	 * @param offer Address the client listens on.
+	 */
+	public void directOffer(DirectOffer offer) {
+		var clientB = offer.getShort();
+		if (!pendingConnections.containsKey(clientB)) {
+			return;
+		}
+		asyncIO.submit(() -> connectDirect(offer), sc -> directConnected(clientB, sc), e -> {
+			printer.println(
+					"Connexion directe avec " + pseudonymeOf(clientB) + " impossible, passage par le serveur");
+			Sender.sendShort(uniqueContext, (byte) 5, clientB);
+		});
+	}
+
+	/**
+	 * Falls back to the relay of the server after a direct connection failed.
+	 * 
+	 * @param clientA Client who asked for the private connection.
+	 */
+	public void directFallback(short clientA) {
+		closeDirectListener(clientA);
+		TCPConnectionAccepted(createNewSocketChannel(clientA), clientA);
 	}
 
 	/**
 	 * Closes context on existing login and prints error message.
 	 */
 	public void loginError() {
-		System.out.println("ERREUR : Pseudonyme déjà existant veuillez vous reconnecter avec un autre pseudonyme");
+		hasSession = false;
+		printer.println("ERREUR : Pseudonyme déjà existant veuillez vous reconnecter avec un autre pseudonyme");
 		uniqueContext.close();
 	}
 
@@ -219,7 +534,7 @@ public class ClientChatOS {
 	 * @param clientB Client who has disconnected during packet transmission.
 	 */
 	public void disconnectedError(short clientB) {
-		System.out.println("Message non reçu, " + connectedUsers.get(clientB) + " s'est deconnecté");
+		printer.println("Message non reçu, " + pseudonymeOf(clientB) + " s'est deconnecté");
 	}
 
 	/**
@@ -228,9 +543,14 @@ public class ClientChatOS {
 	 * @param clientA Client who asked for a private connection.
 	 */
 	public void TCPDemand(short clientA) {
+		if (lazyRoster) {
+			pendingDemands.add(clientA);
+			demandsChanged = true;
+			return;
+		}
 		connectedUsers.computeIfPresent(clientA, (IDclientA, login) -> {
 			pendingDemands.add(IDclientA);
-			printDemandsList();
+			demandsChanged = true;
 			return login;
 		});
 	}
@@ -242,25 +562,179 @@ public class ClientChatOS {
 	 */
 	public void updateClientList(List<ShortString> clientList) {
 		for (var client : clientList) {
-			if (!client.getString().equals(login)) {
-				connectedUsersLogin.put(client.getString(), client.getShort());
-				connectedUsers.put(client.getShort(), client.getString());
-			}
+			registerClient(client, false);
 		}
-		printClientList();
 		setup = true;
 	}
 
+	/**
+	 * Registers the first or the next page of the client list.
+	 * 
+	 * @param page Page of the client list.
+	 */
+	public void rosterPage(RosterPage page) {
+		rosterTotal = page.getTotal();
+		rosterNext = page.getNext();
+		for (var client : page.getClients()) {
+			registerClient(client, false);
+		}
+		setup = true;
+	}
+
+	/**
+	 * Registers the pseudonyme of a client asked to the server.
+	 * 
+	 * @param client Client asked, with an empty pseudonyme if it is not connected.
+	 */
+	public void rosterEntry(ShortString client) {
+		if (!client.getString().isEmpty()) {
+			registerClient(client, false);
+		}
+	}
+
+	/**
+	 * Answers a heartbeat of the server with its timestamp.
+	 * 
+	 * @param timestamp Timestamp of the heartbeat, given back unchanged.
+	 */
+	public void heartbeat(long timestamp) {
+		heartbeats++;
+		Sender.sendLong(uniqueContext, (byte) 9, timestamp);
+	}
+
+	/**
+	 * Keeps the token of the session opened by the server. If the client was
+	 * resuming its session, the server couldn't resume it and the client list is
+	 * received again.
+	 * 
+	 * @param token Token of the session.
+	 */
+	public void sessionOpened(long token) {
+		if (resuming) {
+			printer.println("Session expirée, nouvelle session ouverte, des messages ont pu être perdus");
+			connectedUsers.values().forEach(connectedUsersIndex::remove);
+			connectedUsers.clear();
+			connectedUsersLogin.clear();
+			roster.clear();
+			rosterNext = -1;
+			setup = false;
+			resuming = false;
+			lostAt = 0;
+		}
+		hasSession = true;
+		sessionToken = token;
+		sequence = 0;
+	}
+
+	/**
+	 * Ends the reconnection once the server resumed the session, the messages
+	 * missed follow.
+	 * 
+	 * @param token Token of the session.
+	 */
+	public void sessionResumed(long token) {
+		resuming = false;
+		lostAt = 0;
+		printer.println("Session reprise");
+	}
+
+	/**
+	 * Tries to resume the session after the connection with the server was lost,
+	 * every {@link #RECONNECT_DELAY} milliseconds.
+	 * 
+	 * @param context Context of the lost connection.
+	 */
+	private void connectionLost(ContextClient context) {
+		if (context != uniqueContext) {
+			return;
+		}
+		var now = System.currentTimeMillis();
+		if (lostAt == 0) {
+			lostAt = now;
+			printer.println("Connexion avec le serveur perdue, reprise de la session...");
+		}
+		if (now - lostAt >= RECONNECT_TIMEOUT) {
+			printer.println("Session impossible à reprendre faites entrée pour terminer le client");
+			console.cancel(true);
+			throw new UncheckedIOException(new IOException("Connexion closed"));
+		}
+		resuming = true;
+		reconnectAt = now + RECONNECT_DELAY;
+	}
+
+	/**
+	 * Opens a new connection to the server to resume the session.
+	 * 
+	 * @throws IOException If an I/O error occurs when opening the channel.
+	 */
+	private void reconnect() throws IOException {
+		reconnectAt = 0;
+		sc = SocketChannel.open();
+		connect();
+	}
+
+	private void connect() throws IOException {
+		negotiating = true;
+		sc.configureBlocking(false);
+		var key = sc.register(selector, SelectionKey.OP_CONNECT);
+		uniqueContext = new ContextClient(key, login, this);
+		key.attach(uniqueContext);
+		try {
+			sc.connect(serverAddress);
+		} catch (IOException e) {
+			uniqueContext.DoClose();
+		}
+	}
+
+	/**
+	 * Registers a client, unless it is this client.
+	 * 
+	 * @param client Client to register.
+	 * @param joined If the client just joined and is shown with the next changes
+	 *               of the client list.
+	 * @return true if the client was not known yet
+	 */
+	private boolean registerClient(ShortString client, boolean joined) {
+		if (client.getString().equals(login)) {
+			return false;
+		}
+		connectedUsersLogin.put(client.getString(), client.getShort());
+		var previous = connectedUsers.put(client.getShort(), client.getString());
+		connectedUsersIndex.add(client.getString(), client.getShort());
+		if (joined) {
+			roster.join(client.getShort(), client.getString());
+		} else {
+			roster.add(client.getShort(), client.getString());
+		}
+		return previous == null;
+	}
+
+	/**
+	 * Returns the pseudonyme of a client. When the client list is received page
+	 * per page and the client is unknown, its pseudonyme is asked to the server
+	 * and its ID is returned instead.
+	 * 
+	 * @param client Client ID.
+	 * @return the pseudonyme of the client.
+	 */
+	private String pseudonymeOf(short client) {
+		var pseudonyme = connectedUsers.get(client);
+		if (pseudonyme == null && lazyRoster) {
+			Sender.sendShort(uniqueContext, (byte) 8, client);
+			return "#" + client;
+		}
+		return pseudonyme;
+	}
+
 	/**
 	 * Registers new client.
 	 * 
 	 * @param clientData New client.
 	 */
 	public void registerNewClient(ShortString clientData) {
-		if (!clientData.getString().equals(login)) {
-			connectedUsersLogin.put(clientData.getString(), clientData.getShort());
-			connectedUsers.put(clientData.getShort(), clientData.getString());
-			printClientList();
+		sequence++;
+		if (registerClient(clientData, true)) {
+			rosterTotal++;
 		}
 	}
 
@@ -270,13 +744,21 @@ public class ClientChatOS {
 	 * @param client Disconnected client.
 	 */
 	public void removeDisconnectedClient(short client) {
-		connectedUsersLogin.remove(connectedUsers.remove(client));
+		sequence++;
+		var pseudo = connectedUsers.remove(client);
+		if (pseudo != null) {
+			connectedUsersLogin.remove(pseudo);
+			connectedUsersIndex.remove(pseudo);
+			// a client dropped from a bounded roster is counted again with the next page
+			rosterTotal--;
+		}
+		roster.leave(client);
 		privateConnections.remove(client);
 		pendingConnections.remove(client);
+		closeDirectListener(client);
 		pendingRequests.remove(client);
 		pendingDemands.remove(client);
-		printClientList();
-		printDemandsList();
+		demandsChanged = true;
 	}
 
 	/**
@@ -285,7 +767,8 @@ public class ClientChatOS {
 	 * @param msgData Message received.
 	 */
 	public void broadcastedMessage(ShortString msgData) {
-		System.out.println("Reçu par tout le monde de la part de " + connectedUsers.get(msgData.getShort()) + " : "
+		sequence++;
+		printer.println("Reçu par tout le monde de la part de " + pseudonymeOf(msgData.getShort()) + " : "
 				+ msgData.getString());
 	}
 
@@ -295,8 +778,108 @@ public class ClientChatOS {
 	 * @param msgData Message received.
 	 */
 	public void specificMessage(ShortString msgData) {
-		System.out
-				.println("Reçu de la part de " + connectedUsers.get(msgData.getShort()) + " : " + msgData.getString());
+		sequence++;
+		printer.println("Reçu de la part de " + pseudonymeOf(msgData.getShort()) + " : " + msgData.getString());
+	}
+
+	/**
+	 * Prints a private message kept by the server while the client was offline.
+	 * 
+	 * @param message Message received.
+	 */
+	public void offlineMessage(OfflineMessage message) {
+		sequence++;
+		var date = Instant.ofEpochMilli(message.getTimestamp()).atZone(ZoneId.systemDefault());
+		printer.println("Reçu hors ligne de la part de " + message.getSender() + " le "
+				+ OFFLINE_DATE_FORMAT.format(date) + " : " + message.getMessage());
+	}
+
+	/**
+	 * Keeps the key of the mailbox opened by the server for this client, the key
+	 * is saved in the file given to {@link #setMailboxKeyFile(Path)} so the next
+	 * logins receive the messages kept.
+	 * 
+	 * @param key Key of the mailbox.
+	 */
+	public void mailboxOpened(long key) {
+		sequence++;
+		mailboxKey = key;
+		if (mailboxKeyFile == null) {
+			return;
+		}
+		var file = mailboxKeyFile;
+		asyncIO.submit(() -> Files.writeString(file, Long.toString(key)),
+				path -> printer.println("Boîte aux lettres ouverte, sa clé est gardée dans " + path),
+				e -> printer.println("Clé de la boîte aux lettres non enregistrée : " + e.getMessage()));
+	}
+
+	/**
+	 * Reads the key of the mailbox of this client from the given file, the file
+	 * keeps the key given by the server if it doesn't exist yet. Must be called
+	 * before {@link #launch()}.
+	 * 
+	 * @param file File of the key.
+	 * @throws IOException If the file exists and can't be read.
+	 */
+	public void setMailboxKeyFile(Path file) throws IOException {
+		Objects.requireNonNull(file);
+		mailboxKeyFile = file;
+		if (!Files.exists(file)) {
+			return;
+		}
+		try {
+			mailboxKey = Long.parseLong(Files.readString(file).trim());
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid mailbox key in " + file, e);
+		}
+	}
+
+	/**
+	 * Prints what the server did with a private message sent to an offline
+	 * client.
+	 * 
+	 * @param status Status of the message, then the pseudonyme of the recipient.
+	 */
+	public void mailboxStatus(ShortString status) {
+		var recipient = status.getString();
+		printer.println(switch (status.getShort()) {
+		case 0 -> recipient + " est hors ligne, le message lui sera remis à sa prochaine connexion";
+		case 1 -> "Login inconnu : " + recipient;
+		case 2 -> "La boîte de " + recipient + " est pleine, message perdu";
+		case 4 -> "La boîte de " + recipient + " a été ouverte avec une autre clé, ses messages ne vous sont pas remis";
+		default -> recipient + " est hors ligne et le serveur ne garde pas les messages, message perdu";
+		});
+	}
+
+	/**
+	 * Prints the pseudonymes matching a query.
+	 * 
+	 * @param clientList ID and pseudonyme of the clients found.
+	 */
+	public void queryResult(List<ShortString> clientList) {
+		if (lazyRoster) {
+			clientList.forEach(client -> registerClient(client, false));
+		}
+		printer.println("Résultat de la recherche : "
+				+ clientList.stream().map(ShortString::getString).collect(Collectors.joining(", ")));
+	}
+
+	/**
+	 * Prints the messages of the history found by a search.
+	 * 
+	 * @param hits Messages found, the most recent first.
+	 */
+	public void searchResult(List<SearchHit> hits) {
+		if (hits.isEmpty()) {
+			printer.println("Aucun message trouvé dans l'historique");
+			return;
+		}
+		printer.println("Messages trouvés dans l'historique :");
+		for (var hit : hits) {
+			var date = Instant.ofEpochMilli(hit.getTimestamp()).atZone(ZoneId.systemDefault());
+			printer.println("\t#" + hit.getId() + " " + hit.getSender() + " le " + OFFLINE_DATE_FORMAT.format(date)
+					+ " : " + hit.getSnippet());
+		}
 	}
 
 	/**
@@ -305,21 +888,66 @@ public class ClientChatOS {
 	 * @throws IOException If an I/O error occurs
 	 */
 	public void launch() throws IOException {
-		sc.configureBlocking(false);
-		var key = sc.register(selector, SelectionKey.OP_CONNECT);
-		uniqueContext = new ContextClient(key, login, this);
-		key.attach(uniqueContext);
-		sc.connect(serverAddress);
-		console.start();
-		while (!Thread.interrupted()) {
-			try {
-				selector.select(this::treatKey);
-				synchronized (sc) {
-					processCommands();
+		console = asyncIO.start(this::consoleRun);
+		connect();
+		try {
+			while (!Thread.interrupted()) {
+				try {
+					selector.select(this::treatKey, selectTimeout());
+					asyncIO.runCompletions();
+					expireDirectListeners(System.currentTimeMillis());
+					printChanges();
+					if (reconnectAt != 0 && System.currentTimeMillis() >= reconnectAt) {
+						reconnect();
+					}
+				} catch (UncheckedIOException tunneled) {
+					throw tunneled.getCause();
 				}
-			} catch (UncheckedIOException tunneled) {
-				throw tunneled.getCause();
 			}
+		} finally {
+			printer.close();
+		}
+	}
+
+	/**
+	 * Returns the timeout of the next select, waking up the selector for the next
+	 * attempt to resume the session, for the next print of the changes of the
+	 * client list and for the end of the direct listeners.
+	 * 
+	 * @return the timeout in milliseconds, 0 to wait without timeout.
+	 */
+	private long selectTimeout() {
+		var now = System.currentTimeMillis();
+		var timeout = reconnectAt == 0 ? 0 : RECONNECT_DELAY;
+		var delay = roster.delay(now);
+		if (delay >= 0 && (timeout == 0 || delay < timeout)) {
+			timeout = Math.max(1, delay);
+		}
+		for (var listener : directListeners.values()) {
+			delay = listener.deadline - now;
+			if (timeout == 0 || delay < timeout) {
+				timeout = Math.max(1, delay);
+			}
+		}
+		return timeout;
+	}
+
+	/**
+	 * Prints the clients who joined or left, at most once per interval of the
+	 * {@link RosterView}, and the demands list if it changed since the last
+	 * select, so a burst of clients joining or leaving prints them once.
+	 */
+	private void printChanges() {
+		roster.render(System.currentTimeMillis()).ifPresent(changes -> {
+			if (lazyRoster) {
+				printer.println("Clients connus : " + roster.size() + " sur " + (rosterTotal - 1) + " connectés" + changes);
+			} else {
+				printer.println("Clients connectés : " + roster.size() + changes);
+			}
+		});
+		if (demandsChanged) {
+			demandsChanged = false;
+			printDemandsList();
 		}
 	}
 
@@ -329,12 +957,73 @@ public class ClientChatOS {
 	 * @param args Program arguments.
 	 */
 	public static void main(String[] args) {
-		if (args.length != 4) {
+		if (args.length < 4) {
 			usage();
 			return;
 		}
+		var version = Protocol.V1.getVersion();
+		var flags = 0;
+		var async = false;
+		var rosterInterval = ROSTER_INTERVAL;
+		Path mailboxKeyFile = null;
+		for (var i = 4; i < args.length; i++) {
+			switch (args[i]) {
+			case "--v2":
+				version = Protocol.V2.getVersion();
+				break;
+			case "--deflate":
+				version = Protocol.V2.getVersion();
+				flags |= Protocol.FLAG_DEFLATE;
+				break;
+			case "--direct":
+				version = Protocol.V2.getVersion();
+				flags |= Protocol.FLAG_DIRECT;
+				break;
+			case "--lazy":
+				version = Protocol.V2.getVersion();
+				flags |= Protocol.FLAG_LAZY_ROSTER;
+				break;
+			case "--session":
+				version = Protocol.V2.getVersion();
+				flags |= Protocol.FLAG_SESSION;
+				break;
+			case "--mailbox":
+				if (i + 1 == args.length) {
+					usage();
+					return;
+				}
+				version = Protocol.V2.getVersion();
+				flags |= Protocol.FLAG_MAILBOX;
+				mailboxKeyFile = Path.of(args[++i]);
+				break;
+			case "--async":
+				async = true;
+				break;
+			case "--roster-interval":
+				try {
+					rosterInterval = Long.parseLong(args[++i]);
+				} catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+					usage();
+					return;
+				}
+				if (rosterInterval < 0) {
+					usage();
+					return;
+				}
+				break;
+			default:
+				usage();
+				return;
+			}
+		}
 		try {
-			new ClientChatOS(args[0], args[1], new InetSocketAddress(args[2], Integer.parseInt(args[3]))).launch();
+			var client = new ClientChatOS(args[0], args[1], new InetSocketAddress(args[2], Integer.parseInt(args[3])),
+					new Version(version, flags), async);
+			client.setRosterInterval(rosterInterval);
+			if (mailboxKeyFile != null) {
+				client.setMailboxKeyFile(mailboxKeyFile);
+			}
+			client.launch();
 		} catch (IOException | CancelledKeyException e) {
 			// Enregistrer dans log
 		}
@@ -342,26 +1031,65 @@ public class ClientChatOS {
 	}
 
 	/**
-	 * Prints client list.
+	 * Prints a page of the client list, in alphabetical order.
+	 * 
+	 * @param page Number of the page, from 1.
 	 */
-	private void printClientList() {
-		System.out.println("Liste des clients connectés : " + connectedUsers.values());
+	private void printClientList(int page) {
+		var pages = roster.pages(ROSTER_PAGE_SIZE);
+		if (page < 1 || page > pages) {
+			printer.println("Page " + page + " inexistante, la liste des clients a " + pages + " pages");
+			return;
+		}
+		var clients = String.join(", ", roster.page(page, ROSTER_PAGE_SIZE));
+		if (lazyRoster) {
+			printer.println("Liste des clients connus (page " + page + "/" + pages + ", " + roster.size() + " sur "
+					+ (rosterTotal - 1) + " connectés) : " + clients);
+			return;
+		}
+		printer.println("Liste des clients connectés (page " + page + "/" + pages + ", " + roster.size() + " clients) : "
+				+ clients);
+	}
+
+	/**
+	 * Asks the server the next page of the client list.
+	 */
+	private void askNextRosterPage() {
+		if (!lazyRoster || rosterNext == -1) {
+			printer.println("Aucune autre page de la liste des clients");
+			return;
+		}
+		Sender.sendShort(uniqueContext, (byte) 7, rosterNext);
 	}
 
 	/**
 	 * Prints private connections demands list.
 	 */
 	private void printDemandsList() {
-		System.out.println("Liste des demandes de connexion privée : "
-				+ pendingDemands.stream().map(id -> connectedUsers.get(id)).collect(Collectors.joining(", ")));
+		printer.printStatus("demands", "Liste des demandes de connexion privée : "
+				+ pendingDemands.stream().map(id -> pseudonymeOf(id)).collect(Collectors.joining(", ")));
 	}
 
 	/**
 	 * Prints private connections list.
 	 */
 	private void printPrivateConnections() {
-		System.out.println("Liste des connexions privées : " + privateConnections.keySet().stream()
-				.map(i -> connectedUsers.get(i)).collect(Collectors.joining(",")));
+		printer.println("Liste des connexions privées : " + privateConnections.keySet().stream()
+				.map(i -> pseudonymeOf(i)).collect(Collectors.joining(",")));
+	}
+
+	/**
+	 * Prints statistics about the resources served to other clients.
+	 */
+	private void printStatistics() {
+		printer.println("Cache HTTP : " + httpCache);
+		printer.println("Fichiers : " + asyncIO);
+		printer.println("Sockets : " + ContextAbstract.getWrites() + " écritures, "
+				+ ContextAbstract.getInterestOpsUpdates() + " changements d'intérêt");
+		printer.println("Tampons : " + ContextAbstract.getBufferPool() + ", " + ContextAbstract.getResizes()
+				+ " redimensionnements");
+		printer.println("Battements de cœur reçus : " + heartbeats);
+		printer.println("Console : " + printer);
 	}
 
 	/**
@@ -385,73 +1113,107 @@ public class ClientChatOS {
 	 * Console thread runnable for client requests.
 	 */
 	private void consoleRun() {
-		try {
-			try (var scan = new Scanner(System.in);) {
-				while (!Thread.interrupted() && scan.hasNextLine()) {
-					var msg = scan.nextLine();
-					if (Thread.interrupted()) {
-						break;
-					}
-					synchronized (sc) {
-						sendCommand(msg);
-					}
+		try (var scan = new Scanner(System.in);) {
+			while (!Thread.interrupted() && scan.hasNextLine()) {
+				var msg = scan.nextLine();
+				if (Thread.interrupted()) {
+					break;
 				}
+				sendCommand(msg);
 			}
-		} catch (InterruptedException e) {
-			System.out.println("Exit");
 		}
 	}
 
 	/**
-	 * Sends command to the main Thread.
+	 * Sends command to the main Thread, the commands are queued without blocking
+	 * the console.
 	 * 
 	 * @param command Command to send.
-	 * @throws InterruptedException If console threads is interrupted
-	 */
-	public void sendCommand(String command) throws InterruptedException {
-		commandQueue.add(command);
-		selector.wakeup();
-	}
-
-	/**
-	 * Processes command from the queue.
-	 */
-	private void processCommands() {
-		var msg = commandQueue.poll();
-		if (msg != null) {
-			if (msg.startsWith("$")) {
-				printClientList();
-			} else if (msg.startsWith("*")) {
-				printPrivateConnections();
-			} else if (msg.startsWith("#")) {
-				printDemandsList();
-			} else if (msg.startsWith("/")) {
-				askPrivateTCPConnection(msg);
-			} else if (msg.startsWith("@")) {
-				sendMessageTo(msg);
-			} else if (msg.startsWith("%")) {
-				acceptRefuseTCPConnection(msg);
-			} else {
-				broadcastMessage(msg);
+	 */
+	public void sendCommand(String command) {
+		Objects.requireNonNull(command);
+		asyncIO.post(() -> processCommand(command));
+	}
+
+	/**
+	 * Processes a command on the main Thread.
+	 * 
+	 * @param msg Command to process.
+	 */
+	private void processCommand(String msg) {
+		if (resuming) {
+			printer.println("Connexion avec le serveur perdue, commande ignorée : " + msg);
+			return;
+		}
+		if (negotiating) {
+			waitingCommands.add(msg);
+			return;
+		}
+		if (msg.startsWith("$+")) {
+			askNextRosterPage();
+		} else if (msg.startsWith("$")) {
+			var page = msg.substring(1).strip();
+			try {
+				printClientList(page.isEmpty() ? 1 : Integer.parseInt(page));
+			} catch (NumberFormatException e) {
+				printer.println("Numéro de page invalide : " + page);
 			}
+		} else if (msg.startsWith("*")) {
+			printPrivateConnections();
+		} else if (msg.startsWith("#")) {
+			printDemandsList();
+		} else if (msg.startsWith("!")) {
+			printStatistics();
+		} else if (msg.startsWith("/")) {
+			askPrivateTCPConnection(msg);
+		} else if (msg.startsWith("@")) {
+			sendMessageTo(msg);
+		} else if (msg.startsWith("%")) {
+			acceptRefuseTCPConnection(msg);
+		} else if (msg.startsWith("?")) {
+			queryPseudonymes(msg.substring(1));
+		} else if (msg.startsWith("~")) {
+			searchHistory(msg.substring(1));
+		} else {
+			broadcastMessage(msg);
 		}
 	}
 
 	/**
-	 * Checks if client login exists.
+	 * Checks if client login exists, a login written with another case or Unicode
+	 * form is accepted if only one client matches it.
 	 * 
 	 * @param login Client login.
 	 * @return The client ID if it exists, and -1 otherwise.
 	 */
 	private short checkLogin(String login) {
-		var id = connectedUsersLogin.get(login);
-		if (id == null) {
-			System.out.println("Login invalide : " + login);
+		var id = resolveLogin(login);
+		if (id == -1 && lazyRoster) {
+			printer.println("Login inconnu : " + login + ", recherche envoyée au serveur, réessayez");
+			queryPseudonymes(login);
 			return -1;
 		}
+		if (id == -1) {
+			printer.println("Login invalide : " + login);
+		}
 		return id;
 	}
 
+	/**
+	 * Finds the ID of a login in the known clients, a login written with another
+	 * case or Unicode form is accepted if only one client matches it.
+	 * 
+	 * @param login Client login.
+	 * @return The client ID if it is known, and -1 otherwise.
+	 */
+	private short resolveLogin(String login) {
+		var id = connectedUsersLogin.get(login);
+		if (id == null) {
+			id = connectedUsersIndex.resolve(login).orElse(null);
+		}
+		return id == null ? -1 : id;
+	}
+
 	/**
 	 * Checks and splits message in two slice.
 	 * 
@@ -462,7 +1224,7 @@ public class ClientChatOS {
 	private String[] checkMessageSyntaxe(String msg, int nbSplit) {
 		var splittedMsg = msg.split(" ", nbSplit);
 		if (splittedMsg.length != 2) {
-			System.out.println("Mauvaise syntaxe pour la commande : " + msg);
+			printer.println("Mauvaise syntaxe pour la commande : " + msg);
 			return null;
 		}
 		return splittedMsg;
@@ -482,7 +1244,7 @@ public class ClientChatOS {
 			port = ((InetSocketAddress) sc.getLocalAddress()).getPort();
 			pendingConnections.put(clientID, sc);
 		} catch (IOException e) {
-			System.out.println("ERREUR : connexion TCP privée avortée");
+			printer.println("ERREUR : connexion TCP privée avortée");
 			return -1;
 		}
 		return port;
@@ -505,14 +1267,15 @@ public class ClientChatOS {
 		if (pendingDemands.contains(id)) {
 			if (splittedMsg[1].equals("0")) {
 				TCPConnectionRefused(id);
+			} else if (splittedMsg[1].equals("1") && direct) {
+				TCPConnectionAcceptedDirect(openDirectListener(id));
 			} else if (splittedMsg[1].equals("1")) {
 				TCPConnectionAccepted(createNewSocketChannel(id), id);
 			} else {
-				System.out
-						.println("Mauvaise syntaxe entrez \"%login 1\" si vous acceptez,\"%login 0\" si vous refusez");
+				printer.println("Mauvaise syntaxe entrez \"%login 1\" si vous acceptez,\"%login 0\" si vous refusez");
 			}
 		} else {
-			System.out.println(splittedMsg[0].substring(1) + " ne vous a pas fait de demande de connexion privée");
+			printer.println(splittedMsg[0].substring(1) + " ne vous a pas fait de demande de connexion privée");
 		}
 	}
 
@@ -540,6 +1303,204 @@ public class ClientChatOS {
 		Sender.sendIntShort(uniqueContext, (byte) 3, port, clientA);
 	}
 
+	/**
+	 * Accepts the private connection, the other client connects directly to the
+	 * port of the listener and sends its token first.
+	 * 
+	 * @param listener Listener waiting for the private connection, null if it
+	 *                 couldn't be opened.
+	 */
+	private void TCPConnectionAcceptedDirect(DirectListener listener) {
+		if (listener == null) {
+			return;
+		}
+		pendingDemands.remove(listener.clientID);
+		Sender.sendDirectResponse(uniqueContext, (byte) 4, listener.ssc.socket().getLocalPort(), listener.clientID,
+				listener.token);
+	}
+
+	/**
+	 * Opens a ServerSocketChannel waiting for a direct private connection, bound
+	 * to the address of the connection with the server, which is the address
+	 * the server gives to the other client.
+	 * 
+	 * @param clientID Client ID for private connection.
+	 * @return the listener if no exception was thrown, and null otherwise
+	 */
+	private DirectListener openDirectListener(short clientID) {
+		closeDirectListener(clientID);
+		try {
+			var local = ((InetSocketAddress) sc.getLocalAddress()).getAddress();
+			var ssc = ServerSocketChannel.open().bind(new InetSocketAddress(local, 0));
+			ssc.configureBlocking(false);
+			var listener = new DirectListener(ssc, clientID, tokens.nextLong(),
+					System.currentTimeMillis() + DIRECT_ACCEPT_TIMEOUT);
+			ssc.register(selector, SelectionKey.OP_ACCEPT, listener);
+			directListeners.put(clientID, listener);
+			return listener;
+		} catch (IOException e) {
+			printer.println("ERREUR : connexion TCP privée avortée");
+			return null;
+		}
+	}
+
+	/**
+	 * Closes the ServerSocketChannel waiting for a direct private connection and
+	 * the connections which didn't send the token yet.
+	 * 
+	 * @param clientID Client ID for private connection.
+	 */
+	private void closeDirectListener(short clientID) {
+		var listener = directListeners.remove(clientID);
+		if (listener != null) {
+			silentlyClose(listener.ssc);
+			listener.handshakes.forEach(ClientChatOS::silentlyClose);
+		}
+	}
+
+	/**
+	 * Closes the listeners whose direct private connection didn't come in time.
+	 * 
+	 * @param now current time in milliseconds
+	 */
+	private void expireDirectListeners(long now) {
+		var expired = directListeners.values().stream().filter(listener -> listener.deadline <= now)
+				.map(listener -> listener.clientID).collect(Collectors.toList());
+		for (var clientA : expired) {
+			closeDirectListener(clientA);
+			printer.println("Connexion directe de " + pseudonymeOf(clientA) + " expirée");
+		}
+	}
+
+	/**
+	 * Accepts a connection on the listener of a direct private connection, the
+	 * connection is used once it sent the token of the offer.
+	 * 
+	 * @param key The SelectionKey of the ServerSocketChannel.
+	 */
+	private void doAcceptDirect(SelectionKey key) {
+		var listener = (DirectListener) key.attachment();
+		try {
+			var sc = listener.ssc.accept();
+			if (sc == null) {
+				return;
+			}
+			sc.configureBlocking(false);
+			listener.handshakes.add(sc);
+			sc.register(selector, SelectionKey.OP_READ, new DirectHandshake(listener));
+		} catch (IOException e) {
+			closeDirectListener(listener.clientID);
+			printer.println("ERREUR : connexion TCP privée avortée");
+		}
+	}
+
+	/**
+	 * Reads the token sent by a direct private connection. The connection is used
+	 * and the listener is closed if the token is the one of the offer, otherwise
+	 * the connection is closed and the listener keeps waiting.
+	 * 
+	 * @param key The SelectionKey of the connection.
+	 */
+	private void readDirectToken(SelectionKey key) {
+		var handshake = (DirectHandshake) key.attachment();
+		var listener = handshake.listener;
+		var sc = (SocketChannel) key.channel();
+		try {
+			if (sc.read(handshake.bb) == -1) {
+				listener.handshakes.remove(sc);
+				silentlyClose(sc);
+				return;
+			}
+			if (handshake.bb.hasRemaining()) {
+				return;
+			}
+			listener.handshakes.remove(sc);
+			if (handshake.bb.flip().getLong() != listener.token) {
+				silentlyClose(sc);
+				return;
+			}
+			closeDirectListener(listener.clientID);
+			privateConnections.put(listener.clientID, registerHTTP(listener.clientID, sc));
+		} catch (IOException e) {
+			listener.handshakes.remove(sc);
+			silentlyClose(sc);
+		}
+	}
+
+	/**
+	 * Connects a SocketChannel to the given address, blocking at most
+	 * {@link #DIRECT_CONNECT_TIMEOUT} milliseconds, then sends the token of the
+	 * offer.
+	 * 
+	 * @param offer Address of the other client and token of the connection.
+	 * @return the connected SocketChannel in non-blocking mode.
+	 * @throws IOException If the connection fails
+	 */
+	private static SocketChannel connectDirect(DirectOffer offer) throws IOException {
+		var sc = SocketChannel.open();
+		try {
+			sc.socket().connect(offer.getAddress(), DIRECT_CONNECT_TIMEOUT);
+			var token = ByteBuffer.allocate(Long.BYTES).putLong(offer.getToken()).flip();
+			while (token.hasRemaining()) {
+				sc.write(token);
+			}
+			sc.configureBlocking(false);
+			return sc;
+		} catch (IOException e) {
+			sc.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Uses the direct connection instead of the pending connection to the server
+	 * and sends the GET request.
+	 * 
+	 * @param clientB Client which accepted the connection.
+	 * @param sc      The connected SocketChannel.
+	 */
+	private void directConnected(short clientB, SocketChannel sc) {
+		var relay = pendingConnections.remove(clientB);
+		if (relay == null) {
+			silentlyClose(sc);
+			return;
+		}
+		silentlyClose(relay);
+		try {
+			var context = registerHTTP(clientB, sc);
+			privateConnections.put(clientB, context);
+			Sender.sendHTTPGET(context, pendingRequests.get(clientB));
+			printer.println(
+					"Nouvelle demande de connexion TCP directe acceptée par " + pseudonymeOf(clientB));
+		} catch (IOException e) {
+			silentlyClose(sc);
+			printer.println("ERREUR : connexion TCP privée avortée");
+		}
+	}
+
+	/**
+	 * Registers a connected socket as a ContextHTTP.
+	 * 
+	 * @param clientId Client ID.
+	 * @param sc       The connected socket channel.
+	 * @return The ContextHTTP created.
+	 * @throws IOException If some other I/O error occurs
+	 */
+	private ContextHTTP registerHTTP(short clientId, SocketChannel sc) throws IOException {
+		var key = sc.register(selector, SelectionKey.OP_READ);
+		var context = new ContextHTTP(key, clientId, this);
+		key.attach(context);
+		return context;
+	}
+
+	private static void silentlyClose(Channel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// ignore exception
+		}
+	}
+
 	/**
 	 * Sends specific message to a client.
 	 * 
@@ -550,14 +1511,39 @@ public class ClientChatOS {
 		if (splittedMsg == null) {
 			return;
 		}
-		var id = checkLogin(splittedMsg[0].substring(1));
+		var login = splittedMsg[0].substring(1);
+		msg = splittedMsg[1];
+		if (!checkMessageSize(msg)) {
+			return;
+		}
+		var id = resolveLogin(login);
 		if (id == -1) {
+			// unknown or offline, the server delivers it or keeps it
+			Sender.sendStringString(uniqueContext, (byte) 10, login, msg);
 			return;
 		}
-		msg = splittedMsg[1];
-		var encodedMsg = encodeMessage(msg);
-		if (encodedMsg != null) {
-			Sender.sendShortString(uniqueContext, (byte) (1), id, encodedMsg);
+		Sender.sendShortString(uniqueContext, (byte) (1), id, msg);
+	}
+
+	/**
+	 * Asks the server the pseudonymes starting with the given prefix.
+	 * 
+	 * @param prefix Prefix of the pseudonymes.
+	 */
+	private void queryPseudonymes(String prefix) {
+		if (checkMessageSize(prefix)) {
+			Sender.sendString(uniqueContext, (byte) 6, prefix);
+		}
+	}
+
+	/**
+	 * Asks the server the messages of the history containing the given terms.
+	 * 
+	 * @param query Terms to look for.
+	 */
+	private void searchHistory(String query) {
+		if (checkMessageSize(query)) {
+			Sender.sendString(uniqueContext, (byte) 11, query);
 		}
 	}
 
@@ -567,26 +1553,24 @@ public class ClientChatOS {
 	 * @param msg The message.
 	 */
 	private void broadcastMessage(String msg) {
-		var encodedMsg = encodeMessage(msg);
-		if (encodedMsg != null) {
-			Sender.sendString(uniqueContext, (byte) (0), ContextClient.cs.encode(msg));
+		if (checkMessageSize(msg)) {
+			Sender.sendString(uniqueContext, (byte) (0), msg);
 		}
 	}
 
 	/**
-	 * Encodes message and ensure it doesn't exceed max size.
+	 * Ensures the encoded message doesn't exceed max size.
 	 * 
-	 * @param msg The message to encode.
-	 * @return The encoded message if it doesn't exceed max size, and null
-	 *         otherwise.
+	 * @param msg The message to check.
+	 * @return true if the encoded message doesn't exceed max size.
 	 */
-	private ByteBuffer encodeMessage(String msg) {
-		var encodedMsg = ContextClient.cs.encode(msg);
-		if (encodedMsg.limit() >= Short.MAX_VALUE) {
-			System.out.println("Message invalide il excède la taille maximale qui est de " + Short.MAX_VALUE);
-			return null;
+	private boolean checkMessageSize(String msg) {
+		var maxSize = uniqueContext.getProtocol().getMaxStringBytes();
+		if (Utf8Codec.encodedLength(msg) > maxSize) {
+			printer.println("Message invalide il excède la taille maximale qui est de " + maxSize);
+			return false;
 		}
-		return encodedMsg;
+		return true;
 	}
 
 	/**
@@ -610,7 +1594,7 @@ public class ClientChatOS {
 			return;
 		}
 		if (pendingConnections.containsKey(clientID)) {
-			System.out.println("Demande de connexion à " + connectedUsers.get(clientID)
+			printer.println("Demande de connexion à " + pseudonymeOf(clientID)
 					+ " déjà réalisée, en attente d'une réponse");
 			return;
 		}
@@ -641,6 +1625,14 @@ public class ClientChatOS {
 	 * @param key The SelectionKey.
 	 */
 	private void treatKey(SelectionKey key) {
+		if (key.isValid() && key.isAcceptable()) {
+			doAcceptDirect(key);
+			return;
+		}
+		if (key.attachment() instanceof DirectHandshake) {
+			readDirectToken(key);
+			return;
+		}
 		try {
 			if (key.isValid() && key.isConnectable()) {
 				((Context) key.attachment()).doConnect();
@@ -660,6 +1652,15 @@ public class ClientChatOS {
 	 * Prints program arguments usage
 	 */
 	private static void usage() {
-		System.out.println("Utilisation : ClientChatOS répertoire login nom-hôte port");
+		System.out.println("Utilisation : ClientChatOS répertoire login nom-hôte port [options]");
+		System.out.println("Options :");
+		System.out.println("\t--v2 : négocie l'encodage compact du protocole avec le serveur");
+		System.out.println("\t--deflate : négocie la compression des messages avec le serveur (implique --v2)");
+		System.out.println("\t--direct : connecte les connexions privées directement à l'autre client (implique --v2)");
+		System.out.println("\t--lazy : reçoit la liste des clients page par page, \"$+\" demande la page suivante (implique --v2)");
+		System.out.println("\t--session : reprend la session et les messages manqués après une perte de connexion (implique --v2)");
+		System.out.println("\t--mailbox fichier : reçoit les messages privés envoyés hors ligne, la clé de la boîte aux lettres est gardée dans le fichier (implique --v2)");
+		System.out.println("\t--async : utilise des threads virtuels pour la console et les fichiers du répertoire");
+		System.out.println("\t--roster-interval ms : affiche les clients arrivés et partis au plus une fois par intervalle (" + ROSTER_INTERVAL + " ms par défaut)");
 	}
 }
\ No newline at end of file
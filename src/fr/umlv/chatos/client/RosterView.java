@@ -0,0 +1,243 @@
+package fr.umlv.chatos.client;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+
+/**
+ * Client list as shown to the user. The pseudonymes are kept sorted, ignoring
+ * the case, so the list is shown page per page on demand, and the clients who
+ * joined or left are kept as deltas shown at most once per interval, so a
+ * burst of arrivals costs the size of the burst and not the size of the list
+ * for each arrival.
+ * 
+ * The view isn't thread-safe, it must be used by the thread running the
+ * selector.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class RosterView {
+
+	/**
+	 * Maximum number of pseudonymes shown in each delta, the others are only
+	 * counted.
+	 */
+	public static final int MAX_NAMES = 5;
+
+	private static final Comparator<String> ORDER = String.CASE_INSENSITIVE_ORDER
+			.thenComparing(Comparator.naturalOrder());
+
+	private static class Delta {
+		private final ArrayList<String> names = new ArrayList<>(MAX_NAMES);
+		private int count;
+
+		private void add(String pseudonyme) {
+			if (names.size() < MAX_NAMES) {
+				names.add(pseudonyme);
+			}
+			count++;
+		}
+
+		private void appendTo(StringBuilder builder, char sign) {
+			builder.append(sign).append(count).append(" : ").append(String.join(", ", names));
+			if (count > names.size()) {
+				builder.append(" et ").append(count - names.size()).append(" autres");
+			}
+		}
+
+		private void clear() {
+			names.clear();
+			count = 0;
+		}
+	}
+
+	private final long interval;
+	private final TreeMap<String, Short> sorted = new TreeMap<>(ORDER);
+	private final HashMap<Short, String> byId = new HashMap<>();
+	private final Delta joined = new Delta();
+	private final Delta left = new Delta();
+	private boolean changed;
+	private long lastRender = Long.MIN_VALUE;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param interval minimum number of milliseconds between two renderings of the
+	 *                 changes
+	 */
+	public RosterView(long interval) {
+		if (interval < 0) {
+			throw new IllegalArgumentException("interval should be positiv, current : " + interval);
+		}
+		this.interval = interval;
+	}
+
+	/**
+	 * Adds a client already connected, like the clients of the list received at
+	 * login, the client is not shown as a new arrival.
+	 * 
+	 * @param id         ID of the client
+	 * @param pseudonyme pseudonyme of the client
+	 * @return true if the client was not in the view
+	 */
+	public boolean add(short id, String pseudonyme) {
+		Objects.requireNonNull(pseudonyme);
+		var previous = byId.put(id, pseudonyme);
+		if (pseudonyme.equals(previous)) {
+			return false;
+		}
+		if (previous != null) {
+			sorted.remove(previous);
+		}
+		sorted.put(pseudonyme, id);
+		changed = true;
+		return true;
+	}
+
+	/**
+	 * Adds a client who just joined, shown with the next changes.
+	 * 
+	 * @param id         ID of the client
+	 * @param pseudonyme pseudonyme of the client
+	 */
+	public void join(short id, String pseudonyme) {
+		if (add(id, pseudonyme)) {
+			joined.add(pseudonyme);
+		}
+	}
+
+	/**
+	 * Removes a client who left, shown with the next changes.
+	 * 
+	 * @param id ID of the client
+	 */
+	public void leave(short id) {
+		var pseudonyme = forget(id);
+		if (pseudonyme != null) {
+			left.add(pseudonyme);
+		}
+	}
+
+	/**
+	 * Removes a client without showing it, like a client dropped from a cache.
+	 * 
+	 * @param id ID of the client
+	 * @return the pseudonyme of the client, null if it was not in the view
+	 */
+	public String forget(short id) {
+		var pseudonyme = byId.remove(id);
+		if (pseudonyme != null) {
+			sorted.remove(pseudonyme);
+			changed = true;
+		}
+		return pseudonyme;
+	}
+
+	/**
+	 * Removes all the clients and the changes not shown yet.
+	 */
+	public void clear() {
+		byId.clear();
+		sorted.clear();
+		joined.clear();
+		left.clear();
+		changed = true;
+	}
+
+	/**
+	 * Returns the changes since the last rendering if there are some and the
+	 * interval since the last rendering is over.
+	 * 
+	 * @param now current time in milliseconds
+	 * @return the clients who joined and left, an empty string if the view only
+	 *         changed silently, nothing if there is nothing to show yet
+	 */
+	public Optional<String> render(long now) {
+		if (!changed || delay(now) > 0) {
+			return Optional.empty();
+		}
+		var builder = new StringBuilder();
+		if (joined.count > 0 || left.count > 0) {
+			builder.append(" (");
+			if (joined.count > 0) {
+				joined.appendTo(builder, '+');
+			}
+			if (left.count > 0) {
+				if (joined.count > 0) {
+					builder.append(" ; ");
+				}
+				left.appendTo(builder, '-');
+			}
+			builder.append(')');
+		}
+		joined.clear();
+		left.clear();
+		changed = false;
+		lastRender = now;
+		return Optional.of(builder.toString());
+	}
+
+	/**
+	 * 
+	 * @param now current time in milliseconds
+	 * @return the number of milliseconds before the changes can be shown, 0 if
+	 *         they can be shown now, -1 if there is no change.
+	 */
+	public long delay(long now) {
+		if (!changed) {
+			return -1;
+		}
+		if (lastRender == Long.MIN_VALUE) {
+			return 0;
+		}
+		return Math.max(0, lastRender + interval - now);
+	}
+
+	/**
+	 * Returns a page of the pseudonymes, in alphabetical order ignoring the case.
+	 * 
+	 * @param page     number of the page, from 1
+	 * @param pageSize number of pseudonymes per page
+	 * @return the pseudonymes of the page, empty if the page is after the last one
+	 */
+	public List<String> page(int page, int pageSize) {
+		if (page < 1 || pageSize <= 0) {
+			throw new IllegalArgumentException("page and pageSize should be positiv, current : " + page + ", " + pageSize);
+		}
+		var result = new ArrayList<String>(pageSize);
+		var skip = (long) (page - 1) * pageSize;
+		for (var pseudonyme : sorted.keySet()) {
+			if (skip > 0) {
+				skip--;
+				continue;
+			}
+			if (result.size() == pageSize) {
+				break;
+			}
+			result.add(pseudonyme);
+		}
+		return result;
+	}
+
+	/**
+	 * 
+	 * @param pageSize number of pseudonymes per page
+	 * @return the number of pages, at least 1.
+	 */
+	public int pages(int pageSize) {
+		return Math.max(1, (sorted.size() + pageSize - 1) / pageSize);
+	}
+
+	/**
+	 * 
+	 * @return the number of clients in the view.
+	 */
+	public int size() {
+		return sorted.size();
+	}
+}
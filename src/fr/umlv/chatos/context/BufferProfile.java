@@ -0,0 +1,54 @@
+package fr.umlv.chatos.context;
+
+/**
+ * Sizes of the buffers of a context. The receive buffer starts at its minimum
+ * capacity, doubles when reads fill it several times in a row, up to its
+ * maximum capacity, and halves back when reads only use a small part of it.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public enum BufferProfile {
+	/**
+	 * Connections carrying chat messages, mostly short and sparse.
+	 */
+	CHAT(1_024, 16 * 1_024, 2 * 1_024),
+	/**
+	 * Connections carrying bulk data, like private connections or node links.
+	 */
+	RELAY(8 * 1_024, 64 * 1_024, 64 * 1_024);
+
+	private final int minReceive;
+	private final int maxReceive;
+	private final int send;
+
+	private BufferProfile(int minReceive, int maxReceive, int send) {
+		this.minReceive = minReceive;
+		this.maxReceive = maxReceive;
+		this.send = send;
+	}
+
+	/**
+	 * 
+	 * @return the initial and minimum capacity of the receive buffer.
+	 */
+	public int getMinReceive() {
+		return minReceive;
+	}
+
+	/**
+	 * 
+	 * @return the maximum capacity of the receive buffer.
+	 */
+	public int getMaxReceive() {
+		return maxReceive;
+	}
+
+	/**
+	 * 
+	 * @return the capacity of the send buffer.
+	 */
+	public int getSend() {
+		return send;
+	}
+}
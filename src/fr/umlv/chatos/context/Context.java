@@ -5,11 +5,14 @@ import java.net.InetAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.SelectionKey;
 import java.nio.channels.SocketChannel;
-import java.util.LinkedList;
+import java.util.ArrayDeque;
 import java.util.Objects;
-import java.util.Queue;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.DataFormatException;
 
 import fr.umlv.chatos.server.ServerChatOS;
+import fr.umlv.chatos.utils.BufferPool;
+import fr.umlv.chatos.utils.Protocol;
 import fr.umlv.chatos.utils.ReaderProcessor;
 import fr.umlv.chatos.utils.reader.Reader;
 
@@ -55,10 +58,50 @@ public interface Context {
 	 */
 	void queueData(ByteBuffer bb);
 
+	/**
+	 * Adds a copy of a frame to the queue, the frame can be reused once the
+	 * method returns.
+	 * 
+	 * @param frame frame in read mode, it is consumed
+	 */
+	void queueFrame(ByteBuffer frame);
+
+	/**
+	 * 
+	 * @return the protocol used to frame the data sent and received.
+	 */
+	Protocol getProtocol();
+
 	/**
 	 * Represents a context with its own bytebuffer, SelectionKey, SocketChannel and
 	 * a queue.
 	 * 
+	 * Data queued is written at once while the socket accepts it, OP_WRITE is only
+	 * registered after a write came up short and is removed once bbout is empty.
+	 * The interest set of the key is only changed when it differs from the one
+	 * registered, so most reads and writes don't change it.
+	 * 
+	 * The buffers are leased from a {@link BufferPool} shared by all the contexts
+	 * and sized by a {@link BufferProfile}, the receive buffer grows for the
+	 * connections filling it and shrinks back for the others. The buffers are
+	 * given back to the pool when the context is closed.
+	 * 
+	 * A context allowed to park, see {@link #setParkWhenIdle(boolean)}, also
+	 * gives its buffers back each time it has nothing left to read, to process
+	 * nor to send, and leases new ones when its socket is readable or data is
+	 * queued, so an idle connection holds no buffer. Data queued while the
+	 * context processes what it received doesn't park it, it is parked at the
+	 * end of the read or of the resume, once the decompressor has nothing left.
+	 * 
+	 * A frame budget bounds the number of frames processed per read. A context
+	 * which exhausts it with frames left stops reading its socket and is
+	 * backlogged, see {@link #onBacklog()}, until {@link #resume()} processes
+	 * the next frames.
+	 * 
+	 * A frame given to {@link #queueFrame(ByteBuffer)} is copied straight into
+	 * bbout when nothing is queued before it, otherwise in a buffer leased from
+	 * the pool and given back once it is copied into bbout.
+	 * 
 	 * 
 	 * @author Benjamin JEDROCHA, Florian DURAND
 	 *
@@ -66,16 +109,45 @@ public interface Context {
 	public static abstract class ContextAbstract implements Context {
 
 		/**
-		 * Default bytebuffer size.
+		 * Number of reads filling the receive buffer in a row after which it grows.
+		 */
+		private static final int GROW_AFTER = 2;
+
+		/**
+		 * Number of reads using less than a quarter of the receive buffer in a row
+		 * after which it shrinks.
 		 */
-		public static int BUFFER_SIZE = 1_024;
+		private static final int SHRINK_AFTER = 32;
+
+		private static final BufferPool POOL = new BufferPool(64 * 1_024, 32 * 1_024 * 1_024);
+		private static final ByteBuffer RELEASED = ByteBuffer.allocate(0);
+		private static final ByteBuffer PARKED = ByteBuffer.allocate(0);
+		private static final LongAdder PARKS = new LongAdder();
+		private static final LongAdder PARKED_CONTEXTS = new LongAdder();
+		private static final LongAdder WRITES = new LongAdder();
+		private static final LongAdder RESIZES = new LongAdder();
+		private static final LongAdder INTEREST_OPS_UPDATES = new LongAdder();
+		private static final LongAdder BACKLOGS = new LongAdder();
 
 		private SelectionKey key;
 		private SocketChannel sc;
-		private final ByteBuffer bbin = ByteBuffer.allocate(BUFFER_SIZE);
-		private final ByteBuffer bbout = ByteBuffer.allocate(BUFFER_SIZE * 2 + Integer.BYTES * 2);
-		private final Queue<ByteBuffer> queue = new LinkedList<>();
+		private final BufferProfile profile;
+		private ByteBuffer bbin;
+		private ByteBuffer bbout;
+		private int fullReads;
+		private int smallReads;
+		private final ArrayDeque<ByteBuffer> queue = new ArrayDeque<>();
+		private final ArrayDeque<ByteBuffer> leased = new ArrayDeque<>();
 		private boolean closed = false;
+		private Protocol protocol = Protocol.V1;
+		private DeflateCodec codec;
+		private boolean deflating = false;
+		private ByteBuffer zin;
+		private int frameBudget = Integer.MAX_VALUE;
+		private boolean backlogged;
+		private boolean parkWhenIdle;
+		private boolean parked;
+		private boolean processing;
 
 		/**
 		 * Class constructor specifying the SelectionKey.
@@ -83,10 +155,24 @@ public interface Context {
 		 * @param key Context SelectionKey
 		 */
 		public ContextAbstract(SelectionKey key) {
+			this(key, BufferProfile.CHAT);
+		}
+
+		/**
+		 * Class constructor specifying the SelectionKey and the sizes of the
+		 * buffers.
+		 * 
+		 * @param key     Context SelectionKey
+		 * @param profile sizes of the buffers
+		 */
+		public ContextAbstract(SelectionKey key, BufferProfile profile) {
 			this.key = key;
+			this.profile = Objects.requireNonNull(profile);
 			if (key != null) {
 				this.sc = (SocketChannel) key.channel();
 			}
+			bbin = POOL.take(profile.getMinReceive());
+			bbout = POOL.take(profile.getSend());
 		}
 
 		/**
@@ -101,59 +187,370 @@ public interface Context {
 		public abstract void DoClose();
 
 		/**
-		 * Try to fill bbout from the message queue
+		 * Called when the frame budget is exhausted and frames may be left, the
+		 * context must be given to {@link #resume()} later. Does nothing by
+		 * default, the contexts without a budget are never backlogged.
+		 */
+		protected void onBacklog() {
+			// no budget by default
+		}
+
+		/**
+		 * Tells if a packet is partially processed, in which case the context is not
+		 * parked. A context whose readers keep data between two reads must override
+		 * it.
+		 * 
+		 * @return true if no packet is partially processed
+		 */
+		protected boolean isIdle() {
+			return true;
+		}
+
+		/**
+		 * Allows the context to give its buffers back to the pool each time it is
+		 * idle. Forbidding it leases the buffers at once.
+		 * 
+		 * @param parkWhenIdle true to park the context when it is idle
+		 */
+		public void setParkWhenIdle(boolean parkWhenIdle) {
+			this.parkWhenIdle = parkWhenIdle;
+			if (parkWhenIdle) {
+				park();
+				updateInterestOps();
+			} else {
+				unpark();
+			}
+		}
+
+		/**
+		 * 
+		 * @return true if the context holds no buffer until it receives or sends
+		 *         data.
+		 */
+		public boolean isParked() {
+			return parked;
+		}
+
+		private void park() {
+			if (!parkWhenIdle || parked || processing || closed || backlogged || bbin == RELEASED) {
+				return;
+			}
+			if (bbin.position() != 0 || bbout.position() != 0 || !queue.isEmpty()
+					|| (zin != null && zin.position() != 0) || !isIdle()) {
+				return;
+			}
+			POOL.give(bbin);
+			POOL.give(bbout);
+			bbin = PARKED;
+			bbout = PARKED;
+			if (zin != null) {
+				POOL.give(zin);
+				zin = PARKED;
+			}
+			parked = true;
+			PARKS.increment();
+			PARKED_CONTEXTS.increment();
+		}
+
+		private void unpark() {
+			if (!parked) {
+				return;
+			}
+			parked = false;
+			PARKED_CONTEXTS.decrement();
+			bbin = POOL.take(profile.getMinReceive());
+			bbout = POOL.take(profile.getSend());
+			if (zin != null) {
+				zin = POOL.take(profile.getMinReceive());
+			}
+		}
+
+		/**
+		 * Sets the maximum number of frames processed per read or per resume.
+		 * 
+		 * @param frameBudget number of frames
+		 */
+		public void setFrameBudget(int frameBudget) {
+			if (frameBudget <= 0) {
+				throw new IllegalArgumentException("frameBudget should be positiv, current : " + frameBudget);
+			}
+			this.frameBudget = frameBudget;
+		}
+
+		/**
+		 * Processes the frames left by the last read, at most the frame budget, and
+		 * reads the socket again when they are all processed.
+		 */
+		public void resume() {
+			if (!backlogged) {
+				return;
+			}
+			backlogged = false;
+			if (key == null || !key.isValid()) {
+				return;
+			}
+			processing = true;
+			try {
+				processIn();
+			} finally {
+				processing = false;
+			}
+			park();
+			updateInterestOps();
+		}
+
+		/**
+		 * Try to fill bbout from the message queue. A bytebuffer bigger than the
+		 * space left in bbout is copied in several times.
 		 *
 		 */
 		private void processOut() {
-			while (!queue.isEmpty() && bbout.remaining() >= Integer.BYTES) {
+			while (!queue.isEmpty() && bbout.hasRemaining()) {
 				var bb = queue.peek();
 				if (bb.remaining() <= bbout.remaining()) {
 					queue.remove();
 					bbout.put(bb);
+					if (leased.peek() == bb) {
+						POOL.give(leased.poll());
+					}
 				} else {
-					break;
+					var oldLimit = bb.limit();
+					bb.limit(bb.position() + bbout.remaining());
+					bbout.put(bb);
+					bb.limit(oldLimit);
 				}
 			}
 		}
 
 		@Override
 		public void doRead() throws IOException {
-			if (sc.read(bbin) == -1) {
-				closed = true;
+			unpark();
+			processing = true;
+			try {
+				var read = sc.read(zin != null ? zin : bbin);
+				if (read == -1) {
+					closed = true;
+				}
+				var filled = read > 0 && !(zin != null ? zin : bbin).hasRemaining();
+				processIn();
+				adaptReceiveBuffer(filled, read);
+			} finally {
+				processing = false;
 			}
-			processIn();
+			park();
 			updateInterestOps();
 		}
 
+		/**
+		 * Doubles the receive buffer after {@link #GROW_AFTER} reads filling it,
+		 * halves it after {@link #SHRINK_AFTER} reads using less than a quarter of
+		 * it, within the limits of the profile. When the compression is enabled, the
+		 * receive buffer is the buffer of the compressed data.
+		 */
+		private void adaptReceiveBuffer(boolean filled, int read) {
+			var buffer = zin != null ? zin : bbin;
+			if (buffer == RELEASED || buffer == PARKED) {
+				return;
+			}
+			var capacity = buffer.capacity();
+			if (filled) {
+				smallReads = 0;
+				if (++fullReads >= GROW_AFTER && capacity < profile.getMaxReceive()) {
+					fullReads = 0;
+					resizeReceiveBuffer(Math.min(capacity * 2, profile.getMaxReceive()));
+				}
+				return;
+			}
+			fullReads = 0;
+			if (read >= 0 && read < capacity / 4) {
+				if (++smallReads >= SHRINK_AFTER && capacity > profile.getMinReceive()
+						&& buffer.position() <= capacity / 4) {
+					smallReads = 0;
+					resizeReceiveBuffer(Math.max(capacity / 2, profile.getMinReceive()));
+				}
+				return;
+			}
+			smallReads = 0;
+		}
+
+		private void resizeReceiveBuffer(int capacity) {
+			var buffer = zin != null ? zin : bbin;
+			var resized = POOL.take(capacity).put(buffer.flip());
+			POOL.give(buffer);
+			if (zin != null) {
+				zin = resized;
+			} else {
+				bbin = resized;
+			}
+			RESIZES.increment();
+		}
+
+		/**
+		 * Gives the buffers back to the pool and ends the compression, the context
+		 * must not receive nor send anymore.
+		 */
+		private void releaseBuffers() {
+			if (bbin == RELEASED) {
+				return;
+			}
+			if (parked) {
+				parked = false;
+				PARKED_CONTEXTS.decrement();
+			} else {
+				POOL.give(bbin);
+				POOL.give(bbout);
+				if (zin != null) {
+					POOL.give(zin);
+				}
+			}
+			bbin = RELEASED;
+			bbout = RELEASED;
+			if (zin != null) {
+				zin = RELEASED;
+			}
+			leased.forEach(POOL::give);
+			leased.clear();
+			queue.clear();
+			if (codec != null) {
+				codec.end();
+				codec = null;
+			}
+		}
+
 		@Override
 		public void doWrite() throws IOException {
-			bbout.flip();
-			sc.write(bbout);
-			bbout.compact();
+			write();
+			park();
 			updateInterestOps();
 		}
 
+		/**
+		 * Writes bbout and refills it from the queue until everything is written or
+		 * the socket doesn't accept more bytes.
+		 */
+		private void write() throws IOException {
+			while (bbout.position() != 0) {
+				bbout.flip();
+				boolean full;
+				try {
+					sc.write(bbout);
+					WRITES.increment();
+					full = bbout.hasRemaining();
+				} finally {
+					bbout.compact();
+				}
+				processOut();
+				if (full) {
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Writes the data queued at once, unless the socket isn't connected yet or
+		 * a previous write came up short. If the write fails, OP_WRITE is
+		 * registered so the error is handled by the next {@link #doWrite()}.
+		 */
+		private void flush() {
+			if (!isConnected() || (key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+				return;
+			}
+			try {
+				write();
+			} catch (IOException e) {
+				// reported by the next doWrite
+			}
+		}
+
+		private boolean isConnected() {
+			return key != null && key.isValid() && key.interestOps() != SelectionKey.OP_CONNECT;
+		}
+
 		private void updateInterestOps() {
-			if (key == null || key.interestOps() == SelectionKey.OP_CONNECT)
+			if (!isConnected())
 				return;
 			var interesOps = 0;
-			if (!closed && bbin.hasRemaining()) {
+			if (!closed && !backlogged && (parked || (zin != null ? zin : bbin).hasRemaining())) {
 				interesOps = interesOps | SelectionKey.OP_READ;
 			}
 			if (bbout.position() != 0) {
 				interesOps |= SelectionKey.OP_WRITE;
 			}
-			if (interesOps == 0) {
+			if (interesOps == 0 && !backlogged) {
 				silentlyClose();
 				return;
 			}
-			key.interestOps(interesOps);
+			if (key.interestOps() != interesOps) {
+				key.interestOps(interesOps);
+				INTEREST_OPS_UPDATES.increment();
+			}
+		}
+
+		/**
+		 * 
+		 * @return the number of writes on the sockets of all the contexts.
+		 */
+		public static long getWrites() {
+			return WRITES.sum();
+		}
+
+		/**
+		 * 
+		 * @return the number of changes of the interest set of the keys of all the
+		 *         contexts.
+		 */
+		public static long getInterestOpsUpdates() {
+			return INTEREST_OPS_UPDATES.sum();
+		}
+
+		/**
+		 * 
+		 * @return the number of times a context exhausted its frame budget.
+		 */
+		public static long getBacklogs() {
+			return BACKLOGS.sum();
+		}
+
+		/**
+		 * 
+		 * @return the number of times a context was parked.
+		 */
+		public static long getParks() {
+			return PARKS.sum();
+		}
+
+		/**
+		 * 
+		 * @return the number of contexts parked now.
+		 */
+		public static long getParkedContexts() {
+			return PARKED_CONTEXTS.sum();
+		}
+
+		/**
+		 * 
+		 * @return the number of times a receive buffer grew or shrank.
+		 */
+		public static long getResizes() {
+			return RESIZES.sum();
+		}
+
+		/**
+		 * 
+		 * @return the pool of the buffers of the contexts.
+		 */
+		public static BufferPool getBufferPool() {
+			return POOL;
 		}
 
 		/**
 		 * Close a SocketChannel while ignoring IOExecption
 		 */
 		public void silentlyClose() {
+			releaseBuffers();
+			if (sc == null) {
+				return;
+			}
 			try {
 				sc.close();
 			} catch (IOException e) {
@@ -167,13 +564,17 @@ public interface Context {
 		 */
 		public void close() {
 			closed = true;
+			updateInterestOps();
 		}
 
 		@Override
 		public void doConnect() throws IOException {
 			if (!sc.finishConnect())
 				return;
-			key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+			key.interestOps(SelectionKey.OP_READ);
+			INTEREST_OPS_UPDATES.increment();
+			flush();
+			updateInterestOps();
 		}
 
 		/**
@@ -185,6 +586,7 @@ public interface Context {
 			Objects.requireNonNull(key);
 			this.key = key;
 			sc = (SocketChannel) key.channel();
+			flush();
 			updateInterestOps();
 		}
 
@@ -214,7 +616,96 @@ public interface Context {
 		 * @param readerProcessor ReaderProcessor mapping opcodes
 		 */
 		protected void processInProcessor(ReaderProcessor readerProcessor) {
-			readerProcessor.process(bbin);
+			for (var frames = 0;;) {
+				fillIn();
+				var status = readerProcessor.process(bbin);
+				if (status == Reader.ProcessStatus.ERROR || (status == Reader.ProcessStatus.REFILL && !fillIn())) {
+					return;
+				}
+				if (status == Reader.ProcessStatus.DONE && ++frames == frameBudget) {
+					backlogged = true;
+					BACKLOGS.increment();
+					onBacklog();
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Decompresses the data received into bbin when the compression is enabled.
+		 * 
+		 * @return true if data was added to bbin
+		 */
+		private boolean fillIn() {
+			if (zin == null || codec == null) {
+				return false;
+			}
+			try {
+				return codec.inflate(zin, bbin);
+			} catch (DataFormatException e) {
+				silentlyClose();
+				return false;
+			}
+		}
+
+		/**
+		 * Compresses every packet queued from now on.
+		 */
+		public void enableDeflate() {
+			if (bbin == RELEASED) {
+				return;
+			}
+			if (codec == null) {
+				codec = new DeflateCodec();
+			}
+			deflating = true;
+		}
+
+		/**
+		 * Decompresses every byte received from now on, including the bytes received
+		 * but not processed yet.
+		 */
+		public void enableInflate() {
+			if (bbin == RELEASED) {
+				return;
+			}
+			if (codec == null) {
+				codec = new DeflateCodec();
+			}
+			unpark();
+			zin = POOL.take(bbin.capacity());
+			zin.put(bbin.flip());
+			bbin.clear();
+		}
+
+		/**
+		 * 
+		 * @return true if the packets queued are compressed.
+		 */
+		public boolean isDeflating() {
+			return deflating;
+		}
+
+		/**
+		 * Add to the queue frames already compressed by a
+		 * {@link DeflateCodec.SharedDeflater}.
+		 * 
+		 * @param frames compressed frames
+		 */
+		public void queueDeflated(ByteBuffer frames) {
+			Objects.requireNonNull(frames);
+			if (!deflating) {
+				throw new IllegalStateException("compression is not enabled");
+			}
+			if (bbout == RELEASED) {
+				return;
+			}
+			unpark();
+			queue.add(frames);
+			processOut();
+			flush();
+			park();
+			updateInterestOps();
 		}
 
 		/**
@@ -239,11 +730,58 @@ public interface Context {
 			}
 		}
 
+		@Override
+		public Protocol getProtocol() {
+			return protocol;
+		}
+
+		/**
+		 * Sets the protocol used to frame the data sent and received.
+		 * 
+		 * @param protocol negotiated protocol
+		 */
+		public void setProtocol(Protocol protocol) {
+			this.protocol = Objects.requireNonNull(protocol);
+		}
+
 		@Override
 		public void queueData(ByteBuffer data) {
 			Objects.requireNonNull(data);
+			if (bbout == RELEASED) {
+				return;
+			}
+			if (deflating) {
+				data = codec.deflate(data);
+			}
+			unpark();
 			queue.add(data);
 			processOut();
+			flush();
+			park();
+			updateInterestOps();
+		}
+
+		@Override
+		public void queueFrame(ByteBuffer frame) {
+			Objects.requireNonNull(frame);
+			if (bbout == RELEASED) {
+				return;
+			}
+			if (deflating) {
+				queueData(frame);
+				return;
+			}
+			unpark();
+			if (queue.isEmpty() && frame.remaining() <= bbout.remaining()) {
+				bbout.put(frame);
+			} else {
+				var copy = POOL.take(frame.remaining()).put(frame).flip();
+				queue.add(copy);
+				leased.add(copy);
+				processOut();
+			}
+			flush();
+			park();
 			updateInterestOps();
 		}
 	}
@@ -0,0 +1,234 @@
+package fr.umlv.chatos.context;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+import fr.umlv.chatos.utils.VarInt;
+
+/**
+ * Compresses the packets sent on a connection and decompresses the packets
+ * received. Compressed data is sent as frames made of a type byte, the size of
+ * the compressed data as a {@link VarInt} and the compressed data.
+ * 
+ * A stream frame is compressed with the deflate context of the connection,
+ * which is kept between frames so repeated words are found in the previous
+ * messages. A shared frame is compressed alone, so the same frame can be sent to
+ * several connections, a shared frame too big is followed by continuation
+ * frames. Both sides start their contexts with the same preset
+ * {@link #DICTIONARY}.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class DeflateCodec {
+
+	/**
+	 * Compresses frames which don't depend on a connection, used to compress a
+	 * packet once when it is sent to several connections.
+	 * 
+	 * @author Benjamin JEDROCHA, Florian DURAND
+	 * 
+	 */
+	public static class SharedDeflater {
+		private final Deflater deflater = new Deflater(LEVEL, true);
+		private ByteBuffer output = ByteBuffer.allocate(MAX_FRAME_BYTES);
+
+		/**
+		 * Compresses the given packet in a shared frame.
+		 * 
+		 * @param packet packet in read mode, it is consumed
+		 * @return the frame in read mode
+		 */
+		public ByteBuffer deflate(ByteBuffer packet) {
+			Objects.requireNonNull(packet);
+			deflater.reset();
+			deflater.setDictionary(DICTIONARY);
+			output = compress(deflater, packet, output);
+			return frame(SHARED, output);
+		}
+	}
+
+	/**
+	 * Preset dictionary of both sides, it holds strings often found in chat
+	 * messages and HTTP headers, the most frequent at the end.
+	 */
+	public static final byte[] DICTIONARY = ("Content-Location: Content-Type: text; charset=UTF-8\r\n"
+			+ "Transfer-Encoding: chunked\r\nHTTP/1.1 200 OK\r\nGET  HTTP/1.1\r\n"
+			+ "https://www. the and you that have for with this are not what can will just know "
+			+ "vous nous est pas que qui pour dans une les des sur avec mais tout bien fait "
+			+ "merci bonjour salut ok oui non quoi lol ").getBytes(StandardCharsets.UTF_8);
+
+	private static final int LEVEL = Deflater.BEST_SPEED;
+	private static final byte STREAM = 0;
+	private static final byte SHARED = 1;
+	private static final byte SHARED_CONTINUATION = 2;
+
+	/**
+	 * Maximum number of bytes of the compressed data of a frame.
+	 */
+	public static final int MAX_FRAME_BYTES = 64 * 1_024;
+
+	private final Deflater deflater = new Deflater(LEVEL, true);
+	private final Inflater streamInflater = new Inflater(true);
+	private final Inflater sharedInflater = new Inflater(true);
+	private ByteBuffer output = ByteBuffer.allocate(MAX_FRAME_BYTES);
+	private final ByteBuffer header = ByteBuffer.allocate(1 + VarInt.MAX_BYTES);
+	private final byte[] input = new byte[MAX_FRAME_BYTES];
+	private int inputSize = -1;
+	private int inputPosition;
+	private Inflater frameInflater;
+	private Inflater inflater;
+
+	/**
+	 * Class constructor.
+	 */
+	public DeflateCodec() {
+		deflater.setDictionary(DICTIONARY);
+		streamInflater.setDictionary(DICTIONARY);
+	}
+
+	/**
+	 * Compresses the given packet in a stream frame.
+	 * 
+	 * @param packet packet in read mode, it is consumed
+	 * @return the frame in read mode
+	 */
+	public ByteBuffer deflate(ByteBuffer packet) {
+		Objects.requireNonNull(packet);
+		output = compress(deflater, packet, output);
+		return frame(STREAM, output);
+	}
+
+	private static ByteBuffer compress(Deflater deflater, ByteBuffer packet, ByteBuffer output) {
+		deflater.setInput(packet);
+		output.clear();
+		for (;;) {
+			deflater.deflate(output, Deflater.SYNC_FLUSH);
+			if (output.hasRemaining()) {
+				return output.flip();
+			}
+			output = ByteBuffer.allocate(output.capacity() * 2).put(output.flip());
+		}
+	}
+
+	private static ByteBuffer frame(byte type, ByteBuffer compressed) {
+		var frames = ByteBuffer.allocate(compressed.remaining() + (1 + VarInt.MAX_BYTES)
+				* (compressed.remaining() / MAX_FRAME_BYTES + 1));
+		do {
+			var size = Math.min(compressed.remaining(), MAX_FRAME_BYTES);
+			var oldLimit = compressed.limit();
+			compressed.limit(compressed.position() + size);
+			VarInt.put(frames.put(type), size).put(compressed);
+			compressed.limit(oldLimit);
+			if (type == SHARED) {
+				type = SHARED_CONTINUATION;
+			}
+		} while (compressed.hasRemaining());
+		return frames.flip();
+	}
+
+	/**
+	 * Decompresses the frames received in bbin to fill bbout.
+	 * 
+	 * @param bbin  frames received, in write mode
+	 * @param bbout decompressed data, in write mode
+	 * @return true if data was added to bbout
+	 * @throws DataFormatException If a frame is invalid
+	 */
+	public boolean inflate(ByteBuffer bbin, ByteBuffer bbout) throws DataFormatException {
+		Objects.requireNonNull(bbin);
+		Objects.requireNonNull(bbout);
+		var oldPosition = bbout.position();
+		while (bbout.hasRemaining()) {
+			if (inflater != null) {
+				if (inflater.inflate(bbout) == 0) {
+					if (!inflater.needsInput()) {
+						throw new DataFormatException("Invalid compressed data");
+					}
+					inflater = null;
+				}
+				continue;
+			}
+			if (inputSize == -1 && !readHeader(bbin)) {
+				break;
+			}
+			bbin.flip();
+			try {
+				var size = Math.min(bbin.remaining(), inputSize - inputPosition);
+				bbin.get(input, inputPosition, size);
+				inputPosition += size;
+			} finally {
+				bbin.compact();
+			}
+			if (inputPosition < inputSize) {
+				break;
+			}
+			frameInflater.setInput(input, 0, inputSize);
+			inflater = frameInflater;
+			inputSize = -1;
+		}
+		return bbout.position() != oldPosition;
+	}
+
+	private boolean readHeader(ByteBuffer bbin) throws DataFormatException {
+		bbin.flip();
+		try {
+			while (bbin.hasRemaining()) {
+				var b = bbin.get();
+				header.put(b);
+				if (header.position() > 1 && (b & 0x80) == 0) {
+					break;
+				}
+				if (!header.hasRemaining()) {
+					throw new DataFormatException("Invalid frame size");
+				}
+			}
+		} finally {
+			bbin.compact();
+		}
+		if (header.position() < 2 || (header.get(header.position() - 1) & 0x80) != 0) {
+			return false;
+		}
+		header.flip();
+		var type = header.get();
+		var size = 0;
+		for (var shift = 0; header.hasRemaining(); shift += 7) {
+			size |= (header.get() & 0x7F) << shift;
+		}
+		header.clear();
+		if (size < 0 || size > MAX_FRAME_BYTES) {
+			throw new DataFormatException("Invalid frame size : " + size);
+		}
+		switch (type) {
+		case STREAM:
+			frameInflater = streamInflater;
+			break;
+		case SHARED:
+			sharedInflater.reset();
+			sharedInflater.setDictionary(DICTIONARY);
+			frameInflater = sharedInflater;
+			break;
+		case SHARED_CONTINUATION:
+			frameInflater = sharedInflater;
+			break;
+		default:
+			throw new DataFormatException("Invalid frame type : " + type);
+		}
+		inputSize = size;
+		inputPosition = 0;
+		return true;
+	}
+
+	/**
+	 * Releases the native resources of the codec.
+	 */
+	public void end() {
+		deflater.end();
+		streamInflater.end();
+		sharedInflater.end();
+	}
+}
@@ -0,0 +1,215 @@
+package fr.umlv.chatos.server;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.function.BiConsumer;
+
+import fr.umlv.chatos.utils.PseudonymIndex;
+import fr.umlv.chatos.utils.data.ShortString;
+
+/**
+ * Directory of the clients logged in the cluster, replicated on each node. It
+ * maps the ID and the pseudonyme of every client to the node owning its
+ * connection, so a node finds the node of a recipient in one lookup and
+ * forwards the message in one hop.
+ * 
+ * Each node adds its own clients and the clients announced by the other nodes,
+ * the entries of a node are indexed together so they are removed at once when
+ * the link with this node is lost, without touching the other entries. The
+ * pseudonymes are also kept in a {@link PseudonymIndex} to answer the prefix
+ * queries of the clients. The clients are sorted by ID so they can be sent page
+ * per page, a page starting after the last ID of the previous one.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class ClientDirectory {
+
+	private static class Entry {
+		private final String pseudonyme;
+		private final int node;
+
+		private Entry(String pseudonyme, int node) {
+			this.pseudonyme = pseudonyme;
+			this.node = node;
+		}
+	}
+
+	private final TreeMap<Short, Entry> byId = new TreeMap<>();
+	private final HashMap<String, Short> byPseudonyme = new HashMap<>();
+	private final HashMap<Integer, HashSet<Short>> byNode = new HashMap<>();
+	private final PseudonymIndex index = new PseudonymIndex();
+
+	/**
+	 * Adds a client to the directory.
+	 * 
+	 * @param id         ID of the client
+	 * @param pseudonyme pseudonyme of the client
+	 * @param node       ID of the node owning the client
+	 * @return false if the ID or the pseudonyme is already in the directory, true
+	 *         otherwise
+	 */
+	public boolean add(short id, String pseudonyme, int node) {
+		Objects.requireNonNull(pseudonyme);
+		if (byId.containsKey(id) || byPseudonyme.containsKey(pseudonyme)) {
+			return false;
+		}
+		byId.put(id, new Entry(pseudonyme, node));
+		byPseudonyme.put(pseudonyme, id);
+		byNode.computeIfAbsent(node, k -> new HashSet<>()).add(id);
+		index.add(pseudonyme, id);
+		return true;
+	}
+
+	/**
+	 * Removes a client from the directory.
+	 * 
+	 * @param id ID of the client
+	 * @return the pseudonyme of the removed client, empty if the ID was not in the
+	 *         directory
+	 */
+	public Optional<String> remove(short id) {
+		var entry = byId.remove(id);
+		if (entry == null) {
+			return Optional.empty();
+		}
+		byPseudonyme.remove(entry.pseudonyme);
+		index.remove(entry.pseudonyme);
+		var ids = byNode.get(entry.node);
+		ids.remove(id);
+		if (ids.isEmpty()) {
+			byNode.remove(entry.node);
+		}
+		return Optional.of(entry.pseudonyme);
+	}
+
+	/**
+	 * Removes all the clients of a node.
+	 * 
+	 * @param node ID of the node
+	 * @return the IDs of the removed clients
+	 */
+	public List<Short> removeNode(int node) {
+		var ids = byNode.remove(node);
+		if (ids == null) {
+			return List.of();
+		}
+		for (var id : ids) {
+			var pseudonyme = byId.remove(id).pseudonyme;
+			byPseudonyme.remove(pseudonyme);
+			index.remove(pseudonyme);
+		}
+		return new ArrayList<>(ids);
+	}
+
+	/**
+	 * 
+	 * @param pseudonyme pseudonyme to look for
+	 * @return true if a client uses this pseudonyme
+	 */
+	public boolean contains(String pseudonyme) {
+		Objects.requireNonNull(pseudonyme);
+		return byPseudonyme.containsKey(pseudonyme);
+	}
+
+	/**
+	 * 
+	 * @param pseudonyme pseudonyme of the client
+	 * @return the ID of the client, empty if no client uses this pseudonyme
+	 */
+	public Optional<Short> idOf(String pseudonyme) {
+		Objects.requireNonNull(pseudonyme);
+		return Optional.ofNullable(byPseudonyme.get(pseudonyme));
+	}
+
+	/**
+	 * 
+	 * @param id ID of the client
+	 * @return the pseudonyme of the client, empty if the ID is not in the
+	 *         directory
+	 */
+	public Optional<String> pseudonymeOf(short id) {
+		var entry = byId.get(id);
+		return entry == null ? Optional.empty() : Optional.of(entry.pseudonyme);
+	}
+
+	/**
+	 * 
+	 * @param id ID of the client
+	 * @return the ID of the node owning the client, empty if the ID is not in the
+	 *         directory
+	 */
+	public Optional<Integer> nodeOf(short id) {
+		var entry = byId.get(id);
+		return entry == null ? Optional.empty() : Optional.of(entry.node);
+	}
+
+	/**
+	 * Finds the clients whose pseudonyme starts with the given prefix, ignoring the
+	 * case and the Unicode form.
+	 * 
+	 * @param prefix prefix to look for
+	 * @param limit  maximum number of clients returned
+	 * @return the ID and the pseudonyme of the clients found
+	 */
+	public List<ShortString> startingWith(String prefix, int limit) {
+		return index.startingWith(prefix, limit);
+	}
+
+	/**
+	 * Returns the clients whose ID is greater than the given cursor, in the order
+	 * of their ID.
+	 * 
+	 * @param after cursor of the page, the last ID of the previous page or -1 for
+	 *              the first page
+	 * @param limit maximum number of clients returned
+	 * @return the ID and the pseudonyme of the clients of the page
+	 */
+	public List<ShortString> page(short after, int limit) {
+		var page = new ArrayList<ShortString>();
+		for (var entry : byId.tailMap(after, false).entrySet()) {
+			if (page.size() == limit) {
+				break;
+			}
+			page.add(new ShortString(entry.getKey(), entry.getValue().pseudonyme));
+		}
+		return page;
+	}
+
+	/**
+	 * 
+	 * @param after cursor of a page
+	 * @return true if a client has an ID greater than the cursor
+	 */
+	public boolean hasAfter(short after) {
+		return byId.higherKey(after) != null;
+	}
+
+	/**
+	 * Calls the action with the ID and the pseudonyme of each client.
+	 * 
+	 * @param action action to call
+	 */
+	public void forEach(BiConsumer<Short, String> action) {
+		Objects.requireNonNull(action);
+		byId.forEach((id, entry) -> action.accept(id, entry.pseudonyme));
+	}
+
+	/**
+	 * 
+	 * @return the number of clients in the directory.
+	 */
+	public int size() {
+		return byId.size();
+	}
+
+	@Override
+	public String toString() {
+		return byId.size() + " clients on " + byNode.size() + " nodes";
+	}
+}
@@ -0,0 +1,193 @@
+package fr.umlv.chatos.server;
+
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Objects;
+
+import fr.umlv.chatos.utils.TokenBucket;
+
+/**
+ * Configuration and counters of the flood protection of the server. Each
+ * client has a {@link TokenBucket} per class of traffic, a message of this
+ * class is only dispatched if the bucket gives a token, so a client sending
+ * broadcasts in a loop costs at most the rate of its bucket to the other
+ * clients.
+ * 
+ * When a bucket is empty, the message is dropped and the client is told once
+ * until a message of this class is accepted again, or the client is
+ * disconnected, depending on the {@link Policy}.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class FloodControl {
+
+	/**
+	 * Classes of traffic limited separately, the ordinal is sent to the client
+	 * when its messages are dropped.
+	 */
+	public enum Traffic {
+		/**
+		 * Messages sent to all the clients.
+		 */
+		BROADCAST(20, 5),
+		/**
+		 * Messages sent to one client.
+		 */
+		PRIVATE(40, 10),
+		/**
+		 * Requests of private connections.
+		 */
+		TCP_ASK(5, 0.2);
+
+		private final long defaultBurst;
+		private final double defaultPerSecond;
+
+		private Traffic(long defaultBurst, double defaultPerSecond) {
+			this.defaultBurst = defaultBurst;
+			this.defaultPerSecond = defaultPerSecond;
+		}
+	}
+
+	/**
+	 * What happens to a client whose bucket is empty.
+	 */
+	public enum Policy {
+		/**
+		 * The message is dropped.
+		 */
+		THROTTLE,
+		/**
+		 * The message is dropped and the client disconnected.
+		 */
+		DISCONNECT
+	}
+
+	private final EnumMap<Traffic, Long> bursts = new EnumMap<>(Traffic.class);
+	private final EnumMap<Traffic, Double> rates = new EnumMap<>(Traffic.class);
+	private final long[] dropped = new long[Traffic.values().length];
+	private long disconnected;
+	private Policy policy = Policy.THROTTLE;
+
+	/**
+	 * Class constructor with the default limits and the throttle policy.
+	 */
+	public FloodControl() {
+		for (var traffic : Traffic.values()) {
+			bursts.put(traffic, traffic.defaultBurst);
+			rates.put(traffic, traffic.defaultPerSecond);
+		}
+	}
+
+	/**
+	 * Changes the limit of a class of traffic, for the clients connected after the
+	 * change.
+	 * 
+	 * @param traffic   class of traffic
+	 * @param burst     number of messages which can be sent at once
+	 * @param perSecond mean number of messages per second
+	 */
+	public void setLimit(Traffic traffic, long burst, double perSecond) {
+		Objects.requireNonNull(traffic);
+		if (burst <= 0) {
+			throw new IllegalArgumentException("burst should be positiv, current : " + burst);
+		}
+		if (!(perSecond >= 0)) {
+			throw new IllegalArgumentException("perSecond should be positiv, current : " + perSecond);
+		}
+		bursts.put(traffic, burst);
+		rates.put(traffic, perSecond);
+	}
+
+	/**
+	 * Changes the limit of a class of traffic from its description, like
+	 * "broadcast=20/5" for bursts of 20 broadcasts and 5 broadcasts per second.
+	 * 
+	 * @param limit description of the limit
+	 */
+	public void setLimit(String limit) {
+		Objects.requireNonNull(limit);
+		var equal = limit.indexOf('=');
+		var slash = limit.indexOf('/', equal + 1);
+		if (equal == -1 || slash == -1) {
+			throw new IllegalArgumentException("limit should be class=burst/perSecond, current : " + limit);
+		}
+		var traffic = Traffic.valueOf(limit.substring(0, equal).toUpperCase(Locale.ROOT).replace('-', '_'));
+		setLimit(traffic, Long.parseLong(limit.substring(equal + 1, slash)),
+				Double.parseDouble(limit.substring(slash + 1)));
+	}
+
+	/**
+	 * 
+	 * @param policy what happens to a client whose bucket is empty
+	 */
+	public void setPolicy(Policy policy) {
+		this.policy = Objects.requireNonNull(policy);
+	}
+
+	/**
+	 * 
+	 * @return what happens to a client whose bucket is empty.
+	 */
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	/**
+	 * Creates the buckets of a new client, they start full.
+	 * 
+	 * @param now current time in milliseconds
+	 * @return a bucket per class of traffic
+	 */
+	public EnumMap<Traffic, TokenBucket> newBuckets(long now) {
+		var buckets = new EnumMap<Traffic, TokenBucket>(Traffic.class);
+		for (var traffic : Traffic.values()) {
+			buckets.put(traffic, new TokenBucket(bursts.get(traffic), rates.get(traffic), now));
+		}
+		return buckets;
+	}
+
+	/**
+	 * Counts a message dropped.
+	 * 
+	 * @param traffic class of the message
+	 */
+	public void countDropped(Traffic traffic) {
+		dropped[traffic.ordinal()]++;
+	}
+
+	/**
+	 * Counts a client disconnected for flooding.
+	 */
+	public void countDisconnected() {
+		disconnected++;
+	}
+
+	/**
+	 * 
+	 * @param traffic class of traffic
+	 * @return the number of messages of this class dropped.
+	 */
+	public long getDropped(Traffic traffic) {
+		return dropped[traffic.ordinal()];
+	}
+
+	/**
+	 * 
+	 * @return the number of clients disconnected for flooding.
+	 */
+	public long getDisconnected() {
+		return disconnected;
+	}
+
+	@Override
+	public String toString() {
+		var builder = new StringBuilder(policy.name().toLowerCase(Locale.ROOT));
+		for (var traffic : Traffic.values()) {
+			builder.append(", ").append(traffic.name().toLowerCase(Locale.ROOT)).append(" : ")
+					.append(bursts.get(traffic)).append('/').append(rates.get(traffic)).append(" dropped ")
+					.append(dropped[traffic.ordinal()]);
+		}
+		return builder.append(", disconnected : ").append(disconnected).toString();
+	}
+}
@@ -0,0 +1,248 @@
+package fr.umlv.chatos.server;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+
+import fr.umlv.chatos.utils.SearchIndex;
+import fr.umlv.chatos.utils.data.SearchHit;
+
+/**
+ * History of the messages delivered by the server, searchable by their terms.
+ * The messages are appended to a log file, a message's ID is its rank in the
+ * log and its position is kept in memory so it is read in one access. Each
+ * message is added to a {@link SearchIndex} with its terms. The log is
+ * replayed when the history is opened to rebuild the index.
+ * 
+ * Only the broadcasts are kept: a pseudonyme is not an account, the next
+ * client taking the pseudonyme of a client gone would find its private
+ * messages. A private message written in the log by an earlier version keeps
+ * its rank but is not indexed.
+ * 
+ * The history does blocking I/O and isn't thread-safe, the server uses it from
+ * a single thread of an {@link fr.umlv.chatos.utils.AsyncIO} so the selector
+ * thread never waits for the disk nor for the index.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class History implements AutoCloseable {
+
+	/**
+	 * Number of messages of the mutable segment of the index.
+	 */
+	public static final int SEGMENT_SIZE = 4_096;
+
+	/**
+	 * Number of segments of the same size merged together.
+	 */
+	public static final int MERGE_FACTOR = 8;
+
+	/**
+	 * Maximum number of characters of the extract of a message found.
+	 */
+	public static final int SNIPPET_CHARS = 80;
+
+	private static final String LOG = "history.log";
+
+	private final SearchIndex index = new SearchIndex(SEGMENT_SIZE, MERGE_FACTOR);
+	private FileChannel log;
+	private long[] positions = new long[1_024];
+	private int size;
+
+	private History() {
+	}
+
+	/**
+	 * Opens the history kept in the given folder, creating it if needed.
+	 * 
+	 * @param folder folder of the history
+	 * @return the history
+	 * @throws IOException If an I/O error occurs
+	 */
+	public static History open(Path folder) throws IOException {
+		Objects.requireNonNull(folder);
+		Files.createDirectories(folder);
+		var history = new History();
+		history.log = FileChannel.open(folder.resolve(LOG), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		history.replay();
+		return history;
+	}
+
+	/**
+	 * Reads the log from its start to index its messages, a record cut by a crash
+	 * is removed.
+	 */
+	private void replay() throws IOException {
+		var position = 0L;
+		var input = new DataInputStream(new BufferedInputStream(Channels.newInputStream(log.position(0)), 64 * 1_024));
+		while (true) {
+			try {
+				input.readLong();
+				var senderLength = input.readUnsignedShort();
+				input.skipNBytes(senderLength);
+				var recipientLength = input.readUnsignedShort();
+				input.skipNBytes(recipientLength);
+				var textLength = input.readInt();
+				var text = readString(input, textLength);
+				add(position, recipientLength == 0 ? SearchIndex.tokenize(text) : List.of());
+				position += Long.BYTES + 2 * Short.BYTES + Integer.BYTES + senderLength + recipientLength + textLength;
+			} catch (EOFException e) {
+				break;
+			}
+		}
+		log.truncate(position);
+		log.position(position);
+	}
+
+	private static String readString(DataInputStream input, int length) throws IOException {
+		var bytes = new byte[length];
+		input.readFully(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private int add(long position, List<String> terms) {
+		if (size == positions.length) {
+			positions = Arrays.copyOf(positions, size * 2);
+		}
+		positions[size] = position;
+		index.add(size, terms);
+		return size++;
+	}
+
+	/**
+	 * Appends a broadcast to the history.
+	 * 
+	 * @param timestamp time the message was sent, in milliseconds since the epoch
+	 * @param sender    pseudonyme of the sender
+	 * @param text      the message
+	 * @return the ID of the message
+	 * @throws IOException If an I/O error occurs
+	 */
+	public int append(long timestamp, String sender, String text) throws IOException {
+		Objects.requireNonNull(sender);
+		Objects.requireNonNull(text);
+		var encodedSender = encode(sender);
+		var encodedText = StandardCharsets.UTF_8.encode(text);
+		var record = ByteBuffer.allocate(Long.BYTES + 2 * Short.BYTES + Integer.BYTES + encodedSender.remaining()
+				+ encodedText.remaining());
+		record.putLong(timestamp);
+		record.putShort((short) encodedSender.remaining()).put(encodedSender);
+		record.putShort((short) 0);
+		record.putInt(encodedText.remaining()).put(encodedText);
+		var position = log.position();
+		for (record.flip(); record.hasRemaining();) {
+			log.write(record);
+		}
+		return add(position, SearchIndex.tokenize(text));
+	}
+
+	private static ByteBuffer encode(String pseudonyme) {
+		var encoded = StandardCharsets.UTF_8.encode(pseudonyme);
+		if (encoded.remaining() > 0xFFFF) {
+			throw new IllegalArgumentException("pseudonyme too long : " + encoded.remaining() + " bytes");
+		}
+		return encoded;
+	}
+
+	/**
+	 * Finds the most recent messages containing all the terms of a query.
+	 * 
+	 * @param query terms to look for
+	 * @param limit maximum number of messages returned
+	 * @return the messages found, the most recent first
+	 * @throws IOException If an I/O error occurs
+	 */
+	public List<SearchHit> search(String query, int limit) throws IOException {
+		Objects.requireNonNull(query);
+		var terms = SearchIndex.tokenize(query);
+		var hits = new ArrayList<SearchHit>();
+		if (terms.isEmpty()) {
+			return hits;
+		}
+		for (var id : index.search(terms, doc -> true, limit)) {
+			hits.add(read(id, terms));
+		}
+		return hits;
+	}
+
+	private SearchHit read(int id, List<String> terms) throws IOException {
+		var end = id + 1 < size ? positions[id + 1] : log.size();
+		var record = ByteBuffer.allocate((int) (end - positions[id]));
+		while (record.hasRemaining()) {
+			if (log.read(record, positions[id] + record.position()) == -1) {
+				throw new EOFException();
+			}
+		}
+		record.flip();
+		var timestamp = record.getLong();
+		var sender = new byte[Short.toUnsignedInt(record.getShort())];
+		record.get(sender);
+		var recipientLength = Short.toUnsignedInt(record.getShort());
+		record.position(record.position() + recipientLength);
+		var text = new byte[record.getInt()];
+		record.get(text);
+		return new SearchHit(id, timestamp, new String(sender, StandardCharsets.UTF_8),
+				snippet(new String(text, StandardCharsets.UTF_8), terms));
+	}
+
+	/**
+	 * Cuts the text around the first occurrence of a term, the cut ends are
+	 * marked with three dots.
+	 */
+	static String snippet(String text, List<String> terms) {
+		if (text.length() <= SNIPPET_CHARS) {
+			return text;
+		}
+		var lowerCase = text.toLowerCase(Locale.ROOT);
+		var match = 0;
+		for (var term : terms) {
+			var found = lowerCase.indexOf(term);
+			if (found != -1) {
+				match = found;
+				break;
+			}
+		}
+		var start = Math.max(0, Math.min(match - SNIPPET_CHARS / 4, text.length() - SNIPPET_CHARS));
+		var end = start + SNIPPET_CHARS;
+		if (Character.isLowSurrogate(text.charAt(start))) {
+			start++;
+		}
+		if (end < text.length() && Character.isLowSurrogate(text.charAt(end))) {
+			end--;
+		}
+		return (start > 0 ? "..." : "") + text.substring(start, end) + (end < text.length() ? "..." : "");
+	}
+
+	/**
+	 * 
+	 * @return the number of messages in the history.
+	 */
+	public int size() {
+		return size;
+	}
+
+	@Override
+	public void close() throws IOException {
+		log.close();
+	}
+
+	@Override
+	public String toString() {
+		return size + " messages, index of " + index;
+	}
+}
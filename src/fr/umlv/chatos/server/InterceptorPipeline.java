@@ -0,0 +1,208 @@
+package fr.umlv.chatos.server;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import fr.umlv.chatos.server.MessageInterceptor.Message;
+import fr.umlv.chatos.utils.AsyncIO;
+
+/**
+ * Ordered list of {@link MessageInterceptor} run on the messages of the
+ * clients before the server dispatches them. The server checks
+ * {@link #isEmpty()} first and dispatches the message directly when no
+ * interceptor is added, so the pipeline costs nothing until it is used.
+ * 
+ * A message goes through the interceptors one after the other, the
+ * synchronous ones on the thread of the selector, the asynchronous ones on the
+ * workers of an {@link AsyncIO}, the message going on with the next
+ * interceptor on the thread of the selector once the worker is done. The
+ * messages of a client wait in a queue until the messages sent before them are
+ * dispatched or dropped, so a slow interceptor never reorders the messages of
+ * a client.
+ * 
+ * The pipeline isn't thread-safe, it must be used by the thread running the
+ * selector.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class InterceptorPipeline {
+
+	private static class Stage {
+		private final MessageInterceptor interceptor;
+		private final boolean async;
+
+		private Stage(MessageInterceptor interceptor, boolean async) {
+			this.interceptor = interceptor;
+			this.async = async;
+		}
+	}
+
+	private static class Pending {
+		private final short clientId;
+		private final ArrayDeque<Pending> queue;
+		private final Consumer<String> action;
+		private Message message;
+		private boolean done;
+		private boolean dropped;
+
+		private Pending(ArrayDeque<Pending> queue, Message message, Consumer<String> action) {
+			this.clientId = message.getSenderId();
+			this.queue = queue;
+			this.message = message;
+			this.action = action;
+		}
+	}
+
+	static private Logger logger = Logger.getLogger(InterceptorPipeline.class.getName());
+
+	private final AsyncIO workers;
+	private final ArrayList<Stage> stages = new ArrayList<>();
+	private final HashMap<Short, ArrayDeque<Pending>> queues = new HashMap<>();
+	private long intercepted;
+	private long dropped;
+	private long failed;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param workers runs the asynchronous interceptors
+	 */
+	public InterceptorPipeline(AsyncIO workers) {
+		this.workers = Objects.requireNonNull(workers);
+	}
+
+	/**
+	 * Adds an interceptor at the end of the pipeline.
+	 * 
+	 * @param interceptor interceptor to add
+	 * @param async       true to run the interceptor on a worker thread, false to
+	 *                    run it on the thread of the selector
+	 */
+	public void add(MessageInterceptor interceptor, boolean async) {
+		stages.add(new Stage(Objects.requireNonNull(interceptor), async));
+	}
+
+	/**
+	 * 
+	 * @return true if no interceptor is added, the messages are then dispatched
+	 *         without going through the pipeline.
+	 */
+	public boolean isEmpty() {
+		return stages.isEmpty();
+	}
+
+	/**
+	 * Runs the interceptors on a message, then calls the action with the text
+	 * returned by the last interceptor, unless an interceptor dropped the message.
+	 * The action is called after the actions of the messages the same client sent
+	 * before.
+	 * 
+	 * @param message the message of a client
+	 * @param action  dispatches the message
+	 */
+	public void dispatch(Message message, Consumer<String> action) {
+		Objects.requireNonNull(message);
+		Objects.requireNonNull(action);
+		intercepted++;
+		var queue = queues.computeIfAbsent(message.getSenderId(), k -> new ArrayDeque<>());
+		var pending = new Pending(queue, message, action);
+		queue.add(pending);
+		run(pending, 0);
+	}
+
+	private void run(Pending pending, int from) {
+		for (var i = from; i < stages.size(); i++) {
+			var stage = stages.get(i);
+			var message = pending.message;
+			if (stage.async) {
+				var next = i + 1;
+				workers.submit(() -> intercept(stage.interceptor, message), text -> {
+					if (next(pending, text)) {
+						run(pending, next);
+					}
+				}, e -> fail(pending, e));
+				return;
+			}
+			try {
+				if (!next(pending, intercept(stage.interceptor, message))) {
+					return;
+				}
+			} catch (IOException e) {
+				fail(pending, e);
+				return;
+			}
+		}
+		complete(pending, false);
+	}
+
+	/**
+	 * Runs an interceptor, an unchecked exception is handled as an
+	 * {@link IOException} so it never kills a worker.
+	 */
+	private static String intercept(MessageInterceptor interceptor, Message message) throws IOException {
+		try {
+			return interceptor.intercept(message);
+		} catch (RuntimeException e) {
+			throw new IOException("Interceptor failed on " + message, e);
+		}
+	}
+
+	private boolean next(Pending pending, String text) {
+		if (text == null) {
+			dropped++;
+			complete(pending, true);
+			return false;
+		}
+		pending.message = pending.message.withText(text);
+		return true;
+	}
+
+	private void fail(Pending pending, IOException e) {
+		failed++;
+		logger.log(Level.WARNING, "Message dropped by the interceptors", e);
+		complete(pending, true);
+	}
+
+	/**
+	 * Marks a message as done and dispatches the messages at the head of the
+	 * queue of its client which are done, nothing is dispatched if the client was
+	 * forgotten meanwhile.
+	 */
+	private void complete(Pending pending, boolean drop) {
+		pending.done = true;
+		pending.dropped = drop;
+		var queue = pending.queue;
+		while (queues.get(pending.clientId) == queue && !queue.isEmpty() && queue.peek().done) {
+			var head = queue.poll();
+			if (!head.dropped) {
+				head.action.accept(head.message.getText());
+			}
+		}
+		if (queue.isEmpty() && queues.get(pending.clientId) == queue) {
+			queues.remove(pending.clientId);
+		}
+	}
+
+	/**
+	 * Drops the messages of a client still in the pipeline, they are never
+	 * dispatched.
+	 * 
+	 * @param clientId ID of the client who left
+	 */
+	public void forget(short clientId) {
+		queues.remove(clientId);
+	}
+
+	@Override
+	public String toString() {
+		return stages.size() + " interceptors, " + intercepted + " messages, " + dropped + " dropped, " + failed
+				+ " failed, " + queues.size() + " clients waiting";
+	}
+}
@@ -0,0 +1,435 @@
+package fr.umlv.chatos.server;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Objects;
+
+import fr.umlv.chatos.utils.data.OfflineMessage;
+
+/**
+ * Store of the private messages sent to clients while they are offline. The
+ * store is a log file of records appended one after the other, a record
+ * declares a known pseudonyme with the key of its mailbox, keeps a message or
+ * drops the first messages of a recipient once delivered. The log is replayed when the store is opened to
+ * rebuild the index, the positions of the messages of each recipient in the
+ * log, so a recipient's messages are read without scanning the log.
+ * 
+ * A pseudonyme is not an account, the next client taking the pseudonyme of a
+ * client gone must not read its messages. The first client opening the mailbox
+ * of a pseudonyme gets a key it keeps, the messages are only read for a client
+ * presenting it.
+ * 
+ * The size of the messages kept is bounded per recipient and for the whole
+ * store. The log is compacted, rewritten with only the records still needed,
+ * when most of it is made of messages already delivered.
+ * 
+ * The store does blocking I/O and isn't thread-safe, the server uses it from a
+ * single thread of an {@link fr.umlv.chatos.utils.AsyncIO} so the selector
+ * thread never waits for the disk.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class Mailbox implements AutoCloseable {
+
+	/**
+	 * Result of a deposit.
+	 */
+	public enum Status {
+		/**
+		 * The message is kept until the recipient logs in.
+		 */
+		STORED,
+		/**
+		 * The recipient never opened its mailbox, the message is dropped.
+		 */
+		UNKNOWN,
+		/**
+		 * The mailbox of the recipient or the store is full, the message is dropped.
+		 */
+		FULL
+	}
+
+	private static final byte USER = 0;
+	private static final byte MESSAGE = 1;
+	private static final byte DROP = 2;
+	private static final byte OWNER = 3;
+	private static final String LOG = "mailbox.log";
+
+	/**
+	 * Size under which the log is never compacted.
+	 */
+	private static final long COMPACT_THRESHOLD = 1_024 * 1_024;
+
+	private static class Slot {
+		private final long position;
+		private final int length;
+
+		private Slot(long position, int length) {
+			this.position = position;
+			this.length = length;
+		}
+	}
+
+	private static class Box {
+		private final ArrayDeque<Slot> slots = new ArrayDeque<>();
+		private long bytes;
+		private long key;
+	}
+
+	private final Path folder;
+	private final long maxUserBytes;
+	private final long maxBytes;
+	private final HashMap<String, Box> boxes = new HashMap<>();
+	private final SecureRandom keys = new SecureRandom();
+	private FileChannel log;
+	private long liveBytes;
+	private long delivered;
+	private long compactions;
+
+	private Mailbox(Path folder, long maxUserBytes, long maxBytes) {
+		this.folder = folder;
+		this.maxUserBytes = maxUserBytes;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Opens the store kept in the given folder, creating it if needed.
+	 * 
+	 * @param folder       folder of the store
+	 * @param maxUserBytes maximum number of bytes kept for a recipient
+	 * @param maxBytes     maximum number of bytes kept for all the recipients
+	 * @return the store
+	 * @throws IOException If an I/O error occurs
+	 */
+	public static Mailbox open(Path folder, long maxUserBytes, long maxBytes) throws IOException {
+		Objects.requireNonNull(folder);
+		if (maxUserBytes <= 0 || maxBytes <= 0) {
+			throw new IllegalArgumentException("sizes should be positiv, current : " + maxUserBytes + ", " + maxBytes);
+		}
+		Files.createDirectories(folder);
+		var mailbox = new Mailbox(folder, maxUserBytes, maxBytes);
+		mailbox.log = FileChannel.open(folder.resolve(LOG), StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+		mailbox.replay();
+		return mailbox;
+	}
+
+	/**
+	 * Rebuilds the index from the log, a record cut by a crash is removed.
+	 */
+	private void replay() throws IOException {
+		var position = 0L;
+		var size = log.size();
+		while (position < size) {
+			try {
+				var type = read(position, 1).get();
+				var recipient = readString(position + 1);
+				var next = position + 1 + Short.BYTES + recipient.length;
+				var pseudonyme = decode(recipient);
+				switch (type) {
+				case USER: // written by an earlier version, without key
+					boxes.putIfAbsent(pseudonyme, new Box());
+					break;
+				case OWNER:
+					boxes.computeIfAbsent(pseudonyme, k -> new Box()).key = read(next, Long.BYTES).getLong();
+					next += Long.BYTES;
+					break;
+				case MESSAGE:
+					var sender = readString(next);
+					next += Short.BYTES + sender.length + Long.BYTES;
+					next += Integer.BYTES + read(next, Integer.BYTES).getInt();
+					if (next > size) {
+						throw new EOFException();
+					}
+					index(pseudonyme, new Slot(position, (int) (next - position)));
+					break;
+				case DROP:
+					drop(pseudonyme, read(next, Integer.BYTES).getInt());
+					next += Integer.BYTES;
+					break;
+				default:
+					throw new IOException("Corrupted mailbox at " + position);
+				}
+				position = next;
+			} catch (EOFException e) {
+				log.truncate(position);
+				break;
+			}
+		}
+		log.position(position);
+	}
+
+	private void index(String recipient, Slot slot) {
+		var box = boxes.computeIfAbsent(recipient, k -> new Box());
+		box.slots.add(slot);
+		box.bytes += slot.length;
+		liveBytes += slot.length;
+	}
+
+	private void drop(String recipient, int count) {
+		var box = boxes.get(recipient);
+		if (box == null) {
+			return;
+		}
+		for (var i = 0; i < count && !box.slots.isEmpty(); i++) {
+			var slot = box.slots.poll();
+			box.bytes -= slot.length;
+			liveBytes -= slot.length;
+		}
+	}
+
+	/**
+	 * Opens the mailbox of a client who logged in, the messages sent to its
+	 * pseudonyme are kept from now on when it is offline. The first client
+	 * opening the mailbox of a pseudonyme gets a new key, the next ones must
+	 * present it. The messages kept by an earlier version for a pseudonyme
+	 * without key are dropped when it gets one, nobody can prove they are its.
+	 * 
+	 * @param pseudonyme pseudonyme of a client who logged in
+	 * @param key        key presented by the client, 0 if it has none
+	 * @return the key of the mailbox if the client presented it or just got it,
+	 *         0 if the mailbox belongs to another client
+	 * @throws IOException If an I/O error occurs
+	 */
+	public long register(String pseudonyme, long key) throws IOException {
+		Objects.requireNonNull(pseudonyme);
+		var box = boxes.get(pseudonyme);
+		if (box != null && box.key != 0) {
+			return box.key == key ? key : 0;
+		}
+		if (box != null && !box.slots.isEmpty()) {
+			dropFirst(pseudonyme, box.slots.size());
+		}
+		long newKey;
+		do {
+			newKey = keys.nextLong();
+		} while (newKey == 0);
+		var encoded = encode(pseudonyme);
+		append(ByteBuffer.allocate(1 + Short.BYTES + encoded.remaining() + Long.BYTES).put(OWNER)
+				.putShort((short) encoded.remaining()).put(encoded).putLong(newKey).flip());
+		boxes.computeIfAbsent(pseudonyme, k -> new Box()).key = newKey;
+		return newKey;
+	}
+
+	/**
+	 * Keeps a message for an offline recipient.
+	 * 
+	 * @param recipient pseudonyme of the recipient
+	 * @param sender    pseudonyme of the sender
+	 * @param timestamp time the message was sent, in milliseconds since the epoch
+	 * @param message   the message
+	 * @return the result of the deposit
+	 * @throws IOException If an I/O error occurs
+	 */
+	public Status deposit(String recipient, String sender, long timestamp, String message) throws IOException {
+		Objects.requireNonNull(recipient);
+		Objects.requireNonNull(sender);
+		Objects.requireNonNull(message);
+		var box = boxes.get(recipient);
+		if (box == null || box.key == 0) {
+			return Status.UNKNOWN;
+		}
+		var encodedRecipient = encode(recipient);
+		var encodedSender = encode(sender);
+		var encodedMessage = StandardCharsets.UTF_8.encode(message);
+		var length = 1 + 2 * Short.BYTES + encodedRecipient.remaining() + encodedSender.remaining() + Long.BYTES
+				+ Integer.BYTES + encodedMessage.remaining();
+		if (box.bytes + length > maxUserBytes || liveBytes + length > maxBytes) {
+			return Status.FULL;
+		}
+		var record = ByteBuffer.allocate(length).put(MESSAGE);
+		record.putShort((short) encodedRecipient.remaining()).put(encodedRecipient);
+		record.putShort((short) encodedSender.remaining()).put(encodedSender);
+		record.putLong(timestamp).putInt(encodedMessage.remaining()).put(encodedMessage);
+		var position = append(record.flip());
+		index(recipient, new Slot(position, length));
+		return Status.STORED;
+	}
+
+	/**
+	 * Drops the messages of a recipient already delivered, then reads the next
+	 * ones. The recipient must have presented the key of its mailbox to
+	 * {@link #register(String, long)}.
+	 * 
+	 * @param recipient pseudonyme of the recipient
+	 * @param dropped   number of messages delivered since the last call, dropped
+	 *                  from the store
+	 * @param max       maximum number of messages read
+	 * @return the oldest messages of the recipient, in the order they were kept
+	 * @throws IOException If an I/O error occurs
+	 */
+	public List<OfflineMessage> next(String recipient, int dropped, int max) throws IOException {
+		Objects.requireNonNull(recipient);
+		if (dropped < 0 || max < 0) {
+			throw new IllegalArgumentException("counts should be positiv, current : " + dropped + ", " + max);
+		}
+		var box = boxes.get(recipient);
+		if (box == null) {
+			return List.of();
+		}
+		if (dropped > 0) {
+			dropFirst(recipient, dropped);
+			delivered += dropped;
+		}
+		var messages = new ArrayList<OfflineMessage>(Math.min(max, box.slots.size()));
+		for (var slot : box.slots) {
+			if (messages.size() == max) {
+				break;
+			}
+			messages.add(readMessage(slot));
+		}
+		return messages;
+	}
+
+	/**
+	 * Appends the record dropping the first messages of a recipient, then drops
+	 * them.
+	 */
+	private void dropFirst(String recipient, int count) throws IOException {
+		var encoded = encode(recipient);
+		append(ByteBuffer.allocate(1 + Short.BYTES + encoded.remaining() + Integer.BYTES).put(DROP)
+				.putShort((short) encoded.remaining()).put(encoded).putInt(count).flip());
+		drop(recipient, count);
+		if (log.size() > COMPACT_THRESHOLD && log.size() > 2 * liveBytes) {
+			compact();
+		}
+	}
+
+	private OfflineMessage readMessage(Slot slot) throws IOException {
+		var record = read(slot.position, slot.length);
+		record.get();
+		var recipientLength = Short.toUnsignedInt(record.getShort());
+		record.position(record.position() + recipientLength);
+		var sender = new byte[Short.toUnsignedInt(record.getShort())];
+		record.get(sender);
+		var timestamp = record.getLong();
+		var message = new byte[record.getInt()];
+		record.get(message);
+		return new OfflineMessage(new String(sender, StandardCharsets.UTF_8), timestamp,
+				new String(message, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Rewrites the log with the known pseudonymes, their keys and the messages
+	 * not delivered.
+	 */
+	private void compact() throws IOException {
+		var path = folder.resolve(LOG);
+		var tmp = folder.resolve(LOG + ".tmp");
+		var compacted = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.READ, StandardOpenOption.WRITE);
+		try {
+			for (var entry : boxes.entrySet()) {
+				var encoded = encode(entry.getKey());
+				var box = entry.getValue();
+				if (box.key == 0) {
+					writeFully(compacted, ByteBuffer.allocate(1 + Short.BYTES + encoded.remaining()).put(USER)
+							.putShort((short) encoded.remaining()).put(encoded).flip());
+				} else {
+					writeFully(compacted, ByteBuffer.allocate(1 + Short.BYTES + encoded.remaining() + Long.BYTES)
+							.put(OWNER).putShort((short) encoded.remaining()).put(encoded).putLong(box.key).flip());
+				}
+				var moved = new ArrayDeque<Slot>(box.slots.size());
+				for (var slot : box.slots) {
+					moved.add(new Slot(compacted.position(), slot.length));
+					writeFully(compacted, read(slot.position, slot.length));
+				}
+				box.slots.clear();
+				box.slots.addAll(moved);
+			}
+			compacted.force(false);
+		} finally {
+			compacted.close();
+		}
+		log.close();
+		Files.move(tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		log = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		log.position(log.size());
+		compactions++;
+	}
+
+	private long append(ByteBuffer record) throws IOException {
+		var position = log.position();
+		writeFully(log, record);
+		return position;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer bb) throws IOException {
+		while (bb.hasRemaining()) {
+			channel.write(bb);
+		}
+	}
+
+	private ByteBuffer read(long position, int length) throws IOException {
+		var bb = ByteBuffer.allocate(length);
+		while (bb.hasRemaining()) {
+			if (log.read(bb, position + bb.position()) == -1) {
+				throw new EOFException();
+			}
+		}
+		return bb.flip();
+	}
+
+	private byte[] readString(long position) throws IOException {
+		var length = Short.toUnsignedInt(read(position, Short.BYTES).getShort());
+		var bytes = new byte[length];
+		read(position + Short.BYTES, length).get(bytes);
+		return bytes;
+	}
+
+	private static String decode(byte[] bytes) {
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	private static ByteBuffer encode(String pseudonyme) {
+		var encoded = StandardCharsets.UTF_8.encode(pseudonyme);
+		if (encoded.remaining() > 0xFFFF) {
+			throw new IllegalArgumentException("pseudonyme too long : " + encoded.remaining() + " bytes");
+		}
+		return encoded;
+	}
+
+	/**
+	 * 
+	 * @param recipient pseudonyme of the recipient
+	 * @return the number of messages kept for the recipient.
+	 */
+	public int pending(String recipient) {
+		Objects.requireNonNull(recipient);
+		var box = boxes.get(recipient);
+		return box == null ? 0 : box.slots.size();
+	}
+
+	/**
+	 * 
+	 * @return the number of bytes of the messages kept.
+	 */
+	public long getLiveBytes() {
+		return liveBytes;
+	}
+
+	@Override
+	public void close() throws IOException {
+		log.close();
+	}
+
+	@Override
+	public String toString() {
+		var messages = boxes.values().stream().mapToInt(box -> box.slots.size()).sum();
+		return boxes.size() + " pseudonymes, " + messages + " messages kept, " + liveBytes + "/" + maxBytes
+				+ " bytes, " + delivered + " delivered, " + compactions + " compactions";
+	}
+}
@@ -0,0 +1,122 @@
+package fr.umlv.chatos.server;
+
+import java.io.IOException;
+import java.util.Objects;
+
+import fr.umlv.chatos.server.FloodControl.Traffic;
+
+/**
+ * Hook called for each message of a client before the server dispatches it,
+ * to filter, audit, enrich or count the messages without changing the server.
+ * Interceptors are added to the {@link InterceptorPipeline} of the server and
+ * called in the order they were added, each one receiving the text returned by
+ * the previous one.
+ * 
+ * A synchronous interceptor runs on the thread of the selector and must not
+ * block, an asynchronous one runs on a worker thread and may block, for
+ * instance to write an audit log, the messages of a client are still
+ * dispatched in the order they were sent.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+@FunctionalInterface
+public interface MessageInterceptor {
+
+	/**
+	 * Message of a client going through the interceptors.
+	 * 
+	 * @author Benjamin JEDROCHA, Florian DURAND
+	 * 
+	 */
+	public static final class Message {
+		private final Traffic traffic;
+		private final short senderId;
+		private final String sender;
+		private final String recipient;
+		private final String text;
+
+		/**
+		 * Class constructor.
+		 * 
+		 * @param traffic   class of the message
+		 * @param senderId  ID of the sender
+		 * @param sender    pseudonyme of the sender
+		 * @param recipient pseudonyme of the recipient, empty for a broadcast
+		 * @param text      text of the message, empty for a request of private
+		 *                  connection
+		 */
+		public Message(Traffic traffic, short senderId, String sender, String recipient, String text) {
+			this.traffic = Objects.requireNonNull(traffic);
+			this.senderId = senderId;
+			this.sender = Objects.requireNonNull(sender);
+			this.recipient = Objects.requireNonNull(recipient);
+			this.text = Objects.requireNonNull(text);
+		}
+
+		/**
+		 * 
+		 * @return the class of the message.
+		 */
+		public Traffic getTraffic() {
+			return traffic;
+		}
+
+		/**
+		 * 
+		 * @return the ID of the sender.
+		 */
+		public short getSenderId() {
+			return senderId;
+		}
+
+		/**
+		 * 
+		 * @return the pseudonyme of the sender.
+		 */
+		public String getSender() {
+			return sender;
+		}
+
+		/**
+		 * 
+		 * @return the pseudonyme of the recipient, empty for a broadcast.
+		 */
+		public String getRecipient() {
+			return recipient;
+		}
+
+		/**
+		 * 
+		 * @return the text of the message.
+		 */
+		public String getText() {
+			return text;
+		}
+
+		/**
+		 * 
+		 * @param text new text of the message
+		 * @return the same message with the given text.
+		 */
+		public Message withText(String text) {
+			return text.equals(this.text) ? this : new Message(traffic, senderId, sender, recipient, text);
+		}
+
+		@Override
+		public String toString() {
+			return traffic + " " + sender + " -> " + (recipient.isEmpty() ? "*" : recipient) + " : " + text;
+		}
+	}
+
+	/**
+	 * Inspects a message.
+	 * 
+	 * @param message the message, with the text returned by the previous
+	 *                interceptor
+	 * @return the text passed to the next interceptor, the same text to let the
+	 *         message through unchanged, or null to drop the message
+	 * @throws IOException If an I/O error occurs, the message is dropped
+	 */
+	String intercept(Message message) throws IOException;
+}
@@ -10,27 +10,50 @@ import java.nio.channels.SelectionKey;
 import java.nio.channels.Selector;
 import java.nio.channels.ServerSocketChannel;
 import java.nio.channels.SocketChannel;
-import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.security.SecureRandom;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
+import java.util.function.Consumer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.stream.Collectors;
 
 import fr.umlv.chatos.context.Context;
+import fr.umlv.chatos.context.BufferProfile;
 import fr.umlv.chatos.context.Context.ContextAbstract;
+import fr.umlv.chatos.context.DeflateCodec;
+import fr.umlv.chatos.server.FloodControl.Policy;
+import fr.umlv.chatos.server.FloodControl.Traffic;
+import fr.umlv.chatos.utils.AsyncIO;
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.NodeReader;
 import fr.umlv.chatos.utils.ReaderProcessor;
+import fr.umlv.chatos.utils.RttEstimator;
 import fr.umlv.chatos.utils.Sender;
+import fr.umlv.chatos.utils.TokenBucket;
+import fr.umlv.chatos.utils.TimingWheel;
+import fr.umlv.chatos.utils.TimingWheel.Timeout;
 import fr.umlv.chatos.utils.ServerReader;
+import fr.umlv.chatos.utils.Utf8Codec;
+import fr.umlv.chatos.utils.data.DirectResponse;
+import fr.umlv.chatos.utils.data.ForwardedMessage;
 import fr.umlv.chatos.utils.data.IntShort;
+import fr.umlv.chatos.utils.data.Login;
+import fr.umlv.chatos.utils.data.OfflineMessage;
 import fr.umlv.chatos.utils.data.ShortString;
+import fr.umlv.chatos.utils.data.StringString;
 import fr.umlv.chatos.utils.reader.Reader;
-import fr.umlv.chatos.utils.reader.StringReader;
+import fr.umlv.chatos.utils.reader.LoginReader;
 
 /**
  * Represents a server ChatOS.
@@ -42,10 +65,10 @@ public class ServerChatOS {
 
 	private static abstract class ContextAbstractServer extends ContextAbstract {
 		final ServerChatOS server;
-		final short id;
+		short id;
 
-		private ContextAbstractServer(ServerChatOS server, SelectionKey key, short id) {
-			super(key);
+		private ContextAbstractServer(ServerChatOS server, SelectionKey key, short id, BufferProfile profile) {
+			super(key, profile);
 			this.server = server;
 			this.id = id;
 		}
@@ -62,8 +85,11 @@ public class ServerChatOS {
 
 	private static class ContextTCP extends ContextAbstractServer {
 
+		private long lastActivity;
+
 		private ContextTCP(ServerChatOS server, short id) {
-			super(server, null, id);
+			super(server, null, id, BufferProfile.RELAY);
+			lastActivity = server.now;
 		}
 
 		@Override
@@ -86,19 +112,43 @@ public class ServerChatOS {
 	 */
 	public static class ContextDefault extends ContextAbstractServer {
 
-		private static final Charset UTF8 = Charset.forName("UTF8");
-
 		private final ReaderProcessor readerProcessor;
 		private String pseudonyme;
+		private boolean direct;
+		private boolean lazyRoster;
+		private Timeout loginTimeout;
+		private Timeout heartbeat;
+		private long pingSent;
+		private boolean pingPending;
+		private int missedHeartbeats;
+		private final RttEstimator rtt = new RttEstimator();
+		private final EnumMap<Traffic, TokenBucket> buckets;
+		private final EnumSet<Traffic> throttled = EnumSet.noneOf(Traffic.class);
+		private boolean flooding;
+		private long lastMessage;
+		private Timeout parkCheck;
+		private Session session;
+		private Timeout sessionExpiry;
+		private boolean replaced;
 
 		private ContextDefault(ServerChatOS server, SelectionKey key, short id) {
-			super(server, key, id);
-			this.readerProcessor = new ReaderProcessor(() -> receivePseudo(), () -> silentlyClose());
+			super(server, key, id, BufferProfile.CHAT);
+			this.readerProcessor = new ReaderProcessor(() -> receivePseudo(), () -> refuse());
+			this.buckets = server.floodControl.newBuckets(server.now);
+			setFrameBudget(FRAME_BUDGET);
 			var serverReader = new ServerReader(server, this);
 			readerProcessor.put(0, () -> serverReader.receiveBroadcastMessage());
 			readerProcessor.put(1, () -> serverReader.receiveSpecificMessage());
 			readerProcessor.put(2, () -> serverReader.receiveTCPAskMessage());
 			readerProcessor.put(3, () -> serverReader.receiveTCPResponseMessage());
+			readerProcessor.put(4, () -> serverReader.receiveTCPDirectResponseMessage());
+			readerProcessor.put(5, () -> serverReader.receiveTCPDirectFailedMessage());
+			readerProcessor.put(6, () -> serverReader.receiveQuery());
+			readerProcessor.put(7, () -> serverReader.receiveRosterPageRequest());
+			readerProcessor.put(8, () -> serverReader.receiveRosterLookup());
+			readerProcessor.put(9, () -> serverReader.receivePong());
+			readerProcessor.put(10, () -> serverReader.receivePseudoMessage());
+			readerProcessor.put(11, () -> serverReader.receiveSearch());
 			readerProcessor.put(-1, () -> serverReader.receiveTCPResponseNOMessage());
 		}
 
@@ -107,26 +157,94 @@ public class ServerChatOS {
 			processInProcessor(readerProcessor);
 		}
 
+		/**
+		 * Closes the connection after an invalid packet, a client not logged in yet
+		 * is told its login is refused.
+		 */
+		private void refuse() {
+			if (server.mapId.containsKey(id)) {
+				silentlyClose();
+				return;
+			}
+			Sender.sendOpCode(this, (byte) -1);
+			close();
+		}
+
 		private Optional<Reader<?>> receivePseudo() {
 			if (server.mapId.containsKey(id)) { // si le pseudo a d�j� �t� setup
 				return Optional.empty();
 			}
-			return Optional.of(new StringReader(s -> {
-				if (server.pseudonymes.contains(s)) { // pseudo d�j� existant
+			return Optional.of(new LoginReader(login -> {
+				if (login.isResuming() && server.resume(login, this)) {
+					return;
+				}
+				var s = login.getPseudonyme();
+				if (server.directory.contains(s)) { // pseudo d�j� existant
 					Sender.sendOpCode(this, (byte) -1);
 					close();
 					return;
 				}
-				server.pseudonymes.add(s);
+				var flags = negotiate(login);
+				loginTimeout.cancel();
+				server.directory.add(id, s, server.nodeId);
 				server.mapId.put(id, this);
+				server.pendingIds.remove(id);
 				pseudonyme = s;
-				Map<Short, ByteBuffer> idPseudoMap = server.mapId.entrySet().stream()
-						.collect(Collectors.toMap(e -> e.getKey(), e -> UTF8.encode(e.getValue().pseudonyme)));
+				start();
+				if ((flags & Protocol.FLAG_MAILBOX) != 0) {
+					server.openMailbox(id, pseudonyme, login.getMailboxKey());
+				}
+				if ((flags & Protocol.FLAG_SESSION) != 0) {
+					session = server.newSession(this);
+					Sender.sendLong(this, (byte) 15, session.getToken());
+				}
+				if (lazyRoster) {
+					server.rosterPage((short) -1, this);
+					server.newClient(new ShortString(id, pseudonyme));
+					return;
+				}
+				Map<Short, ByteBuffer> idPseudoMap = new HashMap<>();
+				server.directory.forEach((clientId, pseudo) -> idPseudoMap.put(clientId, Utf8Codec.get().encode(pseudo)));
 				Sender.sendClientList(this, idPseudoMap);
 				server.newClient(new ShortString(id, pseudonyme));
 			}));
 		}
 
+		/**
+		 * Acknowledges the version and the options asked by a negotiated login.
+		 * 
+		 * @return the options accepted, 0 for a login of the first version
+		 */
+		private int negotiate(Login login) {
+			if (!login.isNegotiated()) {
+				return 0;
+			}
+			var protocol = Protocol.negotiate(login.getVersion().getVersion());
+			var flags = login.getVersion().getFlags() & Protocol.SUPPORTED_FLAGS;
+			if (protocol == Protocol.V1) {
+				// a mailbox holds messages only the V2 framing can carry
+				flags &= ~(Protocol.FLAG_DEFLATE | Protocol.FLAG_MAILBOX);
+			}
+			Sender.sendVersion(this, (byte) 7, protocol, flags);
+			setProtocol(protocol);
+			if ((flags & Protocol.FLAG_DEFLATE) != 0) {
+				enableDeflate();
+				enableInflate();
+			}
+			direct = (flags & Protocol.FLAG_DIRECT) != 0;
+			lazyRoster = (flags & Protocol.FLAG_LAZY_ROSTER) != 0;
+			return flags;
+		}
+
+		/**
+		 * Starts the heartbeats and the parking of a logged in client.
+		 */
+		private void start() {
+			heartbeat = server.timers.schedule(HEARTBEAT_INTERVAL, () -> server.heartbeat(this));
+			lastMessage = server.now;
+			parkCheck = server.timers.schedule(PARK_AFTER, () -> server.parkCheck(this));
+		}
+
 		@Override
 		public void doConnect() throws IOException {
 			throw new IllegalStateException("this method shouldn't be used");
@@ -138,27 +256,313 @@ public class ServerChatOS {
 			silentlyClose();
 		}
 
+		@Override
+		protected void onBacklog() {
+			server.backlog.add(this);
+		}
+
+		@Override
+		protected boolean isIdle() {
+			return readerProcessor.isIdle();
+		}
+
+		/**
+		 * 
+		 * @return the estimation of the round trip time of the client, measured by
+		 *         the heartbeats.
+		 */
+		public RttEstimator getRtt() {
+			return rtt;
+		}
+
 		@Override
 		public void silentlyClose() {
-			server.disconnectedClient(id);
+			if (heartbeat != null) {
+				heartbeat.cancel();
+				parkCheck.cancel();
+			}
+			server.pendingIds.remove(id);
+			if (replaced) {
+				// the session goes on with another connection
+			} else if (session != null && !flooding) {
+				server.detach(this);
+			} else {
+				server.disconnectedClient(id);
+			}
 			super.silentlyClose();
 		}
 
 	}
 
+	/**
+	 * Represents the link with another server node of the cluster. Both nodes
+	 * send their ID, then their clients, then forward the messages of their
+	 * clients to the other node. The link always uses {@link Protocol#V2}.
+	 * 
+	 * @author Benjamin JEDROCHA, Florian DURAND
+	 *
+	 */
+	public static class ContextNode extends ContextAbstract {
+
+		private final ServerChatOS server;
+		private final ReaderProcessor readerProcessor;
+		private final InetSocketAddress peer;
+		private int nodeId = -1;
+		private final Timeout helloTimeout;
+
+		private ContextNode(ServerChatOS server, SelectionKey key, InetSocketAddress peer) {
+			super(key, BufferProfile.RELAY);
+			this.server = server;
+			this.peer = peer;
+			setProtocol(Protocol.V2);
+			var nodeReader = new NodeReader(server, this);
+			this.readerProcessor = new ReaderProcessor(() -> receiveHello(nodeReader), () -> silentlyClose());
+			readerProcessor.put(1, () -> nodeReader.receiveClientJoin());
+			readerProcessor.put(2, () -> nodeReader.receiveClientLeave());
+			readerProcessor.put(3, () -> nodeReader.receiveBroadcast());
+			readerProcessor.put(4, () -> nodeReader.receiveSpecificMessage());
+			server.sendHello(this);
+			helloTimeout = server.timers.schedule(LOGIN_TIMEOUT, () -> {
+				if (nodeId == -1) {
+					logger.info("Node link timed out");
+					silentlyClose();
+				}
+			});
+		}
+
+		private Optional<Reader<?>> receiveHello(NodeReader nodeReader) {
+			if (nodeId != -1) {
+				return Optional.empty();
+			}
+			return Optional.of(nodeReader.receiveHello());
+		}
+
+		/**
+		 * 
+		 * @return the ID of the other node, -1 until it is received.
+		 */
+		public int getNodeId() {
+			return nodeId;
+		}
+
+		@Override
+		protected void processIn() {
+			processInProcessor(readerProcessor);
+		}
+
+		@Override
+		public void DoClose() {
+			silentlyClose();
+		}
+
+		@Override
+		public void silentlyClose() {
+			server.disconnectedNode(this);
+			super.silentlyClose();
+		}
+	}
+
+	/**
+	 * Number of bits of a client ID holding the index of the client on its node,
+	 * the other bits hold the ID of the node.
+	 */
+	public static final int LOCAL_ID_BITS = 11;
+
+	/**
+	 * Maximum number of nodes in a cluster.
+	 */
+	public static final int MAX_NODES = 1 << (Short.SIZE - 1 - LOCAL_ID_BITS);
+
+	/**
+	 * Maximum number of pseudonymes sent in response to a query.
+	 */
+	public static final int QUERY_LIMIT = 20;
+
+	/**
+	 * Number of clients of a page of the client list.
+	 */
+	public static final int ROSTER_PAGE_SIZE = 50;
+
+	/**
+	 * Milliseconds between two attempts to connect the missing nodes.
+	 */
+	private static final long NODE_RETRY_DELAY = 1_000;
+
+	/**
+	 * Milliseconds between two ticks of the timers, and maximum duration of a
+	 * select.
+	 */
+	private static final long TIMER_TICK = 1_000;
+
+	/**
+	 * Number of slots of the timing wheel, the timeouts shorter than a turn of
+	 * the wheel are run at their first visit.
+	 */
+	private static final int TIMER_SLOTS = 512;
+
+	/**
+	 * Milliseconds given to a new connection to log in, or to a node to send its
+	 * ID.
+	 */
+	public static final long LOGIN_TIMEOUT = 30_000;
+
+	/**
+	 * Milliseconds given to a client to answer a private connection request, and
+	 * to both clients to open the private connection once accepted.
+	 */
+	public static final long TCP_HANDSHAKE_TIMEOUT = 60_000;
+
+	/**
+	 * Milliseconds after which a private connection without traffic is closed.
+	 */
+	public static final long TCP_IDLE_TIMEOUT = 300_000;
+
+	/**
+	 * Milliseconds between two heartbeats sent to a logged in client.
+	 */
+	public static final long HEARTBEAT_INTERVAL = 15_000;
+
+	/**
+	 * Number of heartbeats in a row without answer after which a client is
+	 * considered dead and disconnected.
+	 */
+	public static final int MAX_MISSED_HEARTBEATS = 3;
+
+	/**
+	 * Maximum number of frames of a client processed before the other clients are
+	 * served, the frames left are processed at the next turn of the loop.
+	 */
+	public static final int FRAME_BUDGET = 16;
+
+	/**
+	 * Milliseconds without message after which a client gives its buffers back
+	 * each time it is idle, heartbeats are not counted as messages.
+	 */
+	public static final long PARK_AFTER = 60_000;
+
+	/**
+	 * Milliseconds between two logs of the round trip times of the clients.
+	 */
+	private static final long METRICS_INTERVAL = 60_000;
+
+	/**
+	 * Milliseconds during which the session of a client who lost its connection
+	 * can be resumed, the client stays logged in meanwhile.
+	 */
+	public static final long SESSION_GRACE = 60_000;
+
+	/**
+	 * Maximum number of packets kept to be replayed to a client resuming its
+	 * session.
+	 */
+	public static final int SESSION_REPLAY_PACKETS = 256;
+
+	/**
+	 * Maximum number of bytes of the packets kept to be replayed to a client
+	 * resuming its session.
+	 */
+	public static final long SESSION_REPLAY_BYTES = 256 * 1_024;
+
+	/**
+	 * Maximum number of bytes of the messages kept for an offline client.
+	 */
+	public static final long MAILBOX_USER_BYTES = 64 * 1_024;
+
+	/**
+	 * Maximum number of bytes of the messages kept for all the offline clients.
+	 */
+	public static final long MAILBOX_BYTES = 64 * 1_024 * 1_024;
+
+	/**
+	 * Number of offline messages read from the disk at once and sent to a client
+	 * who logs in.
+	 */
+	public static final int MAILBOX_BATCH = 32;
+
+	/**
+	 * Maximum number of operations of the mailbox waiting for the disk.
+	 */
+	private static final int MAILBOX_MAX_PENDING = 1_024;
+
+	/**
+	 * Status of a private message which can't be kept because the server has no
+	 * mailbox or the mailbox failed, the other status are the ordinals of
+	 * {@link Mailbox.Status}.
+	 */
+	private static final short MAILBOX_UNAVAILABLE = 3;
+
+	/**
+	 * Status of a client whose pseudonyme has a mailbox opened with another key,
+	 * the messages kept are not sent to it.
+	 */
+	private static final short MAILBOX_NOT_OWNED = 4;
+
+	/**
+	 * Maximum number of messages sent in response to a search of the history.
+	 */
+	public static final int SEARCH_LIMIT = 20;
+
+	/**
+	 * Maximum number of operations of the history waiting for the disk or the
+	 * index.
+	 */
+	private static final int HISTORY_MAX_PENDING = 8_192;
+
+	/**
+	 * Number of threads running the asynchronous interceptors.
+	 */
+	public static final int INTERCEPTOR_THREADS = 4;
+
+	/**
+	 * Maximum number of messages waiting for an asynchronous interceptor.
+	 */
+	private static final int INTERCEPTOR_MAX_PENDING = 4_096;
+
 	static private Logger logger = Logger.getLogger(ServerChatOS.class.getName());
 
 	private final ServerSocketChannel serverSocketChannel;
 	private final Selector selector;
 	private final HashMap<Short, ContextDefault> mapId = new HashMap<>();
 	private final HashMap<Short, HashSet<ContextTCP>> mapIdTCP = new HashMap<>();
-	private final Set<String> pseudonymes = new HashSet<>();
+	private final ClientDirectory directory = new ClientDirectory();
+	private final DeflateCodec.SharedDeflater sharedDeflater = new DeflateCodec.SharedDeflater();
 	private short id = 0;
+	private final HashSet<Short> pendingIds = new HashSet<>();
+
+	/**
+	 * ID of this node, -1 if the server is not in a cluster.
+	 */
+	private final int nodeId;
+	private final ServerSocketChannel nodeSocketChannel;
+	private final List<InetSocketAddress> peers;
+	private final HashMap<InetSocketAddress, ContextNode> peerLinks = new HashMap<>();
+	private final HashMap<InetSocketAddress, Integer> peerNodes = new HashMap<>();
+	private final HashMap<Integer, ContextNode> nodes = new HashMap<>();
+	private long now = System.currentTimeMillis();
+	private final TimingWheel timers = new TimingWheel(TIMER_TICK, TIMER_SLOTS, now);
+	private long evictedClients;
+	private FloodControl floodControl = new FloodControl();
+	private final ArrayDeque<ContextAbstract> backlog = new ArrayDeque<>();
+	private final HashMap<Long, Session> sessions = new HashMap<>();
+	private final SecureRandom tokens = new SecureRandom();
+	private long resumedSessions;
+	private long expiredSessions;
+	private Mailbox mailbox;
+	private final AsyncIO mailboxIO;
+	private History history;
+	private final AsyncIO historyIO;
+	private final AsyncIO interceptorIO;
+	private final InterceptorPipeline interceptors;
 
 	/**
 	 * Id client B, <Id Client A et son adresse + plus>
 	 */
 	private final HashMap<Short, HashMap<Short, InetSocketAddress>> privateTCPResponseWaiting = new HashMap<>();
+	/**
+	 * Id client B, <Id client A et son adresse> des connexions directes proposées
+	 * à A, jusqu'à ce que A se connecte ou échoue
+	 */
+	private final HashMap<Short, HashMap<Short, InetSocketAddress>> directOffers = new HashMap<>();
 	private final HashMap<InetSocketAddress, ContextTCP> privateTCPWaitingConnection = new HashMap<>();
 	private final HashMap<ContextTCP, ContextTCP> privateTCP = new HashMap<>();
 
@@ -172,6 +576,42 @@ public class ServerChatOS {
 		serverSocketChannel = ServerSocketChannel.open();
 		serverSocketChannel.bind(new InetSocketAddress(port));
 		selector = Selector.open();
+		mailboxIO = AsyncIO.pooled(selector, 1, MAILBOX_MAX_PENDING);
+		historyIO = AsyncIO.pooled(selector, 1, HISTORY_MAX_PENDING);
+		interceptorIO = AsyncIO.pooled(selector, INTERCEPTOR_THREADS, INTERCEPTOR_MAX_PENDING);
+		interceptors = new InterceptorPipeline(interceptorIO);
+		nodeId = -1;
+		nodeSocketChannel = null;
+		peers = List.of();
+	}
+
+	/**
+	 * Class constructor of a node of a cluster. The node accepts the links of the
+	 * other nodes on nodePort and connects to the given peers, the IDs of its
+	 * clients start with its node ID so they are unique in the cluster.
+	 * 
+	 * @param port     Server port
+	 * @param nodeId   ID of this node, unique in the cluster
+	 * @param nodePort Port of the links with the other nodes
+	 * @param peers    Addresses of the nodes to connect to
+	 * @throws IOException If some other I/O error occurs
+	 */
+	public ServerChatOS(int port, int nodeId, int nodePort, List<InetSocketAddress> peers) throws IOException {
+		if (nodeId < 0 || nodeId >= MAX_NODES) {
+			throw new IllegalArgumentException("nodeId must be between 0 and " + (MAX_NODES - 1) + ", current : " + nodeId);
+		}
+		serverSocketChannel = ServerSocketChannel.open();
+		serverSocketChannel.bind(new InetSocketAddress(port));
+		nodeSocketChannel = ServerSocketChannel.open();
+		nodeSocketChannel.bind(new InetSocketAddress(nodePort));
+		selector = Selector.open();
+		mailboxIO = AsyncIO.pooled(selector, 1, MAILBOX_MAX_PENDING);
+		historyIO = AsyncIO.pooled(selector, 1, HISTORY_MAX_PENDING);
+		interceptorIO = AsyncIO.pooled(selector, INTERCEPTOR_THREADS, INTERCEPTOR_MAX_PENDING);
+		interceptors = new InterceptorPipeline(interceptorIO);
+		this.nodeId = nodeId;
+		this.peers = List.copyOf(peers);
+		this.id = (short) (nodeId << LOCAL_ID_BITS);
 	}
 
 	/**
@@ -182,14 +622,29 @@ public class ServerChatOS {
 	 */
 	public void broadcast(ShortString data) { // pour chaque client
 		Objects.requireNonNull(data);
-		for (var key : selector.keys()) {
-			if (key.isValid() && !key.isAcceptable()) {
-				if (!privateTCP.containsKey(key.attachment())) {
-					var client = (ContextDefault) key.attachment();
-					if (data.getShort() != client.id) {
-						var encoded_string = ContextDefault.UTF8.encode(data.getString());
-						Sender.sendShortString(client, (byte) 2, data.getShort(), encoded_string);
-					}
+		deliverBroadcast(data);
+		nodes.values().forEach(node -> Sender.sendShortString(node, (byte) 3, data.getShort(), data.getString()));
+	}
+
+	private void deliverBroadcast(ShortString data) {
+		var string = data.getString();
+		archive(data.getShort(), string);
+		var length = Utf8Codec.encodedLength(string);
+		var packets = new EnumMap<Protocol, ByteBuffer>(Protocol.class);
+		var deflatedPackets = new EnumMap<Protocol, ByteBuffer>(Protocol.class);
+		for (var client : mapId.values()) {
+			if (data.getShort() != client.id && length <= client.getProtocol().getMaxStringBytes()) {
+				var packet = packets.computeIfAbsent(client.getProtocol(),
+						protocol -> Sender.encodeShortString(protocol, (byte) 2, data.getShort(), string));
+				if (client.session != null) {
+					client.session.record(packet);
+				}
+				if (client.isDeflating()) {
+					var deflated = deflatedPackets.computeIfAbsent(client.getProtocol(),
+							protocol -> sharedDeflater.deflate(packet.duplicate()));
+					client.queueDeflated(deflated.duplicate());
+				} else {
+					client.queueData(packet.duplicate());
 				}
 			}
 		}
@@ -203,15 +658,31 @@ public class ServerChatOS {
 	public void launch() throws IOException {
 		serverSocketChannel.configureBlocking(false);
 		serverSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+		if (nodeSocketChannel != null) {
+			nodeSocketChannel.configureBlocking(false);
+			nodeSocketChannel.register(selector, SelectionKey.OP_ACCEPT);
+		}
+		if (!peers.isEmpty()) {
+			connectPeers();
+		}
+		timers.schedule(METRICS_INTERVAL, this::logMetrics);
 		while (!Thread.interrupted()) {
 			printKeys(); // for debug
-			System.out.println("Starting select");
 			try {
-				selector.select(this::treatKey);
+				if (backlog.isEmpty()) {
+					selector.select(this::treatKey, TIMER_TICK);
+				} else {
+					selector.selectNow(this::treatKey);
+				}
 			} catch (UncheckedIOException tunneled) {
 				throw tunneled.getCause();
 			}
-			System.out.println("Select finished");
+			now = System.currentTimeMillis();
+			mailboxIO.runCompletions();
+			historyIO.runCompletions();
+			interceptorIO.runCompletions();
+			timers.advance(now);
+			resumeBacklog();
 		}
 	}
 
@@ -236,6 +707,22 @@ public class ServerChatOS {
 		}
 		privateTCPResponseWaiting.get(receipId).put(context.id, isaAForTCP);
 		Sender.sendShort(mapId.get(receipId), (byte) 4, context.id);
+		var idClientA = context.id;
+		timers.schedule(TCP_HANDSHAKE_TIMEOUT, () -> expireTCPDemand(receipId, idClientA, isaAForTCP));
+	}
+
+	private void expireTCPDemand(short idClientB, short idClientA, InetSocketAddress isaClientA) {
+		var waiting = privateTCPResponseWaiting.get(idClientB);
+		if (waiting == null || !waiting.remove(idClientA, isaClientA)) {
+			return;
+		}
+		if (waiting.isEmpty()) {
+			privateTCPResponseWaiting.remove(idClientB);
+		}
+		var clientA = mapId.get(idClientA);
+		if (clientA != null) {
+			Sender.sendShort(clientA, (byte) -2, idClientB);
+		}
 	}
 
 	/**
@@ -250,10 +737,10 @@ public class ServerChatOS {
 
 			return;
 		}
-		if (!privateTCPResponseWaiting.containsKey(context.id)
-				&& !privateTCPResponseWaiting.get(context.id).containsKey(idClientA)) {
+		if (!isTCPResponseWaiting(context.id, idClientA)) {
 			return;
 		}
+		removeTCPResponseWaiting(context.id, idClientA);
 		Sender.sendShort(mapId.get(idClientA), (byte) -2, context.id);
 
 	}
@@ -273,8 +760,7 @@ public class ServerChatOS {
 		if (ifIdDoesntExist(clientA, context)) {
 			return;
 		}
-		if (!privateTCPResponseWaiting.containsKey(context.id)
-				&& !privateTCPResponseWaiting.get(context.id).containsKey(clientA)) {
+		if (!isTCPResponseWaiting(context.id, clientA)) {
 			return;
 		}
 		var isaClientA = privateTCPResponseWaiting.get(context.id).get(clientA);
@@ -285,7 +771,8 @@ public class ServerChatOS {
 		privateTCPWaitingConnection.put(isaClientB, contextTCPB);
 		privateTCP.put(contextTCPA, contextTCPB);
 		privateTCP.put(contextTCPB, contextTCPA);
-		privateTCPResponseWaiting.get(context.id).remove(clientA);
+		removeTCPResponseWaiting(context.id, clientA);
+		timers.schedule(TCP_HANDSHAKE_TIMEOUT, () -> expireTCPConnection(contextTCPA, isaClientA, isaClientB));
 		var hsA = new HashSet<ContextTCP>();
 		hsA.add(contextTCPA);
 		mapIdTCP.merge(clientA, hsA, (old, current) -> {
@@ -303,99 +790,778 @@ public class ServerChatOS {
 	}
 
 	/**
-	 * Send a message to someone in particular.
+	 * Performs a TCP positive response of a client listening for a direct
+	 * connection. The address of the recipient and the token of the connection
+	 * are sent to the customer who made the request if it supports direct
+	 * connections, the request is then kept until this customer connects or
+	 * fails. Otherwise the recipient is told to use the relay.
 	 * 
-	 * @param data     - ShortString, short is receipient's id, string the message
-	 *                 to send
-	 * @param idSender - client ID who send the message
-	 * @param context  - sender's context
+	 * @param response - DirectResponse, receipient's listening port, id of the
+	 *                 customer who made the request and token of the connection
+	 * @param context  - receipient's context
 	 */
-	public void specificMessage(ShortString data, short idSender, Context context) {
-		Objects.requireNonNull(data);
+	public void tcpDirectResponseMessage(DirectResponse response, ContextDefault context) {
+		Objects.requireNonNull(response);
 		Objects.requireNonNull(context);
-		var idReceip = data.getShort();
-		var message = data.getString();
-		if (ifIdDoesntExist(idReceip, context)) {
+		var clientA = response.getShort();
+		if (ifIdDoesntExist(clientA, context) || !isTCPResponseWaiting(context.id, clientA)) {
+			return;
+		}
+		var contextA = mapId.get(clientA);
+		if (!contextA.direct) {
+			Sender.sendShort(context, (byte) 9, clientA);
 			return;
 		}
-		var encodedString = ContextDefault.UTF8.encode(message);
-		Sender.sendShortString(mapId.get(idReceip), (byte) 3, idSender, encodedString);
+		var idClientB = context.id;
+		var isaClientA = privateTCPResponseWaiting.get(idClientB).get(clientA);
+		removeTCPResponseWaiting(idClientB, clientA);
+		directOffers.computeIfAbsent(idClientB, k -> new HashMap<>()).put(clientA, isaClientA);
+		timers.schedule(TCP_HANDSHAKE_TIMEOUT, () -> removeDirectOffer(idClientB, clientA, isaClientA));
+		Sender.sendDirectOffer(contextA, (byte) 8, idClientB,
+				new InetSocketAddress(context.getInetAddress(), response.getPort()), response.getToken());
 	}
 
 	/**
-	 * Transfers the bytebuffer to simulate a tcp connection.
+	 * Performs the failure of a direct connection, the recipient is told to use
+	 * the relay.
 	 * 
-	 * @param bb      - ByteBuffer containing data to transfer
-	 * @param context - context of incoming bytebuffer
+	 * @param idClientB - id of the recipient of the request
+	 * @param context   - context of the customer who made the request
 	 */
-	public void transferDataTCP(ByteBuffer bb, Context context) {
-		Objects.requireNonNull(bb);
+	public void tcpDirectFailedMessage(short idClientB, ContextDefault context) {
 		Objects.requireNonNull(context);
-		bb.flip();
-		var data = ByteBuffer.allocate(bb.remaining()).put(bb);
-		bb.compact();
-		privateTCP.get(context).queueData(data.flip());
-	}
-
-	/**
-	 * Runs the server
-	 * 
-	 * @param args - command line arguments
-	 * @throws NumberFormatException - If the string does not contain a parsable
-	 *                               integer.
-	 * @throws IOException           - If some other I/O error occurs
-	 */
-	public static void main(String[] args) throws NumberFormatException, IOException {
-		if (args.length != 1) {
-			usage();
+		if (ifIdDoesntExist(idClientB, context)) {
+			return;
+		}
+		var offers = directOffers.get(idClientB);
+		var isaClientA = offers == null ? null : offers.get(context.id);
+		if (isaClientA == null) {
 			return;
 		}
-		new ServerChatOS(Integer.parseInt(args[0])).launch();
+		// the request waits again for the answer of the recipient, through the relay
+		var idClientA = context.id;
+		removeDirectOffer(idClientB, idClientA, isaClientA);
+		privateTCPResponseWaiting.computeIfAbsent(idClientB, k -> new HashMap<>()).put(idClientA, isaClientA);
+		timers.schedule(TCP_HANDSHAKE_TIMEOUT, () -> expireTCPDemand(idClientB, idClientA, isaClientA));
+		Sender.sendShort(mapId.get(idClientB), (byte) 9, idClientA);
 	}
 
-	private boolean ifIdDoesntExist(short id, Context context) {
-		if (!mapId.containsKey(id)) {
-			Sender.sendOpCode(context, (byte) -1);
-			return true;
+	private void removeDirectOffer(short idClientB, short idClientA, InetSocketAddress isaClientA) {
+		var offers = directOffers.get(idClientB);
+		if (offers != null && offers.remove(idClientA, isaClientA) && offers.isEmpty()) {
+			directOffers.remove(idClientB);
 		}
-		return false;
 	}
 
-	private void deletePrivateTCPResponseWaiting(short id) {
-		if (privateTCPResponseWaiting.containsKey(id)) {
-			privateTCPResponseWaiting.remove(id);
-		}
+	private boolean isTCPResponseWaiting(short idClientB, short idClientA) {
+		var waiting = privateTCPResponseWaiting.get(idClientB);
+		return waiting != null && waiting.containsKey(idClientA);
 	}
 
-	private void disconnectedClient(short id) {
-		var clientContext = mapId.get(id);
-		if (clientContext != null) {
-			var pseudo = clientContext.pseudonyme;
-			mapId.remove(id);
-			pseudonymes.remove(pseudo);
-			var bb = ByteBuffer.allocate(Byte.BYTES + Short.BYTES);
-			bb.put((byte) 1).putShort(id);
-			mapId.forEach((k, context) -> {
-				context.queueData(bb.flip());
-			});
-			if (mapIdTCP.containsKey(id)) {
-				var set = mapIdTCP.get(id);
-				set.forEach(element -> {
-					disconnectedTCP(element);
-				});
-				mapIdTCP.remove(id);
+	private void removeTCPResponseWaiting(short idClientB, short idClientA) {
+		var waiting = privateTCPResponseWaiting.get(idClientB);
+		if (waiting != null) {
+			waiting.remove(idClientA);
+			if (waiting.isEmpty()) {
+				privateTCPResponseWaiting.remove(idClientB);
 			}
-			deletePrivateTCPResponseWaiting(id);
 		}
 	}
 
-	private void disconnectedTCP(ContextTCP context) {
-		var context2 = privateTCP.remove(context);
-		if (context2 != null) {
-			context2.silentlyClose();
-			privateTCP.remove(context2);
+	/**
+	 * Closes a private connection if both clients didn't connect in time,
+	 * otherwise starts checking its traffic.
+	 */
+	private void expireTCPConnection(ContextTCP contextTCPA, InetSocketAddress isaClientA,
+			InetSocketAddress isaClientB) {
+		var contextTCPB = privateTCP.get(contextTCPA);
+		if (contextTCPB == null) {
+			return;
+		}
+		if (privateTCPWaitingConnection.get(isaClientA) != contextTCPA
+				&& privateTCPWaitingConnection.get(isaClientB) != contextTCPB) {
+			timers.schedule(TCP_IDLE_TIMEOUT, () -> checkTCPIdle(contextTCPA));
+			return;
+		}
+		logger.info("Private connection between " + contextTCPA.id + " and " + contextTCPB.id + " timed out");
+		privateTCPWaitingConnection.remove(isaClientA, contextTCPA);
+		privateTCPWaitingConnection.remove(isaClientB, contextTCPB);
+		disconnectedTCP(contextTCPA);
+	}
+
+	private void checkTCPIdle(ContextTCP context) {
+		if (!privateTCP.containsKey(context)) {
+			return;
+		}
+		var idle = now - context.lastActivity;
+		if (idle < TCP_IDLE_TIMEOUT) {
+			timers.schedule(TCP_IDLE_TIMEOUT - idle, () -> checkTCPIdle(context));
+			return;
+		}
+		logger.info("Private connection of " + context.id + " idle for " + idle + " ms");
+		disconnectedTCP(context);
+	}
+
+	/**
+	 * Sends the clients of the cluster whose pseudonyme starts with the given
+	 * prefix, at most {@link #QUERY_LIMIT}.
+	 * 
+	 * @param prefix  - prefix of the pseudonymes, the case and the Unicode form
+	 *                are ignored
+	 * @param context - context of the client asking
+	 */
+	public void query(String prefix, Context context) {
+		Objects.requireNonNull(prefix);
+		Objects.requireNonNull(context);
+		Sender.sendClientList(context, (byte) 10, directory.startingWith(prefix, QUERY_LIMIT));
+	}
+
+	/**
+	 * Sends the page of the client list starting after the given cursor, with the
+	 * number of clients connected and the cursor of the next page.
+	 * 
+	 * @param after   - cursor of the page, -1 for the first page
+	 * @param context - context of the client asking
+	 */
+	public void rosterPage(short after, Context context) {
+		Objects.requireNonNull(context);
+		var page = directory.page(after, ROSTER_PAGE_SIZE);
+		short next = page.isEmpty() ? -1 : page.get(page.size() - 1).getShort();
+		if (next != -1 && !directory.hasAfter(next)) {
+			next = -1;
+		}
+		Sender.sendRosterPage(context, (byte) 11, (short) directory.size(), next, page);
+	}
+
+	/**
+	 * Sends the pseudonyme of a client, or an empty pseudonyme if the client is
+	 * not connected.
+	 * 
+	 * @param clientId - id of the client
+	 * @param context  - context of the client asking
+	 */
+	public void rosterLookup(short clientId, Context context) {
+		Objects.requireNonNull(context);
+		Sender.sendShortString(context, (byte) 12, clientId, directory.pseudonymeOf(clientId).orElse(""));
+	}
+
+	/**
+	 * Send a message to someone in particular.
+	 * 
+	 * @param data     - ShortString, short is receipient's id, string the message
+	 *                 to send
+	 * @param idSender - client ID who send the message
+	 * @param context  - sender's context
+	 */
+	public void specificMessage(ShortString data, short idSender, Context context) {
+		Objects.requireNonNull(data);
+		Objects.requireNonNull(context);
+		var idReceip = data.getShort();
+		var message = data.getString();
+		var owner = directory.nodeOf(idReceip);
+		if (owner.isPresent() && owner.get() != nodeId) {
+			var node = nodes.get(owner.get());
+			if (node == null) {
+				// the link to the node of the recipient is down, the message cannot reach it
+				logger.info("No link to node " + owner.get() + " for a message to " + idReceip);
+				Sender.sendOpCode(context, (byte) -1);
+				return;
+			}
+			Sender.sendShortShortString(node, (byte) 4, idReceip, idSender, message);
+			return;
+		}
+		if (ifIdDoesntExist(idReceip, context)) {
+			return;
+		}
+		var receiver = mapId.get(idReceip);
+		if (Utf8Codec.encodedLength(message) > receiver.getProtocol().getMaxStringBytes()) {
+			return; // too long for the framing of the receiver
+		}
+		sendSequenced(receiver, Sender.encodeShortString(receiver.getProtocol(), (byte) 3, idSender, message));
+	}
+
+	/**
+	 * Sends a private message to a client designated by its pseudonyme. If the
+	 * client is offline, the message is kept in the mailbox and the sender is told
+	 * if it was kept.
+	 * 
+	 * @param data    - StringString, the pseudonyme of the recipient then the
+	 *                message
+	 * @param context - sender's context
+	 */
+	public void pseudoMessage(StringString data, ContextDefault context) {
+		Objects.requireNonNull(data);
+		Objects.requireNonNull(context);
+		var recipient = data.getFirst();
+		var message = data.getSecond();
+		var id = directory.idOf(recipient);
+		if (id.isPresent()) {
+			specificMessage(new ShortString(id.get(), message), context.id, context);
+			return;
+		}
+		if (mailbox == null) {
+			Sender.sendShortString(context, (byte) 18, MAILBOX_UNAVAILABLE, recipient);
+			return;
+		}
+		var sender = context.pseudonyme;
+		var timestamp = now;
+		mailboxIO.submit(() -> mailbox.deposit(recipient, sender, timestamp, message),
+				status -> Sender.sendShortString(context, (byte) 18, (short) status.ordinal(), recipient), e -> {
+					logger.log(Level.WARNING, "Message for " + recipient + " not kept", e);
+					Sender.sendShortString(context, (byte) 18, MAILBOX_UNAVAILABLE, recipient);
+				});
+	}
+
+	/**
+	 * Opens the mailbox of a client who logged in with the key of its mailbox.
+	 * The client gets the key if the mailbox was just created, then the messages
+	 * kept while it was offline, {@link #MAILBOX_BATCH} messages at a time. A
+	 * client presenting another key is only told the mailbox isn't its.
+	 */
+	private void openMailbox(short id, String pseudonyme, long key) {
+		if (mailbox == null) {
+			return;
+		}
+		mailboxIO.submit(() -> mailbox.register(pseudonyme, key), owned -> {
+			var context = mapId.get(id);
+			if (context == null || !pseudonyme.equals(context.pseudonyme)) {
+				return;
+			}
+			if (owned == 0) {
+				Sender.sendShortString(context, (byte) 18, MAILBOX_NOT_OWNED, pseudonyme);
+				return;
+			}
+			if (owned != key) {
+				sendSequenced(context, Sender.encodeLong(context.getProtocol(), (byte) 20, owned));
+			}
+			mailboxIO.submit(() -> mailbox.next(pseudonyme, 0, MAILBOX_BATCH),
+					batch -> deliverOffline(id, pseudonyme, batch),
+					e -> logger.log(Level.WARNING, "Mailbox of " + pseudonyme + " unavailable", e));
+		}, e -> logger.log(Level.WARNING, "Mailbox of " + pseudonyme + " unavailable", e));
+	}
+
+	/**
+	 * Sends a batch of offline messages, then drops the messages sent from the
+	 * mailbox and reads the next batch. The messages stay in the mailbox if the
+	 * client logged out meanwhile, or from the first one too long for the
+	 * protocol of the client, until it logs in with a protocol which can carry
+	 * it.
+	 */
+	private void deliverOffline(short id, String pseudonyme, List<OfflineMessage> batch) {
+		var context = mapId.get(id);
+		if (batch.isEmpty() || context == null || !pseudonyme.equals(context.pseudonyme)) {
+			return;
+		}
+		var sent = 0;
+		for (var message : batch) {
+			if (Utf8Codec.encodedLength(message.getMessage()) > context.getProtocol().getMaxStringBytes()) {
+				break;
+			}
+			sendSequenced(context, Sender.encodeOfflineMessage(context.getProtocol(), (byte) 17, message));
+			sent++;
+		}
+		if (sent == 0) {
+			logger.info("Message for " + pseudonyme + " too long for its protocol, kept in the mailbox");
+			return;
+		}
+		var delivered = sent;
+		mailboxIO.submit(() -> mailbox.next(pseudonyme, delivered, MAILBOX_BATCH),
+				next -> deliverOffline(id, pseudonyme, next),
+				e -> logger.log(Level.WARNING, "Mailbox of " + pseudonyme + " unavailable", e));
+	}
+
+	/**
+	 * Appends a broadcast delivered by this node to the history, the messages of
+	 * a sender unknown to the directory are not kept. The append posts nothing
+	 * back, so a busy room doesn't wake up the selector once per message.
+	 */
+	private void archive(short idSender, String message) {
+		if (history == null) {
+			return;
+		}
+		var sender = directory.pseudonymeOf(idSender);
+		if (sender.isEmpty()) {
+			return;
+		}
+		var timestamp = now;
+		historyIO.execute(() -> history.append(timestamp, sender.get(), message),
+				e -> logger.log(Level.WARNING, "Message of " + sender.get() + " not kept in the history", e));
+	}
+
+	/**
+	 * Searches the history for the broadcasts containing all the terms of a
+	 * query, and sends the
+	 * {@link #SEARCH_LIMIT} most recent ones. The result is empty if the server
+	 * keeps no history.
+	 * 
+	 * @param query   - terms to look for
+	 * @param context - context of the client searching
+	 */
+	public void search(String query, ContextDefault context) {
+		Objects.requireNonNull(query);
+		Objects.requireNonNull(context);
+		if (history == null) {
+			Sender.sendSearchResult(context, (byte) 19, List.of());
+			return;
+		}
+		var id = context.id;
+		var pseudonyme = context.pseudonyme;
+		historyIO.submit(() -> history.search(query, SEARCH_LIMIT), hits -> {
+			if (mapId.get(id) == context) {
+				Sender.sendSearchResult(context, (byte) 19, hits);
+			}
+		}, e -> {
+			logger.log(Level.WARNING, "Search of " + pseudonyme + " failed", e);
+			if (mapId.get(id) == context) {
+				Sender.sendSearchResult(context, (byte) 19, List.of());
+			}
+		});
+	}
+
+	/**
+	 * 
+	 * @return the interceptors run on the messages of the clients, empty until an
+	 *         interceptor is added.
+	 */
+	public InterceptorPipeline getInterceptors() {
+		return interceptors;
+	}
+
+	/**
+	 * Runs the interceptors on a message of a client, then dispatches it with the
+	 * text returned by the interceptors if they didn't drop it. Callers check
+	 * {@link InterceptorPipeline#isEmpty()} first and dispatch the message
+	 * directly if no interceptor is added.
+	 * 
+	 * @param context   - sender's context
+	 * @param traffic   - class of the message
+	 * @param recipient - pseudonyme of the recipient, empty for a broadcast
+	 * @param text      - text of the message, empty for a request of private
+	 *                  connection
+	 * @param action    - dispatches the message
+	 */
+	public void intercept(ContextDefault context, Traffic traffic, String recipient, String text,
+			Consumer<String> action) {
+		Objects.requireNonNull(context);
+		interceptors.dispatch(new MessageInterceptor.Message(traffic, context.id, context.pseudonyme, recipient, text),
+				action);
+	}
+
+	/**
+	 * 
+	 * @param id - ID of a client
+	 * @return the pseudonyme of the client, empty if the client is not connected
+	 *         to the cluster.
+	 */
+	public String pseudonymeOf(short id) {
+		return directory.pseudonymeOf(id).orElse("");
+	}
+
+	/**
+	 * Keeps the messages delivered by this node in the given history, so the
+	 * clients can search them.
+	 * 
+	 * @param history the history, only used by a thread of the server once set
+	 */
+	public void setHistory(History history) {
+		this.history = Objects.requireNonNull(history);
+	}
+
+	/**
+	 * Keeps the private messages sent to offline clients in the given mailbox, the
+	 * clients known by the mailbox are the clients who logged in with
+	 * {@link Protocol#FLAG_MAILBOX} while it was used.
+	 * 
+	 * @param mailbox the mailbox, only used by a thread of the server once set
+	 */
+	public void setMailbox(Mailbox mailbox) {
+		this.mailbox = Objects.requireNonNull(mailbox);
+	}
+
+	/**
+	 * Transfers the bytebuffer to simulate a tcp connection.
+	 * 
+	 * @param bb      - ByteBuffer containing data to transfer
+	 * @param context - context of incoming bytebuffer
+	 */
+	public void transferDataTCP(ByteBuffer bb, Context context) {
+		Objects.requireNonNull(bb);
+		Objects.requireNonNull(context);
+		bb.flip();
+		var data = ByteBuffer.allocate(bb.remaining()).put(bb);
+		bb.compact();
+		var receiver = privateTCP.get(context);
+		((ContextTCP) context).lastActivity = now;
+		receiver.lastActivity = now;
+		receiver.queueData(data.flip());
+	}
+
+	/**
+	 * Runs the server
+	 * 
+	 * @param args - command line arguments
+	 * @throws NumberFormatException - If the string does not contain a parsable
+	 *                               integer.
+	 * @throws IOException           - If some other I/O error occurs
+	 */
+	public static void main(String[] args) throws NumberFormatException, IOException {
+		var floodControl = new FloodControl();
+		Path mailboxFolder = null;
+		Path historyFolder = null;
+		var positional = new ArrayList<String>();
+		try {
+			for (var i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "--rate":
+					floodControl.setLimit(args[++i]);
+					break;
+				case "--flood":
+					floodControl.setPolicy(Policy.valueOf(args[++i].toUpperCase(Locale.ROOT)));
+					break;
+				case "--mailbox":
+					mailboxFolder = Path.of(args[++i]);
+					break;
+				case "--history":
+					historyFolder = Path.of(args[++i]);
+					break;
+				default:
+					positional.add(args[i]);
+				}
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			usage();
+			return;
+		}
+		args = positional.toArray(String[]::new);
+		ServerChatOS server;
+		if (args.length == 1) {
+			server = new ServerChatOS(Integer.parseInt(args[0]));
+		} else {
+			if (args.length < 4 || !args[1].equals("--node")) {
+				usage();
+				return;
+			}
+			var peers = new ArrayList<InetSocketAddress>();
+			for (var i = 4; i < args.length; i++) {
+				var separator = args[i].lastIndexOf(':');
+				if (separator == -1) {
+					usage();
+					return;
+				}
+				peers.add(new InetSocketAddress(args[i].substring(0, separator),
+						Integer.parseInt(args[i].substring(separator + 1))));
+			}
+			server = new ServerChatOS(Integer.parseInt(args[0]), Integer.parseInt(args[2]), Integer.parseInt(args[3]),
+					peers);
+		}
+		server.setFloodControl(floodControl);
+		if (mailboxFolder != null) {
+			server.setMailbox(Mailbox.open(mailboxFolder, MAILBOX_USER_BYTES, MAILBOX_BYTES));
+		}
+		if (historyFolder != null) {
+			server.setHistory(History.open(historyFolder));
+		}
+		server.launch();
+	}
+
+	private boolean ifIdDoesntExist(short id, Context context) {
+		if (!mapId.containsKey(id)) {
+			Sender.sendOpCode(context, (byte) -1);
+			return true;
+		}
+		return false;
+	}
+
+	private void deletePrivateTCPResponseWaiting(short id) {
+		if (privateTCPResponseWaiting.containsKey(id)) {
+			privateTCPResponseWaiting.remove(id);
+		}
+		directOffers.remove(id);
+	}
+
+	/**
+	 * 
+	 * @return the configuration and the counters of the flood protection.
+	 */
+	public FloodControl getFloodControl() {
+		return floodControl;
+	}
+
+	/**
+	 * Replaces the configuration of the flood protection, for the clients
+	 * connected after the change.
+	 * 
+	 * @param floodControl the new configuration
+	 */
+	public void setFloodControl(FloodControl floodControl) {
+		this.floodControl = Objects.requireNonNull(floodControl);
+	}
+
+	/**
+	 * Checks that a client may send a message of the given class, taking a token
+	 * of its bucket. The first message dropped is notified to the client, the
+	 * client is disconnected instead if the policy asks so.
+	 * 
+	 * @param context client context
+	 * @param traffic class of the message
+	 * @return true if the message must be dispatched
+	 */
+	public boolean allow(ContextDefault context, Traffic traffic) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(traffic);
+		if (context.flooding) {
+			return false;
+		}
+		if (context.buckets.get(traffic).tryAcquire(now)) {
+			context.throttled.remove(traffic);
+			touch(context);
+			return true;
+		}
+		floodControl.countDropped(traffic);
+		if (floodControl.getPolicy() == Policy.DISCONNECT) {
+			logger.info("Client " + context.pseudonyme + " disconnected for flooding " + traffic);
+			floodControl.countDisconnected();
+			context.flooding = true;
+			Sender.sendShort(context, (byte) 14, (short) traffic.ordinal());
+			context.close();
+			return false;
+		}
+		if (context.throttled.add(traffic)) {
+			Sender.sendShort(context, (byte) 14, (short) traffic.ordinal());
+		}
+		return false;
+	}
+
+	/**
+	 * Records a message of a client, a parked client keeps its buffers again.
+	 */
+	private void touch(ContextDefault context) {
+		context.lastMessage = now;
+		context.setParkWhenIdle(false);
+	}
+
+	/**
+	 * Allows a client without message for {@link #PARK_AFTER} to park, checks
+	 * again when this delay will be reached otherwise.
+	 */
+	private void parkCheck(ContextDefault context) {
+		var quiet = now - context.lastMessage;
+		if (quiet >= PARK_AFTER) {
+			context.setParkWhenIdle(true);
+			context.parkCheck = timers.schedule(PARK_AFTER, () -> parkCheck(context));
+			return;
+		}
+		context.parkCheck = timers.schedule(PARK_AFTER - quiet, () -> parkCheck(context));
+	}
+
+	/**
+	 * Sends a heartbeat to a client and schedules the next one, the client is
+	 * disconnected when it missed {@link #MAX_MISSED_HEARTBEATS} heartbeats.
+	 */
+	private void heartbeat(ContextDefault context) {
+		if (context.pingPending && ++context.missedHeartbeats >= MAX_MISSED_HEARTBEATS) {
+			logger.info("Client " + context.pseudonyme + " missed " + context.missedHeartbeats + " heartbeats");
+			evictedClients++;
+			context.silentlyClose();
+			return;
+		}
+		context.pingSent = System.nanoTime();
+		context.pingPending = true;
+		Sender.sendLong(context, (byte) 13, context.pingSent);
+		context.heartbeat = timers.schedule(HEARTBEAT_INTERVAL, () -> heartbeat(context));
+	}
+
+	/**
+	 * Performs the answer of a client to a heartbeat. Any answer proves the client
+	 * alive, only the answer to the last heartbeat is measured.
+	 * 
+	 * @param timestamp timestamp of the heartbeat answered
+	 * @param context   client context
+	 */
+	public void pong(long timestamp, ContextDefault context) {
+		Objects.requireNonNull(context);
+		context.missedHeartbeats = 0;
+		if (context.pingPending && timestamp == context.pingSent) {
+			context.pingPending = false;
+			context.rtt.update(System.nanoTime() - timestamp);
+		}
+	}
+
+	/**
+	 * Gives another frame budget to each client backlogged before this call, in
+	 * the order they were backlogged. A client exhausting it again goes back at
+	 * the end of the backlog, after the clients backlogged meanwhile.
+	 */
+	private void resumeBacklog() {
+		for (var i = backlog.size(); i > 0; i--) {
+			backlog.poll().resume();
+		}
+	}
+
+	private void logMetrics() {
+		timers.schedule(METRICS_INTERVAL, this::logMetrics);
+		var stats = mapId.values().stream().filter(context -> context.rtt.getSamples() > 0)
+				.mapToLong(context -> context.rtt.getSmoothed()).summaryStatistics();
+		var jitter = mapId.values().stream().filter(context -> context.rtt.getSamples() > 0)
+				.mapToLong(context -> context.rtt.getVariation()).average().orElse(0);
+		logger.info(String.format(
+				"Heartbeat : %d clients, srtt min/avg/max : %.3f/%.3f/%.3f ms, jitter avg : %.3f ms, evicted : %d",
+				mapId.size(), stats.getCount() == 0 ? 0 : stats.getMin() / 1e6, stats.getAverage() / 1e6,
+				stats.getCount() == 0 ? 0 : stats.getMax() / 1e6, jitter / 1e6, evictedClients));
+		logger.info("Flood control : " + floodControl);
+		logger.info("Buffers : " + ContextAbstract.getBufferPool() + ", " + ContextAbstract.getResizes() + " resizes, "
+				+ ContextAbstract.getParkedContexts() + " contexts parked, " + ContextAbstract.getParks() + " parks");
+		logger.info("Fair scheduling : " + ContextAbstract.getBacklogs() + " budgets exhausted, " + backlog.size()
+				+ " clients backlogged");
+		if (mailbox != null) {
+			mailboxIO.submit(mailbox::toString, summary -> logger.info("Mailbox : " + summary), e -> {
+				// the stats are logged at the next interval
+			});
+		}
+		if (!interceptors.isEmpty()) {
+			logger.info("Interceptors : " + interceptors);
+		}
+		if (history != null) {
+			historyIO.submit(history::toString, summary -> logger.info("History : " + summary), e -> {
+				// the stats are logged at the next interval
+			});
+		}
+		logger.info("Sessions : " + sessions.size() + " open, " + resumedSessions + " resumed, " + expiredSessions
+				+ " expired");
+	}
+
+	/**
+	 * Queues a packet carrying a message or a change of the client list, the
+	 * packet is numbered and kept if the client has a session. The packet must
+	 * not be modified anymore.
+	 */
+	private void sendSequenced(ContextDefault context, ByteBuffer packet) {
+		if (context.session != null) {
+			context.session.record(packet);
+		}
+		context.queueData(packet);
+	}
+
+	private Session newSession(ContextDefault context) {
+		long token;
+		do {
+			token = tokens.nextLong();
+		} while (sessions.containsKey(token));
+		var session = new Session(token, context.id, context.pseudonyme, context.getProtocol(), SESSION_REPLAY_PACKETS,
+				SESSION_REPLAY_BYTES);
+		sessions.put(token, session);
+		return session;
+	}
+
+	/**
+	 * Keeps a client who lost its connection logged in for
+	 * {@link #SESSION_GRACE}, the packets sent to it meanwhile are kept by its
+	 * session.
+	 */
+	private void detach(ContextDefault context) {
+		if (context.sessionExpiry != null || mapId.get(context.id) != context) {
+			return;
+		}
+		logger.info("Client " + context.pseudonyme + " lost its connection, session kept");
+		context.sessionExpiry = timers.schedule(SESSION_GRACE, () -> {
+			expiredSessions++;
+			disconnectedClient(context.id);
+		});
+	}
+
+	/**
+	 * Resumes the session given by a login, the new connection replaces the old
+	 * one and receives the packets the client missed.
+	 * 
+	 * @param login   login of the client, asking to resume a session
+	 * @param context context of the new connection
+	 * @return false if the session can't be resumed, the login is then handled as
+	 *         a new login
+	 */
+	private boolean resume(Login login, ContextDefault context) {
+		var session = sessions.get(login.getSession());
+		if (session == null || !session.getPseudonyme().equals(login.getPseudonyme())) {
+			return false;
+		}
+		var old = mapId.get(session.getId());
+		var missed = session.since(login.getSequence());
+		if (old == null || old.session != session || missed.isEmpty()
+				|| session.getProtocol() != Protocol.negotiate(login.getVersion().getVersion())) {
+			logger.info("Session of " + session.getPseudonyme() + " can't be resumed");
+			if (old != null) {
+				old.replaced = true;
+				old.silentlyClose();
+			}
+			disconnectedClient(session.getId());
+			return false;
+		}
+		old.replaced = true;
+		old.silentlyClose();
+		if (old.sessionExpiry != null) {
+			old.sessionExpiry.cancel();
+		}
+		context.negotiate(login);
+		context.loginTimeout.cancel();
+		pendingIds.remove(context.id);
+		context.id = session.getId();
+		context.pseudonyme = session.getPseudonyme();
+		context.session = session;
+		mapId.put(context.id, context);
+		context.start();
+		Sender.sendLong(context, (byte) 16, session.getToken());
+		missed.get().forEach(context::queueData);
+		resumedSessions++;
+		logger.info("Session of " + session.getPseudonyme() + " resumed, " + missed.get().size() + " packets replayed");
+		return true;
+	}
+
+	private void disconnectedClient(short id) {
+		var clientContext = mapId.get(id);
+		if (clientContext != null) {
+			var pseudo = clientContext.pseudonyme;
+			mapId.remove(id);
+			interceptors.forget(id);
+			directory.remove(id);
+			if (clientContext.session != null) {
+				sessions.remove(clientContext.session.getToken());
+				if (clientContext.sessionExpiry != null) {
+					clientContext.sessionExpiry.cancel();
+				}
+			}
+			mapId.forEach((k, context) -> {
+				sendSequenced(context, Sender.encodeShort(context.getProtocol(), (byte) 1, id));
+			});
+			nodes.values().forEach(node -> Sender.sendShort(node, (byte) 2, id));
+			if (mapIdTCP.containsKey(id)) {
+				var set = List.copyOf(mapIdTCP.get(id));
+				set.forEach(element -> {
+					disconnectedTCP(element);
+				});
+				mapIdTCP.remove(id);
+			}
+			deletePrivateTCPResponseWaiting(id);
+		}
+	}
+
+	private void disconnectedTCP(ContextTCP context) {
+		var context2 = privateTCP.remove(context);
+		if (context2 != null) {
+			context2.silentlyClose();
+			privateTCP.remove(context2);
+			removeTCP(context2);
+		}
+		context.silentlyClose();
+		removeTCP(context);
+	}
+
+	private void removeTCP(ContextTCP context) {
+		var set = mapIdTCP.get(context.id);
+		if (set != null) {
+			set.remove(context);
+			if (set.isEmpty()) {
+				mapIdTCP.remove(context.id);
+			}
 		}
-		context.silentlyClose();
 	}
 
 	private void doAccept(SelectionKey key) throws IOException {
@@ -405,7 +1571,11 @@ public class ServerChatOS {
 			return;
 		}
 		sc.configureBlocking(false);
-		var k = sc.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+		var k = sc.register(selector, SelectionKey.OP_READ);
+		if (ssc == nodeSocketChannel) {
+			k.attach(new ContextNode(this, k, null));
+			return;
+		}
 		var isa = new InetSocketAddress(sc.socket().getInetAddress(), sc.socket().getPort());
 		if (privateTCPWaitingConnection.containsKey(isa)) {
 			var contextTCP = privateTCPWaitingConnection.get(isa);
@@ -414,25 +1584,237 @@ public class ServerChatOS {
 			privateTCPWaitingConnection.remove(isa);
 			return;
 		}
-		var context = new ContextDefault(this, k, id);
+		var clientId = nextId();
+		if (clientId.isEmpty()) {
+			logger.warning("No ID left, connection of " + isa + " refused");
+			sc.close();
+			return;
+		}
+		var context = new ContextDefault(this, k, clientId.get());
 		k.attach(context);
-		id++;
+		pendingIds.add(context.id);
+		context.loginTimeout = timers.schedule(LOGIN_TIMEOUT, () -> {
+			if (context.pseudonyme == null) {
+				logger.info("Login of " + isa + " timed out");
+				context.silentlyClose();
+			}
+		});
+	}
+
+	/**
+	 * Finds the first ID, from the last one given, used neither by a client
+	 * logged in nor by a connection waiting for its login. In a cluster, only the
+	 * IDs starting with the ID of this node are given.
+	 * 
+	 * @return the ID, empty if all the IDs are used
+	 */
+	private Optional<Short> nextId() {
+		var bits = nodeId == -1 ? Short.SIZE : LOCAL_ID_BITS;
+		var mask = (1 << bits) - 1;
+		var prefix = nodeId == -1 ? 0 : nodeId << LOCAL_ID_BITS;
+		for (var i = 0; i <= mask; i++) {
+			var candidate = (short) (prefix | (id & mask));
+			id = (short) (prefix | ((id + 1) & mask));
+			if (!mapId.containsKey(candidate) && !pendingIds.contains(candidate)) {
+				return Optional.of(candidate);
+			}
+		}
+		return Optional.empty();
 	}
 
 	private void newClient(ShortString data) {
 		Objects.requireNonNull(data);
 		var pseudo = data.getString();
 		var id = data.getShort();
-		pseudonymes.add(pseudo);
-		var bbPseudo = ContextDefault.UTF8.encode(pseudo);
-		var bb = ByteBuffer.allocate(Byte.BYTES + Short.BYTES * 2 + bbPseudo.remaining());
-		bb.put((byte) 0).putShort(id).putShort((short) bbPseudo.remaining()).put(bbPseudo);
 		mapId.forEach((k, context) -> {
 			if (k == id) {
 				return;
 			}
-			context.queueData(bb.flip());
+			sendSequenced(context, Sender.encodeShortString(context.getProtocol(), (byte) 0, id, pseudo));
 		});
+		nodes.values().forEach(node -> Sender.sendShortString(node, (byte) 1, id, pseudo));
+	}
+
+	private void sendHello(ContextNode node) {
+		Sender.sendByte(node, (byte) nodeId);
+	}
+
+	/**
+	 * Registers the link with another node once its ID is received, then sends it
+	 * the clients of this node. When both nodes dialed each other, the link
+	 * dialed by the node with the lowest ID is kept and the other one is closed,
+	 * both nodes make the same choice whatever the order of the hellos.
+	 * 
+	 * @param peerId  - ID of the other node
+	 * @param context - context of the link
+	 */
+	public void nodeHello(byte peerId, ContextNode context) {
+		Objects.requireNonNull(context);
+		if (peerId < 0 || peerId >= MAX_NODES || peerId == nodeId) {
+			logger.info("Refused link of node " + peerId);
+			context.close();
+			return;
+		}
+		if (context.peer != null) {
+			peerNodes.put(context.peer, (int) peerId);
+		}
+		var current = nodes.get((int) peerId);
+		if (current != null && (!isPreferred(context, peerId) || isPreferred(current, peerId))) {
+			logger.info("Refused second link of node " + peerId);
+			context.close();
+			return;
+		}
+		context.nodeId = peerId;
+		context.helloTimeout.cancel();
+		nodes.put((int) peerId, context);
+		if (current != null) {
+			logger.info("Replaced link with node " + peerId);
+			current.close(); // no longer in nodes, its clients are kept
+		}
+		mapId.values().forEach(client -> Sender.sendShortString(context, (byte) 1, client.id, client.pseudonyme));
+		logger.info("Linked with node " + peerId);
+	}
+
+	/**
+	 * Tells if a link with another node is the one kept when the nodes dialed each
+	 * other, the link dialed by the node with the lowest ID.
+	 */
+	private boolean isPreferred(ContextNode context, int peerId) {
+		var dialer = context.peer != null ? nodeId : peerId;
+		return dialer == Math.min(nodeId, peerId);
+	}
+
+	/**
+	 * Registers a client logged in on another node. If its pseudonyme is already
+	 * used, the client with the lowest ID keeps it, the same choice is made by all
+	 * the nodes.
+	 * 
+	 * @param client  - ShortString, short for the client's id, string for its
+	 *                pseudonyme
+	 * @param context - context of the link
+	 */
+	public void remoteClientJoin(ShortString client, ContextNode context) {
+		Objects.requireNonNull(client);
+		Objects.requireNonNull(context);
+		var clientId = client.getShort();
+		var pseudo = client.getString();
+		if (clientId >> LOCAL_ID_BITS != context.nodeId) {
+			return;
+		}
+		if (Utf8Codec.encodedLength(pseudo) > LoginReader.MAX_PSEUDONYME_BYTES) {
+			logger.warning("Refused pseudonyme too long from node " + context.nodeId);
+			return;
+		}
+		var owner = directory.idOf(pseudo);
+		if (owner.isPresent()) {
+			if (owner.get() <= clientId) { // already known, or sent again by a new link
+				return;
+			}
+			var local = mapId.get(owner.get());
+			if (local != null) {
+				local.silentlyClose();
+				disconnectedClient(owner.get()); // ends its session too
+			} else {
+				removeRemoteClient(owner.get());
+			}
+		}
+		if (!directory.add(clientId, pseudo, context.nodeId)) {
+			return;
+		}
+		mapId.values().forEach(
+				local -> sendSequenced(local, Sender.encodeShortString(local.getProtocol(), (byte) 0, clientId, pseudo)));
+	}
+
+	/**
+	 * Removes a client of another node.
+	 * 
+	 * @param clientId - id of the client
+	 * @param context  - context of the link
+	 */
+	public void remoteClientLeave(short clientId, ContextNode context) {
+		Objects.requireNonNull(context);
+		if (clientId >> LOCAL_ID_BITS != context.nodeId) {
+			return;
+		}
+		removeRemoteClient(clientId);
+	}
+
+	private void removeRemoteClient(short clientId) {
+		if (directory.remove(clientId).isEmpty()) {
+			return;
+		}
+		mapId.values().forEach(local -> sendSequenced(local, Sender.encodeShort(local.getProtocol(), (byte) 1, clientId)));
+	}
+
+	/**
+	 * Delivers the broadcast of a client of another node to the clients of this
+	 * node.
+	 * 
+	 * @param data    - ShortString, short for the sender's id, and string for the
+	 *                message.
+	 * @param context - context of the link
+	 */
+	public void remoteBroadcast(ShortString data, ContextNode context) {
+		Objects.requireNonNull(data);
+		Objects.requireNonNull(context);
+		if (isRemoteClient(data.getShort(), context)) {
+			deliverBroadcast(data);
+		}
+	}
+
+	/**
+	 * Delivers the message of a client of another node to a client of this node.
+	 * 
+	 * @param message - the forwarded message
+	 * @param context - context of the link
+	 */
+	public void remoteSpecificMessage(ForwardedMessage message, ContextNode context) {
+		Objects.requireNonNull(message);
+		Objects.requireNonNull(context);
+		var receiver = mapId.get(message.getRecipient());
+		if (receiver == null || !isRemoteClient(message.getSender(), context)
+				|| Utf8Codec.encodedLength(message.getMessage()) > receiver.getProtocol().getMaxStringBytes()) {
+			return;
+		}
+		sendSequenced(receiver,
+				Sender.encodeShortString(receiver.getProtocol(), (byte) 3, message.getSender(), message.getMessage()));
+	}
+
+	private boolean isRemoteClient(short clientId, ContextNode context) {
+		return directory.nodeOf(clientId).filter(node -> node == context.nodeId).isPresent();
+	}
+
+	private void disconnectedNode(ContextNode context) {
+		if (context.peer != null) {
+			peerLinks.remove(context.peer);
+		}
+		if (context.nodeId == -1 || nodes.get(context.nodeId) != context) {
+			return;
+		}
+		nodes.remove(context.nodeId);
+		directory.removeNode(context.nodeId).forEach(clientId -> mapId.values()
+				.forEach(local -> sendSequenced(local, Sender.encodeShort(local.getProtocol(), (byte) 1, clientId))));
+		logger.info("Lost link with node " + context.nodeId);
+	}
+
+	private void connectPeers() {
+		timers.schedule(NODE_RETRY_DELAY, this::connectPeers);
+		for (var peer : peers) {
+			if (peerLinks.containsKey(peer) || nodes.containsKey(peerNodes.get(peer))) {
+				continue; // already linked, maybe by the link the peer dialed
+			}
+			try {
+				var sc = SocketChannel.open();
+				sc.configureBlocking(false);
+				var key = sc.register(selector, SelectionKey.OP_CONNECT);
+				var context = new ContextNode(this, key, peer);
+				key.attach(context);
+				peerLinks.put(peer, context);
+				sc.connect(peer);
+			} catch (IOException e) {
+				logger.log(Level.INFO, "Connection to node " + peer + " failed", e);
+			}
+		}
 	}
 
 	private void silentlyClose(SelectionKey key) {
@@ -456,6 +1838,9 @@ public class ServerChatOS {
 			throw new UncheckedIOException(ioe);
 		}
 		try {
+			if (key.isValid() && key.isConnectable()) {
+				((Context) key.attachment()).doConnect();
+			}
 			if (key.isValid() && key.isWritable()) {
 				((Context) key.attachment()).doWrite();
 			}
@@ -464,45 +1849,61 @@ public class ServerChatOS {
 			}
 		} catch (IOException e) {
 			logger.log(Level.INFO, "Connection closed with client due to IOException", e);
-			((ContextAbstractServer) key.attachment()).DoClose();
+			((ContextAbstract) key.attachment()).DoClose();
 			silentlyClose(key);
 		}
 	}
 
 	private static void usage() {
-		System.out.println("Usage : ServerChatOS port");
+		System.out.println(
+				"Usage : ServerChatOS port [--node node-id node-port [host:node-port ...]] [--rate class=burst/perSecond ...] [--flood throttle|disconnect] [--mailbox folder] [--history folder]");
+		System.out.println("\tclass : broadcast, private ou tcp-ask");
 	}
 
 	/***
 	 * Theses methods are here to help understanding the behavior of the selector
 	 ***/
 
+	/**
+	 * Logs the keys of the selector at the FINE level, for debug.
+	 */
 	private void printKeys() {
+		if (!logger.isLoggable(Level.FINE)) {
+			return;
+		}
 		Set<SelectionKey> selectionKeySet = selector.keys();
 		if (selectionKeySet.isEmpty()) {
-			System.out.println("The selector contains no key : this should not happen!");
+			logger.fine("The selector contains no key : this should not happen!");
 			return;
 		}
-		System.out.println("The selector contains:");
+		var builder = new StringBuilder("The selector contains:");
 		for (SelectionKey key : selectionKeySet) {
 			SelectableChannel channel = key.channel();
 			if (channel instanceof ServerSocketChannel) {
-				System.out.println("\tKey for ServerSocketChannel : " + interestOpsToString(key));
+				builder.append("\n\tKey for ServerSocketChannel : ").append(interestOpsToString(key));
 			} else {
 				SocketChannel sc = (SocketChannel) channel;
-				System.out.println("\tKey for Client " + remoteAddressToString(sc) + " : " + interestOpsToString(key));
+				builder.append("\n\tKey for Client ").append(remoteAddressToString(sc)).append(" : ")
+						.append(interestOpsToString(key));
 			}
 		}
+		logger.fine(builder.toString());
 	}
 
+	/**
+	 * Logs the operations a selected key can perform at the FINE level, for
+	 * debug.
+	 */
 	private void printSelectedKey(SelectionKey key) {
+		if (!logger.isLoggable(Level.FINE)) {
+			return;
+		}
 		SelectableChannel channel = key.channel();
 		if (channel instanceof ServerSocketChannel) {
-			System.out.println("\tServerSocketChannel can perform : " + possibleActionsToString(key));
+			logger.fine("\tServerSocketChannel can perform : " + possibleActionsToString(key));
 		} else {
 			SocketChannel sc = (SocketChannel) channel;
-			System.out.println(
-					"\tClient " + remoteAddressToString(sc) + " can perform : " + possibleActionsToString(key));
+			logger.fine("\tClient " + remoteAddressToString(sc) + " can perform : " + possibleActionsToString(key));
 		}
 	}
 
@@ -529,7 +1930,13 @@ public class ServerChatOS {
 		return String.join("|", list);
 	}
 
+	/**
+	 * Logs the private connections being set up at the FINE level, for debug.
+	 */
 	private void printHashMaps() {
+		if (!logger.isLoggable(Level.FINE)) {
+			return;
+		}
 		var builder = new StringBuilder();
 		builder.append("Private TCP Response Waiting :\n");
 		privateTCPResponseWaiting.entrySet().forEach(entry -> {
@@ -547,7 +1954,7 @@ public class ServerChatOS {
 		privateTCP.entrySet().forEach(entry -> {
 			builder.append('\t').append(entry.getKey().id + " " + entry.getValue().id).append('\n');
 		});
-		System.out.println(builder.toString());
+		logger.fine(builder.toString());
 	}
 
 	private String possibleActionsToString(SelectionKey key) {
@@ -0,0 +1,144 @@
+package fr.umlv.chatos.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Optional;
+
+import fr.umlv.chatos.utils.Protocol;
+
+/**
+ * Session of a client, which survives the loss of its connection for a grace
+ * period. The packets carrying messages and changes of the client list are
+ * numbered in the order they are sent to the client, the client counts them
+ * the same way, and the last packets are kept in a bounded replay buffer. A
+ * client resuming the session gives the number of packets it received and is
+ * sent the packets it missed, if they are still in the buffer.
+ * 
+ * The packets are kept uncompressed, in the framing of the protocol of the
+ * session, so a packet broadcast to several clients is shared by their
+ * buffers.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class Session {
+
+	private final long token;
+	private final short id;
+	private final String pseudonyme;
+	private final Protocol protocol;
+	private final int maxPackets;
+	private final long maxBytes;
+	private final ArrayDeque<ByteBuffer> replay = new ArrayDeque<>();
+	private long replayBytes;
+	private int sequence;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param token      token of the session, given by the client to resume it
+	 * @param id         ID of the client
+	 * @param pseudonyme pseudonyme of the client
+	 * @param protocol   protocol of the packets kept
+	 * @param maxPackets maximum number of packets kept
+	 * @param maxBytes   maximum number of bytes of the packets kept
+	 */
+	public Session(long token, short id, String pseudonyme, Protocol protocol, int maxPackets, long maxBytes) {
+		if (maxPackets <= 0) {
+			throw new IllegalArgumentException("maxPackets should be positiv, current : " + maxPackets);
+		}
+		this.token = token;
+		this.id = id;
+		this.pseudonyme = Objects.requireNonNull(pseudonyme);
+		this.protocol = Objects.requireNonNull(protocol);
+		this.maxPackets = maxPackets;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Numbers a packet sent to the client and keeps it, forgetting the oldest
+	 * packets beyond the limits.
+	 * 
+	 * @param packet packet in read mode, it must not be modified anymore
+	 */
+	public void record(ByteBuffer packet) {
+		var kept = packet.asReadOnlyBuffer();
+		sequence++;
+		replay.add(kept);
+		replayBytes += kept.remaining();
+		while (replay.size() > maxPackets || (replayBytes > maxBytes && replay.size() > 1)) {
+			replayBytes -= replay.poll().remaining();
+		}
+	}
+
+	/**
+	 * Returns the packets sent after the given number of packets.
+	 * 
+	 * @param received number of packets received by the client
+	 * @return the packets missed, ready to be queued, empty if some of them are
+	 *         not kept anymore or if the client claims more packets than sent
+	 */
+	public Optional<List<ByteBuffer>> since(int received) {
+		var first = sequence - replay.size();
+		if (received < first || received > sequence) {
+			return Optional.empty();
+		}
+		var missed = new ArrayList<ByteBuffer>(sequence - received);
+		var skip = received - first;
+		for (var packet : replay) {
+			if (skip-- > 0) {
+				continue;
+			}
+			missed.add(packet.duplicate());
+		}
+		return Optional.of(missed);
+	}
+
+	/**
+	 * 
+	 * @return the token of the session.
+	 */
+	public long getToken() {
+		return token;
+	}
+
+	/**
+	 * 
+	 * @return the ID of the client.
+	 */
+	public short getId() {
+		return id;
+	}
+
+	/**
+	 * 
+	 * @return the pseudonyme of the client.
+	 */
+	public String getPseudonyme() {
+		return pseudonyme;
+	}
+
+	/**
+	 * 
+	 * @return the protocol of the packets kept.
+	 */
+	public Protocol getProtocol() {
+		return protocol;
+	}
+
+	/**
+	 * 
+	 * @return the number of packets sent in the session.
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+
+	@Override
+	public String toString() {
+		return pseudonyme + " (" + id + "), " + sequence + " packets sent, " + replay.size() + " kept";
+	}
+}
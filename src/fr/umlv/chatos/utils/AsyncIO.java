@@ -0,0 +1,280 @@
+package fr.umlv.chatos.utils;
+
+import java.io.IOException;
+import java.nio.channels.Selector;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Runs the blocking tasks of a selector loop, like reading the console or the
+ * disk, and hands their results back to the thread running the selector.
+ * 
+ * Results are added to a lock-free queue and the selector is woken up, the
+ * selector thread runs them with {@link #runCompletions()} after each select,
+ * so it never waits for a blocking task nor for a lock.
+ * 
+ * A pooled instance runs the tasks on a fixed number of daemon threads, a
+ * virtual instance runs each task on its own virtual thread when the runtime
+ * provides them, on a cached pool of daemon threads otherwise. In both cases
+ * the number of tasks submitted and not completed yet is bounded, a task
+ * submitted when the bound is reached is rejected with an {@link IOException}.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class AsyncIO {
+
+	/**
+	 * Blocking task producing a result.
+	 * 
+	 * @param <T> type of the result
+	 */
+	@FunctionalInterface
+	public interface IOTask<T> {
+		/**
+		 * Runs the task.
+		 * 
+		 * @return the result of the task
+		 * @throws IOException If an I/O error occurs
+		 */
+		T call() throws IOException;
+	}
+
+	private final Selector selector;
+	private final ExecutorService executor;
+	private final boolean virtual;
+	private final int maxPending;
+	private final ConcurrentLinkedQueue<Runnable> completions = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger pending = new AtomicInteger();
+	private final AtomicInteger maxDepth = new AtomicInteger();
+	private final LongAdder submitted = new LongAdder();
+	private final LongAdder rejected = new LongAdder();
+
+	private AsyncIO(Selector selector, ExecutorService executor, boolean virtual, int maxPending) {
+		if (maxPending <= 0) {
+			throw new IllegalArgumentException("maxPending should be positiv, current : " + maxPending);
+		}
+		this.selector = Objects.requireNonNull(selector);
+		this.executor = executor;
+		this.virtual = virtual;
+		this.maxPending = maxPending;
+	}
+
+	/**
+	 * Creates an instance running the tasks on a fixed number of daemon threads.
+	 * 
+	 * @param selector   selector woken up when a result is posted
+	 * @param threads    number of threads running the tasks
+	 * @param maxPending maximum number of tasks submitted and not completed
+	 * @return the new instance
+	 */
+	public static AsyncIO pooled(Selector selector, int threads, int maxPending) {
+		return new AsyncIO(selector, Executors.newFixedThreadPool(threads, AsyncIO::newDaemonThread), false,
+				maxPending);
+	}
+
+	/**
+	 * Creates an instance running the tasks on virtual threads, or on daemon
+	 * threads if the runtime has no virtual threads.
+	 * 
+	 * @param selector   selector woken up when a result is posted
+	 * @param maxPending maximum number of tasks submitted and not completed
+	 * @return the new instance
+	 */
+	public static AsyncIO virtual(Selector selector, int maxPending) {
+		try {
+			return new AsyncIO(selector,
+					(ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null), true,
+					maxPending);
+		} catch (ReflectiveOperationException e) {
+			return new AsyncIO(selector, Executors.newCachedThreadPool(AsyncIO::newDaemonThread), true, maxPending);
+		}
+	}
+
+	private static Thread newDaemonThread(Runnable runnable) {
+		var thread = new Thread(runnable);
+		thread.setDaemon(true);
+		return thread;
+	}
+
+	/**
+	 * Starts a long running task, like reading the console. The task always runs
+	 * on its own thread and is not counted in the pending tasks.
+	 * 
+	 * @param task task to start
+	 * @return the future of the task, cancelling it interrupts its thread
+	 */
+	public Future<?> start(Runnable task) {
+		Objects.requireNonNull(task);
+		if (virtual) {
+			return executor.submit(task);
+		}
+		var future = new FutureTask<Void>(task, null);
+		new Thread(future).start();
+		return future;
+	}
+
+	/**
+	 * Runs a blocking task, its result is given to one of the consumers on the
+	 * selector thread. If too many tasks are pending, the task is not run and
+	 * onFailure is called at once. An unchecked exception thrown by the task is
+	 * given to onFailure as the cause of an {@link IOException}.
+	 * 
+	 * @param <T>       type of the result
+	 * @param task      task to run
+	 * @param onSuccess called with the result of the task
+	 * @param onFailure called with the exception thrown by the task
+	 */
+	public <T> void submit(IOTask<? extends T> task, Consumer<? super T> onSuccess,
+			Consumer<? super IOException> onFailure) {
+		Objects.requireNonNull(task);
+		Objects.requireNonNull(onSuccess);
+		Objects.requireNonNull(onFailure);
+		if (!reserve(onFailure)) {
+			return;
+		}
+		executor.execute(() -> {
+			Runnable completion;
+			try {
+				completion = run(task, onSuccess, onFailure);
+			} finally {
+				pending.decrementAndGet();
+			}
+			post(completion);
+		});
+	}
+
+	/**
+	 * Runs a blocking task whose result is not needed, like an append to a log.
+	 * Nothing is handed to the selector thread, which is not woken up: onFailure
+	 * is called on the thread running the task, or at once if too many tasks are
+	 * pending, so it must be thread-safe. An unchecked exception thrown by the
+	 * task is given to onFailure as the cause of an {@link IOException}.
+	 * 
+	 * @param task      task to run
+	 * @param onFailure called with the exception thrown by the task
+	 */
+	public void execute(IOTask<?> task, Consumer<? super IOException> onFailure) {
+		Objects.requireNonNull(task);
+		Objects.requireNonNull(onFailure);
+		if (!reserve(onFailure)) {
+			return;
+		}
+		executor.execute(() -> {
+			try {
+				run(task, result -> {
+					// the result is not needed
+				}, onFailure).run();
+			} finally {
+				pending.decrementAndGet();
+			}
+		});
+	}
+
+	/**
+	 * Counts a task as pending, the task is rejected if too many tasks are
+	 * pending.
+	 */
+	private boolean reserve(Consumer<? super IOException> onFailure) {
+		var depth = pending.incrementAndGet();
+		if (depth > maxPending) {
+			pending.decrementAndGet();
+			rejected.increment();
+			onFailure.accept(new IOException("Too many pending tasks : " + maxPending));
+			return false;
+		}
+		submitted.increment();
+		maxDepth.accumulateAndGet(depth, Math::max);
+		return true;
+	}
+
+	private static <T> Runnable run(IOTask<? extends T> task, Consumer<? super T> onSuccess,
+			Consumer<? super IOException> onFailure) {
+		try {
+			T result = task.call();
+			return () -> onSuccess.accept(result);
+		} catch (IOException e) {
+			return () -> onFailure.accept(e);
+		} catch (RuntimeException e) {
+			var failure = new IOException("Task failed", e);
+			return () -> onFailure.accept(failure);
+		}
+	}
+
+	/**
+	 * Hands a result to the selector thread, can be called from any thread.
+	 * 
+	 * @param completion code to run on the selector thread
+	 */
+	public void post(Runnable completion) {
+		Objects.requireNonNull(completion);
+		completions.add(completion);
+		selector.wakeup();
+	}
+
+	/**
+	 * Runs the results posted since the last call, must be called by the selector
+	 * thread.
+	 * 
+	 * @return the number of results run.
+	 */
+	public int runCompletions() {
+		var count = 0;
+		for (Runnable completion; (completion = completions.poll()) != null; count++) {
+			completion.run();
+		}
+		return count;
+	}
+
+	/**
+	 * 
+	 * @return the number of tasks submitted and not completed.
+	 */
+	public int getPending() {
+		return pending.get();
+	}
+
+	/**
+	 * 
+	 * @return the highest number of pending tasks seen.
+	 */
+	public int getMaxDepth() {
+		return maxDepth.get();
+	}
+
+	/**
+	 * 
+	 * @return the number of tasks run.
+	 */
+	public long getSubmitted() {
+		return submitted.sum();
+	}
+
+	/**
+	 * 
+	 * @return the number of tasks rejected because too many tasks were pending.
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * Stops accepting tasks, the running tasks are not interrupted.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return (virtual ? "virtual" : "pooled") + ", pending : " + pending.get() + "/" + maxPending + ", max : "
+				+ maxDepth.get() + ", submitted : " + submitted.sum() + ", rejected : " + rejected.sum();
+	}
+}
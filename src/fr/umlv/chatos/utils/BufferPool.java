@@ -0,0 +1,142 @@
+package fr.umlv.chatos.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * Pool of bytebuffers shared by the contexts, so a context growing, shrinking
+ * or closing gives its buffers to the next context instead of the garbage
+ * collector. Capacities are rounded up to a power of two, each power of two
+ * having its own free list, and the pool keeps at most a given number of bytes
+ * of free buffers, the buffers given beyond are dropped.
+ * 
+ * A buffer bigger than the largest class is allocated and dropped without the
+ * pool. The methods are synchronized so the pool can be shared by several
+ * selector threads, the lock is only taken when a buffer is leased or given
+ * back.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class BufferPool {
+
+	/**
+	 * Capacity of the smallest buffers of the pool.
+	 */
+	public static final int MIN_CAPACITY = 256;
+
+	private final int maxCapacity;
+	private final long maxFreeBytes;
+	private final ArrayDeque<ByteBuffer>[] free;
+	private long freeBytes;
+	private long leases;
+	private long allocations;
+	private long drops;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param maxCapacity  capacity of the largest buffers pooled, rounded up to a
+	 *                     power of two
+	 * @param maxFreeBytes maximum number of bytes of the free buffers kept
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public BufferPool(int maxCapacity, long maxFreeBytes) {
+		if (maxCapacity < MIN_CAPACITY || maxCapacity > 1 << 30) {
+			throw new IllegalArgumentException(
+					"maxCapacity should be between " + MIN_CAPACITY + " and 2^30, current : " + maxCapacity);
+		}
+		if (maxFreeBytes < 0) {
+			throw new IllegalArgumentException("maxFreeBytes should be positiv, current : " + maxFreeBytes);
+		}
+		this.maxCapacity = roundUp(maxCapacity);
+		this.maxFreeBytes = maxFreeBytes;
+		free = new ArrayDeque[classOf(this.maxCapacity) + 1];
+		for (var i = 0; i < free.length; i++) {
+			free[i] = new ArrayDeque<>();
+		}
+	}
+
+	private static int roundUp(int capacity) {
+		if (capacity <= MIN_CAPACITY) {
+			return MIN_CAPACITY;
+		}
+		return Integer.highestOneBit(capacity - 1) << 1;
+	}
+
+	private static int classOf(int capacity) {
+		return Integer.numberOfTrailingZeros(capacity) - Integer.numberOfTrailingZeros(MIN_CAPACITY);
+	}
+
+	/**
+	 * Leases a buffer, its capacity is at least the one asked.
+	 * 
+	 * @param capacity minimum capacity
+	 * @return a cleared buffer in write mode
+	 */
+	public synchronized ByteBuffer take(int capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity should be positiv, current : " + capacity);
+		}
+		leases++;
+		if (capacity > maxCapacity) {
+			allocations++;
+			return ByteBuffer.allocate(capacity);
+		}
+		var rounded = roundUp(capacity);
+		var bb = free[classOf(rounded)].poll();
+		if (bb == null) {
+			allocations++;
+			return ByteBuffer.allocate(rounded);
+		}
+		freeBytes -= rounded;
+		return bb;
+	}
+
+	/**
+	 * Gives back a buffer leased with {@link #take(int)}, it must not be used
+	 * anymore.
+	 * 
+	 * @param bb the buffer
+	 */
+	public synchronized void give(ByteBuffer bb) {
+		var capacity = bb.capacity();
+		if (capacity < MIN_CAPACITY || capacity > maxCapacity || Integer.bitCount(capacity) != 1
+				|| freeBytes + capacity > maxFreeBytes) {
+			drops++;
+			return;
+		}
+		free[classOf(capacity)].push(bb.clear());
+		freeBytes += capacity;
+	}
+
+	/**
+	 * 
+	 * @return the number of bytes of the free buffers.
+	 */
+	public synchronized long getFreeBytes() {
+		return freeBytes;
+	}
+
+	/**
+	 * 
+	 * @return the number of buffers leased.
+	 */
+	public synchronized long getLeases() {
+		return leases;
+	}
+
+	/**
+	 * 
+	 * @return the number of buffers allocated because no free buffer fitted.
+	 */
+	public synchronized long getAllocations() {
+		return allocations;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "leases : " + leases + ", allocations : " + allocations + ", drops : " + drops + ", free : "
+				+ freeBytes + "/" + maxFreeBytes + " bytes";
+	}
+}
@@ -1,10 +1,18 @@
 package fr.umlv.chatos.utils;
 
+import java.util.Objects;
+
 import fr.umlv.chatos.client.ClientChatOS;
+import fr.umlv.chatos.context.Context;
 import fr.umlv.chatos.utils.reader.ClientListReader;
+import fr.umlv.chatos.utils.reader.DirectOfferReader;
+import fr.umlv.chatos.utils.reader.LongReader;
+import fr.umlv.chatos.utils.reader.OfflineMessageReader;
 import fr.umlv.chatos.utils.reader.Reader;
-import fr.umlv.chatos.utils.reader.ShortReader;
+import fr.umlv.chatos.utils.reader.RosterPageReader;
+import fr.umlv.chatos.utils.reader.SearchResultReader;
 import fr.umlv.chatos.utils.reader.ShortStringReader;
+import fr.umlv.chatos.utils.reader.VersionReader;
 import fr.umlv.chatos.utils.reader.VoidReader;
 
 /**
@@ -15,14 +23,19 @@ import fr.umlv.chatos.utils.reader.VoidReader;
  */
 public class ClientReader {
 	private final ClientChatOS clientChatOS;
+	private final Context context;
 
 	/**
 	 * Class constructor with the client ChatOS reader.
 	 * 
 	 * @param clientChatOS Client object
+	 * @param context      context connected to the server
 	 */
-	public ClientReader(ClientChatOS clientChatOS) {
+	public ClientReader(ClientChatOS clientChatOS, Context context) {
+		Objects.requireNonNull(clientChatOS);
+		Objects.requireNonNull(context);
 		this.clientChatOS = clientChatOS;
+		this.context = context;
 	}
 
 	/**
@@ -30,7 +43,7 @@ public class ClientReader {
 	 * @return the reader to process a positive response to a tcp demand.
 	 */
 	public Reader<?> receiveTCPAcceptance() {
-		return new ShortReader(clientB -> {
+		return context.getProtocol().newShortReader(clientB -> {
 			clientChatOS.connectionTCPAccepted(clientB);
 		});
 	}
@@ -40,7 +53,7 @@ public class ClientReader {
 	 * @return the reader to process a positive response to a tcp request.
 	 */
 	public Reader<?> receiveTCPValidation() {
-		return new ShortReader(clientA -> {
+		return context.getProtocol().newShortReader(clientA -> {
 			clientChatOS.connectionTCPValidated(clientA);
 		});
 	}
@@ -50,7 +63,7 @@ public class ClientReader {
 	 * @return the reader to process a negative response to a tcp request.
 	 */
 	public Reader<?> receiveTCPRefusal() {
-		return new ShortReader(clientB -> {
+		return context.getProtocol().newShortReader(clientB -> {
 			clientChatOS.connectionTCPRefused(clientB);
 		});
 	}
@@ -66,7 +79,7 @@ public class ClientReader {
 				clientChatOS.loginError();
 			});
 		} else {
-			return new ShortReader(clientB -> clientChatOS.disconnectedError(clientB));
+			return context.getProtocol().newShortReader(clientB -> clientChatOS.disconnectedError(clientB));
 		}
 	}
 
@@ -75,11 +88,41 @@ public class ClientReader {
 	 * @return the reader to process when get a tcp request.
 	 */
 	public Reader<?> receiveTCPDemand() {
-		return new ShortReader(clientA -> {
+		return context.getProtocol().newShortReader(clientA -> {
 			clientChatOS.TCPDemand(clientA);
 		});
 	}
 
+	/**
+	 * 
+	 * @return the reader to process the address of a direct connection.
+	 */
+	public Reader<?> receiveDirectOffer() {
+		return new DirectOfferReader(context.getProtocol(), offer -> {
+			clientChatOS.directOffer(offer);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process the failure of a direct connection.
+	 */
+	public Reader<?> receiveDirectFallback() {
+		return context.getProtocol().newShortReader(clientA -> {
+			clientChatOS.directFallback(clientA);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process the version accepted by the server.
+	 */
+	public Reader<?> receiveVersion() {
+		return new VersionReader(version -> {
+			clientChatOS.versionAccepted(version);
+		});
+	}
+
 	/**
 	 * 
 	 * @param setup If connection is already setup
@@ -87,11 +130,11 @@ public class ClientReader {
 	 */
 	public Reader<?> receiveClientsListUpdate(boolean setup) {
 		if (!setup) {
-			return new ClientListReader(clientList -> {
+			return new ClientListReader(context.getProtocol(), clientList -> {
 				clientChatOS.updateClientList(clientList);
 			});
 		} else {
-			return new ShortStringReader(client -> {
+			return new ShortStringReader(context.getProtocol(), client -> {
 				clientChatOS.registerNewClient(client);
 			});
 		}
@@ -102,7 +145,7 @@ public class ClientReader {
 	 * @return the reader to process when get a disconnected client from server.
 	 */
 	public Reader<?> receiveClientDisconnection() {
-		return new ShortReader(client -> {
+		return context.getProtocol().newShortReader(client -> {
 			clientChatOS.removeDisconnectedClient(client);
 		});
 	}
@@ -112,7 +155,7 @@ public class ClientReader {
 	 * @return the reader to process when get a broadcast message.
 	 */
 	public Reader<?> receiveBroadcastedMessage() {
-		return new ShortStringReader(client -> {
+		return new ShortStringReader(context.getProtocol(), client -> {
 			clientChatOS.broadcastedMessage(client);
 		});
 	}
@@ -122,9 +165,123 @@ public class ClientReader {
 	 * @return the reader to process when get a private message.
 	 */
 	public Reader<?> receiveMessageFrom() {
-		return new ShortStringReader(client -> {
+		return new ShortStringReader(context.getProtocol(), client -> {
 			clientChatOS.specificMessage(client);
 		});
 	}
 
+	/**
+	 * 
+	 * @return the reader to process when get a page of the client list.
+	 */
+	public Reader<?> receiveRosterPage() {
+		return new RosterPageReader(context.getProtocol(), page -> {
+			clientChatOS.rosterPage(page);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process when get the pseudonyme of a client asked.
+	 */
+	public Reader<?> receiveRosterEntry() {
+		return new ShortStringReader(context.getProtocol(), client -> {
+			clientChatOS.rosterEntry(client);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process when the server drops messages sent too fast.
+	 */
+	public Reader<?> receiveThrottled() {
+		return context.getProtocol().newShortReader(traffic -> {
+			clientChatOS.throttled(traffic);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process a heartbeat of the server.
+	 */
+	public Reader<?> receivePing() {
+		return new LongReader(timestamp -> {
+			clientChatOS.heartbeat(timestamp);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process a private message kept while the client was
+	 *         offline.
+	 */
+	public Reader<?> receiveOfflineMessage() {
+		return new OfflineMessageReader(context.getProtocol(), message -> {
+			clientChatOS.offlineMessage(message);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process the result of a private message sent by
+	 *         pseudonyme to an offline client.
+	 */
+	public Reader<?> receiveMailboxStatus() {
+		return new ShortStringReader(context.getProtocol(), status -> {
+			clientChatOS.mailboxStatus(status);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process the messages of the history found by a
+	 *         search.
+	 */
+	public Reader<?> receiveSearchResult() {
+		return new SearchResultReader(context.getProtocol(), hits -> {
+			clientChatOS.searchResult(hits);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process the key of the mailbox opened for the
+	 *         client.
+	 */
+	public Reader<?> receiveMailboxKey() {
+		return new LongReader(key -> {
+			clientChatOS.mailboxOpened(key);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process the token of a new session.
+	 */
+	public Reader<?> receiveNewSession() {
+		return new LongReader(token -> {
+			clientChatOS.sessionOpened(token);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process the acknowledgement of a resumed session.
+	 */
+	public Reader<?> receiveSessionResumed() {
+		return new LongReader(token -> {
+			clientChatOS.sessionResumed(token);
+		});
+	}
+
+	/**
+	 * 
+	 * @return the reader to process when get the pseudonymes matching a query.
+	 */
+	public Reader<?> receiveQueryResult() {
+		return new ClientListReader(context.getProtocol(), clientList -> {
+			clientChatOS.queryResult(clientList);
+		});
+	}
+
 }
@@ -0,0 +1,183 @@
+package fr.umlv.chatos.utils;
+
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.Objects;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Prints lines on a stream from a dedicated thread, so the thread running a
+ * selector never waits for a slow terminal. Lines are added to a bounded ring
+ * buffer, the writer thread takes all the lines waiting at once, writes them
+ * as one block and flushes the stream once per block.
+ * 
+ * A line added when the ring is full is dropped and counted, the writer prints
+ * the number of lines dropped once it catches up. A status line, like the list
+ * of the clients, is printed with a key, if a line with the same key is still
+ * waiting it is replaced instead of added, so a burst of changes prints the
+ * status once.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class ConsolePrinter implements AutoCloseable {
+
+	/**
+	 * Milliseconds to wait for the lines waiting to be printed when the printer is
+	 * closed.
+	 */
+	private static final long CLOSE_TIMEOUT = 1_000;
+
+	private final PrintStream out;
+	private final String[] ring;
+	private final HashMap<String, Integer> waiting = new HashMap<>();
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private final Thread writer;
+	private int head;
+	private int size;
+	private long dropped;
+	private long totalDropped;
+	private long coalesced;
+	private long flushes;
+	private boolean closed;
+
+	/**
+	 * Class constructor, starts the writer thread.
+	 * 
+	 * @param out      stream the lines are printed on
+	 * @param capacity maximum number of lines waiting
+	 */
+	public ConsolePrinter(PrintStream out, int capacity) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity should be positiv, current : " + capacity);
+		}
+		this.out = Objects.requireNonNull(out);
+		ring = new String[capacity];
+		writer = new Thread(this::run, "console-printer");
+		writer.setDaemon(true);
+		writer.start();
+	}
+
+	/**
+	 * Adds a line to print, never blocks.
+	 * 
+	 * @param line line to print
+	 * @return false if the ring is full and the line is dropped
+	 */
+	public boolean println(String line) {
+		Objects.requireNonNull(line);
+		return add(null, line);
+	}
+
+	/**
+	 * Adds a status line to print, replacing the line with the same key still
+	 * waiting, never blocks.
+	 * 
+	 * @param key  key of the status
+	 * @param line line to print
+	 * @return false if the ring is full and the line is dropped
+	 */
+	public boolean printStatus(String key, String line) {
+		Objects.requireNonNull(key);
+		Objects.requireNonNull(line);
+		return add(key, line);
+	}
+
+	private boolean add(String key, String line) {
+		lock.lock();
+		try {
+			if (key != null) {
+				var index = waiting.get(key);
+				if (index != null) {
+					ring[index] = line;
+					coalesced++;
+					return true;
+				}
+			}
+			if (closed || size == ring.length) {
+				dropped++;
+				totalDropped++;
+				return false;
+			}
+			var index = (head + size) % ring.length;
+			ring[index] = line;
+			if (key != null) {
+				waiting.put(key, index);
+			}
+			size++;
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the lines waiting and writes them as one block, until the printer is
+	 * closed and the ring is empty.
+	 */
+	private void run() {
+		var block = new StringBuilder();
+		while (true) {
+			lock.lock();
+			try {
+				while (size == 0 && dropped == 0 && !closed) {
+					notEmpty.awaitUninterruptibly();
+				}
+				if (size == 0 && dropped == 0) {
+					return;
+				}
+				for (; size > 0; size--, head = (head + 1) % ring.length) {
+					block.append(ring[head]).append(System.lineSeparator());
+					ring[head] = null;
+				}
+				waiting.clear();
+				if (dropped > 0) {
+					block.append("(").append(dropped).append(" lignes non affichées, la console ne suit pas)")
+							.append(System.lineSeparator());
+					dropped = 0;
+				}
+				flushes++;
+			} finally {
+				lock.unlock();
+			}
+			out.print(block);
+			out.flush();
+			block.setLength(0);
+		}
+	}
+
+	/**
+	 * Prints the lines waiting and stops the writer thread, the lines added after
+	 * are dropped. Waits at most {@link #CLOSE_TIMEOUT} milliseconds for the
+	 * stream.
+	 */
+	@Override
+	public void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+		try {
+			writer.join(CLOSE_TIMEOUT);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public String toString() {
+		lock.lock();
+		try {
+			return size + "/" + ring.length + " lines waiting, " + flushes + " flushes, " + coalesced + " coalesced, "
+					+ totalDropped + " dropped";
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,268 @@
+package fr.umlv.chatos.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+import fr.umlv.chatos.context.Context;
+import fr.umlv.chatos.context.Context.ContextAbstract;
+
+/**
+ * Writes the fields of a frame, its opcode, its shorts, its integers and its
+ * strings, framed by the protocol of the recipient, in a buffer reused from
+ * one frame to the next, then gives the frame to a {@link Context} which copies
+ * it in its outbound buffer, or in a buffer of its pool when the outbound
+ * buffer is full. Sending a frame allocates nothing once the buffers are
+ * leased.
+ * 
+ * The buffer grows with the frame, a string longer than
+ * {@link Protocol#MAX_CHUNK_BYTES} is encoded in a second buffer and split in
+ * continuation frames by the protocol. The buffers are leased from the pool of
+ * the contexts, a buffer grown beyond {@link #RETAINED_CAPACITY} is given back
+ * when the next frame starts.
+ * 
+ * Each thread has its own writer, a frame must be sent before the next one is
+ * started on the same thread.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class FrameWriter {
+
+	/**
+	 * Initial capacity of the buffer of a writer.
+	 */
+	public static final int INITIAL_CAPACITY = 1_024;
+
+	/**
+	 * Maximum capacity of the buffers kept by a writer between two frames.
+	 */
+	public static final int RETAINED_CAPACITY = 64 * 1_024;
+
+	private static final ThreadLocal<FrameWriter> WRITERS = ThreadLocal.withInitial(FrameWriter::new);
+	private static final BufferPool POOL = ContextAbstract.getBufferPool();
+
+	private ByteBuffer bb = POOL.take(INITIAL_CAPACITY);
+	private ByteBuffer strings;
+	private Protocol protocol = Protocol.V1;
+
+	private FrameWriter() {
+	}
+
+	/**
+	 * Starts a frame framed with the protocol of the given context.
+	 * 
+	 * @param context recipient of the frame
+	 * @return the writer of the current thread, empty
+	 */
+	public static FrameWriter to(Context context) {
+		Objects.requireNonNull(context);
+		return get(context.getProtocol());
+	}
+
+	/**
+	 * Starts a frame framed with the given protocol.
+	 * 
+	 * @param protocol protocol of the recipient
+	 * @return the writer of the current thread, empty
+	 */
+	public static FrameWriter get(Protocol protocol) {
+		Objects.requireNonNull(protocol);
+		var writer = WRITERS.get();
+		writer.protocol = protocol;
+		writer.bb = shrink(writer.bb);
+		if (writer.strings != null && writer.strings.capacity() > RETAINED_CAPACITY) {
+			POOL.give(writer.strings);
+			writer.strings = null;
+		}
+		return writer;
+	}
+
+	private static ByteBuffer shrink(ByteBuffer bb) {
+		if (bb.capacity() > RETAINED_CAPACITY) {
+			POOL.give(bb);
+			return POOL.take(INITIAL_CAPACITY);
+		}
+		return bb.clear();
+	}
+
+	/**
+	 * Grows the buffer so the given number of bytes fit after its position.
+	 */
+	private void ensure(int size) {
+		if (bb.remaining() >= size) {
+			return;
+		}
+		var grown = POOL.take(Math.max(bb.capacity() * 2, bb.position() + size));
+		grown.put(bb.flip());
+		POOL.give(bb);
+		bb = grown;
+	}
+
+	/**
+	 * Writes a byte, like an opcode.
+	 * 
+	 * @param b byte value to write
+	 * @return this writer
+	 */
+	public FrameWriter putByte(byte b) {
+		ensure(1);
+		bb.put(b);
+		return this;
+	}
+
+	/**
+	 * Writes a short, on two bytes or as a {@link VarInt} depending on the
+	 * protocol.
+	 * 
+	 * @param sh short value to write
+	 * @return this writer
+	 */
+	public FrameWriter putShort(short sh) {
+		ensure(protocol.shortSize(sh));
+		protocol.putShort(bb, sh);
+		return this;
+	}
+
+	/**
+	 * Writes an integer on four bytes.
+	 * 
+	 * @param integer integer value to write
+	 * @return this writer
+	 */
+	public FrameWriter putInt(int integer) {
+		ensure(Integer.BYTES);
+		bb.putInt(integer);
+		return this;
+	}
+
+	/**
+	 * Writes a long on eight bytes.
+	 * 
+	 * @param l long value to write
+	 * @return this writer
+	 */
+	public FrameWriter putLong(long l) {
+		ensure(Long.BYTES);
+		bb.putLong(l);
+		return this;
+	}
+
+	/**
+	 * Writes bytes as they are.
+	 * 
+	 * @param bytes bytes to write
+	 * @return this writer
+	 */
+	public FrameWriter putBytes(byte[] bytes) {
+		Objects.requireNonNull(bytes);
+		ensure(bytes.length);
+		bb.put(bytes);
+		return this;
+	}
+
+	/**
+	 * Writes a string encoded in UTF-8 with its size, split in continuation
+	 * frames depending on the protocol.
+	 * 
+	 * @param string the string to write
+	 * @return this writer
+	 */
+	public FrameWriter putString(CharSequence string) {
+		Objects.requireNonNull(string);
+		var length = Utf8Codec.encodedLength(string);
+		ensure(protocol.stringSize(length));
+		if (length <= Protocol.MAX_CHUNK_BYTES) {
+			protocol.putString(bb, string, length);
+			return this;
+		}
+		if (strings == null || strings.capacity() < length) {
+			if (strings != null) {
+				POOL.give(strings);
+			}
+			strings = POOL.take(length);
+		}
+		protocol.putString(bb, Utf8Codec.get().encode(string, strings.clear()).flip());
+		return this;
+	}
+
+	/**
+	 * Writes a string already encoded with its size, split in continuation frames
+	 * depending on the protocol.
+	 * 
+	 * @param encoded_string the encoded string to write, it is consumed
+	 * @return this writer
+	 */
+	public FrameWriter putString(ByteBuffer encoded_string) {
+		Objects.requireNonNull(encoded_string);
+		ensure(protocol.stringSize(encoded_string.remaining()));
+		protocol.putString(bb, encoded_string);
+		return this;
+	}
+
+	/**
+	 * Writes a string encoded in UTF-8 without its size.
+	 * 
+	 * @param string the string to write
+	 * @param length number of bytes of the encoded string, see
+	 *               {@link Utf8Codec#encodedLength(CharSequence)}
+	 * @return this writer
+	 */
+	public FrameWriter putText(CharSequence string, int length) {
+		Objects.requireNonNull(string);
+		ensure(length);
+		Utf8Codec.get().encode(string, bb);
+		return this;
+	}
+
+	/**
+	 * Writes a string encoded in US-ASCII without its size, the other characters
+	 * are replaced by '?'.
+	 * 
+	 * @param string the string to write
+	 * @return this writer
+	 */
+	public FrameWriter putAscii(CharSequence string) {
+		Objects.requireNonNull(string);
+		ensure(string.length());
+		for (var i = 0; i < string.length(); i++) {
+			var c = string.charAt(i);
+			bb.put(c < 0x80 ? (byte) c : (byte) '?');
+		}
+		return this;
+	}
+
+	/**
+	 * 
+	 * @return the number of bytes written in the frame.
+	 */
+	public int size() {
+		return bb.position();
+	}
+
+	/**
+	 * Gives the frame to the context, which copies it, the writer is empty
+	 * afterwards.
+	 * 
+	 * @param context recipient of the frame
+	 */
+	public void send(Context context) {
+		Objects.requireNonNull(context);
+		try {
+			context.queueFrame(bb.flip());
+		} finally {
+			bb.clear();
+		}
+	}
+
+	/**
+	 * Copies the frame in a new buffer of the exact size, for a frame kept or sent
+	 * to several contexts, the writer is empty afterwards.
+	 * 
+	 * @return the frame in read mode
+	 */
+	public ByteBuffer toBuffer() {
+		var frame = ByteBuffer.allocate(bb.position()).put(bb.flip()).flip();
+		bb.clear();
+		return frame;
+	}
+}
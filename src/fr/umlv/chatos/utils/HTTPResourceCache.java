@@ -0,0 +1,145 @@
+package fr.umlv.chatos.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.LinkedHashMap;
+import java.util.Objects;
+
+/**
+ * Cache of HTTP responses served from a client folder. Responses are stored
+ * already framed, so a hit only costs a stat of the file and a buffer
+ * duplicate. The cache is bounded by the number of bytes it holds and evicts
+ * the least recently used responses first. It can be used by several
+ * threads, the files are read without holding the lock of the cache.
+ *
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class HTTPResourceCache {
+
+	private static class Entry {
+		private final FileTime lastModified;
+		private final long fileSize;
+		private final ByteBuffer response;
+
+		private Entry(BasicFileAttributes attributes, ByteBuffer response) {
+			this.lastModified = attributes.lastModifiedTime();
+			this.fileSize = attributes.size();
+			this.response = response;
+		}
+
+		private boolean isValid(BasicFileAttributes attributes) {
+			return lastModified.equals(attributes.lastModifiedTime()) && fileSize == attributes.size();
+		}
+	}
+
+	private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private final long capacity;
+	private long size;
+	private long hits;
+	private long misses;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param capacity maximum number of bytes held by the cache
+	 */
+	public HTTPResourceCache(long capacity) {
+		if (capacity < 0) {
+			throw new IllegalArgumentException("capacity should be positiv, current : " + capacity);
+		}
+		this.capacity = capacity;
+	}
+
+	/**
+	 * Returns the framed HTTP response for the given file. The response is read
+	 * from the disk if it is not cached or if the file changed since it was
+	 * cached.
+	 * 
+	 * @param file file to serve
+	 * @param path resource location sent in the response
+	 * @return a buffer in read mode containing the whole response
+	 * @throws IOException If the file can't be read
+	 */
+	public ByteBuffer get(Path file, String path) throws IOException {
+		Objects.requireNonNull(file);
+		Objects.requireNonNull(path);
+		var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+		synchronized (this) {
+			var entry = entries.get(file);
+			if (entry != null && entry.isValid(attributes)) {
+				hits++;
+				return entry.response.duplicate();
+			}
+			misses++;
+			if (entry != null) {
+				remove(file);
+			}
+		}
+		var response = Sender.encodeHTTPFile(path, Files.readAllLines(file)).asReadOnlyBuffer();
+		synchronized (this) {
+			if (response.remaining() <= capacity) {
+				remove(file);
+				entries.put(file, new Entry(attributes, response));
+				size += response.remaining();
+				evict();
+			}
+		}
+		return response.duplicate();
+	}
+
+	/**
+	 * Removes the response of the given file from the cache.
+	 * 
+	 * @param file file to forget
+	 */
+	public synchronized void remove(Path file) {
+		Objects.requireNonNull(file);
+		var entry = entries.remove(file);
+		if (entry != null) {
+			size -= entry.response.remaining();
+		}
+	}
+
+	private void evict() {
+		var iterator = entries.values().iterator();
+		while (size > capacity && iterator.hasNext()) {
+			size -= iterator.next().response.remaining();
+			iterator.remove();
+		}
+	}
+
+	/**
+	 * 
+	 * @return the number of responses served from memory.
+	 */
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	/**
+	 * 
+	 * @return the number of responses read from the disk.
+	 */
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	/**
+	 * 
+	 * @return the number of bytes held by the cache.
+	 */
+	public synchronized long getSize() {
+		return size;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "hits : " + hits + ", misses : " + misses + ", " + entries.size() + " entries, " + size + "/"
+				+ capacity + " bytes";
+	}
+}
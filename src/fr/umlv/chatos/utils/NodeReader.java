@@ -0,0 +1,90 @@
+package fr.umlv.chatos.utils;
+
+import java.util.Objects;
+
+import fr.umlv.chatos.server.ServerChatOS;
+import fr.umlv.chatos.server.ServerChatOS.ContextNode;
+import fr.umlv.chatos.utils.reader.ByteReader;
+import fr.umlv.chatos.utils.reader.ForwardedMessageReader;
+import fr.umlv.chatos.utils.reader.Reader;
+import fr.umlv.chatos.utils.reader.ShortStringReader;
+
+/**
+ * Represents the reader of a link between two server nodes.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class NodeReader {
+
+	private final ServerChatOS server;
+	private final ContextNode context;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param server  Server object
+	 * @param context node context
+	 */
+	public NodeReader(ServerChatOS server, ContextNode context) {
+		Objects.requireNonNull(server);
+		Objects.requireNonNull(context);
+		this.server = server;
+		this.context = context;
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when the server receives the ID of
+	 *         the other node.
+	 */
+	public Reader<?> receiveHello() {
+		return new ByteReader(nodeId -> {
+			server.nodeHello(nodeId, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when a client logs in on the other
+	 *         node.
+	 */
+	public Reader<?> receiveClientJoin() {
+		return new ShortStringReader(context.getProtocol(), client -> {
+			server.remoteClientJoin(client, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when a client of the other node
+	 *         disconnects.
+	 */
+	public Reader<?> receiveClientLeave() {
+		return context.getProtocol().newShortReader(client -> {
+			server.remoteClientLeave(client, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when a client of the other node
+	 *         broadcasts a message.
+	 */
+	public Reader<?> receiveBroadcast() {
+		return new ShortStringReader(context.getProtocol(), message -> {
+			server.remoteBroadcast(message, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when a client of the other node
+	 *         sends a message to a client of this node.
+	 */
+	public Reader<?> receiveSpecificMessage() {
+		return new ForwardedMessageReader(context.getProtocol(), message -> {
+			server.remoteSpecificMessage(message, context);
+		});
+	}
+}
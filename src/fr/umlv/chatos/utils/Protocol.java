@@ -0,0 +1,338 @@
+package fr.umlv.chatos.utils;
+
+import java.nio.ByteBuffer;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.reader.ChunkedStringReader;
+import fr.umlv.chatos.utils.reader.Reader;
+import fr.umlv.chatos.utils.reader.ShortReader;
+import fr.umlv.chatos.utils.reader.StringReader;
+import fr.umlv.chatos.utils.reader.VarShortReader;
+
+/**
+ * Represents the versions of the COSP framing. The version is negotiated at
+ * login : a client which supports a version greater than 1 starts its login
+ * with a byte having its highest bit set and holding the version, followed by a
+ * byte of flags. A client which starts directly with the size of its login uses
+ * the first version.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public enum Protocol {
+	/**
+	 * Fixed width framing, ids and sizes are sent on two bytes.
+	 */
+	V1(1) {
+		@Override
+		public Reader<Short> newShortReader() {
+			return new ShortReader();
+		}
+
+		@Override
+		public Reader<Short> newShortReader(Consumer<Short> function) {
+			return new ShortReader(function);
+		}
+
+		@Override
+		public Reader<String> newStringReader() {
+			return new StringReader();
+		}
+
+		@Override
+		public Reader<String> newStringReader(int maxSize) {
+			return new StringReader(maxSize);
+		}
+
+		@Override
+		public Reader<String> newStringReader(Consumer<String> function) {
+			return new StringReader(function);
+		}
+
+		@Override
+		public int shortSize(short sh) {
+			return Short.BYTES;
+		}
+
+		@Override
+		public ByteBuffer putShort(ByteBuffer bb, short sh) {
+			return bb.putShort(sh);
+		}
+
+		@Override
+		public int stringSize(int length) {
+			return Short.BYTES + length;
+		}
+
+		@Override
+		public ByteBuffer putString(ByteBuffer bb, ByteBuffer encoded_string) {
+			if (encoded_string.remaining() > getMaxStringBytes()) {
+				throw new IllegalArgumentException("string too long for V1 : " + encoded_string.remaining());
+			}
+			return bb.putShort((short) encoded_string.remaining()).put(encoded_string);
+		}
+
+		@Override
+		public ByteBuffer putString(ByteBuffer bb, CharSequence string, int length) {
+			if (length > getMaxStringBytes()) {
+				throw new IllegalArgumentException("string too long for V1 : " + length);
+			}
+			return Utf8Codec.get().encode(string, bb.putShort((short) length));
+		}
+
+		@Override
+		public int getMaxStringBytes() {
+			return Short.MAX_VALUE - 1;
+		}
+	},
+	/**
+	 * Compact framing, ids and sizes are sent as {@link VarInt}. Strings are
+	 * split in continuation frames of at most {@link #MAX_CHUNK_BYTES} bytes.
+	 */
+	V2(2) {
+		@Override
+		public Reader<Short> newShortReader() {
+			return new VarShortReader();
+		}
+
+		@Override
+		public Reader<Short> newShortReader(Consumer<Short> function) {
+			return new VarShortReader(function);
+		}
+
+		@Override
+		public Reader<String> newStringReader() {
+			return new ChunkedStringReader(MAX_MESSAGE_BYTES);
+		}
+
+		@Override
+		public Reader<String> newStringReader(int maxSize) {
+			return new ChunkedStringReader(maxSize);
+		}
+
+		@Override
+		public Reader<String> newStringReader(Consumer<String> function) {
+			return new ChunkedStringReader(function, MAX_MESSAGE_BYTES);
+		}
+
+		@Override
+		public int shortSize(short sh) {
+			return VarInt.size(Short.toUnsignedInt(sh));
+		}
+
+		@Override
+		public ByteBuffer putShort(ByteBuffer bb, short sh) {
+			return VarInt.put(bb, Short.toUnsignedInt(sh));
+		}
+
+		@Override
+		public int stringSize(int length) {
+			var size = 0;
+			do {
+				var chunk = Math.min(length, MAX_CHUNK_BYTES);
+				length -= chunk;
+				size += VarInt.size(chunk << 1) + chunk;
+			} while (length > 0);
+			return size;
+		}
+
+		@Override
+		public ByteBuffer putString(ByteBuffer bb, ByteBuffer encoded_string) {
+			var length = encoded_string.remaining();
+			var oldLimit = encoded_string.limit();
+			do {
+				var chunk = Math.min(length, MAX_CHUNK_BYTES);
+				length -= chunk;
+				VarInt.put(bb, chunk << 1 | (length > 0 ? 1 : 0));
+				encoded_string.limit(encoded_string.position() + chunk);
+				bb.put(encoded_string);
+			} while (length > 0);
+			encoded_string.limit(oldLimit);
+			return bb;
+		}
+
+		@Override
+		public ByteBuffer putString(ByteBuffer bb, CharSequence string, int length) {
+			if (length > MAX_CHUNK_BYTES) {
+				return putString(bb, Utf8Codec.get().encode(string));
+			}
+			return Utf8Codec.get().encode(string, VarInt.put(bb, length << 1));
+		}
+
+		@Override
+		public int getMaxStringBytes() {
+			return MAX_MESSAGE_BYTES;
+		}
+	};
+
+	/**
+	 * Mask of the first byte of a login announcing a version.
+	 */
+	public static final int VERSION_MARKER = 0x80;
+
+	/**
+	 * Flag of the login asking to compress the packets of the connection.
+	 */
+	public static final int FLAG_DEFLATE = 0x01;
+
+	/**
+	 * Flag of the login asking to connect private connections directly to the
+	 * other client, the server relaying them only if the direct connection fails.
+	 */
+	public static final int FLAG_DIRECT = 0x02;
+
+	/**
+	 * Flag of the login asking to receive the client list page per page, the
+	 * other pages and the pseudonymes of unknown clients being asked when needed.
+	 */
+	public static final int FLAG_LAZY_ROSTER = 0x04;
+
+	/**
+	 * Flag of the login asking for a session, which the client can resume after
+	 * losing its connection without missing the messages sent meanwhile.
+	 */
+	public static final int FLAG_SESSION = 0x08;
+
+	/**
+	 * Flag of the login resuming a session, the login is followed by the token of
+	 * the session and the number of messages received in this session.
+	 */
+	public static final int FLAG_RESUME = 0x10;
+
+	/**
+	 * Flag of the login presenting the key of the mailbox of the pseudonyme, the
+	 * login is followed by the key on eight bytes, 0 if the client has none yet.
+	 * Only the client holding the key receives the private messages kept while it
+	 * was offline.
+	 */
+	public static final int FLAG_MAILBOX = 0x20;
+
+	/**
+	 * Flags of the options supported.
+	 */
+	public static final int SUPPORTED_FLAGS = FLAG_DEFLATE | FLAG_DIRECT | FLAG_LAZY_ROSTER | FLAG_SESSION
+			| FLAG_MAILBOX;
+
+	/**
+	 * Maximum number of bytes of a continuation frame.
+	 */
+	public static final int MAX_CHUNK_BYTES = 16 * 1_024;
+
+	/**
+	 * Maximum number of bytes of a string with continuation frames.
+	 */
+	public static final int MAX_MESSAGE_BYTES = 1_024 * 1_024;
+
+	private final int version;
+
+	private Protocol(int version) {
+		this.version = version;
+	}
+
+	/**
+	 * 
+	 * @return the version number.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * 
+	 * @param version version asked by the other side
+	 * @return the greatest protocol supported which is not greater than the
+	 *         version asked.
+	 */
+	public static Protocol negotiate(int version) {
+		var protocols = values();
+		for (var i = protocols.length - 1; i > 0; i--) {
+			if (protocols[i].version <= version) {
+				return protocols[i];
+			}
+		}
+		return V1;
+	}
+
+	/**
+	 * 
+	 * @return a reader of the short values (ids and counts).
+	 */
+	public abstract Reader<Short> newShortReader();
+
+	/**
+	 * 
+	 * @param function Function to process after read
+	 * @return a reader of the short values (ids and counts).
+	 */
+	public abstract Reader<Short> newShortReader(Consumer<Short> function);
+
+	/**
+	 * 
+	 * @return a reader of the strings.
+	 */
+	public abstract Reader<String> newStringReader();
+
+	/**
+	 * 
+	 * @param maxSize maximum number of bytes of the string, a longer string is an
+	 *                error
+	 * @return a reader of the strings.
+	 */
+	public abstract Reader<String> newStringReader(int maxSize);
+
+	/**
+	 * 
+	 * @param function Function to process after read
+	 * @return a reader of the strings.
+	 */
+	public abstract Reader<String> newStringReader(Consumer<String> function);
+
+	/**
+	 * 
+	 * @param sh short value to send
+	 * @return the number of bytes needed to send the short.
+	 */
+	public abstract int shortSize(short sh);
+
+	/**
+	 * Writes a short value in the bytebuffer.
+	 * 
+	 * @param bb bytebuffer in write mode
+	 * @param sh short value to send
+	 * @return the bytebuffer
+	 */
+	public abstract ByteBuffer putShort(ByteBuffer bb, short sh);
+
+	/**
+	 * 
+	 * @param length number of bytes of the encoded string
+	 * @return the number of bytes needed to send the string.
+	 */
+	public abstract int stringSize(int length);
+
+	/**
+	 * Writes an encoded string in the bytebuffer, the encoded string is consumed.
+	 * 
+	 * @param bb             bytebuffer in write mode
+	 * @param encoded_string the encoded string to send
+	 * @return the bytebuffer
+	 */
+	public abstract ByteBuffer putString(ByteBuffer bb, ByteBuffer encoded_string);
+
+	/**
+	 * Encodes a string directly in the bytebuffer.
+	 * 
+	 * @param bb     bytebuffer in write mode
+	 * @param string the string to send
+	 * @param length number of bytes of the encoded string, see
+	 *               {@link Utf8Codec#encodedLength(CharSequence)}
+	 * @return the bytebuffer
+	 */
+	public abstract ByteBuffer putString(ByteBuffer bb, CharSequence string, int length);
+
+	/**
+	 * 
+	 * @return the maximum number of bytes of an encoded string.
+	 */
+	public abstract int getMaxStringBytes();
+}
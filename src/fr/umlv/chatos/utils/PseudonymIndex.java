@@ -0,0 +1,171 @@
+package fr.umlv.chatos.utils;
+
+import java.text.Normalizer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.TreeMap;
+
+import fr.umlv.chatos.utils.data.ShortString;
+
+/**
+ * Index of pseudonymes looked up by prefix, ignoring the case and the Unicode
+ * form. Pseudonymes are stored in a trie keyed by their normalized form, see
+ * {@link #normalize(String)}, so finding the node of a prefix of k characters
+ * costs k steps whatever the number of pseudonymes.
+ * 
+ * Several pseudonymes can share the same normalized form, like "Bob" and
+ * "bob", they are all kept and returned by the queries.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class PseudonymIndex {
+
+	private static class Node {
+		private final TreeMap<Character, Node> children = new TreeMap<>();
+		private final TreeMap<String, Short> pseudonymes = new TreeMap<>();
+		private int size;
+	}
+
+	private final Node root = new Node();
+
+	/**
+	 * Normalizes a pseudonyme or a prefix, compatible characters are replaced by
+	 * their canonical form and letters are lower cased.
+	 * 
+	 * @param string string to normalize
+	 * @return the normalized string
+	 */
+	public static String normalize(String string) {
+		Objects.requireNonNull(string);
+		return Normalizer.normalize(string, Normalizer.Form.NFKC).toLowerCase(Locale.ROOT);
+	}
+
+	/**
+	 * Adds a pseudonyme to the index, replacing the ID of the same pseudonyme.
+	 * 
+	 * @param pseudonyme pseudonyme to add
+	 * @param id         ID of the client
+	 */
+	public void add(String pseudonyme, short id) {
+		Objects.requireNonNull(pseudonyme);
+		var key = normalize(pseudonyme);
+		var path = new ArrayList<Node>(key.length() + 1);
+		var node = root;
+		path.add(node);
+		for (var i = 0; i < key.length(); i++) {
+			node = node.children.computeIfAbsent(key.charAt(i), c -> new Node());
+			path.add(node);
+		}
+		if (node.pseudonymes.put(pseudonyme, id) == null) {
+			path.forEach(n -> n.size++);
+		}
+	}
+
+	/**
+	 * Removes a pseudonyme from the index.
+	 * 
+	 * @param pseudonyme pseudonyme to remove
+	 * @return true if the pseudonyme was in the index
+	 */
+	public boolean remove(String pseudonyme) {
+		Objects.requireNonNull(pseudonyme);
+		var key = normalize(pseudonyme);
+		var path = new ArrayList<Node>(key.length() + 1);
+		var node = root;
+		path.add(node);
+		for (var i = 0; i < key.length() && node != null; i++) {
+			node = node.children.get(key.charAt(i));
+			path.add(node);
+		}
+		if (node == null || node.pseudonymes.remove(pseudonyme) == null) {
+			return false;
+		}
+		for (var i = path.size() - 1; i >= 0; i--) {
+			var current = path.get(i);
+			current.size--;
+			if (i > 0 && current.size == 0) {
+				path.get(i - 1).children.remove(key.charAt(i - 1));
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the pseudonymes starting with the given prefix, in the order of their
+	 * normalized form.
+	 * 
+	 * @param prefix prefix to look for, normalized before the lookup
+	 * @param limit  maximum number of pseudonymes returned
+	 * @return the ID and the pseudonyme of the clients found
+	 */
+	public List<ShortString> startingWith(String prefix, int limit) {
+		Objects.requireNonNull(prefix);
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit should be positiv, current : " + limit);
+		}
+		var result = new ArrayList<ShortString>();
+		var node = find(normalize(prefix));
+		if (node == null) {
+			return result;
+		}
+		var stack = new ArrayDeque<Node>();
+		stack.push(node);
+		while (!stack.isEmpty() && result.size() < limit) {
+			var current = stack.pop();
+			for (var entry : current.pseudonymes.entrySet()) {
+				if (result.size() == limit) {
+					break;
+				}
+				result.add(new ShortString(entry.getValue(), entry.getKey()));
+			}
+			current.children.descendingMap().values().forEach(stack::push);
+		}
+		return result;
+	}
+
+	/**
+	 * Resolves a pseudonyme typed by a user. The pseudonyme written exactly the
+	 * same way is preferred, otherwise the only pseudonyme with the same
+	 * normalized form is returned.
+	 * 
+	 * @param pseudonyme pseudonyme to resolve
+	 * @return the ID of the client, empty if no pseudonyme or several pseudonymes
+	 *         match
+	 */
+	public Optional<Short> resolve(String pseudonyme) {
+		Objects.requireNonNull(pseudonyme);
+		var node = find(normalize(pseudonyme));
+		if (node == null) {
+			return Optional.empty();
+		}
+		var id = node.pseudonymes.get(pseudonyme);
+		if (id != null) {
+			return Optional.of(id);
+		}
+		if (node.pseudonymes.size() == 1) {
+			return Optional.of(node.pseudonymes.firstEntry().getValue());
+		}
+		return Optional.empty();
+	}
+
+	private Node find(String key) {
+		var node = root;
+		for (var i = 0; i < key.length() && node != null; i++) {
+			node = node.children.get(key.charAt(i));
+		}
+		return node;
+	}
+
+	/**
+	 * 
+	 * @return the number of pseudonymes in the index.
+	 */
+	public int size() {
+		return root.size;
+	}
+}
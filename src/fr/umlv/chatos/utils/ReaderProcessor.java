@@ -59,13 +59,23 @@ public class ReaderProcessor {
 		packets.put(opcode, new_reader);
 	}
 
+	/**
+	 * 
+	 * @return true if no packet is being read, so no reader holds data.
+	 */
+	public boolean isIdle() {
+		return reader.isEmpty();
+	}
+
 	/**
 	 * Process the bytebuffer with the right reader according to the opcode and the
 	 * setup reader.
 	 * 
 	 * @param bbin ByteBuffer to process
+	 * @return DONE if a packet was processed or an unknown opcode skipped, REFILL
+	 *         if more data is needed and ERROR if the packet is invalid
 	 */
-	public void process(ByteBuffer bbin) {
+	public Reader.ProcessStatus process(ByteBuffer bbin) {
 		if (reader.isEmpty()) {
 			if (setupReader != null) {
 				reader = setupReader.get();
@@ -78,22 +88,28 @@ public class ReaderProcessor {
 						reader = Optional.of(r.get());
 						return r;
 					});
+					if (reader.isEmpty()) {
+						return Reader.ProcessStatus.DONE;
+					}
 				} else {
-					return;
+					return Reader.ProcessStatus.REFILL;
 				}
 			}
 		}
 		Reader.ProcessStatus status = reader.get().process(bbin);
 		switch (status) {
 		case DONE:
-			reader.get().get().process();
+			var data = reader.get().get();
 			reader = Optional.empty();
+			data.process();
+			break;
 		case REFILL:
-			return;
+			break;
 		case ERROR:
 			onError.run();
-			return;
+			break;
 		}
+		return status;
 	}
 
 }
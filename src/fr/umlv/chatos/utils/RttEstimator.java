@@ -0,0 +1,77 @@
+package fr.umlv.chatos.utils;
+
+/**
+ * Estimates the round trip time of a connection from its samples, like the
+ * retransmission timer of TCP : the smoothed round trip time moves by an
+ * eighth of each difference, the variation, used as the jitter, by a quarter.
+ * The estimation only uses shifts, so it is cheap enough to be updated for
+ * each heartbeat of each client.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class RttEstimator {
+
+	private long smoothed;
+	private long variation;
+	private long last;
+	private long samples;
+
+	/**
+	 * Adds a sample to the estimation.
+	 * 
+	 * @param rtt round trip time measured, in nanoseconds
+	 */
+	public void update(long rtt) {
+		if (rtt < 0) {
+			throw new IllegalArgumentException("rtt should be positiv, current : " + rtt);
+		}
+		if (samples == 0) {
+			smoothed = rtt;
+			variation = rtt / 2;
+		} else {
+			variation += (Math.abs(smoothed - rtt) - variation) >> 2;
+			smoothed += (rtt - smoothed) >> 3;
+		}
+		last = rtt;
+		samples++;
+	}
+
+	/**
+	 * 
+	 * @return the smoothed round trip time in nanoseconds, 0 without sample.
+	 */
+	public long getSmoothed() {
+		return smoothed;
+	}
+
+	/**
+	 * 
+	 * @return the mean deviation of the round trip time in nanoseconds.
+	 */
+	public long getVariation() {
+		return variation;
+	}
+
+	/**
+	 * 
+	 * @return the last round trip time measured in nanoseconds.
+	 */
+	public long getLast() {
+		return last;
+	}
+
+	/**
+	 * 
+	 * @return the number of samples.
+	 */
+	public long getSamples() {
+		return samples;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("srtt : %.3f ms, jitter : %.3f ms, samples : %d", smoothed / 1e6, variation / 1e6,
+				samples);
+	}
+}
@@ -0,0 +1,302 @@
+package fr.umlv.chatos.utils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Function;
+import java.util.function.IntPredicate;
+
+/**
+ * Inverted index of the messages, mapping each term to the sorted IDs of the
+ * messages containing it. Messages are added in the order of their ID, the
+ * postings of a term are the differences between consecutive IDs written as
+ * {@link VarInt}, so a common term costs about one byte per message.
+ * 
+ * The messages are first added to a mutable segment, sealed once it holds
+ * segmentSize messages. Sealed segments are immutable and cover disjoint
+ * ranges of IDs, when mergeFactor segments of the same size follow each other
+ * they are merged into one, so a query looks at a logarithmic number of
+ * segments. A query intersects the postings of its terms in each segment, from
+ * the most recent segment to the oldest, and stops once it found enough
+ * messages.
+ * 
+ * The index isn't thread-safe, the server uses it from a single thread of an
+ * {@link AsyncIO} so the selector thread never waits for a query or a merge.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class SearchIndex {
+
+	/**
+	 * Minimum number of characters of an indexed term.
+	 */
+	public static final int MIN_TERM_LENGTH = 2;
+
+	/**
+	 * Maximum number of characters of an indexed term, longer terms are cut.
+	 */
+	public static final int MAX_TERM_LENGTH = 32;
+
+	private static class Postings {
+		private ByteBuffer bytes = ByteBuffer.allocate(8);
+		private int last = -1;
+
+		private void add(int doc) {
+			if (bytes.remaining() < VarInt.MAX_BYTES) {
+				bytes = ByteBuffer.allocate(bytes.capacity() * 2).put(bytes.flip());
+			}
+			VarInt.put(bytes, doc - last);
+			last = doc;
+		}
+
+		private byte[] toArray() {
+			return Arrays.copyOf(bytes.array(), bytes.position());
+		}
+	}
+
+	private static class Segment {
+		private final int size;
+		private final HashMap<String, byte[]> postings;
+
+		private Segment(int size, HashMap<String, byte[]> postings) {
+			this.size = size;
+			this.postings = postings;
+		}
+	}
+
+	private final int segmentSize;
+	private final int mergeFactor;
+	private final ArrayList<Segment> segments = new ArrayList<>();
+	private HashMap<String, Postings> buffer = new HashMap<>();
+	private int bufferSize;
+	private int last = -1;
+	private long merges;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param segmentSize number of messages of the mutable segment before it is
+	 *                    sealed
+	 * @param mergeFactor number of segments of the same size merged together
+	 */
+	public SearchIndex(int segmentSize, int mergeFactor) {
+		if (segmentSize <= 0) {
+			throw new IllegalArgumentException("segmentSize should be positiv, current : " + segmentSize);
+		}
+		if (mergeFactor < 2) {
+			throw new IllegalArgumentException("mergeFactor should be at least 2, current : " + mergeFactor);
+		}
+		this.segmentSize = segmentSize;
+		this.mergeFactor = mergeFactor;
+	}
+
+	/**
+	 * Splits a text into its distinct terms, the runs of letters and digits of its
+	 * normalized form, see {@link PseudonymIndex#normalize(String)}.
+	 * 
+	 * @param text text to split
+	 * @return the terms, in the order of their first occurrence
+	 */
+	public static List<String> tokenize(String text) {
+		Objects.requireNonNull(text);
+		var normalized = PseudonymIndex.normalize(text);
+		var terms = new LinkedHashSet<String>();
+		var start = -1;
+		for (var i = 0; i <= normalized.length(); i++) {
+			var inTerm = i < normalized.length() && Character.isLetterOrDigit(normalized.charAt(i));
+			if (inTerm && start == -1) {
+				start = i;
+			} else if (!inTerm && start != -1) {
+				if (i - start >= MIN_TERM_LENGTH) {
+					terms.add(normalized.substring(start, Math.min(i, start + MAX_TERM_LENGTH)));
+				}
+				start = -1;
+			}
+		}
+		return new ArrayList<>(terms);
+	}
+
+	/**
+	 * Adds a message to the index.
+	 * 
+	 * @param doc   ID of the message, greater than the IDs already added
+	 * @param terms terms of the message, the terms returned by
+	 *              {@link #tokenize(String)} and any other key the message should
+	 *              be found with
+	 */
+	public void add(int doc, Collection<String> terms) {
+		Objects.requireNonNull(terms);
+		if (doc <= last) {
+			throw new IllegalArgumentException("doc should be greater than " + last + ", current : " + doc);
+		}
+		for (var term : terms) {
+			var postings = buffer.computeIfAbsent(term, k -> new Postings());
+			if (postings.last != doc) {
+				postings.add(doc);
+			}
+		}
+		last = doc;
+		bufferSize++;
+		if (bufferSize == segmentSize) {
+			seal();
+		}
+	}
+
+	private void seal() {
+		var postings = new HashMap<String, byte[]>(buffer.size() * 4 / 3 + 1);
+		buffer.forEach((term, builder) -> postings.put(term, builder.toArray()));
+		segments.add(new Segment(bufferSize, postings));
+		buffer = new HashMap<>();
+		bufferSize = 0;
+		while (segments.size() >= mergeFactor) {
+			var from = segments.size() - mergeFactor;
+			var size = segments.get(from).size;
+			for (var i = from + 1; i < segments.size(); i++) {
+				if (segments.get(i).size != size) {
+					return;
+				}
+			}
+			var merged = merge(segments.subList(from, segments.size()));
+			segments.subList(from, segments.size()).clear();
+			segments.add(merged);
+			merges++;
+		}
+	}
+
+	/**
+	 * Merges consecutive segments, their ranges of IDs are disjoint so the
+	 * postings of a term are the postings of each segment one after the other.
+	 */
+	private static Segment merge(List<Segment> toMerge) {
+		var builders = new HashMap<String, Postings>();
+		var size = 0;
+		for (var segment : toMerge) {
+			segment.postings.forEach((term, bytes) -> {
+				var builder = builders.computeIfAbsent(term, k -> new Postings());
+				var bb = ByteBuffer.wrap(bytes);
+				for (var doc = -1; bb.hasRemaining();) {
+					doc += VarInt.get(bb);
+					builder.add(doc);
+				}
+			});
+			size += segment.size;
+		}
+		var postings = new HashMap<String, byte[]>(builders.size() * 4 / 3 + 1);
+		builders.forEach((term, builder) -> postings.put(term, builder.toArray()));
+		return new Segment(size, postings);
+	}
+
+	/**
+	 * Finds the most recent messages containing all the given terms and accepted
+	 * by the filter. The postings of a segment are only decoded if it holds all
+	 * the terms, the rarest term first.
+	 * 
+	 * @param all    terms every message found contains
+	 * @param filter tells if a message containing the terms can be returned
+	 * @param limit  maximum number of messages returned
+	 * @return the IDs of the messages found, the most recent first
+	 */
+	public List<Integer> search(Collection<String> all, IntPredicate filter, int limit) {
+		Objects.requireNonNull(all);
+		Objects.requireNonNull(filter);
+		if (limit < 0) {
+			throw new IllegalArgumentException("limit should be positiv, current : " + limit);
+		}
+		var result = new ArrayList<Integer>();
+		if (all.isEmpty()) {
+			return result;
+		}
+		if (bufferSize > 0) {
+			collect(term -> {
+				var builder = buffer.get(term);
+				return builder == null ? null : builder.toArray();
+			}, all, filter, limit, result);
+		}
+		for (var i = segments.size() - 1; i >= 0 && result.size() < limit; i--) {
+			collect(segments.get(i).postings::get, all, filter, limit, result);
+		}
+		return result;
+	}
+
+	private static void collect(Function<String, byte[]> lookup, Collection<String> all, IntPredicate filter,
+			int limit, List<Integer> result) {
+		var postings = new ArrayList<byte[]>(all.size());
+		for (var term : all) {
+			var bytes = lookup.apply(term);
+			if (bytes == null) {
+				return;
+			}
+			postings.add(bytes);
+		}
+		postings.sort(Comparator.comparingInt(bytes -> bytes.length));
+		var docs = decode(postings.get(0));
+		for (var i = 1; i < postings.size() && docs.length > 0; i++) {
+			docs = intersect(docs, decode(postings.get(i)));
+		}
+		for (var i = docs.length - 1; i >= 0 && result.size() < limit; i--) {
+			if (filter.test(docs[i])) {
+				result.add(docs[i]);
+			}
+		}
+	}
+
+	private static int[] decode(byte[] bytes) {
+		var docs = new int[bytes.length];
+		var size = 0;
+		var bb = ByteBuffer.wrap(bytes);
+		for (var doc = -1; bb.hasRemaining();) {
+			doc += VarInt.get(bb);
+			docs[size++] = doc;
+		}
+		return Arrays.copyOf(docs, size);
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		var result = new int[Math.min(a.length, b.length)];
+		var size = 0;
+		for (int i = 0, j = 0; i < a.length && j < b.length;) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[size++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(result, size);
+	}
+
+	/**
+	 * 
+	 * @return the number of sealed segments.
+	 */
+	public int getSegments() {
+		return segments.size();
+	}
+
+	/**
+	 * 
+	 * @return the number of messages indexed.
+	 */
+	public long size() {
+		var size = (long) bufferSize;
+		for (var segment : segments) {
+			size += segment.size;
+		}
+		return size;
+	}
+
+	@Override
+	public String toString() {
+		return size() + " messages, " + segments.size() + " segments, " + merges + " merges";
+	}
+}
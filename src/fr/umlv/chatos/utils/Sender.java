@@ -1,25 +1,28 @@
 package fr.umlv.chatos.utils;
 
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 
 import fr.umlv.chatos.context.Context;
+import fr.umlv.chatos.utils.data.OfflineMessage;
+import fr.umlv.chatos.utils.data.SearchHit;
+import fr.umlv.chatos.utils.data.ShortString;
 
 /**
  * This class fills a context queue with bytebuffer fills with given argument.
+ * Each frame is written by the {@link FrameWriter} of the current thread, the
+ * send methods copy it in the outbound buffer of the context without
+ * allocating, the encode methods return a copy of the exact size for the
+ * frames kept or sent to several contexts.
  * 
  * @author Benjamin JEDROCHA, Florian DURAND
  *
  */
 public class Sender {
 
-	private static final Charset csASCII = StandardCharsets.US_ASCII;
-	private static final Charset csUTF8 = StandardCharsets.UTF_8;
-
 	/**
 	 * Fills a bytebuffer with the given opcode and adds it to the context queue.
 	 * 
@@ -28,7 +31,7 @@ public class Sender {
 	 */
 	public static void sendOpCode(Context context, byte opcode) {
 		Objects.requireNonNull(context);
-		context.queueData(ByteBuffer.allocate(1).put(opcode).flip());
+		FrameWriter.to(context).putByte(opcode).send(context);
 	}
 
 	/**
@@ -41,7 +44,74 @@ public class Sender {
 	 */
 	public static void sendShort(Context context, byte opcode, short sh) {
 		Objects.requireNonNull(context);
-		context.queueData(ByteBuffer.allocate(1 + Short.BYTES).put(opcode).putShort(sh).flip());
+		FrameWriter.to(context).putByte(opcode).putShort(sh).send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode and a short.
+	 * 
+	 * @param protocol protocol of the recipient
+	 * @param opcode   opcode to send
+	 * @param sh       short value to send
+	 * @return the bytebuffer in read mode
+	 */
+	public static ByteBuffer encodeShort(Protocol protocol, byte opcode, short sh) {
+		Objects.requireNonNull(protocol);
+		return FrameWriter.get(protocol).putByte(opcode).putShort(sh).toBuffer();
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode and a long on eight bytes to adds
+	 * it to the context queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param opcode  opcode to send
+	 * @param l       long value to send
+	 */
+	public static void sendLong(Context context, byte opcode, long l) {
+		Objects.requireNonNull(context);
+		FrameWriter.to(context).putByte(opcode).putLong(l).send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode and a long on eight bytes.
+	 * 
+	 * @param protocol protocol of the recipient
+	 * @param opcode   opcode to send
+	 * @param l        long value to send
+	 * @return the bytebuffer in read mode
+	 */
+	public static ByteBuffer encodeLong(Protocol protocol, byte opcode, long l) {
+		Objects.requireNonNull(protocol);
+		return FrameWriter.get(protocol).putByte(opcode).putLong(l).toBuffer();
+	}
+
+	/**
+	 * Fills a bytebuffer with the given byte, without opcode, to adds it to the
+	 * context queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param b       byte value to send
+	 */
+	public static void sendByte(Context context, byte b) {
+		Objects.requireNonNull(context);
+		FrameWriter.to(context).putByte(b).send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode, two shorts, and string encoded
+	 * directly in the bytebuffer to adds it to the context queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param opcode  opcode to send
+	 * @param sh1     first short value to send
+	 * @param sh2     second short value to send
+	 * @param string  the string to send
+	 */
+	public static void sendShortShortString(Context context, byte opcode, short sh1, short sh2, String string) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(string);
+		FrameWriter.to(context).putByte(opcode).putShort(sh1).putShort(sh2).putString(string).send(context);
 	}
 
 	/**
@@ -56,8 +126,67 @@ public class Sender {
 	public static void sendShortString(Context context, byte opcode, Short sh, ByteBuffer encoded_string) {
 		Objects.requireNonNull(context);
 		Objects.requireNonNull(encoded_string);
-		context.queueData(ByteBuffer.allocate(1 + Short.BYTES * 2 + encoded_string.limit()).put(opcode).putShort(sh)
-				.putShort((short) encoded_string.limit()).put(encoded_string).flip());
+		FrameWriter.to(context).putByte(opcode).putShort(sh).putString(encoded_string).send(context);
+	}
+
+	/**
+	 * Creates a bytebuffer with the given opcode, short, and encoded string.
+	 * 
+	 * @param protocol       protocol used to frame the values
+	 * @param opcode         opcode to send
+	 * @param sh             short value to send
+	 * @param encoded_string the encoded string to send
+	 * @return a bytebuffer in read mode
+	 */
+	public static ByteBuffer encodeShortString(Protocol protocol, byte opcode, short sh, ByteBuffer encoded_string) {
+		Objects.requireNonNull(protocol);
+		Objects.requireNonNull(encoded_string);
+		return FrameWriter.get(protocol).putByte(opcode).putShort(sh).putString(encoded_string).toBuffer();
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode, short, and string encoded directly
+	 * in the bytebuffer to adds it to the context queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param opcode  opcode to send
+	 * @param sh      short value to send
+	 * @param string  the string to send
+	 */
+	public static void sendShortString(Context context, byte opcode, short sh, String string) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(string);
+		FrameWriter.to(context).putByte(opcode).putShort(sh).putString(string).send(context);
+	}
+
+	/**
+	 * Creates a bytebuffer with the given opcode, short, and string encoded
+	 * directly in the bytebuffer.
+	 * 
+	 * @param protocol protocol used to frame the values
+	 * @param opcode   opcode to send
+	 * @param sh       short value to send
+	 * @param string   the string to send
+	 * @return a bytebuffer in read mode
+	 */
+	public static ByteBuffer encodeShortString(Protocol protocol, byte opcode, short sh, String string) {
+		Objects.requireNonNull(protocol);
+		Objects.requireNonNull(string);
+		return FrameWriter.get(protocol).putByte(opcode).putShort(sh).putString(string).toBuffer();
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode, and string encoded directly in the
+	 * bytebuffer to adds it to the context queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param opcode  opcode to send
+	 * @param string  the string to send
+	 */
+	public static void sendString(Context context, byte opcode, String string) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(string);
+		FrameWriter.to(context).putByte(opcode).putString(string).send(context);
 	}
 
 	/**
@@ -71,8 +200,59 @@ public class Sender {
 	public static void sendString(Context context, byte opcode, ByteBuffer encoded_string) {
 		Objects.requireNonNull(context);
 		Objects.requireNonNull(encoded_string);
-		context.queueData(ByteBuffer.allocate(1 + Short.BYTES + encoded_string.limit()).put(opcode)
-				.putShort((short) encoded_string.limit()).put(encoded_string).flip());
+		FrameWriter.to(context).putByte(opcode).putString(encoded_string).send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode and two strings encoded directly in
+	 * the bytebuffer to adds it to the context queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param opcode  opcode to send
+	 * @param first   the first string to send
+	 * @param second  the second string to send
+	 */
+	public static void sendStringString(Context context, byte opcode, String first, String second) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(first);
+		Objects.requireNonNull(second);
+		FrameWriter.to(context).putByte(opcode).putString(first).putString(second).send(context);
+	}
+
+	/**
+	 * Creates a bytebuffer with the given opcode and an offline message, its
+	 * sender, its timestamp then its text.
+	 * 
+	 * @param protocol protocol used to frame the values
+	 * @param opcode   opcode to send
+	 * @param message  the offline message to send
+	 * @return a bytebuffer in read mode
+	 */
+	public static ByteBuffer encodeOfflineMessage(Protocol protocol, byte opcode, OfflineMessage message) {
+		Objects.requireNonNull(protocol);
+		Objects.requireNonNull(message);
+		return FrameWriter.get(protocol).putByte(opcode).putString(message.getSender()).putLong(message.getTimestamp())
+				.putString(message.getMessage()).toBuffer();
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode, the number of messages found by a
+	 * search then each message, its ID, its timestamp, its sender and its
+	 * extract, to adds it to the context queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param opcode  opcode to send
+	 * @param hits    the messages found
+	 */
+	public static void sendSearchResult(Context context, byte opcode, List<SearchHit> hits) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(hits);
+		var writer = FrameWriter.to(context).putByte(opcode).putShort((short) hits.size());
+		for (var hit : hits) {
+			writer.putInt(hit.getId()).putLong(hit.getTimestamp()).putString(hit.getSender())
+					.putString(hit.getSnippet());
+		}
+		writer.send(context);
 	}
 
 	/**
@@ -86,8 +266,7 @@ public class Sender {
 	 */
 	public static void sendIntShort(Context context, byte opcode, int integer, short sh) {
 		Objects.requireNonNull(context);
-		context.queueData(
-				ByteBuffer.allocate(1 + Integer.BYTES + Short.BYTES).put(opcode).putInt(integer).putShort(sh).flip());
+		FrameWriter.to(context).putByte(opcode).putInt(integer).putShort(sh).send(context);
 	}
 
 	/**
@@ -100,8 +279,116 @@ public class Sender {
 	public static void sendString(Context context, ByteBuffer encoded_string) {
 		Objects.requireNonNull(context);
 		Objects.requireNonNull(encoded_string);
-		context.queueData(ByteBuffer.allocate(Short.BYTES + encoded_string.limit())
-				.putShort((short) encoded_string.limit()).put(encoded_string).flip());
+		FrameWriter.get(Protocol.V1).putString(encoded_string).send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the login of a client to adds it to the context
+	 * queue. When the protocol asked is not {@link Protocol#V1}, the login starts
+	 * with the version and the flags, and is followed by the key of the mailbox
+	 * if the flags contain {@link Protocol#FLAG_MAILBOX}.
+	 * 
+	 * @param context        Context to which we send data
+	 * @param protocol       protocol asked by the client
+	 * @param flags          options asked by the client
+	 * @param encoded_string the encoded login to send
+	 * @param mailboxKey     key of the mailbox of the client, 0 if it has none
+	 */
+	public static void sendLogin(Context context, Protocol protocol, int flags, ByteBuffer encoded_string,
+			long mailboxKey) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(protocol);
+		Objects.requireNonNull(encoded_string);
+		if (protocol == Protocol.V1) {
+			sendString(context, encoded_string);
+			return;
+		}
+		var writer = FrameWriter.get(Protocol.V2).putByte((byte) (Protocol.VERSION_MARKER | protocol.getVersion()))
+				.putByte((byte) flags).putString(encoded_string);
+		if ((flags & Protocol.FLAG_MAILBOX) != 0) {
+			writer.putLong(mailboxKey);
+		}
+		writer.send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the login of a client resuming a session to adds it
+	 * to the context queue, the flags must contain {@link Protocol#FLAG_RESUME}.
+	 * 
+	 * @param context        Context to which we send data
+	 * @param protocol       protocol asked by the client, not {@link Protocol#V1}
+	 * @param flags          options asked by the client
+	 * @param encoded_string the encoded login to send
+	 * @param mailboxKey     key of the mailbox of the client, sent if the flags
+	 *                       contain {@link Protocol#FLAG_MAILBOX}
+	 * @param session        token of the session
+	 * @param sequence       number of messages received in the session
+	 */
+	public static void sendResume(Context context, Protocol protocol, int flags, ByteBuffer encoded_string,
+			long mailboxKey, long session, int sequence) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(protocol);
+		Objects.requireNonNull(encoded_string);
+		if (protocol == Protocol.V1 || (flags & Protocol.FLAG_RESUME) == 0) {
+			throw new IllegalArgumentException("a session is resumed with a negotiated login");
+		}
+		var writer = FrameWriter.get(Protocol.V2).putByte((byte) (Protocol.VERSION_MARKER | protocol.getVersion()))
+				.putByte((byte) flags).putString(encoded_string);
+		if ((flags & Protocol.FLAG_MAILBOX) != 0) {
+			writer.putLong(mailboxKey);
+		}
+		writer.putLong(session).putInt(sequence).send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode, a version and flags to adds it to
+	 * the context queue.
+	 * 
+	 * @param context  Context to which we send data
+	 * @param opcode   opcode to send
+	 * @param protocol protocol accepted
+	 * @param flags    options accepted
+	 */
+	public static void sendVersion(Context context, byte opcode, Protocol protocol, int flags) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(protocol);
+		FrameWriter.to(context).putByte(opcode).putByte((byte) protocol.getVersion()).putByte((byte) flags)
+				.send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode, a client ID, the address the
+	 * client listens on and the token of the connection to adds it to the context
+	 * queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param opcode  opcode to send
+	 * @param sh      ID of the client listening
+	 * @param address address the client listens on
+	 * @param token   token of the connection
+	 */
+	public static void sendDirectOffer(Context context, byte opcode, short sh, InetSocketAddress address, long token) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(address);
+		var ip = address.getAddress().getAddress();
+		FrameWriter.to(context).putByte(opcode).putShort(sh).putInt(address.getPort()).putByte((byte) ip.length)
+				.putBytes(ip).putLong(token).send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode, the port a client listens on, the
+	 * ID of the client who asked for the connection and the token of the
+	 * connection to adds it to the context queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param opcode  opcode to send
+	 * @param port    port the client listens on
+	 * @param sh      ID of the client who asked for the connection
+	 * @param token   token of the connection
+	 */
+	public static void sendDirectResponse(Context context, byte opcode, int port, short sh, long token) {
+		Objects.requireNonNull(context);
+		FrameWriter.to(context).putByte(opcode).putInt(port).putShort(sh).putLong(token).send(context);
 	}
 
 	/**
@@ -114,10 +401,50 @@ public class Sender {
 	public static void sendClientList(Context context, Map<Short, ByteBuffer> idPseudoMap) {
 		Objects.requireNonNull(context);
 		Objects.requireNonNull(idPseudoMap);
-		var bb = ByteBuffer.allocate(1 + Short.BYTES + (Short.BYTES * 2 + 1024) * idPseudoMap.size());
-		bb.put((byte) 0).putShort((short) idPseudoMap.size());
-		idPseudoMap.forEach((i, buffer) -> bb.putShort(i).putShort((short) buffer.limit()).put(buffer));
-		context.queueData(bb.flip());
+		var writer = FrameWriter.to(context).putByte((byte) 0).putShort((short) idPseudoMap.size());
+		idPseudoMap.forEach((i, buffer) -> writer.putShort(i).putString(buffer));
+		writer.send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode and the given clients, in the format
+	 * of the client list, to adds it to the context queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param opcode  opcode to send
+	 * @param clients ID and pseudonyme of the clients
+	 */
+	public static void sendClientList(Context context, byte opcode, List<ShortString> clients) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(clients);
+		writeClientList(FrameWriter.to(context).putByte(opcode), clients).send(context);
+	}
+
+	/**
+	 * Fills a bytebuffer with the given opcode, the number of clients connected,
+	 * the cursor of the next page and a page of clients, to adds it to the
+	 * context queue.
+	 * 
+	 * @param context Context to which we send data
+	 * @param opcode  opcode to send
+	 * @param total   number of clients connected
+	 * @param next    cursor of the next page, -1 if this page is the last one
+	 * @param clients ID and pseudonyme of the clients of the page
+	 */
+	public static void sendRosterPage(Context context, byte opcode, short total, short next,
+			List<ShortString> clients) {
+		Objects.requireNonNull(context);
+		Objects.requireNonNull(clients);
+		writeClientList(FrameWriter.to(context).putByte(opcode).putShort(total).putShort(next), clients)
+				.send(context);
+	}
+
+	private static FrameWriter writeClientList(FrameWriter writer, List<ShortString> clients) {
+		writer.putShort((short) clients.size());
+		for (var client : clients) {
+			writer.putShort(client.getShort()).putString(client.getString());
+		}
+		return writer;
 	}
 
 	/**
@@ -128,8 +455,7 @@ public class Sender {
 	 */
 	public static void sendHTTPNotFound(Context context) {
 		Objects.requireNonNull(context);
-		context.queueData(ByteBuffer.allocate(16).put(csASCII.encode("HTTP/1.1 404")).put((byte) '\r').put((byte) '\n')
-				.put((byte) '\r').put((byte) '\n').flip());
+		FrameWriter.get(Protocol.V1).putAscii("HTTP/1.1 404\r\n\r\n").send(context);
 	}
 
 	/**
@@ -142,20 +468,26 @@ public class Sender {
 	 */
 	public static void sendHTTPFile(Context context, String path, List<String> file) {
 		Objects.requireNonNull(context);
+		context.queueData(encodeHTTPFile(path, file));
+	}
+
+	/**
+	 * Creates a bytebuffer with http header OK and a list of string sent as chunks.
+	 * 
+	 * @param path Resource location
+	 * @param file file content
+	 * @return a bytebuffer in read mode containing the whole response
+	 */
+	public static ByteBuffer encodeHTTPFile(String path, List<String> file) {
 		Objects.requireNonNull(path);
 		Objects.requireNonNull(file);
-		var bb = ByteBuffer.allocate(1024).put(csASCII.encode("HTTP/1.1 200 OK")).put((byte) '\r').put((byte) '\n')
-				.put(csASCII.encode("Transfer-Encoding: chunked")).put((byte) '\r').put((byte) '\n')
-				.put(csASCII.encode("Content-Type: text; charset=UTF-8")).put((byte) '\r').put((byte) '\n')
-				.put(csASCII.encode("Content-Location: " + path)).put((byte) '\r').put((byte) '\n').put((byte) '\r')
-				.put((byte) '\n');
+		var writer = FrameWriter.get(Protocol.V1).putAscii("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\n"
+				+ "Content-Type: text; charset=UTF-8\r\nContent-Location: " + path + "\r\n\r\n");
 		for (var line : file) {
-			var encoded_line = csUTF8.encode(line);
-			bb.putInt(encoded_line.limit()).put((byte) '\r').put((byte) '\n').put(encoded_line).put((byte) '\r')
-					.put((byte) '\n');
+			var length = Utf8Codec.encodedLength(line);
+			writer.putInt(length).putAscii("\r\n").putText(line, length).putAscii("\r\n");
 		}
-		bb.putInt(0).put((byte) '\r').put((byte) '\n').put((byte) '\r').put((byte) '\n');
-		context.queueData(bb.flip());
+		return writer.putInt(0).putAscii("\r\n\r\n").toBuffer();
 	}
 
 	/**
@@ -168,7 +500,6 @@ public class Sender {
 	public static void sendHTTPGET(Context context, String path) {
 		Objects.requireNonNull(context);
 		Objects.requireNonNull(path);
-		context.queueData(ByteBuffer.allocate(17 + path.length()).put(csASCII.encode("GET " + path + " HTTP/1.1"))
-				.put((byte) '\r').put((byte) '\n').put((byte) '\r').put((byte) '\n').flip());
+		FrameWriter.get(Protocol.V1).putAscii("GET ").putAscii(path).putAscii(" HTTP/1.1\r\n\r\n").send(context);
 	}
 }
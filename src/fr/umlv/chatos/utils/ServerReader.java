@@ -2,14 +2,17 @@ package fr.umlv.chatos.utils;
 
 import java.util.Objects;
 
+import fr.umlv.chatos.server.FloodControl.Traffic;
 import fr.umlv.chatos.server.ServerChatOS;
 import fr.umlv.chatos.server.ServerChatOS.ContextDefault;
 import fr.umlv.chatos.utils.data.ShortString;
+import fr.umlv.chatos.utils.data.StringString;
+import fr.umlv.chatos.utils.reader.DirectResponseReader;
 import fr.umlv.chatos.utils.reader.IntShortReader;
+import fr.umlv.chatos.utils.reader.LongReader;
 import fr.umlv.chatos.utils.reader.Reader;
-import fr.umlv.chatos.utils.reader.ShortReader;
 import fr.umlv.chatos.utils.reader.ShortStringReader;
-import fr.umlv.chatos.utils.reader.StringReader;
+import fr.umlv.chatos.utils.reader.StringStringReader;
 
 /**
  * Represents a server reader.
@@ -21,7 +24,6 @@ public class ServerReader {
 
 	private final ServerChatOS server;
 	private final ContextDefault context;
-	private final short id;
 
 	/**
 	 * Class constructor.
@@ -33,7 +35,6 @@ public class ServerReader {
 		Objects.requireNonNull(server);
 		this.server = server;
 		this.context = context;
-		id = context.getId();
 	}
 
 	/**
@@ -42,8 +43,17 @@ public class ServerReader {
 	 *         message.
 	 */
 	public Reader<?> receiveSpecificMessage() {
-		return new ShortStringReader(intString -> {
-			server.specificMessage(intString, id, context);
+		return new ShortStringReader(context.getProtocol(), intString -> {
+			if (!server.allow(context, Traffic.PRIVATE)) {
+				return;
+			}
+			if (!server.getInterceptors().isEmpty()) {
+				server.intercept(context, Traffic.PRIVATE, server.pseudonymeOf(intString.getShort()),
+						intString.getString(), text -> server.specificMessage(new ShortString(intString.getShort(), text),
+								context.getId(), context));
+				return;
+			}
+			server.specificMessage(intString, context.getId(), context);
 		});
 	}
 
@@ -53,8 +63,16 @@ public class ServerReader {
 	 *         message.
 	 */
 	public Reader<?> receiveBroadcastMessage() {
-		return new StringReader(s -> {
-			server.broadcast(new ShortString(id, s));
+		return context.getProtocol().newStringReader(s -> {
+			if (!server.allow(context, Traffic.BROADCAST)) {
+				return;
+			}
+			if (!server.getInterceptors().isEmpty()) {
+				server.intercept(context, Traffic.BROADCAST, "", s,
+						text -> server.broadcast(new ShortString(context.getId(), text)));
+				return;
+			}
+			server.broadcast(new ShortString(context.getId(), s));
 		});
 	}
 
@@ -64,7 +82,15 @@ public class ServerReader {
 	 *         connection request.
 	 */
 	public Reader<?> receiveTCPAskMessage() {
-		return new IntShortReader(intInt -> {
+		return new IntShortReader(context.getProtocol(), intInt -> {
+			if (!server.allow(context, Traffic.TCP_ASK)) {
+				return;
+			}
+			if (!server.getInterceptors().isEmpty()) {
+				server.intercept(context, Traffic.TCP_ASK, server.pseudonymeOf(intInt.getShort()), "",
+						text -> server.tcpAskMessage(intInt, context));
+				return;
+			}
 			server.tcpAskMessage(intInt, context);
 		});
 	}
@@ -75,18 +101,115 @@ public class ServerReader {
 	 *         positive response.
 	 */
 	public Reader<?> receiveTCPResponseMessage() {
-		return new IntShortReader(intInt -> {
+		return new IntShortReader(context.getProtocol(), intInt -> {
 			server.tcpResponseMessage(intInt, context);
 		});
 	}
 
+	/**
+	 * 
+	 * @return a reader which will be executed when the server receives a TCP
+	 *         positive response with the port and the token of a direct
+	 *         connection.
+	 */
+	public Reader<?> receiveTCPDirectResponseMessage() {
+		return new DirectResponseReader(context.getProtocol(), response -> {
+			server.tcpDirectResponseMessage(response, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when the server receives the failure
+	 *         of a direct connection.
+	 */
+	public Reader<?> receiveTCPDirectFailedMessage() {
+		return context.getProtocol().newShortReader(idClientB -> {
+			server.tcpDirectFailedMessage(idClientB, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when the server receives a query of
+	 *         the pseudonymes starting with a prefix.
+	 */
+	public Reader<?> receiveQuery() {
+		return context.getProtocol().newStringReader(prefix -> {
+			server.query(prefix, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when the server receives the
+	 *         request of a page of the client list.
+	 */
+	public Reader<?> receiveRosterPageRequest() {
+		return context.getProtocol().newShortReader(after -> {
+			server.rosterPage(after, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when the server receives the
+	 *         request of the pseudonyme of a client.
+	 */
+	public Reader<?> receiveRosterLookup() {
+		return context.getProtocol().newShortReader(clientId -> {
+			server.rosterLookup(clientId, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when the server receives the answer
+	 *         to a heartbeat.
+	 */
+	public Reader<?> receivePong() {
+		return new LongReader(timestamp -> {
+			server.pong(timestamp, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when the server receives a private
+	 *         message addressed by pseudonyme.
+	 */
+	public Reader<?> receivePseudoMessage() {
+		return new StringStringReader(context.getProtocol(), pseudoMessage -> {
+			if (!server.allow(context, Traffic.PRIVATE)) {
+				return;
+			}
+			if (!server.getInterceptors().isEmpty()) {
+				server.intercept(context, Traffic.PRIVATE, pseudoMessage.getFirst(), pseudoMessage.getSecond(),
+						text -> server.pseudoMessage(new StringString(pseudoMessage.getFirst(), text), context));
+				return;
+			}
+			server.pseudoMessage(pseudoMessage, context);
+		});
+	}
+
+	/**
+	 * 
+	 * @return a reader which will be executed when the server receives a search
+	 *         of the history.
+	 */
+	public Reader<?> receiveSearch() {
+		return context.getProtocol().newStringReader(query -> {
+			server.search(query, context);
+		});
+	}
+
 	/**
 	 * 
 	 * @return a reader which will be executed when the server receives a TCP
 	 *         negative response.
 	 */
 	public Reader<?> receiveTCPResponseNOMessage() {
-		return new ShortReader(idClientA -> {
+		return context.getProtocol().newShortReader(idClientA -> {
 			server.tcpNegativResponseMessage(idClientA, context);
 		});
 	}
@@ -0,0 +1,181 @@
+package fr.umlv.chatos.utils;
+
+import java.util.Objects;
+
+/**
+ * Hashed timing wheel running the timeouts of a selector loop. The wheel is an
+ * array of slots, each slot a doubly linked list of timeouts, the wheel turns
+ * one slot per tick. Scheduling and cancelling a timeout cost O(1), a tick only
+ * looks at the timeouts of one slot, a timeout longer than a turn of the wheel
+ * waits for the required number of turns in its slot.
+ * 
+ * The wheel isn't thread-safe, it must be used by the thread running the
+ * selector, which calls {@link #advance(long)} after each select.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class TimingWheel {
+
+	/**
+	 * Task scheduled in the wheel, it can be cancelled until it runs.
+	 * 
+	 * @author Benjamin JEDROCHA, Florian DURAND
+	 * 
+	 */
+	public static class Timeout {
+		private final TimingWheel wheel;
+		private final Runnable task;
+		private long rounds;
+		private Timeout previous;
+		private Timeout next;
+		private boolean done;
+
+		private Timeout(TimingWheel wheel, Runnable task) {
+			this.wheel = wheel;
+			this.task = task;
+		}
+
+		/**
+		 * Cancels the task, does nothing if it already ran or was cancelled.
+		 */
+		public void cancel() {
+			if (done) {
+				return;
+			}
+			done = true;
+			unlink();
+			wheel.size--;
+		}
+
+		/**
+		 * 
+		 * @return true if the task ran or was cancelled.
+		 */
+		public boolean isDone() {
+			return done;
+		}
+
+		private void unlink() {
+			previous.next = next;
+			next.previous = previous;
+			previous = null;
+			next = null;
+		}
+
+		private void linkBefore(Timeout sentinel) {
+			previous = sentinel.previous;
+			next = sentinel;
+			sentinel.previous.next = this;
+			sentinel.previous = this;
+		}
+	}
+
+	private final long tickMillis;
+	private final Timeout[] slots;
+	private long tick;
+	private long lastTime;
+	private int size;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param tickMillis duration of a tick in milliseconds
+	 * @param slots      number of slots of the wheel
+	 * @param now        current time in milliseconds
+	 */
+	public TimingWheel(long tickMillis, int slots, long now) {
+		if (tickMillis <= 0) {
+			throw new IllegalArgumentException("tickMillis should be positiv, current : " + tickMillis);
+		}
+		if (slots <= 0) {
+			throw new IllegalArgumentException("slots should be positiv, current : " + slots);
+		}
+		this.tickMillis = tickMillis;
+		this.slots = new Timeout[slots];
+		for (var i = 0; i < slots; i++) {
+			this.slots[i] = newSentinel();
+		}
+		this.lastTime = now;
+	}
+
+	/**
+	 * Schedules a task, it runs during the call of {@link #advance(long)} which
+	 * passes delayMillis rounded up to a tick, the first tick being the one
+	 * started.
+	 * 
+	 * @param delayMillis delay in milliseconds
+	 * @param task        task to run
+	 * @return the timeout, to cancel the task
+	 */
+	public Timeout schedule(long delayMillis, Runnable task) {
+		Objects.requireNonNull(task);
+		if (delayMillis < 0) {
+			throw new IllegalArgumentException("delayMillis should be positiv, current : " + delayMillis);
+		}
+		var ticks = Math.max(1, (delayMillis + tickMillis - 1) / tickMillis);
+		var timeout = new Timeout(this, task);
+		timeout.rounds = (ticks - 1) / slots.length;
+		timeout.linkBefore(slots[(int) ((tick + ticks) % slots.length)]);
+		size++;
+		return timeout;
+	}
+
+	private Timeout newSentinel() {
+		var sentinel = new Timeout(this, null);
+		sentinel.previous = sentinel;
+		sentinel.next = sentinel;
+		return sentinel;
+	}
+
+	/**
+	 * Turns the wheel up to the given time and runs the tasks which expired. A
+	 * task may schedule other tasks.
+	 * 
+	 * @param now current time in milliseconds
+	 * @return the number of tasks run
+	 */
+	public int advance(long now) {
+		var count = 0;
+		while (now - lastTime >= tickMillis) {
+			lastTime += tickMillis;
+			tick++;
+			var index = (int) (tick % slots.length);
+			var sentinel = slots[index];
+			if (sentinel.next == sentinel) {
+				continue;
+			}
+			// the slot is replaced so the tasks scheduled now wait for the next turn
+			slots[index] = newSentinel();
+			for (Timeout timeout; (timeout = sentinel.next) != sentinel;) {
+				timeout.unlink();
+				if (timeout.rounds == 0) {
+					timeout.done = true;
+					size--;
+					timeout.task.run();
+					count++;
+				} else {
+					timeout.rounds--;
+					timeout.linkBefore(slots[index]);
+				}
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * 
+	 * @return the duration of a tick in milliseconds.
+	 */
+	public long getTickMillis() {
+		return tickMillis;
+	}
+
+	/**
+	 * 
+	 * @return the number of tasks scheduled and not run or cancelled yet.
+	 */
+	public int size() {
+		return size;
+	}
+}
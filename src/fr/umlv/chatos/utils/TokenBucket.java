@@ -0,0 +1,73 @@
+package fr.umlv.chatos.utils;
+
+/**
+ * Token bucket limiting the rate of an action : each action takes a token, the
+ * bucket holds at most capacity tokens and is refilled at a constant rate, so
+ * bursts of capacity actions are allowed but the mean rate can't exceed the
+ * refill rate.
+ * 
+ * The bucket is refilled lazily from the time given to
+ * {@link #tryAcquire(long)}, it needs no timer.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class TokenBucket {
+
+	private final double capacity;
+	private final double refillPerMillis;
+	private double tokens;
+	private long lastRefill;
+
+	/**
+	 * Class constructor, the bucket starts full.
+	 * 
+	 * @param capacity        maximum number of tokens
+	 * @param refillPerSecond number of tokens added per second
+	 * @param now             current time in milliseconds
+	 */
+	public TokenBucket(long capacity, double refillPerSecond, long now) {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("capacity should be positiv, current : " + capacity);
+		}
+		if (!(refillPerSecond >= 0)) {
+			throw new IllegalArgumentException("refillPerSecond should be positiv, current : " + refillPerSecond);
+		}
+		this.capacity = capacity;
+		this.refillPerMillis = refillPerSecond / 1_000;
+		this.tokens = capacity;
+		this.lastRefill = now;
+	}
+
+	/**
+	 * Takes a token if the bucket is not empty.
+	 * 
+	 * @param now current time in milliseconds
+	 * @return true if a token was taken, false if the action must be refused
+	 */
+	public boolean tryAcquire(long now) {
+		refill(now);
+		if (tokens < 1) {
+			return false;
+		}
+		tokens--;
+		return true;
+	}
+
+	private void refill(long now) {
+		if (now > lastRefill) {
+			tokens = Math.min(capacity, tokens + (now - lastRefill) * refillPerMillis);
+			lastRefill = now;
+		}
+	}
+
+	/**
+	 * 
+	 * @param now current time in milliseconds
+	 * @return the number of tokens available.
+	 */
+	public double getTokens(long now) {
+		refill(now);
+		return tokens;
+	}
+}
@@ -0,0 +1,180 @@
+package fr.umlv.chatos.utils;
+
+import java.nio.BufferOverflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+
+/**
+ * Encodes and decodes UTF-8 strings with an encoder and a decoder reused by the
+ * thread running the selector, see {@link #get()}. Strings are encoded directly
+ * in the packet sent and decoded from a slice of the buffer received. Strings
+ * made of ASCII characters are copied byte per byte without the coders.
+ * 
+ * Malformed input and unpaired surrogates are replaced like
+ * {@link Charset#encode(String)} and {@link Charset#decode(ByteBuffer)} do.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class Utf8Codec {
+
+	private static final ThreadLocal<Utf8Codec> CODECS = ThreadLocal.withInitial(Utf8Codec::new);
+
+	private final CharsetEncoder encoder = StandardCharsets.UTF_8.newEncoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private final CharsetDecoder decoder = StandardCharsets.UTF_8.newDecoder()
+			.onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(CodingErrorAction.REPLACE);
+	private CharBuffer chars = CharBuffer.allocate(1_024);
+
+	private Utf8Codec() {
+	}
+
+	/**
+	 * 
+	 * @return the codec of the current thread.
+	 */
+	public static Utf8Codec get() {
+		return CODECS.get();
+	}
+
+	/**
+	 * Decodes the given bytes with the codec of the current thread if the charset
+	 * is UTF-8, with the charset otherwise.
+	 * 
+	 * @param cs  charset of the bytes
+	 * @param src bytes in read mode, they are consumed
+	 * @return the decoded string
+	 */
+	public static String decode(Charset cs, ByteBuffer src) {
+		Objects.requireNonNull(cs);
+		if (cs.equals(StandardCharsets.UTF_8)) {
+			return get().decode(src);
+		}
+		return cs.decode(src).toString();
+	}
+
+	/**
+	 * Computes the number of bytes of the given string encoded in UTF-8, without
+	 * encoding it.
+	 * 
+	 * @param string string to measure
+	 * @return the number of bytes of the encoded string
+	 */
+	public static int encodedLength(CharSequence string) {
+		Objects.requireNonNull(string);
+		var length = string.length();
+		var bytes = length;
+		for (var i = 0; i < length; i++) {
+			var c = string.charAt(i);
+			if (c < 0x80) {
+				continue;
+			}
+			if (c < 0x800) {
+				bytes++;
+			} else if (Character.isHighSurrogate(c) && i + 1 < length
+					&& Character.isLowSurrogate(string.charAt(i + 1))) {
+				bytes += 2; // 4 bytes for 2 chars
+				i++;
+			} else if (Character.isSurrogate(c)) {
+				// unpaired surrogate, replaced by '?'
+			} else {
+				bytes += 2;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Encodes the given string in a new buffer of the exact size.
+	 * 
+	 * @param string string to encode
+	 * @return the encoded string in read mode
+	 */
+	public ByteBuffer encode(CharSequence string) {
+		Objects.requireNonNull(string);
+		return encode(string, ByteBuffer.allocate(encodedLength(string))).flip();
+	}
+
+	/**
+	 * Encodes the given string at the position of the destination buffer.
+	 * 
+	 * @param string string to encode
+	 * @param dst    buffer in write mode, with at least
+	 *               {@link #encodedLength(CharSequence)} bytes remaining
+	 * @return the destination buffer
+	 * @throws BufferOverflowException If the destination buffer is too small
+	 */
+	public ByteBuffer encode(CharSequence string, ByteBuffer dst) {
+		Objects.requireNonNull(string);
+		Objects.requireNonNull(dst);
+		var length = string.length();
+		var i = 0;
+		if (dst.hasArray()) {
+			var array = dst.array();
+			var offset = dst.arrayOffset() + dst.position();
+			var max = Math.min(length, dst.remaining());
+			for (char c; i < max && (c = string.charAt(i)) < 0x80; i++) {
+				array[offset + i] = (byte) c;
+			}
+			dst.position(dst.position() + i);
+		} else {
+			for (char c; i < length && dst.hasRemaining() && (c = string.charAt(i)) < 0x80; i++) {
+				dst.put((byte) c);
+			}
+		}
+		if (i == length) {
+			return dst;
+		}
+		encoder.reset();
+		var result = encoder.encode(CharBuffer.wrap(string, i, length), dst, true);
+		if (result.isUnderflow()) {
+			result = encoder.flush(dst);
+		}
+		if (result.isOverflow()) {
+			throw new BufferOverflowException();
+		}
+		return dst;
+	}
+
+	/**
+	 * Decodes the remaining bytes of the given buffer.
+	 * 
+	 * @param src bytes in read mode, they are consumed
+	 * @return the decoded string
+	 */
+	public String decode(ByteBuffer src) {
+		Objects.requireNonNull(src);
+		if (src.hasArray() && isASCII(src.array(), src.arrayOffset() + src.position(), src.remaining())) {
+			var string = new String(src.array(), src.arrayOffset() + src.position(), src.remaining(),
+					StandardCharsets.ISO_8859_1);
+			src.position(src.limit());
+			return string;
+		}
+		if (chars.capacity() < src.remaining()) {
+			chars = CharBuffer.allocate(Math.max(src.remaining(), chars.capacity() * 2));
+		}
+		chars.clear();
+		decoder.reset();
+		CoderResult result = decoder.decode(src, chars, true);
+		if (result.isUnderflow()) {
+			decoder.flush(chars);
+		}
+		return chars.flip().toString();
+	}
+
+	private static boolean isASCII(byte[] array, int offset, int length) {
+		for (var i = offset; i < offset + length; i++) {
+			if (array[i] < 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,72 @@
+package fr.umlv.chatos.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+
+/**
+ * Encodes integers on a variable number of bytes. Each byte carries 7 bits of
+ * the value, least significant bits first, and its high bit tells if another
+ * byte follows. Values are treated as unsigned.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class VarInt {
+
+	/**
+	 * Maximum number of bytes of an encoded integer.
+	 */
+	public static final int MAX_BYTES = 5;
+
+	private VarInt() {
+	}
+
+	/**
+	 * 
+	 * @param value value to encode
+	 * @return the number of bytes needed to encode the value.
+	 */
+	public static int size(int value) {
+		var size = 1;
+		while ((value & ~0x7F) != 0) {
+			value >>>= 7;
+			size++;
+		}
+		return size;
+	}
+
+	/**
+	 * Writes the encoded value in the bytebuffer.
+	 * 
+	 * @param bb    bytebuffer in write mode
+	 * @param value value to encode
+	 * @return the bytebuffer
+	 */
+	public static ByteBuffer put(ByteBuffer bb, int value) {
+		Objects.requireNonNull(bb);
+		while ((value & ~0x7F) != 0) {
+			bb.put((byte) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		return bb.put((byte) value);
+	}
+
+	/**
+	 * Reads an encoded value from the bytebuffer.
+	 * 
+	 * @param bb bytebuffer in read mode, holding a whole encoded value
+	 * @return the decoded value
+	 */
+	public static int get(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		var value = 0;
+		for (var shift = 0; shift < 7 * MAX_BYTES; shift += 7) {
+			var b = bb.get();
+			value |= (b & 0x7F) << shift;
+			if ((b & 0x80) == 0) {
+				return value;
+			}
+		}
+		throw new IllegalArgumentException("More than " + MAX_BYTES + " bytes");
+	}
+}
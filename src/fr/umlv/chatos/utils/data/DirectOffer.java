@@ -0,0 +1,58 @@
+package fr.umlv.chatos.utils.data;
+
+import java.net.InetSocketAddress;
+import java.util.Objects;
+
+/**
+ * This class stores the address a client listens on for a direct private
+ * connection, brokered by the server to the client who asked for it, and the
+ * one-time token to send first once connected.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class DirectOffer {
+	private final short id;
+	private final InetSocketAddress address;
+	private final long token;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param id      ID of the client listening
+	 * @param address address the client listens on
+	 * @param token   token of the connection
+	 */
+	public DirectOffer(short id, InetSocketAddress address, long token) {
+		if (id < 0) {
+			throw new IllegalArgumentException("id must be positiv, current : " + id);
+		}
+		this.id = id;
+		this.address = Objects.requireNonNull(address);
+		this.token = token;
+	}
+
+	/**
+	 * 
+	 * @return the ID of the client listening.
+	 */
+	public short getShort() {
+		return id;
+	}
+
+	/**
+	 * 
+	 * @return the address the client listens on.
+	 */
+	public InetSocketAddress getAddress() {
+		return address;
+	}
+
+	/**
+	 * 
+	 * @return the token of the connection.
+	 */
+	public long getToken() {
+		return token;
+	}
+}
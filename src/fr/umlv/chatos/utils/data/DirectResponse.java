@@ -0,0 +1,58 @@
+package fr.umlv.chatos.utils.data;
+
+/**
+ * This class stores the answer of a client accepting a direct private
+ * connection, the port it listens on, the ID of the client who asked for it
+ * and the one-time token this client must send first once connected.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class DirectResponse {
+	private final int port;
+	private final short id;
+	private final long token;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param port  port the client listens on
+	 * @param id    ID of the client who asked for the connection
+	 * @param token token of the connection
+	 */
+	public DirectResponse(int port, short id, long token) {
+		if (id < 0) {
+			throw new IllegalArgumentException("id must be positiv, current : " + id);
+		}
+		if (port < 0 || port > 65_535) {
+			throw new IllegalArgumentException("port must be between 0 and 65_535 (both included), current : " + port);
+		}
+		this.port = port;
+		this.id = id;
+		this.token = token;
+	}
+
+	/**
+	 * 
+	 * @return the port the client listens on.
+	 */
+	public int getPort() {
+		return port;
+	}
+
+	/**
+	 * 
+	 * @return the ID of the client who asked for the connection.
+	 */
+	public short getShort() {
+		return id;
+	}
+
+	/**
+	 * 
+	 * @return the token of the connection.
+	 */
+	public long getToken() {
+		return token;
+	}
+}
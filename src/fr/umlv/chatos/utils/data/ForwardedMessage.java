@@ -0,0 +1,56 @@
+package fr.umlv.chatos.utils.data;
+
+import java.util.Objects;
+
+/**
+ * This class stores a private message forwarded from the node of the sender to
+ * the node of the recipient.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class ForwardedMessage {
+	private final short sender;
+	private final short recipient;
+	private final String message;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param sender    ID of the sender
+	 * @param recipient ID of the recipient
+	 * @param message   the message
+	 */
+	public ForwardedMessage(short sender, short recipient, String message) {
+		if (sender < 0 || recipient < 0) {
+			throw new IllegalArgumentException("ids must be positiv, current : " + sender + ", " + recipient);
+		}
+		this.sender = sender;
+		this.recipient = recipient;
+		this.message = Objects.requireNonNull(message);
+	}
+
+	/**
+	 * 
+	 * @return the ID of the sender.
+	 */
+	public short getSender() {
+		return sender;
+	}
+
+	/**
+	 * 
+	 * @return the ID of the recipient.
+	 */
+	public short getRecipient() {
+		return recipient;
+	}
+
+	/**
+	 * 
+	 * @return the message.
+	 */
+	public String getMessage() {
+		return message;
+	}
+}
@@ -0,0 +1,124 @@
+package fr.umlv.chatos.utils.data;
+
+import java.util.Objects;
+
+import fr.umlv.chatos.utils.Protocol;
+
+/**
+ * This class allows to store the login sent by a client and the version it
+ * asked for.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class Login {
+	private final Version version;
+	private final String pseudonyme;
+	private final boolean negotiated;
+	private final long mailboxKey;
+	private final long session;
+	private final int sequence;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param version    version asked by the client
+	 * @param pseudonyme client login
+	 * @param negotiated true if the client announced its version
+	 */
+	public Login(Version version, String pseudonyme, boolean negotiated) {
+		this(version, pseudonyme, negotiated, 0, 0);
+	}
+
+	/**
+	 * Class constructor of a login resuming a session.
+	 * 
+	 * @param version    version asked by the client
+	 * @param pseudonyme client login
+	 * @param negotiated true if the client announced its version
+	 * @param session    token of the session to resume
+	 * @param sequence   number of messages received by the client in the session
+	 */
+	public Login(Version version, String pseudonyme, boolean negotiated, long session, int sequence) {
+		this(version, pseudonyme, negotiated, 0, session, sequence);
+	}
+
+	/**
+	 * Class constructor of a login presenting the key of a mailbox.
+	 * 
+	 * @param version    version asked by the client
+	 * @param pseudonyme client login
+	 * @param negotiated true if the client announced its version
+	 * @param mailboxKey key of the mailbox of the client, 0 if it has none
+	 * @param session    token of the session to resume, 0 if none is resumed
+	 * @param sequence   number of messages received by the client in the session
+	 */
+	public Login(Version version, String pseudonyme, boolean negotiated, long mailboxKey, long session,
+			int sequence) {
+		Objects.requireNonNull(version);
+		Objects.requireNonNull(pseudonyme);
+		this.version = version;
+		this.pseudonyme = pseudonyme;
+		this.negotiated = negotiated;
+		this.mailboxKey = mailboxKey;
+		this.session = session;
+		this.sequence = sequence;
+	}
+
+	/**
+	 * 
+	 * @return the version asked by the client.
+	 */
+	public Version getVersion() {
+		return version;
+	}
+
+	/**
+	 * 
+	 * @return the client login.
+	 */
+	public String getPseudonyme() {
+		return pseudonyme;
+	}
+
+	/**
+	 * 
+	 * @return true if the client announced its version and waits for an answer.
+	 */
+	public boolean isNegotiated() {
+		return negotiated;
+	}
+
+	/**
+	 * 
+	 * @return true if the client resumes a session.
+	 */
+	public boolean isResuming() {
+		return version.hasFlag(Protocol.FLAG_RESUME);
+	}
+
+	/**
+	 * 
+	 * @return the key of the mailbox presented by the client, 0 if it has none.
+	 */
+	public long getMailboxKey() {
+		return mailboxKey;
+	}
+
+	/**
+	 * 
+	 * @return the token of the session resumed.
+	 */
+	public long getSession() {
+		return session;
+	}
+
+	/**
+	 * 
+	 * @return the number of messages received by the client in the session
+	 *         resumed.
+	 */
+	public int getSequence() {
+		return sequence;
+	}
+}
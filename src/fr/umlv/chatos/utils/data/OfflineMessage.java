@@ -0,0 +1,74 @@
+package fr.umlv.chatos.utils.data;
+
+import java.util.Objects;
+
+/**
+ * Private message kept by the server while its recipient was offline, with the
+ * pseudonyme of its sender and the time it was sent.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class OfflineMessage {
+	private final String sender;
+	private final long timestamp;
+	private final String message;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param sender    pseudonyme of the sender
+	 * @param timestamp time the message was sent, in milliseconds since the epoch
+	 * @param message   the message
+	 */
+	public OfflineMessage(String sender, long timestamp, String message) {
+		Objects.requireNonNull(sender);
+		Objects.requireNonNull(message);
+		this.sender = sender;
+		this.timestamp = timestamp;
+		this.message = message;
+	}
+
+	/**
+	 * 
+	 * @return the pseudonyme of the sender.
+	 */
+	public String getSender() {
+		return sender;
+	}
+
+	/**
+	 * 
+	 * @return the time the message was sent, in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * 
+	 * @return the message.
+	 */
+	public String getMessage() {
+		return message;
+	}
+
+	@Override
+	public String toString() {
+		return sender + " " + timestamp + " " + message;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof OfflineMessage)) {
+			return false;
+		}
+		OfflineMessage om = (OfflineMessage) obj;
+		return om.sender.equals(sender) && om.timestamp == timestamp && om.message.equals(message);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(sender, timestamp, message);
+	}
+}
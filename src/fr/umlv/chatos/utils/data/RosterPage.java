@@ -0,0 +1,54 @@
+package fr.umlv.chatos.utils.data;
+
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * This class stores a page of the clients connected to the server, sent to the
+ * clients which don't download the whole client list at login.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class RosterPage {
+	private final short total;
+	private final short next;
+	private final List<ShortString> clients;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param total   number of clients connected to the server
+	 * @param next    cursor of the next page, -1 if this page is the last one
+	 * @param clients ID and pseudonyme of the clients of the page
+	 */
+	public RosterPage(short total, short next, List<ShortString> clients) {
+		this.total = total;
+		this.next = next;
+		this.clients = List.copyOf(Objects.requireNonNull(clients));
+	}
+
+	/**
+	 * 
+	 * @return the number of clients connected to the server.
+	 */
+	public int getTotal() {
+		return Short.toUnsignedInt(total);
+	}
+
+	/**
+	 * 
+	 * @return the cursor to ask the next page, -1 if this page is the last one.
+	 */
+	public short getNext() {
+		return next;
+	}
+
+	/**
+	 * 
+	 * @return the ID and the pseudonyme of the clients of the page.
+	 */
+	public List<ShortString> getClients() {
+		return clients;
+	}
+}
@@ -0,0 +1,86 @@
+package fr.umlv.chatos.utils.data;
+
+import java.util.Objects;
+
+/**
+ * Message of the history found by a search, with its ID in the history, the
+ * time it was sent, the pseudonyme of its sender and an extract of its text
+ * around the terms searched.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class SearchHit {
+	private final int id;
+	private final long timestamp;
+	private final String sender;
+	private final String snippet;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param id        ID of the message in the history
+	 * @param timestamp time the message was sent, in milliseconds since the epoch
+	 * @param sender    pseudonyme of the sender
+	 * @param snippet   extract of the message
+	 */
+	public SearchHit(int id, long timestamp, String sender, String snippet) {
+		Objects.requireNonNull(sender);
+		Objects.requireNonNull(snippet);
+		this.id = id;
+		this.timestamp = timestamp;
+		this.sender = sender;
+		this.snippet = snippet;
+	}
+
+	/**
+	 * 
+	 * @return the ID of the message in the history.
+	 */
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * 
+	 * @return the time the message was sent, in milliseconds since the epoch.
+	 */
+	public long getTimestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * 
+	 * @return the pseudonyme of the sender.
+	 */
+	public String getSender() {
+		return sender;
+	}
+
+	/**
+	 * 
+	 * @return the extract of the message.
+	 */
+	public String getSnippet() {
+		return snippet;
+	}
+
+	@Override
+	public String toString() {
+		return "#" + id + " " + sender + " " + timestamp + " " + snippet;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof SearchHit)) {
+			return false;
+		}
+		SearchHit hit = (SearchHit) obj;
+		return hit.id == id && hit.timestamp == timestamp && hit.sender.equals(sender) && hit.snippet.equals(snippet);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(id, timestamp, sender, snippet);
+	}
+}
@@ -0,0 +1,62 @@
+package fr.umlv.chatos.utils.data;
+
+import java.util.Objects;
+
+/**
+ * This class allows to store two strings.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class StringString {
+	private final String first;
+	private final String second;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param first  first string value
+	 * @param second second string value
+	 */
+	public StringString(String first, String second) {
+		Objects.requireNonNull(first);
+		Objects.requireNonNull(second);
+		this.first = first;
+		this.second = second;
+	}
+
+	/**
+	 * 
+	 * @return the first string value.
+	 */
+	public String getFirst() {
+		return first;
+	}
+
+	/**
+	 * 
+	 * @return the second string value.
+	 */
+	public String getSecond() {
+		return second;
+	}
+
+	@Override
+	public String toString() {
+		return first + " " + second;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (!(obj instanceof StringString)) {
+			return false;
+		}
+		StringString ss = (StringString) obj;
+		return ss.first.equals(first) && ss.second.equals(second);
+	}
+
+	@Override
+	public int hashCode() {
+		return Objects.hash(first, second);
+	}
+}
@@ -0,0 +1,57 @@
+package fr.umlv.chatos.utils.data;
+
+/**
+ * This class allows to store a protocol version and the flags of the options
+ * negotiated with it.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class Version {
+	private final int version;
+	private final int flags;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param version protocol version
+	 * @param flags   options flags
+	 */
+	public Version(int version, int flags) {
+		if (version < 1 || version > 0x7F) {
+			throw new IllegalArgumentException("version must be between 1 and 127 (both included), current : " + version);
+		}
+		this.version = version;
+		this.flags = flags & 0xFF;
+	}
+
+	/**
+	 * 
+	 * @return the protocol version.
+	 */
+	public int getVersion() {
+		return version;
+	}
+
+	/**
+	 * 
+	 * @return the options flags.
+	 */
+	public int getFlags() {
+		return flags;
+	}
+
+	/**
+	 * 
+	 * @param flag flag to test
+	 * @return true if the flag is set
+	 */
+	public boolean hasFlag(int flag) {
+		return (flags & flag) != 0;
+	}
+
+	@Override
+	public String toString() {
+		return version + " " + flags;
+	}
+}
@@ -0,0 +1,140 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.Utf8Codec;
+import fr.umlv.chatos.utils.data.Data;
+
+/**
+ * Represents a reader of strings sent as continuation frames. Each frame starts
+ * with a variable length header holding the size of the frame shifted by one
+ * bit, the lowest bit tells if another frame follows.
+ * 
+ * @see Protocol#V2
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class ChunkedStringReader extends AbstractReader<String> {
+
+	private enum State {
+		DONE, READING_HEADER, READING_CHUNK, ERROR
+	};
+
+	private State state = State.READING_HEADER;
+	private final VarIntReader headerReader = new VarIntReader();
+	private final int maxSize;
+	private ByteBuffer internalbb = ByteBuffer.allocate(0);
+	private int chunkRemaining;
+	private boolean lastChunk;
+	private String string;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param function Function to process after read
+	 * @param maxSize  maximum number of bytes of the string
+	 */
+	public ChunkedStringReader(Consumer<String> function, int maxSize) {
+		super(function);
+		checkSize(maxSize);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Class constructor without function.
+	 * 
+	 * @param maxSize maximum number of bytes of the string
+	 */
+	public ChunkedStringReader(int maxSize) {
+		super();
+		checkSize(maxSize);
+		this.maxSize = maxSize;
+	}
+
+	private static void checkSize(int maxSize) {
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize should be positiv, current : " + maxSize);
+		}
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		for (;;) {
+			if (state == State.READING_HEADER) {
+				switch (headerReader.process(bb)) {
+				case DONE: {
+					var header = headerReader.get().getData();
+					headerReader.reset();
+					chunkRemaining = header >>> 1;
+					lastChunk = (header & 1) == 0;
+					if (chunkRemaining > maxSize - internalbb.position()) {
+						state = State.ERROR;
+						return ProcessStatus.ERROR;
+					}
+					ensureCapacity(chunkRemaining);
+					state = State.READING_CHUNK;
+					break;
+				}
+				case REFILL: {
+					return ProcessStatus.REFILL;
+				}
+				default: {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
+				}
+			}
+			bb.flip();
+			try {
+				var length = Math.min(bb.remaining(), chunkRemaining);
+				var oldLimit = bb.limit();
+				bb.limit(bb.position() + length);
+				internalbb.put(bb);
+				bb.limit(oldLimit);
+				chunkRemaining -= length;
+			} finally {
+				bb.compact();
+			}
+			if (chunkRemaining > 0) {
+				return ProcessStatus.REFILL;
+			}
+			if (lastChunk) {
+				string = Utf8Codec.get().decode(internalbb.flip());
+				state = State.DONE;
+				return ProcessStatus.DONE;
+			}
+			state = State.READING_HEADER;
+		}
+	}
+
+	private void ensureCapacity(int length) {
+		if (internalbb.remaining() >= length) {
+			return;
+		}
+		var capacity = Math.max(internalbb.capacity() * 2, internalbb.position() + length);
+		internalbb = ByteBuffer.allocate(Math.min(capacity, maxSize)).put(internalbb.flip());
+	}
+
+	@Override
+	public Data<String> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(string);
+	}
+
+	@Override
+	public void reset() {
+		state = State.READING_HEADER;
+		headerReader.reset();
+		internalbb.clear();
+	}
+
+}
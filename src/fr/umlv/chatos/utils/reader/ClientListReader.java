@@ -6,6 +6,7 @@ import java.util.List;
 import java.util.Objects;
 import java.util.function.Consumer;
 
+import fr.umlv.chatos.utils.Protocol;
 import fr.umlv.chatos.utils.data.Data;
 import fr.umlv.chatos.utils.data.ShortString;
 
@@ -22,8 +23,8 @@ public class ClientListReader extends AbstractReader<List<ShortString>> {
 	};
 
 	private State state = State.READING_NB_CLIENTS;
-	private final ShortReader shortReader = new ShortReader();
-	private final ShortStringReader shortStringReader = new ShortStringReader();
+	private final Reader<Short> shortReader;
+	private final ShortStringReader shortStringReader;
 	private int nb_clients;
 	private final List<ShortString> list = new ArrayList<>();
 
@@ -33,7 +34,19 @@ public class ClientListReader extends AbstractReader<List<ShortString>> {
 	 * @param function Function to process after read
 	 */
 	public ClientListReader(Consumer<List<ShortString>> function) {
+		this(Protocol.V1, function);
+	}
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the values
+	 * @param function Function to process after read
+	 */
+	public ClientListReader(Protocol protocol, Consumer<List<ShortString>> function) {
 		super(function);
+		shortReader = protocol.newShortReader();
+		shortStringReader = new ShortStringReader(protocol);
 	}
 
 	@Override
@@ -45,7 +58,7 @@ public class ClientListReader extends AbstractReader<List<ShortString>> {
 		if (state == State.READING_NB_CLIENTS) {
 			switch (shortReader.process(bb)) {
 			case DONE: {
-				nb_clients = shortReader.get().getData();
+				nb_clients = Short.toUnsignedInt(shortReader.get().getData());
 				state = State.READING_CLIENTS;
 				break;
 			}
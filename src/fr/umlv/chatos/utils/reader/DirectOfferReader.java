@@ -0,0 +1,150 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.data.Data;
+import fr.umlv.chatos.utils.data.DirectOffer;
+
+/**
+ * Represents a reader which can read a client ID, a port, an IP address sent
+ * as its size in bytes (4 or 16) followed by its bytes, then the token of the
+ * connection on eight bytes.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class DirectOfferReader extends AbstractReader<DirectOffer> {
+
+	private enum State {
+		DONE, READING_ID, READING_PORT, READING_SIZE, READING_ADDRESS, READING_TOKEN, ERROR
+	};
+
+	private final Reader<Short> shortReader;
+	private final IntReader intReader = new IntReader();
+	private final ByteReader byteReader = new ByteReader();
+	private final LongReader longReader = new LongReader();
+	private ByteBuffer internalbb;
+
+	private State state = State.READING_ID;
+	private short id;
+	private int port;
+	private InetSocketAddress address;
+	private long token;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the ID
+	 * @param function Function to process after read
+	 */
+	public DirectOfferReader(Protocol protocol, Consumer<DirectOffer> function) {
+		super(function);
+		shortReader = protocol.newShortReader();
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		while (state != State.DONE) {
+			switch (state) {
+			case READING_ID: {
+				var result = shortReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				id = shortReader.get().getData();
+				state = State.READING_PORT;
+				break;
+			}
+			case READING_PORT: {
+				var result = intReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				port = intReader.get().getData();
+				if (id < 0 || port < 0 || port > 65_535) {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
+				state = State.READING_SIZE;
+				break;
+			}
+			case READING_SIZE: {
+				var result = byteReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				var size = byteReader.get().getData();
+				if (size != 4 && size != 16) {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
+				internalbb = ByteBuffer.allocate(size);
+				state = State.READING_ADDRESS;
+				break;
+			}
+			case READING_ADDRESS: {
+				bb.flip();
+				try {
+					var oldLimit = bb.limit();
+					bb.limit(bb.position() + Math.min(bb.remaining(), internalbb.remaining()));
+					internalbb.put(bb);
+					bb.limit(oldLimit);
+				} finally {
+					bb.compact();
+				}
+				if (internalbb.hasRemaining()) {
+					return ProcessStatus.REFILL;
+				}
+				try {
+					address = new InetSocketAddress(InetAddress.getByAddress(internalbb.array()), port);
+				} catch (UnknownHostException e) {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
+				state = State.READING_TOKEN;
+				break;
+			}
+			case READING_TOKEN: {
+				var result = longReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				token = longReader.get().getData();
+				state = State.DONE;
+				break;
+			}
+			default:
+				throw new AssertionError();
+			}
+		}
+		return ProcessStatus.DONE;
+	}
+
+	@Override
+	public Data<DirectOffer> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(new DirectOffer(id, address, token));
+	}
+
+	@Override
+	public void reset() {
+		state = State.READING_ID;
+		shortReader.reset();
+		intReader.reset();
+		byteReader.reset();
+		longReader.reset();
+	}
+
+}
@@ -0,0 +1,106 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.data.Data;
+import fr.umlv.chatos.utils.data.DirectResponse;
+
+/**
+ * Represents a reader which can read a port, a client ID, then the token of a
+ * direct connection on eight bytes.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class DirectResponseReader extends AbstractReader<DirectResponse> {
+
+	private enum State {
+		DONE, READING_PORT, READING_ID, READING_TOKEN, ERROR
+	};
+
+	private final IntReader intReader = new IntReader();
+	private final Reader<Short> shortReader;
+	private final LongReader longReader = new LongReader();
+
+	private State state = State.READING_PORT;
+	private int port;
+	private short id;
+	private long token;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the ID
+	 * @param function Function to process after read
+	 */
+	public DirectResponseReader(Protocol protocol, Consumer<DirectResponse> function) {
+		super(function);
+		shortReader = protocol.newShortReader();
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		while (state != State.DONE) {
+			switch (state) {
+			case READING_PORT: {
+				var result = intReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				port = intReader.get().getData();
+				state = State.READING_ID;
+				break;
+			}
+			case READING_ID: {
+				var result = shortReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				id = shortReader.get().getData();
+				if (id < 0 || port < 0 || port > 65_535) {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
+				state = State.READING_TOKEN;
+				break;
+			}
+			case READING_TOKEN: {
+				var result = longReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				token = longReader.get().getData();
+				state = State.DONE;
+				break;
+			}
+			default:
+				throw new AssertionError();
+			}
+		}
+		return ProcessStatus.DONE;
+	}
+
+	@Override
+	public Data<DirectResponse> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(new DirectResponse(port, id, token));
+	}
+
+	@Override
+	public void reset() {
+		state = State.READING_PORT;
+		intReader.reset();
+		shortReader.reset();
+		longReader.reset();
+	}
+
+}
@@ -0,0 +1,89 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.data.Data;
+import fr.umlv.chatos.utils.data.ForwardedMessage;
+
+/**
+ * Represents a reader which can read the ID of a recipient, then the ID of a
+ * sender and a string.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class ForwardedMessageReader extends AbstractReader<ForwardedMessage> {
+
+	private enum State {
+		DONE, READING_RECIPIENT, READING_MESSAGE, ERROR
+	};
+
+	private final Reader<Short> shortReader;
+	private final ShortStringReader shortStringReader;
+
+	private State state = State.READING_RECIPIENT;
+	private short recipient;
+	private ForwardedMessage message;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the values
+	 * @param function Function to process after read
+	 */
+	public ForwardedMessageReader(Protocol protocol, Consumer<ForwardedMessage> function) {
+		super(function);
+		shortReader = protocol.newShortReader();
+		shortStringReader = new ShortStringReader(protocol);
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		while (state != State.DONE) {
+			if (state == State.READING_RECIPIENT) {
+				var result = shortReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				recipient = shortReader.get().getData();
+				state = State.READING_MESSAGE;
+			} else {
+				var result = shortStringReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				var data = shortStringReader.get().getData();
+				if (recipient < 0 || data.getShort() < 0) {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
+				message = new ForwardedMessage(data.getShort(), recipient, data.getString());
+				state = State.DONE;
+			}
+		}
+		return ProcessStatus.DONE;
+	}
+
+	@Override
+	public Data<ForwardedMessage> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(message);
+	}
+
+	@Override
+	public void reset() {
+		state = State.READING_RECIPIENT;
+		shortReader.reset();
+		shortStringReader.reset();
+	}
+
+}
@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.function.Consumer;
 
+import fr.umlv.chatos.utils.Protocol;
 import fr.umlv.chatos.utils.data.Data;
 import fr.umlv.chatos.utils.data.IntShort;
 
@@ -20,7 +21,7 @@ public class IntShortReader extends AbstractReader<IntShort> {
 	};
 
 	private final IntReader intReader = new IntReader();
-	private final ShortReader shortReader = new ShortReader();
+	private final Reader<Short> shortReader;
 
 	private State state = State.READING_PORT;
 	private short id;
@@ -32,7 +33,18 @@ public class IntShortReader extends AbstractReader<IntShort> {
 	 * @param function Function to process after read
 	 */
 	public IntShortReader(Consumer<IntShort> function) {
+		this(Protocol.V1, function);
+	}
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the short
+	 * @param function Function to process after read
+	 */
+	public IntShortReader(Protocol protocol, Consumer<IntShort> function) {
 		super(function);
+		shortReader = protocol.newShortReader();
 	}
 
 	@Override
@@ -0,0 +1,162 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.data.Data;
+import fr.umlv.chatos.utils.data.Login;
+import fr.umlv.chatos.utils.data.Version;
+
+/**
+ * Represents the reader of the first packet sent by a client. A login starting
+ * with a byte having its highest bit set announces a version and flags, the
+ * login is then sent with the {@link Protocol#V2} framing. Otherwise the login
+ * is read with the {@link Protocol#V1} framing. A login presenting the key of a
+ * mailbox is followed by the key on eight bytes. A login resuming a session is
+ * then followed by the token of the session on eight bytes and the number of
+ * messages received on four bytes.
+ * 
+ * The pseudonyme is read before the client is authenticated, it is limited to
+ * {@link #MAX_PSEUDONYME_BYTES} whatever the framing, a longer login is an
+ * error.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class LoginReader extends AbstractReader<Login> {
+
+	private enum State {
+		DONE, READING_MARKER, READING_VERSION, READING_LOGIN, READING_MAILBOX, READING_SESSION, READING_SEQUENCE, ERROR
+	};
+
+	/**
+	 * Maximum number of bytes of an encoded pseudonyme.
+	 */
+	public static final int MAX_PSEUDONYME_BYTES = 64;
+
+	private static final Version LEGACY_VERSION = new Version(Protocol.V1.getVersion(), 0);
+
+	private State state = State.READING_MARKER;
+	private final ByteReader flagsReader = new ByteReader();
+	private final LongReader mailboxReader = new LongReader();
+	private final LongReader sessionReader = new LongReader();
+	private final IntReader sequenceReader = new IntReader();
+	private Reader<String> stringReader;
+	private Version version;
+	private boolean negotiated;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param function Function to process after read
+	 */
+	public LoginReader(Consumer<Login> function) {
+		super(function);
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		if (state == State.READING_MARKER) {
+			if (bb.position() == 0) {
+				return ProcessStatus.REFILL;
+			}
+			var marker = bb.get(0) & 0xFF;
+			if ((marker & Protocol.VERSION_MARKER) == 0) {
+				version = LEGACY_VERSION;
+				negotiated = false;
+				stringReader = Protocol.V1.newStringReader(MAX_PSEUDONYME_BYTES);
+				state = State.READING_LOGIN;
+			} else {
+				bb.flip().get();
+				bb.compact();
+				if ((marker & ~Protocol.VERSION_MARKER) == 0) {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
+				version = new Version(marker & ~Protocol.VERSION_MARKER, 0);
+				negotiated = true;
+				state = State.READING_VERSION;
+			}
+		}
+		if (state == State.READING_VERSION) {
+			switch (flagsReader.process(bb)) {
+			case DONE: {
+				version = new Version(version.getVersion(), flagsReader.get().getData());
+				stringReader = Protocol.V2.newStringReader(MAX_PSEUDONYME_BYTES);
+				state = State.READING_LOGIN;
+				break;
+			}
+			case REFILL: {
+				return ProcessStatus.REFILL;
+			}
+			default: {
+				state = State.ERROR;
+				return ProcessStatus.ERROR;
+			}
+			}
+		}
+		if (state == State.READING_LOGIN) {
+			switch (stringReader.process(bb)) {
+			case DONE: {
+				state = State.READING_MAILBOX;
+				break;
+			}
+			case REFILL: {
+				return ProcessStatus.REFILL;
+			}
+			default: {
+				state = State.ERROR;
+				return ProcessStatus.ERROR;
+			}
+			}
+		}
+		if (state == State.READING_MAILBOX) {
+			if (version.hasFlag(Protocol.FLAG_MAILBOX) && mailboxReader.process(bb) == ProcessStatus.REFILL) {
+				return ProcessStatus.REFILL;
+			}
+			state = version.hasFlag(Protocol.FLAG_RESUME) ? State.READING_SESSION : State.DONE;
+		}
+		if (state == State.READING_SESSION) {
+			if (sessionReader.process(bb) == ProcessStatus.REFILL) {
+				return ProcessStatus.REFILL;
+			}
+			state = State.READING_SEQUENCE;
+		}
+		if (state == State.READING_SEQUENCE) {
+			if (sequenceReader.process(bb) == ProcessStatus.REFILL) {
+				return ProcessStatus.REFILL;
+			}
+			state = State.DONE;
+		}
+		return ProcessStatus.DONE;
+	}
+
+	@Override
+	public Data<Login> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		var mailboxKey = version.hasFlag(Protocol.FLAG_MAILBOX) ? mailboxReader.get().getData() : 0;
+		if (version.hasFlag(Protocol.FLAG_RESUME)) {
+			return newData(new Login(version, stringReader.get().getData(), negotiated, mailboxKey,
+					sessionReader.get().getData(), sequenceReader.get().getData()));
+		}
+		return newData(new Login(version, stringReader.get().getData(), negotiated, mailboxKey, 0, 0));
+	}
+
+	@Override
+	public void reset() {
+		state = State.READING_MARKER;
+		flagsReader.reset();
+		mailboxReader.reset();
+		sessionReader.reset();
+		sequenceReader.reset();
+	}
+
+}
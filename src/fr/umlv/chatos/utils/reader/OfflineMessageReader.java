@@ -0,0 +1,105 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.data.Data;
+import fr.umlv.chatos.utils.data.OfflineMessage;
+
+/**
+ * Represents a reader which can read the pseudonyme of a sender, a timestamp
+ * sent as a long, then a string.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class OfflineMessageReader extends AbstractReader<OfflineMessage> {
+
+	private enum State {
+		DONE, READING_SENDER, READING_TIMESTAMP, READING_MESSAGE, ERROR
+	};
+
+	private final Reader<String> senderReader;
+	private final LongReader timestampReader = new LongReader();
+	private final Reader<String> messageReader;
+
+	private State state = State.READING_SENDER;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the strings
+	 * @param function Function to process after read
+	 */
+	public OfflineMessageReader(Protocol protocol, Consumer<OfflineMessage> function) {
+		super(function);
+		senderReader = protocol.newStringReader();
+		messageReader = protocol.newStringReader();
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		while (state != State.DONE) {
+			switch (state) {
+			case READING_SENDER: {
+				var result = senderReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return fail(result);
+				}
+				state = State.READING_TIMESTAMP;
+				break;
+			}
+			case READING_TIMESTAMP: {
+				var result = timestampReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return fail(result);
+				}
+				state = State.READING_MESSAGE;
+				break;
+			}
+			case READING_MESSAGE: {
+				var result = messageReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return fail(result);
+				}
+				state = State.DONE;
+				break;
+			}
+			default:
+				throw new AssertionError();
+			}
+		}
+		return ProcessStatus.DONE;
+	}
+
+	private ProcessStatus fail(ProcessStatus result) {
+		if (result == ProcessStatus.ERROR) {
+			state = State.ERROR;
+		}
+		return result;
+	}
+
+	@Override
+	public Data<OfflineMessage> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(new OfflineMessage(senderReader.get().getData(), timestampReader.get().getData(),
+				messageReader.get().getData()));
+	}
+
+	@Override
+	public void reset() {
+		state = State.READING_SENDER;
+		senderReader.reset();
+		timestampReader.reset();
+		messageReader.reset();
+	}
+
+}
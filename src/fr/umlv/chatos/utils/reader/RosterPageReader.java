@@ -0,0 +1,93 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.data.Data;
+import fr.umlv.chatos.utils.data.RosterPage;
+
+/**
+ * Represents a reader which can read the number of clients connected, the
+ * cursor of the next page, then a page of clients in the format of the client
+ * list.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class RosterPageReader extends AbstractReader<RosterPage> {
+
+	private enum State {
+		DONE, READING_TOTAL, READING_NEXT, READING_CLIENTS, ERROR
+	};
+
+	private final Reader<Short> shortReader;
+	private final ClientListReader clientListReader;
+
+	private State state = State.READING_TOTAL;
+	private short total;
+	private short next;
+	private RosterPage page;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the values
+	 * @param function Function to process after read
+	 */
+	public RosterPageReader(Protocol protocol, Consumer<RosterPage> function) {
+		super(function);
+		shortReader = protocol.newShortReader();
+		clientListReader = new ClientListReader(protocol, list -> {
+		});
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		while (state != State.DONE) {
+			if (state == State.READING_TOTAL || state == State.READING_NEXT) {
+				var result = shortReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				if (state == State.READING_TOTAL) {
+					total = shortReader.get().getData();
+					state = State.READING_NEXT;
+				} else {
+					next = shortReader.get().getData();
+					state = State.READING_CLIENTS;
+				}
+				shortReader.reset();
+			} else {
+				var result = clientListReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return result;
+				}
+				page = new RosterPage(total, next, clientListReader.get().getData());
+				state = State.DONE;
+			}
+		}
+		return ProcessStatus.DONE;
+	}
+
+	@Override
+	public Data<RosterPage> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(page);
+	}
+
+	@Override
+	public void reset() {
+		state = State.READING_TOTAL;
+		shortReader.reset();
+		clientListReader.reset();
+	}
+
+}
@@ -0,0 +1,142 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.data.Data;
+import fr.umlv.chatos.utils.data.SearchHit;
+
+/**
+ * Represents a reader which can read the result of a search, a number of
+ * messages sent as a short, then for each message its ID as an int, the time
+ * it was sent as a long, the pseudonyme of its sender and an extract of its
+ * text.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class SearchResultReader extends AbstractReader<List<SearchHit>> {
+
+	private enum State {
+		DONE, READING_COUNT, READING_ID, READING_TIMESTAMP, READING_SENDER, READING_SNIPPET, ERROR
+	};
+
+	private final Reader<Short> countReader;
+	private final IntReader idReader = new IntReader();
+	private final LongReader timestampReader = new LongReader();
+	private final Reader<String> senderReader;
+	private final Reader<String> snippetReader;
+	private final List<SearchHit> hits = new ArrayList<>();
+	private int count;
+	private int id;
+	private long timestamp;
+
+	private State state = State.READING_COUNT;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the values
+	 * @param function Function to process after read
+	 */
+	public SearchResultReader(Protocol protocol, Consumer<List<SearchHit>> function) {
+		super(function);
+		countReader = protocol.newShortReader();
+		senderReader = protocol.newStringReader();
+		snippetReader = protocol.newStringReader();
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		while (state != State.DONE) {
+			switch (state) {
+			case READING_COUNT: {
+				var result = countReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return fail(result);
+				}
+				count = Short.toUnsignedInt(countReader.get().getData());
+				state = count == 0 ? State.DONE : State.READING_ID;
+				break;
+			}
+			case READING_ID: {
+				var result = idReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return fail(result);
+				}
+				id = idReader.get().getData();
+				state = State.READING_TIMESTAMP;
+				break;
+			}
+			case READING_TIMESTAMP: {
+				var result = timestampReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return fail(result);
+				}
+				timestamp = timestampReader.get().getData();
+				state = State.READING_SENDER;
+				break;
+			}
+			case READING_SENDER: {
+				var result = senderReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return fail(result);
+				}
+				state = State.READING_SNIPPET;
+				break;
+			}
+			case READING_SNIPPET: {
+				var result = snippetReader.process(bb);
+				if (result != ProcessStatus.DONE) {
+					return fail(result);
+				}
+				hits.add(new SearchHit(id, timestamp, senderReader.get().getData(), snippetReader.get().getData()));
+				idReader.reset();
+				timestampReader.reset();
+				senderReader.reset();
+				snippetReader.reset();
+				state = hits.size() == count ? State.DONE : State.READING_ID;
+				break;
+			}
+			default:
+				throw new AssertionError();
+			}
+		}
+		return ProcessStatus.DONE;
+	}
+
+	private ProcessStatus fail(ProcessStatus result) {
+		if (result == ProcessStatus.ERROR) {
+			state = State.ERROR;
+		}
+		return result;
+	}
+
+	@Override
+	public Data<List<SearchHit>> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(new ArrayList<>(hits));
+	}
+
+	@Override
+	public void reset() {
+		state = State.READING_COUNT;
+		countReader.reset();
+		idReader.reset();
+		timestampReader.reset();
+		senderReader.reset();
+		snippetReader.reset();
+		hits.clear();
+	}
+
+}
@@ -4,6 +4,7 @@ import java.nio.ByteBuffer;
 import java.util.Objects;
 import java.util.function.Consumer;
 
+import fr.umlv.chatos.utils.Protocol;
 import fr.umlv.chatos.utils.data.Data;
 import fr.umlv.chatos.utils.data.ShortString;
 
@@ -20,8 +21,8 @@ public class ShortStringReader extends AbstractReader<ShortString> {
 	};
 
 	private State state = State.READING_INT;
-	private final ShortReader shortReader = new ShortReader();
-	private final StringReader stringReader = new StringReader();
+	private final Reader<Short> shortReader;
+	private final Reader<String> stringReader;
 
 	/**
 	 * Class constructor.
@@ -29,7 +30,19 @@ public class ShortStringReader extends AbstractReader<ShortString> {
 	 * @param function Function to process after read
 	 */
 	public ShortStringReader(Consumer<ShortString> function) {
+		this(Protocol.V1, function);
+	}
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the values
+	 * @param function Function to process after read
+	 */
+	public ShortStringReader(Protocol protocol, Consumer<ShortString> function) {
 		super(function);
+		shortReader = protocol.newShortReader();
+		stringReader = protocol.newStringReader();
 	}
 
 	/**
@@ -37,7 +50,18 @@ public class ShortStringReader extends AbstractReader<ShortString> {
 	 * 
 	 */
 	public ShortStringReader() {
+		this(Protocol.V1);
+	}
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the values
+	 */
+	public ShortStringReader(Protocol protocol) {
 		super();
+		shortReader = protocol.newShortReader();
+		stringReader = protocol.newStringReader();
 	}
 
 	@Override
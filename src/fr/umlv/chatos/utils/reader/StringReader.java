@@ -1,15 +1,15 @@
 package fr.umlv.chatos.utils.reader;
 
 import java.nio.ByteBuffer;
-import java.nio.charset.Charset;
-import java.nio.charset.StandardCharsets;
 import java.util.Objects;
 import java.util.function.Consumer;
 
+import fr.umlv.chatos.utils.Utf8Codec;
 import fr.umlv.chatos.utils.data.Data;
 
 /**
- * Represents a string reader.
+ * Represents a string reader, the size of the string is sent on two bytes. A
+ * size negative or above the maximum size is an error.
  * 
  * @author Benjamin JEDROCHA, Florian DURAND
  *
@@ -21,9 +21,9 @@ public class StringReader extends AbstractReader<String> {
 	};
 
 	private State state = State.READING_SHORT;
-	private static final Charset cs = StandardCharsets.UTF_8;
 	private ByteBuffer internalbb;
 	private final ShortReader shortReader = new ShortReader();
+	private final int maxSize;
 	private short size;
 	private String string;
 
@@ -34,6 +34,7 @@ public class StringReader extends AbstractReader<String> {
 	 */
 	public StringReader(Consumer<String> function) {
 		super(function);
+		this.maxSize = Short.MAX_VALUE;
 	}
 
 	/**
@@ -42,6 +43,20 @@ public class StringReader extends AbstractReader<String> {
 	 */
 	public StringReader() {
 		super();
+		this.maxSize = Short.MAX_VALUE;
+	}
+
+	/**
+	 * Class constructor specifying the maximum size.
+	 * 
+	 * @param maxSize maximum number of bytes of the string
+	 */
+	public StringReader(int maxSize) {
+		super();
+		if (maxSize < 0) {
+			throw new IllegalArgumentException("maxSize should be positiv, current : " + maxSize);
+		}
+		this.maxSize = maxSize;
 	}
 
 	@Override
@@ -54,6 +69,10 @@ public class StringReader extends AbstractReader<String> {
 			switch (shortReader.process(bb)) {
 			case DONE: {
 				size = shortReader.get().getData();
+				if (size < 0 || size > maxSize) {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
 				internalbb = ByteBuffer.allocate(size);
 				state = State.READING_STRING;
 				break;
@@ -88,7 +107,7 @@ public class StringReader extends AbstractReader<String> {
 				internalbb.flip();
 				var oldlimit = internalbb.limit();
 				internalbb.limit(size);
-				string = cs.decode(internalbb).toString();
+				string = Utf8Codec.get().decode(internalbb);
 				internalbb.limit(oldlimit);
 				bb.put(internalbb);
 			} else {
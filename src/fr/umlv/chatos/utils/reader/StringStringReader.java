@@ -0,0 +1,76 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.data.Data;
+import fr.umlv.chatos.utils.data.StringString;
+
+/**
+ * Represents a reader which can read two strings.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class StringStringReader extends AbstractReader<StringString> {
+
+	private enum State {
+		DONE, READING_FIRST, READING_SECOND, ERROR
+	};
+
+	private final Reader<String> firstReader;
+	private final Reader<String> secondReader;
+
+	private State state = State.READING_FIRST;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param protocol Protocol used to read the values
+	 * @param function Function to process after read
+	 */
+	public StringStringReader(Protocol protocol, Consumer<StringString> function) {
+		super(function);
+		firstReader = protocol.newStringReader();
+		secondReader = protocol.newStringReader();
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		while (state != State.DONE) {
+			var reader = state == State.READING_FIRST ? firstReader : secondReader;
+			var result = reader.process(bb);
+			if (result == ProcessStatus.ERROR) {
+				state = State.ERROR;
+				return result;
+			}
+			if (result != ProcessStatus.DONE) {
+				return result;
+			}
+			state = state == State.READING_FIRST ? State.READING_SECOND : State.DONE;
+		}
+		return ProcessStatus.DONE;
+	}
+
+	@Override
+	public Data<StringString> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(new StringString(firstReader.get().getData(), secondReader.get().getData()));
+	}
+
+	@Override
+	public void reset() {
+		state = State.READING_FIRST;
+		firstReader.reset();
+		secondReader.reset();
+	}
+
+}
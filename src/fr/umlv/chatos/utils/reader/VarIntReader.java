@@ -0,0 +1,85 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.VarInt;
+import fr.umlv.chatos.utils.data.Data;
+
+/**
+ * Represents a reader of integers encoded on a variable number of bytes.
+ * 
+ * @see VarInt
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class VarIntReader extends AbstractReader<Integer> {
+
+	private enum State {
+		DONE, WAITING, ERROR
+	};
+
+	private State state = State.WAITING;
+	private int value;
+	private int shift;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param function Function to process after read
+	 */
+	public VarIntReader(Consumer<Integer> function) {
+		super(function);
+	}
+
+	/**
+	 * Class constructor without function.
+	 */
+	public VarIntReader() {
+		super();
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		bb.flip();
+		try {
+			while (bb.hasRemaining()) {
+				var b = bb.get();
+				if (shift == 7 * (VarInt.MAX_BYTES - 1) && (b & 0xF0) != 0) {
+					state = State.ERROR;
+					return ProcessStatus.ERROR;
+				}
+				value |= (b & 0x7F) << shift;
+				shift += 7;
+				if ((b & 0x80) == 0) {
+					state = State.DONE;
+					return ProcessStatus.DONE;
+				}
+			}
+		} finally {
+			bb.compact();
+		}
+		return ProcessStatus.REFILL;
+	}
+
+	@Override
+	public Data<Integer> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(value);
+	}
+
+	@Override
+	public void reset() {
+		state = State.WAITING;
+		value = 0;
+		shift = 0;
+	}
+
+}
@@ -0,0 +1,83 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.data.Data;
+
+/**
+ * Represents a reader of shorts encoded on a variable number of bytes. The
+ * short is encoded as an unsigned value.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class VarShortReader extends AbstractReader<Short> {
+
+	private enum State {
+		DONE, WAITING, ERROR
+	};
+
+	private State state = State.WAITING;
+	private final VarIntReader varIntReader = new VarIntReader();
+	private short value;
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param function Function to process after read
+	 */
+	public VarShortReader(Consumer<Short> function) {
+		super(function);
+	}
+
+	/**
+	 * Class constructor without function.
+	 */
+	public VarShortReader() {
+		super();
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		switch (varIntReader.process(bb)) {
+		case DONE: {
+			var integer = varIntReader.get().getData();
+			if ((integer & ~0xFFFF) != 0) {
+				state = State.ERROR;
+				return ProcessStatus.ERROR;
+			}
+			value = (short) integer.intValue();
+			state = State.DONE;
+			return ProcessStatus.DONE;
+		}
+		case REFILL: {
+			return ProcessStatus.REFILL;
+		}
+		default: {
+			state = State.ERROR;
+			return ProcessStatus.ERROR;
+		}
+		}
+	}
+
+	@Override
+	public Data<Short> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(value);
+	}
+
+	@Override
+	public void reset() {
+		state = State.WAITING;
+		varIntReader.reset();
+	}
+
+}
@@ -0,0 +1,86 @@
+package fr.umlv.chatos.utils.reader;
+
+import java.nio.ByteBuffer;
+import java.util.Objects;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.utils.data.Data;
+import fr.umlv.chatos.utils.data.Version;
+
+/**
+ * Represents a reader which can read a version byte then a flags byte.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ *
+ */
+public class VersionReader extends AbstractReader<Version> {
+
+	private enum State {
+		DONE, WAITING, ERROR
+	};
+
+	private State state = State.WAITING;
+	private final ByteBuffer internalbb = ByteBuffer.allocate(Byte.BYTES * 2);
+
+	/**
+	 * Class constructor.
+	 * 
+	 * @param function Function to process after read
+	 */
+	public VersionReader(Consumer<Version> function) {
+		super(function);
+	}
+
+	/**
+	 * Class constructor without function.
+	 */
+	public VersionReader() {
+		super();
+	}
+
+	@Override
+	public ProcessStatus process(ByteBuffer bb) {
+		Objects.requireNonNull(bb);
+		if (state == State.DONE || state == State.ERROR) {
+			throw new IllegalStateException();
+		}
+		bb.flip();
+		try {
+			if (bb.remaining() <= internalbb.remaining()) {
+				internalbb.put(bb);
+			} else {
+				var oldLimit = bb.limit();
+				bb.limit(bb.position() + internalbb.remaining());
+				internalbb.put(bb);
+				bb.limit(oldLimit);
+			}
+		} finally {
+			bb.compact();
+		}
+		if (internalbb.hasRemaining()) {
+			return ProcessStatus.REFILL;
+		}
+		internalbb.flip();
+		if (internalbb.get(0) < 1) {
+			state = State.ERROR;
+			return ProcessStatus.ERROR;
+		}
+		state = State.DONE;
+		return ProcessStatus.DONE;
+	}
+
+	@Override
+	public Data<Version> get() {
+		if (state != State.DONE) {
+			throw new IllegalStateException();
+		}
+		return newData(new Version(internalbb.get(0), internalbb.get(1)));
+	}
+
+	@Override
+	public void reset() {
+		state = State.WAITING;
+		internalbb.clear();
+	}
+
+}
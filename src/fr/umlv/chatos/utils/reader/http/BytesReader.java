@@ -5,6 +5,7 @@ import java.nio.charset.Charset;
 import java.util.Objects;
 import java.util.function.Consumer;
 
+import fr.umlv.chatos.utils.Utf8Codec;
 import fr.umlv.chatos.utils.data.Data;
 import fr.umlv.chatos.utils.reader.AbstractReader;
 
@@ -92,7 +93,7 @@ public class BytesReader extends AbstractReader<String> {
 		if (state != State.DONE) {
 			throw new IllegalStateException();
 		}
-		return newData(cs.decode(internalbb).toString());
+		return newData(Utf8Codec.decode(cs, internalbb));
 	}
 
 	@Override
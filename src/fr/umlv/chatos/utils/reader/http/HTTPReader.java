@@ -1,6 +1,5 @@
 package fr.umlv.chatos.utils.reader.http;
 
-import java.io.IOException;
 import java.nio.ByteBuffer;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -8,8 +7,10 @@ import java.util.Objects;
 import java.util.function.Consumer;
 
 import fr.umlv.chatos.context.Context;
+import fr.umlv.chatos.utils.AsyncIO;
 import fr.umlv.chatos.utils.HTTPException;
 import fr.umlv.chatos.utils.HTTPHeader;
+import fr.umlv.chatos.utils.HTTPResourceCache;
 import fr.umlv.chatos.utils.Sender;
 import fr.umlv.chatos.utils.data.Data;
 import fr.umlv.chatos.utils.data.HTTPData;
@@ -49,33 +50,32 @@ public class HTTPReader extends AbstractReader<HTTPData> {
 	 * 
 	 * @param folder  - where resources are sought
 	 * @param context - the context that receives resources
+	 * @param cache   - the cache of responses served from the folder
+	 * @param asyncIO - runs the reads and writes of the folder
+	 * @param output  - prints the text resources received and the outcome of the
+	 *                saves
 	 */
-	public HTTPReader(String folder, Context context) {
+	public HTTPReader(String folder, Context context, HTTPResourceCache cache, AsyncIO asyncIO,
+			Consumer<String> output) {
 		super(httpData -> {
 			switch (httpData.getHttpType()) {
 			case REQUEST:
 				var path = Path.of(folder, httpData.getResponse());
-				try {
-					Sender.sendHTTPFile(context, httpData.getResponse(), Files.readAllLines(path));
-				} catch (IOException e) {
-					Sender.sendHTTPNotFound(context);
-				}
+				asyncIO.submit(() -> cache.get(path, httpData.getResponse()), context::queueData,
+						e -> Sender.sendHTTPNotFound(context));
 				break;
 			case RESPONSE:
 				var filePath = httpData.getPath();
 				if (filePath.endsWith(".txt")) {
-					System.out.println(httpData.getResponse());
+					output.accept(httpData.getResponse());
 				} else {
-					try {
-						Files.write(Path.of(folder, filePath), httpData.getResponse().getBytes());
-						System.out.println("Fichier " + filePath + " sauvegard�");
-					} catch (IOException e) {
-						System.out.println("ERREUR : Sauvegarde du fichier interrompue");
-					}
+					asyncIO.submit(() -> Files.write(Path.of(folder, filePath), httpData.getResponse().getBytes()),
+							written -> output.accept("Fichier " + filePath + " sauvegard�"),
+							e -> output.accept("ERREUR : Sauvegarde du fichier interrompue"));
 				}
 				break;
 			case ERROR:
-				System.out.println(httpData.getResponse());
+				output.accept(httpData.getResponse());
 				break;
 			default:
 				throw new IllegalArgumentException("Unexpected value: " + httpData.getHttpType());
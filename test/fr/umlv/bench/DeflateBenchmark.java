@@ -0,0 +1,80 @@
+package fr.umlv.bench;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.zip.DataFormatException;
+
+import fr.umlv.chatos.context.DeflateCodec;
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.Sender;
+
+/**
+ * Compares the bytes sent and the time spent per broadcast packet without
+ * compression, with a stream frame per connection and with a shared frame.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class DeflateBenchmark {
+
+	private static final String[] WORDS = { "salut", "bonjour", "merci", "ok", "oui", "non", "lol", "vous", "nous",
+			"est", "pas", "que", "pour", "dans", "avec", "mais", "the", "and", "you", "that", "chat", "serveur",
+			"message", "demain", "ce", "soir", "projet", "reseau" };
+
+	private static ArrayList<ByteBuffer> packets(int count) {
+		var random = new Random(0);
+		var packets = new ArrayList<ByteBuffer>();
+		for (var i = 0; i < count; i++) {
+			var message = new StringBuilder();
+			var words = 3 + random.nextInt(20);
+			for (var j = 0; j < words; j++) {
+				message.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			packets.add(Sender.encodeShortString(Protocol.V2, (byte) 2, (short) random.nextInt(100),
+					StandardCharsets.UTF_8.encode(message.toString())));
+		}
+		return packets;
+	}
+
+	private static void run(String name, ArrayList<ByteBuffer> packets, boolean shared) throws DataFormatException {
+		var sender = new DeflateCodec();
+		var sharedDeflater = new DeflateCodec.SharedDeflater();
+		var receiver = new DeflateCodec();
+		var bbin = ByteBuffer.allocate(DeflateCodec.MAX_FRAME_BYTES);
+		var bbout = ByteBuffer.allocate(DeflateCodec.MAX_FRAME_BYTES);
+		long raw = 0;
+		long sent = 0;
+		var start = System.nanoTime();
+		for (var packet : packets) {
+			raw += packet.remaining();
+			var frame = shared ? sharedDeflater.deflate(packet.duplicate()) : sender.deflate(packet.duplicate());
+			sent += frame.remaining();
+			bbin.put(frame);
+			receiver.inflate(bbin, bbout);
+			bbout.clear();
+		}
+		var elapsed = System.nanoTime() - start;
+		System.out.printf("%-8s %8d -> %8d bytes (%5.1f%%) %8d ns/packet%n", name, raw, sent, 100.0 * sent / raw,
+				elapsed / packets.size());
+		sender.end();
+		receiver.end();
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args unused
+	 * @throws DataFormatException If a frame can't be decompressed
+	 */
+	public static void main(String[] args) throws DataFormatException {
+		var packets = packets(20_000);
+		for (var i = 0; i < 3; i++) {
+			long raw = packets.stream().mapToLong(ByteBuffer::remaining).sum();
+			System.out.printf("%-8s %8d bytes%n", "none", raw);
+			run("stream", packets, false);
+			run("shared", packets, true);
+		}
+	}
+}
@@ -0,0 +1,118 @@
+package fr.umlv.bench;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.function.Consumer;
+
+import fr.umlv.chatos.context.Context.ContextAbstract;
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.Sender;
+
+/**
+ * Measures the bytes allocated per frame sent through a {@link ContextAbstract},
+ * the frame being written by the {@link fr.umlv.chatos.utils.FrameWriter} of
+ * {@link Sender} or encoded in a buffer of its exact size, the other side of
+ * the connection being drained by a thread.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class FrameWriterBenchmark {
+
+	private static class BenchContext extends ContextAbstract {
+		private BenchContext(SelectionKey key) {
+			super(key);
+		}
+
+		@Override
+		protected void processIn() {
+			// nothing is received
+		}
+
+		@Override
+		public void DoClose() {
+			silentlyClose();
+		}
+	}
+
+	private static long allocatedBytes() {
+		return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean()).getCurrentThreadAllocatedBytes();
+	}
+
+	private static void run(String name, int rounds, int frames, Consumer<ContextAbstract> send) throws IOException {
+		try (var selector = Selector.open(); var ssc = ServerSocketChannel.open()) {
+			ssc.bind(new InetSocketAddress("localhost", 0));
+			var drain = new Thread(() -> {
+				try (var peer = SocketChannel.open(ssc.getLocalAddress())) {
+					var bb = ByteBuffer.allocateDirect(64 * 1_024);
+					while (peer.read(bb) != -1) {
+						bb.clear();
+					}
+				} catch (IOException e) {
+					// connection closed by the benchmark
+				}
+			});
+			drain.start();
+			var sc = ssc.accept();
+			sc.configureBlocking(false);
+			var key = sc.register(selector, SelectionKey.OP_READ);
+			var context = new BenchContext(key);
+			key.attach(context);
+
+			var allocated = 0L;
+			var start = System.nanoTime();
+			for (var round = 0; round < rounds; round++) {
+				var before = allocatedBytes();
+				for (var i = 0; i < frames; i++) {
+					send.accept(context);
+				}
+				allocated += allocatedBytes() - before;
+				while ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+					selector.select();
+					if (key.isWritable()) {
+						context.doWrite();
+					}
+					selector.selectedKeys().clear();
+				}
+			}
+			var elapsed = System.nanoTime() - start;
+			System.out.printf("%-8s %8d frames %8.1f bytes allocated per frame %6d ms%n", name, rounds * frames,
+					(double) allocated / (rounds * frames), elapsed / 1_000_000);
+			context.silentlyClose();
+			drain.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Sends chat messages and long messages split in continuation frames, each
+	 * case twice to warm up.
+	 * 
+	 * @param args unused
+	 * @throws IOException If an I/O error occurs
+	 */
+	public static void main(String[] args) throws IOException {
+		var message = "Bonjour à tous, la réunion est déplacée à demain";
+		var longMessage = "x".repeat(40_000);
+		for (var i = 0; i < 2; i++) {
+			run("exact", 1_000, 64, context -> context
+					.queueData(Sender.encodeShortString(context.getProtocol(), (byte) 2, (short) 42, message)));
+			run("writer", 1_000, 64, context -> Sender.sendShortString(context, (byte) 2, (short) 42, message));
+			run("exact-l", 100, 16, context -> {
+				context.setProtocol(Protocol.V2);
+				context.queueData(Sender.encodeShortString(Protocol.V2, (byte) 2, (short) 42, longMessage));
+			});
+			run("writer-l", 100, 16, context -> {
+				context.setProtocol(Protocol.V2);
+				Sender.sendShortString(context, (byte) 2, (short) 42, longMessage);
+			});
+		}
+	}
+}
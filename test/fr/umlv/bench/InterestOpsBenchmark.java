@@ -0,0 +1,100 @@
+package fr.umlv.bench;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicLong;
+
+import fr.umlv.chatos.context.Context.ContextAbstract;
+
+/**
+ * Counts the socket writes, the changes of interest set and the selects needed
+ * to send chat sized packets and bulk data through a {@link ContextAbstract},
+ * the other side of the connection being drained by a thread.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class InterestOpsBenchmark {
+
+	private static class BenchContext extends ContextAbstract {
+		private BenchContext(SelectionKey key) {
+			super(key);
+		}
+
+		@Override
+		protected void processIn() {
+			// nothing is received
+		}
+
+		@Override
+		public void DoClose() {
+			silentlyClose();
+		}
+	}
+
+	private static void run(String name, int rounds, int packets, int packetSize) throws IOException {
+		try (var selector = Selector.open(); var ssc = ServerSocketChannel.open()) {
+			ssc.bind(new InetSocketAddress("localhost", 0));
+			var received = new AtomicLong();
+			var drain = new Thread(() -> {
+				try (var peer = SocketChannel.open(ssc.getLocalAddress())) {
+					var bb = ByteBuffer.allocateDirect(64 * 1_024);
+					for (int read; (read = peer.read(bb)) != -1; bb.clear()) {
+						received.addAndGet(read);
+					}
+				} catch (IOException e) {
+					// connection closed by the benchmark
+				}
+			});
+			drain.start();
+			var sc = ssc.accept();
+			sc.configureBlocking(false);
+			var key = sc.register(selector, SelectionKey.OP_READ);
+			var context = new BenchContext(key);
+			key.attach(context);
+
+			var writes = ContextAbstract.getWrites();
+			var updates = ContextAbstract.getInterestOpsUpdates();
+			var selects = 0L;
+			var packet = ByteBuffer.allocate(packetSize);
+			var start = System.nanoTime();
+			for (var round = 0; round < rounds; round++) {
+				for (var i = 0; i < packets; i++) {
+					context.queueData(packet.duplicate());
+				}
+				while ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+					selector.select();
+					selects++;
+					if (key.isWritable()) {
+						context.doWrite();
+					}
+					selector.selectedKeys().clear();
+				}
+			}
+			var elapsed = System.nanoTime() - start;
+			System.out.printf("%-6s %8d packets %10d writes %8d interestOps %8d selects %6d ms%n", name,
+					(long) rounds * packets, ContextAbstract.getWrites() - writes,
+					ContextAbstract.getInterestOpsUpdates() - updates, selects, elapsed / 1_000_000);
+			sc.close();
+		}
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args unused
+	 * @throws IOException If an I/O error occurs
+	 */
+	public static void main(String[] args) throws IOException {
+		for (var i = 0; i < 3; i++) {
+			run("chat", 20_000, 1, 100);
+			run("burst", 2_000, 10, 100);
+			run("bulk", 20, 100, 10_000);
+		}
+	}
+}
@@ -0,0 +1,77 @@
+package fr.umlv.bench;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Random;
+import java.util.function.IntPredicate;
+
+import fr.umlv.chatos.server.History;
+import fr.umlv.chatos.utils.SearchIndex;
+
+/**
+ * Measures the time to index millions of chat messages and the latency of
+ * queries of common and rare terms, most messages being broadcasts and the
+ * others private messages between a few hundred clients.
+ * 
+ * @author Benjamin JEDROCHA, Florian DURAND
+ * 
+ */
+public class SearchIndexBenchmark {
+
+	private static final String[] WORDS = { "salut", "bonjour", "merci", "ok", "oui", "non", "lol", "vous", "nous",
+			"est", "pas", "que", "pour", "dans", "avec", "mais", "the", "and", "you", "that", "chat", "serveur",
+			"message", "demain", "ce", "soir", "projet", "reseau" };
+
+	private static void query(SearchIndex index, String name, List<String> all, IntPredicate filter) {
+		var rounds = 100;
+		var found = 0;
+		var start = System.nanoTime();
+		for (var i = 0; i < rounds; i++) {
+			found = index.search(all, filter, 20).size();
+		}
+		var elapsed = System.nanoTime() - start;
+		System.out.printf("%-8s %2d found %8.3f ms/query%n", name, found, elapsed / 1e6 / rounds);
+	}
+
+	/**
+	 * Runs the benchmark.
+	 * 
+	 * @param args number of messages, 2 000 000 by default
+	 */
+	public static void main(String[] args) {
+		var messages = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+		var random = new Random(0);
+		var index = new SearchIndex(History.SEGMENT_SIZE, History.MERGE_FACTOR);
+		var privates = new BitSet();
+		var start = System.nanoTime();
+		for (var doc = 0; doc < messages; doc++) {
+			var message = new StringBuilder();
+			var words = 3 + random.nextInt(20);
+			for (var j = 0; j < words; j++) {
+				message.append(WORDS[random.nextInt(WORDS.length)]).append(' ');
+			}
+			if (random.nextInt(100_000) == 0) {
+				message.append("anniversaire");
+			}
+			var terms = new ArrayList<>(SearchIndex.tokenize(message.toString()));
+			if (random.nextInt(10) == 0) {
+				privates.set(doc);
+				terms.add("@client" + random.nextInt(300));
+				terms.add("@client" + random.nextInt(300));
+			}
+			index.add(doc, terms);
+		}
+		var elapsed = System.nanoTime() - start;
+		System.out.printf("indexed  %d messages in %d ms, %s%n", messages, elapsed / 1_000_000, index);
+		var own = new BitSet();
+		index.search(List.of("@client42"), doc -> true, Integer.MAX_VALUE).forEach(own::set);
+		IntPredicate visible = doc -> !privates.get(doc) || own.get(doc);
+		for (var i = 0; i < 3; i++) {
+			query(index, "common", List.of("bonjour"), visible);
+			query(index, "pair", List.of("demain", "soir"), visible);
+			query(index, "rare", List.of("anniversaire"), visible);
+			query(index, "private", List.of("merci", "@client42"), doc -> true);
+		}
+	}
+}
@@ -2,23 +2,88 @@ package fr.umlv.test;
 
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetSocketAddress;
 import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CountDownLatch;
+import java.util.zip.DataFormatException;
 
 import org.junit.jupiter.api.Test;
 
+import fr.umlv.chatos.client.ClientChatOS;
+import fr.umlv.chatos.client.RosterView;
+import fr.umlv.chatos.context.BufferProfile;
+import fr.umlv.chatos.context.Context.ContextAbstract;
+import fr.umlv.chatos.context.DeflateCodec;
+import fr.umlv.chatos.server.ClientDirectory;
+import fr.umlv.chatos.server.FloodControl;
+import fr.umlv.chatos.server.FloodControl.Policy;
+import fr.umlv.chatos.server.FloodControl.Traffic;
+import fr.umlv.chatos.server.History;
+import fr.umlv.chatos.server.InterceptorPipeline;
+import fr.umlv.chatos.server.Mailbox;
+import fr.umlv.chatos.server.MessageInterceptor;
+import fr.umlv.chatos.server.ServerChatOS;
+import fr.umlv.chatos.server.Session;
+import fr.umlv.chatos.utils.AsyncIO;
+import fr.umlv.chatos.utils.BufferPool;
+import fr.umlv.chatos.utils.ConsolePrinter;
+import fr.umlv.chatos.utils.FrameWriter;
 import fr.umlv.chatos.utils.HTTPHeader;
+import fr.umlv.chatos.utils.HTTPResourceCache;
+import fr.umlv.chatos.utils.Protocol;
+import fr.umlv.chatos.utils.PseudonymIndex;
+import fr.umlv.chatos.utils.ReaderProcessor;
+import fr.umlv.chatos.utils.RttEstimator;
+import fr.umlv.chatos.utils.SearchIndex;
+import fr.umlv.chatos.utils.Sender;
+import fr.umlv.chatos.utils.TimingWheel;
+import fr.umlv.chatos.utils.TokenBucket;
+import fr.umlv.chatos.utils.Utf8Codec;
+import fr.umlv.chatos.utils.VarInt;
+import fr.umlv.chatos.utils.data.DirectOffer;
+import fr.umlv.chatos.utils.data.Login;
+import fr.umlv.chatos.utils.data.OfflineMessage;
+import fr.umlv.chatos.utils.data.RosterPage;
+import fr.umlv.chatos.utils.data.SearchHit;
 import fr.umlv.chatos.utils.data.ShortString;
+import fr.umlv.chatos.utils.data.Version;
+import fr.umlv.chatos.utils.reader.ChunkedStringReader;
 import fr.umlv.chatos.utils.reader.ClientListReader;
+import fr.umlv.chatos.utils.reader.DirectOfferReader;
 import fr.umlv.chatos.utils.reader.IntReader;
 import fr.umlv.chatos.utils.reader.IntShortReader;
+import fr.umlv.chatos.utils.reader.LoginReader;
+import fr.umlv.chatos.utils.reader.LongReader;
+import fr.umlv.chatos.utils.reader.RosterPageReader;
 import fr.umlv.chatos.utils.reader.ShortReader;
 import fr.umlv.chatos.utils.reader.ShortStringReader;
+import fr.umlv.chatos.utils.reader.Reader.ProcessStatus;
 import fr.umlv.chatos.utils.reader.StringReader;
+import fr.umlv.chatos.utils.reader.VarIntReader;
 import fr.umlv.chatos.utils.reader.http.ChunksReader;
 import fr.umlv.chatos.utils.reader.http.HTTPHeaderReader;
 import fr.umlv.chatos.utils.reader.http.HTTPReader;
@@ -130,6 +195,45 @@ class ReaderTest {
 		}
 	}
 
+	private static class TestContext extends ContextAbstract {
+		private final ReaderProcessor readerProcessor = new ReaderProcessor(() -> silentlyClose());
+		private final List<String> messages = new ArrayList<>();
+		private boolean reply;
+		private boolean parkedWhileProcessing;
+		private int backlogs;
+
+		private TestContext(SelectionKey key) {
+			super(key);
+			readerProcessor.put(0, () -> new ShortStringReader(Protocol.V1, message -> {
+				messages.add(message.getString());
+				if (reply) {
+					queueData(ByteBuffer.allocate(1).put((byte) 1).flip());
+					parkedWhileProcessing |= isParked();
+				}
+			}));
+		}
+
+		@Override
+		protected void processIn() {
+			processInProcessor(readerProcessor);
+		}
+
+		@Override
+		protected boolean isIdle() {
+			return readerProcessor.isIdle();
+		}
+
+		@Override
+		protected void onBacklog() {
+			backlogs++;
+		}
+
+		@Override
+		public void DoClose() {
+			silentlyClose();
+		}
+	}
+
 	@Test
 	void testIntShortReader() {
 		TestIntShort t = new TestIntShort();
@@ -380,4 +484,1149 @@ class ReaderTest {
 		assertEquals("/~carayol/", t.getString());
 	}
 
+	@Test
+	void testVarIntReader() {
+		TestInt t = new TestInt();
+		VarIntReader reader = new VarIntReader(i -> {
+			t.setInteger(i);
+		});
+		ByteBuffer bb = ByteBuffer.allocate(VarInt.MAX_BYTES * 2);
+		VarInt.put(bb, 300);
+		VarInt.put(bb, -1);
+		reader.process(bb);
+		var data = reader.get();
+		data.process();
+		assertEquals(300, t.getInteger());
+		reader.reset();
+		reader.process(bb);
+		data = reader.get();
+		data.process();
+		assertEquals(-1, t.getInteger());
+	}
+
+	@Test
+	void testChunkedStringReader() {
+		TestString t = new TestString();
+		ChunkedStringReader reader = new ChunkedStringReader(s -> {
+			t.setString(s);
+		}, Protocol.MAX_MESSAGE_BYTES);
+		Charset cs = StandardCharsets.UTF_8;
+		String string = "plop".repeat(Protocol.MAX_CHUNK_BYTES);
+		ByteBuffer bb = ByteBuffer.allocate(Protocol.V2.stringSize(string.length()));
+		Protocol.V2.putString(bb, cs.encode(string));
+		ByteBuffer bbin = ByteBuffer.allocate(1_024);
+		bb.flip();
+		while (reader.process(bbin) == ProcessStatus.REFILL) {
+			var oldLimit = bb.limit();
+			bb.limit(Math.min(oldLimit, bb.position() + bbin.remaining()));
+			bbin.put(bb);
+			bb.limit(oldLimit);
+		}
+		var data = reader.get();
+		data.process();
+		assertEquals(string, t.getString());
+	}
+
+	@Test
+	void testUtf8Codec() {
+		Charset cs = StandardCharsets.UTF_8;
+		Utf8Codec codec = Utf8Codec.get();
+		for (String string : List.of("", "plop", "Reçu éà ùœ", "日本語 \uD83D\uDE00 plop", "unpaired \uD800 x")) {
+			assertEquals(cs.encode(string).remaining(), Utf8Codec.encodedLength(string));
+			assertEquals(cs.encode(string), codec.encode(string));
+			assertEquals(cs.decode(cs.encode(string)).toString(), codec.decode(cs.encode(string)));
+		}
+		ByteBuffer bb = ByteBuffer.allocate(64).put((byte) 1);
+		String string = "plop éà";
+		Protocol.V2.putString(bb, string, Utf8Codec.encodedLength(string)).flip();
+		bb.get();
+		TestString t = new TestString();
+		ChunkedStringReader reader = new ChunkedStringReader(s -> {
+			t.setString(s);
+		}, Protocol.MAX_MESSAGE_BYTES);
+		ByteBuffer bbin = ByteBuffer.allocate(64).put(bb);
+		assertEquals(ProcessStatus.DONE, reader.process(bbin));
+		reader.get().process();
+		assertEquals(string, t.getString());
+		assertEquals("plop\uFFFD", codec.decode(ByteBuffer.wrap(new byte[] { 'p', 'l', 'o', 'p', (byte) 0xC3 })));
+	}
+
+	@Test
+	void testDirectOfferReader() {
+		List<DirectOffer> offers = new ArrayList<>();
+		DirectOfferReader reader = new DirectOfferReader(Protocol.V2, offer -> {
+			offers.add(offer);
+		});
+		ByteBuffer bb = ByteBuffer.allocate(64);
+		Protocol.V2.putShort(bb, (short) 300).putInt(7_778).put((byte) 4).put(new byte[] { 127, 0, 0, 1 })
+				.putLong(-42L);
+		bb.flip();
+		ByteBuffer bbin = ByteBuffer.allocate(64);
+		while (bb.hasRemaining()) {
+			bbin.put(bb.get());
+			var status = reader.process(bbin);
+			assertEquals(bb.hasRemaining() ? ProcessStatus.REFILL : ProcessStatus.DONE, status);
+		}
+		reader.get().process();
+		assertEquals(300, offers.get(0).getShort());
+		assertEquals(new InetSocketAddress("127.0.0.1", 7_778), offers.get(0).getAddress());
+		assertEquals(-42L, offers.get(0).getToken());
+		reader.reset();
+		bbin.clear();
+		Protocol.V2.putShort(bbin, (short) 1).putInt(7_778).put((byte) 5);
+		assertEquals(ProcessStatus.ERROR, reader.process(bbin));
+	}
+
+
+	@Test
+	void testPseudonymIndex() {
+		PseudonymIndex index = new PseudonymIndex();
+		index.add("Bob", (short) 1);
+		index.add("bobby", (short) 2);
+		index.add("Ｂｅｎ", (short) 3);
+		index.add("alice", (short) 4);
+		assertEquals(4, index.size());
+		assertEquals(List.of("Bob", "bobby"), index.startingWith("BO", 10).stream().map(ShortString::getString).toList());
+		assertEquals(List.of("Ｂｅｎ"), index.startingWith("ben", 10).stream().map(ShortString::getString).toList());
+		assertEquals(3, index.startingWith("", 3).size());
+		assertEquals(Optional.of((short) 1), index.resolve("bob"));
+		index.add("bob", (short) 5);
+		assertEquals(Optional.of((short) 5), index.resolve("bob"));
+		assertTrue(index.resolve("BOB").isEmpty());
+		assertTrue(index.remove("Bob"));
+		assertFalse(index.remove("Bob"));
+		assertEquals(Optional.of((short) 5), index.resolve("BOB"));
+		assertTrue(index.remove("bobby"));
+		assertTrue(index.remove("bob"));
+		assertTrue(index.startingWith("b", 10).stream().allMatch(s -> s.getString().equals("Ｂｅｎ")));
+		assertEquals(2, index.size());
+	}
+
+	@Test
+	void testRosterPageReader() {
+		List<RosterPage> pages = new ArrayList<>();
+		RosterPageReader reader = new RosterPageReader(Protocol.V2, pages::add);
+		ByteBuffer bb = ByteBuffer.allocate(64);
+		Protocol.V2.putShort(bb, (short) 300);
+		Protocol.V2.putShort(bb, (short) -1);
+		Protocol.V2.putShort(bb, (short) 1);
+		Protocol.V2.putString(Protocol.V2.putShort(bb, (short) 2048), StandardCharsets.UTF_8.encode("plop"));
+		bb.flip();
+		ByteBuffer bbin = ByteBuffer.allocate(64);
+		while (bb.hasRemaining()) {
+			bbin.put(bb.get());
+			if (reader.process(bbin) == ProcessStatus.DONE) {
+				reader.get().process();
+			}
+		}
+		assertEquals(1, pages.size());
+		assertEquals(300, pages.get(0).getTotal());
+		assertEquals((short) -1, pages.get(0).getNext());
+		assertEquals(List.of(new ShortString((short) 2048, "plop")), pages.get(0).getClients());
+	}
+
+	@Test
+	void testTimingWheel() {
+		List<String> ran = new ArrayList<>();
+		TimingWheel wheel = new TimingWheel(100, 4, 0);
+		wheel.schedule(150, () -> ran.add("short"));
+		wheel.schedule(1_000, () -> ran.add("long"));
+		TimingWheel.Timeout cancelled = wheel.schedule(200, () -> ran.add("cancelled"));
+		cancelled.cancel();
+		assertEquals(2, wheel.size());
+		assertEquals(0, wheel.advance(100));
+		assertEquals(1, wheel.advance(250));
+		assertEquals(List.of("short"), ran);
+		assertEquals(0, wheel.advance(900));
+		assertEquals(1, wheel.advance(1_000));
+		assertEquals(List.of("short", "long"), ran);
+		assertTrue(cancelled.isDone());
+		assertEquals(0, wheel.size());
+	}
+
+	@Test
+	void testLongReaderAndRttEstimator() {
+		List<Long> timestamps = new ArrayList<>();
+		LongReader reader = new LongReader(timestamps::add);
+		ByteBuffer bb = ByteBuffer.allocate(Long.BYTES).putLong(123_456_789_012L).flip();
+		ByteBuffer bbin = ByteBuffer.allocate(Long.BYTES);
+		while (bb.hasRemaining()) {
+			bbin.put(bb.get());
+			if (reader.process(bbin) == ProcessStatus.DONE) {
+				reader.get().process();
+			}
+		}
+		assertEquals(List.of(123_456_789_012L), timestamps);
+		RttEstimator rtt = new RttEstimator();
+		rtt.update(800);
+		assertEquals(800, rtt.getSmoothed());
+		assertEquals(400, rtt.getVariation());
+		rtt.update(1_600);
+		assertEquals(900, rtt.getSmoothed());
+		assertEquals(500, rtt.getVariation());
+		assertEquals(2, rtt.getSamples());
+	}
+
+	@Test
+	void testTokenBucket() {
+		TokenBucket bucket = new TokenBucket(3, 2, 0);
+		assertTrue(bucket.tryAcquire(0));
+		assertTrue(bucket.tryAcquire(0));
+		assertTrue(bucket.tryAcquire(0));
+		assertFalse(bucket.tryAcquire(0));
+		assertFalse(bucket.tryAcquire(400));
+		assertTrue(bucket.tryAcquire(500));
+		assertFalse(bucket.tryAcquire(500));
+		assertEquals(3.0, bucket.getTokens(10_000));
+	}
+
+	@Test
+	void testFloodControl() {
+		FloodControl floodControl = new FloodControl();
+		floodControl.setLimit("broadcast=2/0");
+		floodControl.setLimit("tcp-ask=1/0.5");
+		assertTrue(floodControl.toString().contains("broadcast : 2/0.0"));
+		assertTrue(floodControl.toString().contains("tcp_ask : 1/0.5"));
+		TokenBucket bucket = floodControl.newBuckets(0).get(Traffic.BROADCAST);
+		assertTrue(bucket.tryAcquire(0));
+		assertTrue(bucket.tryAcquire(0));
+		assertFalse(bucket.tryAcquire(60_000));
+		for (String limit : List.of("broadcast", "broadcast=2", "broadcast/2=1", "unknown=1/1", "broadcast=x/1",
+				"broadcast=1/x", "broadcast=0/1", "broadcast=1/-1", "broadcast=1/NaN")) {
+			assertThrows(IllegalArgumentException.class, () -> floodControl.setLimit(limit));
+		}
+		// a refused limit leaves the previous one
+		assertTrue(floodControl.toString().contains("broadcast : 2/0.0"));
+		assertEquals(Policy.THROTTLE, floodControl.getPolicy());
+		floodControl.countDropped(Traffic.PRIVATE);
+		floodControl.countDropped(Traffic.PRIVATE);
+		floodControl.countDisconnected();
+		assertEquals(2, floodControl.getDropped(Traffic.PRIVATE));
+		assertEquals(0, floodControl.getDropped(Traffic.BROADCAST));
+		assertEquals(1, floodControl.getDisconnected());
+	}
+
+	@Test
+	void testBufferPool() {
+		BufferPool pool = new BufferPool(4_096, 4_096);
+		ByteBuffer small = pool.take(100);
+		assertEquals(BufferPool.MIN_CAPACITY, small.capacity());
+		ByteBuffer medium = pool.take(1_025);
+		assertEquals(2_048, medium.capacity());
+		assertEquals(10_000, pool.take(10_000).capacity());
+		medium.put((byte) 1);
+		pool.give(medium);
+		ByteBuffer again = pool.take(2_000);
+		assertTrue(again == medium);
+		assertEquals(0, again.position());
+		pool.give(again);
+		pool.give(pool.take(4_096));
+		assertEquals(2_048, pool.getFreeBytes());
+		assertEquals(4, pool.getAllocations());
+	}
+
+	@Test
+	void testSessionResume() {
+		List<Login> logins = new ArrayList<>();
+		LoginReader reader = new LoginReader(logins::add);
+		ByteBuffer pseudo = StandardCharsets.UTF_8.encode("alice");
+		ByteBuffer bb = ByteBuffer.allocate(64)
+				.put((byte) (Protocol.VERSION_MARKER | Protocol.V2.getVersion()))
+				.put((byte) (Protocol.FLAG_SESSION | Protocol.FLAG_RESUME));
+		Protocol.V2.putString(bb, pseudo).putLong(-42L).putInt(3).flip();
+		ByteBuffer bbin = ByteBuffer.allocate(64);
+		while (bb.hasRemaining()) {
+			bbin.put(bb.get());
+			if (reader.process(bbin) == ProcessStatus.DONE) {
+				reader.get().process();
+			}
+		}
+		assertEquals(1, logins.size());
+		assertTrue(logins.get(0).isResuming());
+		assertEquals("alice", logins.get(0).getPseudonyme());
+		assertEquals(-42L, logins.get(0).getSession());
+		assertEquals(3, logins.get(0).getSequence());
+
+		Session session = new Session(-42L, (short) 1, "alice", Protocol.V2, 3, 1_024);
+		for (byte i = 0; i < 5; i++) {
+			session.record(ByteBuffer.allocate(1).put(i).flip());
+		}
+		assertEquals(5, session.getSequence());
+		assertEquals(Optional.of(List.of()), session.since(5).map(List::copyOf));
+		assertEquals(2, session.since(3).get().size());
+		assertEquals((byte) 3, session.since(3).get().get(0).get());
+		assertFalse(session.since(1).isPresent());
+		assertFalse(session.since(6).isPresent());
+	}
+
+	@Test
+	void testMailbox() throws IOException {
+		Path folder = Files.createTempDirectory("mailbox");
+		long key;
+		try (Mailbox mailbox = Mailbox.open(folder, 100, 1_000)) {
+			assertEquals(Mailbox.Status.UNKNOWN, mailbox.deposit("carol", "alice", 1L, "hello"));
+			key = mailbox.register("carol", 0);
+			assertTrue(key != 0);
+			assertEquals(Mailbox.Status.STORED, mailbox.deposit("carol", "alice", 1L, "hello"));
+			assertEquals(Mailbox.Status.STORED, mailbox.deposit("carol", "bob", 2L, "world"));
+			assertEquals(Mailbox.Status.FULL, mailbox.deposit("carol", "alice", 3L, "x".repeat(100)));
+		}
+		try (Mailbox mailbox = Mailbox.open(folder, 100, 1_000)) {
+			// the next client taking the pseudonyme doesn't hold the key
+			assertEquals(0, mailbox.register("carol", 0));
+			assertEquals(0, mailbox.register("carol", key + 1));
+			assertEquals(key, mailbox.register("carol", key));
+			assertEquals(List.of(new OfflineMessage("alice", 1L, "hello")), mailbox.next("carol", 0, 1));
+			assertEquals(List.of(new OfflineMessage("bob", 2L, "world")), mailbox.next("carol", 1, 1));
+			assertEquals(List.of(), mailbox.next("carol", 1, 1));
+		}
+		try (Mailbox mailbox = Mailbox.open(folder, 100, 1_000)) {
+			assertEquals(0, mailbox.pending("carol"));
+			assertEquals(Mailbox.Status.STORED, mailbox.deposit("carol", "alice", 4L, "again"));
+		}
+
+		// a mailbox kept by an earlier version has no key, its messages are dropped
+		// when a client opens it
+		Path legacy = Files.createTempDirectory("mailbox");
+		ByteBuffer log = ByteBuffer.allocate(64).put((byte) 0).putShort((short) 4).put("dave".getBytes(StandardCharsets.US_ASCII));
+		log.put((byte) 1).putShort((short) 4).put("dave".getBytes(StandardCharsets.US_ASCII));
+		log.putShort((short) 5).put("alice".getBytes(StandardCharsets.US_ASCII)).putLong(5L).putInt(2)
+				.put("hi".getBytes(StandardCharsets.US_ASCII));
+		Files.write(legacy.resolve("mailbox.log"), Arrays.copyOf(log.array(), log.position()));
+		try (Mailbox mailbox = Mailbox.open(legacy, 100, 1_000)) {
+			assertEquals(1, mailbox.pending("dave"));
+			assertEquals(Mailbox.Status.UNKNOWN, mailbox.deposit("dave", "alice", 6L, "again"));
+			key = mailbox.register("dave", 0);
+			assertTrue(key != 0);
+			assertEquals(0, mailbox.pending("dave"));
+			assertEquals(Mailbox.Status.STORED, mailbox.deposit("dave", "alice", 7L, "welcome"));
+		}
+		try (Mailbox mailbox = Mailbox.open(legacy, 100, 1_000)) {
+			assertEquals(key, mailbox.register("dave", key));
+			assertEquals(List.of(new OfflineMessage("alice", 7L, "welcome")), mailbox.next("dave", 0, 10));
+		}
+
+		// the key of the mailbox follows the pseudonyme of the login
+		List<Login> logins = new ArrayList<>();
+		LoginReader reader = new LoginReader(logins::add);
+		ByteBuffer bb = ByteBuffer.allocate(64).put((byte) (Protocol.VERSION_MARKER | Protocol.V2.getVersion()))
+				.put((byte) (Protocol.FLAG_MAILBOX | Protocol.FLAG_RESUME));
+		Protocol.V2.putString(bb, StandardCharsets.UTF_8.encode("carol")).putLong(key).putLong(-42L).putInt(3);
+		assertEquals(ProcessStatus.DONE, reader.process(bb));
+		reader.get().process();
+		assertEquals(key, logins.get(0).getMailboxKey());
+		assertEquals(-42L, logins.get(0).getSession());
+		assertEquals(3, logins.get(0).getSequence());
+	}
+
+	@Test
+	void testSearchIndex() throws IOException {
+		assertEquals(List.of("bonjour", "tous", "les", "amis"), SearchIndex.tokenize("Bonjour à TOUS, les amis ! Bonjour"));
+		SearchIndex index = new SearchIndex(2, 2);
+		for (int doc = 0; doc < 10; doc++) {
+			index.add(doc * 3, doc % 2 == 0 ? List.of("even") : List.of("odd", "@bob"));
+		}
+		assertEquals(2, index.getSegments());
+		assertEquals(10, index.size());
+		assertEquals(List.of(24, 18, 12), index.search(List.of("even"), doc -> true, 3));
+		assertEquals(List.of(27, 15), index.search(List.of("odd", "@bob"), doc -> doc != 21, 2));
+		assertEquals(List.of(), index.search(List.of("even", "odd"), doc -> true, 3));
+		index.add(30, List.of("last"));
+		assertEquals(List.of(30), index.search(List.of("last"), doc -> true, 3));
+		assertEquals(List.of(24), index.search(List.of("even"), doc -> true, 1));
+
+		Path folder = Files.createTempDirectory("history");
+		try (History history = History.open(folder)) {
+			assertEquals(0, history.append(1L, "alice", "Bonjour à tous"));
+		}
+		// private message written by an earlier version
+		ByteBuffer record = ByteBuffer.allocate(64);
+		record.putLong(2L).putShort((short) 5).put("alice".getBytes(StandardCharsets.US_ASCII));
+		record.putShort((short) 3).put("bob".getBytes(StandardCharsets.US_ASCII));
+		record.putInt(18).put("Rendez-vous demain".getBytes(StandardCharsets.US_ASCII));
+		Files.write(folder.resolve("history.log"), Arrays.copyOf(record.array(), record.position()),
+				StandardOpenOption.APPEND);
+		try (History history = History.open(folder)) {
+			assertEquals(2, history.size());
+			assertEquals(List.of(), history.search("demain", 10));
+			assertEquals(2, history.append(3L, "bob", "A demain"));
+		}
+		try (History history = History.open(folder)) {
+			assertEquals(List.of(new SearchHit(2, 3L, "bob", "A demain")), history.search("DEMAIN", 10));
+			assertEquals(List.of(new SearchHit(0, 1L, "alice", "Bonjour à tous")), history.search("bonjour", 10));
+		}
+	}
+
+	@Test
+	void testInterceptorPipeline() throws IOException {
+		try (Selector selector = Selector.open()) {
+			AsyncIO workers = AsyncIO.pooled(selector, 4, 100);
+			InterceptorPipeline pipeline = new InterceptorPipeline(workers);
+			assertTrue(pipeline.isEmpty());
+			pipeline.add(message -> message.getText().contains("spam") ? null : message.getText(), false);
+			pipeline.add(message -> {
+				try {
+					Thread.sleep(100 / message.getText().length());
+				} catch (InterruptedException e) {
+					throw new IOException(e);
+				}
+				return message.getText().toUpperCase();
+			}, true);
+			List<String> dispatched = new ArrayList<>();
+			for (String text : List.of("a", "spam", "bb", "ccccc")) {
+				pipeline.dispatch(new MessageInterceptor.Message(Traffic.BROADCAST, (short) 1, "alice", "", text),
+						dispatched::add);
+			}
+			long deadline = System.currentTimeMillis() + 5_000;
+			while (dispatched.size() < 3 && System.currentTimeMillis() < deadline) {
+				selector.select(100);
+				workers.runCompletions();
+			}
+			assertEquals(List.of("A", "BB", "CCCCC"), dispatched);
+		}
+	}
+
+	@Test
+	void testHTTPResourceCache() throws IOException {
+		Path folder = Files.createTempDirectory("http");
+		Path a = Files.writeString(folder.resolve("a.txt"), "first");
+		Path b = Files.writeString(folder.resolve("b.txt"), "other");
+		Path c = Files.writeString(folder.resolve("c.txt"), "third");
+		int length = Sender.encodeHTTPFile("/a.txt", List.of("first")).remaining();
+		HTTPResourceCache cache = new HTTPResourceCache(2 * length);
+		// a miss reads the file, the next request is served from memory
+		assertTrue(StandardCharsets.UTF_8.decode(cache.get(a, "/a.txt")).toString().contains("first"));
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		ByteBuffer hit = cache.get(a, "/a.txt");
+		assertEquals(length, hit.remaining());
+		assertTrue(StandardCharsets.UTF_8.decode(hit).toString().contains("first"));
+		assertEquals(1, cache.getHits());
+		assertEquals(length, cache.getSize());
+		// c evicts b, the least recently used response, to stay within the bound
+		cache.get(b, "/b.txt");
+		cache.get(a, "/a.txt");
+		cache.get(c, "/c.txt");
+		assertEquals(2 * length, cache.getSize());
+		assertEquals(2, cache.getHits());
+		assertEquals(3, cache.getMisses());
+		cache.get(a, "/a.txt");
+		cache.get(c, "/c.txt");
+		assertEquals(4, cache.getHits());
+		cache.get(b, "/b.txt");
+		assertEquals(4, cache.getMisses());
+		assertEquals(2 * length, cache.getSize());
+		// a cached file modified at another time is read again, even with the same size
+		Files.writeString(c, "fifth");
+		Files.setLastModifiedTime(c, FileTime.fromMillis(Files.getLastModifiedTime(c).toMillis() - 60_000));
+		assertTrue(StandardCharsets.UTF_8.decode(cache.get(c, "/c.txt")).toString().contains("fifth"));
+		assertEquals(5, cache.getMisses());
+		// and so is a cached file of another size, whose new response is then kept
+		Files.writeString(b, "other, longer");
+		assertTrue(StandardCharsets.UTF_8.decode(cache.get(b, "/b.txt")).toString().contains("other, longer"));
+		assertEquals(6, cache.getMisses());
+		assertTrue(StandardCharsets.UTF_8.decode(cache.get(b, "/b.txt")).toString().contains("other, longer"));
+		assertEquals(5, cache.getHits());
+		// a response larger than the cache is served but not kept
+		Path big = Files.writeString(folder.resolve("big.txt"), "x".repeat(2 * length));
+		cache.get(big, "/big.txt");
+		cache.get(big, "/big.txt");
+		assertEquals(8, cache.getMisses());
+		assertTrue(cache.getSize() <= 2 * length);
+	}
+
+	@Test
+	void testConsolePrinter() throws InterruptedException {
+		CountDownLatch blocked = new CountDownLatch(1);
+		CountDownLatch release = new CountDownLatch(1);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		PrintStream out = new PrintStream(new OutputStream() {
+			@Override
+			public void write(int b) {
+				blocked.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					throw new AssertionError(e);
+				}
+				bytes.write(b);
+			}
+		}, false, StandardCharsets.UTF_8);
+		ConsolePrinter printer = new ConsolePrinter(out, 4);
+		assertTrue(printer.println("a"));
+		blocked.await();
+		assertTrue(printer.printStatus("roster", "r1"));
+		assertTrue(printer.println("b"));
+		assertTrue(printer.printStatus("roster", "r2"));
+		assertTrue(printer.println("c"));
+		assertTrue(printer.println("d"));
+		assertFalse(printer.println("e"));
+		release.countDown();
+		printer.close();
+		String n = System.lineSeparator();
+		assertEquals("a" + n + "r2" + n + "b" + n + "c" + n + "d" + n
+				+ "(1 lignes non affichées, la console ne suit pas)" + n, bytes.toString(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	void testRosterView() {
+		RosterView roster = new RosterView(1_000);
+		assertEquals(-1, roster.delay(0));
+		roster.add((short) 1, "bob");
+		roster.add((short) 2, "Alice");
+		assertEquals(0, roster.delay(0));
+		assertEquals(Optional.of(""), roster.render(0));
+		assertEquals(Optional.empty(), roster.render(10));
+		for (short id = 3; id < 10; id++) {
+			roster.join(id, "user" + id);
+		}
+		roster.leave((short) 1);
+		roster.leave((short) 42);
+		assertEquals(500, roster.delay(500));
+		assertEquals(Optional.empty(), roster.render(500));
+		assertEquals(Optional.of(" (+7 : user3, user4, user5, user6, user7 et 2 autres ; -1 : bob)"),
+				roster.render(1_000));
+		assertEquals(-1, roster.delay(1_000));
+		assertEquals(List.of("Alice", "user3", "user4"), roster.page(1, 3));
+		assertEquals(List.of("user8", "user9"), roster.page(3, 3));
+		assertEquals(List.of(), roster.page(4, 3));
+		assertEquals(3, roster.pages(3));
+		assertEquals("user3", roster.forget((short) 3));
+		assertEquals(7, roster.size());
+		assertEquals(Optional.of(""), roster.render(2_000));
+	}
+
+	@Test
+	void testFrameWriter() {
+		String text = "é".repeat(20_000);
+		ByteBuffer expected = ByteBuffer.allocate(1 + 2 + Protocol.V2.stringSize(40_000)).put((byte) 2);
+		Protocol.V2.putString(Protocol.V2.putShort(expected, (short) 300), Utf8Codec.get().encode(text)).flip();
+		assertEquals(expected, FrameWriter.get(Protocol.V2).putByte((byte) 2).putShort((short) 300).putString(text)
+				.toBuffer());
+		assertEquals(expected, Sender.encodeShortString(Protocol.V2, (byte) 2, (short) 300, text));
+		FrameWriter writer = FrameWriter.get(Protocol.V1).putByte((byte) 1).putShort((short) 300).putString("hé");
+		assertEquals(1 + 2 + 2 + 3, writer.size());
+		assertEquals(0, FrameWriter.get(Protocol.V1).size());
+		String response = new String(Sender.encodeHTTPFile("/a", List.of("hé")).array(), StandardCharsets.UTF_8);
+		assertTrue(response.startsWith("HTTP/1.1 200 OK\r\n"));
+		assertTrue(response.endsWith("Content-Location: /a\r\n\r\n\0\0\0\3\r\nhé\r\n\0\0\0\0\r\n\r\n"));
+	}
+
+	/**
+	 * Reads exactly the remaining bytes of the buffer from a non blocking
+	 * channel, fails after 5 seconds.
+	 */
+	private static ByteBuffer readFully(SocketChannel sc, ByteBuffer bb) throws IOException, InterruptedException {
+		var deadline = System.currentTimeMillis() + 5_000;
+		while (bb.hasRemaining()) {
+			if (sc.read(bb) == -1 || System.currentTimeMillis() > deadline) {
+				throw new AssertionError("missing " + bb.remaining() + " bytes");
+			}
+			Thread.sleep(1);
+		}
+		return bb.flip();
+	}
+
+	@Test
+	void testClientDeflateRefused() throws IOException, InterruptedException {
+		InputStream in = System.in;
+		System.setIn(new ByteArrayInputStream(new byte[0]));
+		try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+			ssc.bind(new InetSocketAddress("localhost", 0));
+			ClientChatOS client = new ClientChatOS(Files.createTempDirectory("chatos").toString(), "alice",
+					(InetSocketAddress) ssc.getLocalAddress(),
+					new Version(Protocol.V2.getVersion(), Protocol.FLAG_DEFLATE));
+			List<IOException> failures = new ArrayList<>();
+			Thread launcher = new Thread(() -> {
+				try {
+					client.launch();
+				} catch (IOException e) {
+					failures.add(e);
+				}
+			});
+			launcher.start();
+			client.sendCommand("hello");
+			try (SocketChannel sc = ssc.accept()) {
+				sc.configureBlocking(false);
+				ByteBuffer login = readFully(sc, ByteBuffer.allocate(2 + 1 + 5));
+				assertEquals(Protocol.VERSION_MARKER | Protocol.V2.getVersion(), login.get() & 0xFF);
+				assertEquals(Protocol.FLAG_DEFLATE, login.get() & Protocol.FLAG_DEFLATE);
+				// the server strips the compression, then sends a client list and a broadcast not compressed
+				ByteBuffer answer = ByteBuffer.allocate(64).put((byte) 7).put((byte) Protocol.V2.getVersion())
+						.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 2).put((byte) 3);
+				Protocol.V2.putString(answer, StandardCharsets.UTF_8.encode("hi")).flip();
+				while (answer.hasRemaining()) {
+					sc.write(answer);
+				}
+				// the command typed before the answer is sent after it, framed with V2 and not compressed
+				ByteBuffer expected = ByteBuffer.allocate(1 + 1 + 5).put((byte) 0);
+				Protocol.V2.putString(expected, StandardCharsets.UTF_8.encode("hello")).flip();
+				assertEquals(expected, readFully(sc, ByteBuffer.allocate(expected.remaining())));
+				Thread.sleep(100);
+				launcher.interrupt();
+				launcher.join(1_000);
+			} finally {
+				launcher.interrupt();
+				System.setIn(in);
+			}
+			assertEquals(List.of(), failures);
+		}
+	}
+
+	private static int freePort() throws IOException {
+		try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+			ssc.bind(new InetSocketAddress("localhost", 0));
+			return ((InetSocketAddress) ssc.getLocalAddress()).getPort();
+		}
+	}
+
+	private static SocketChannel login(int port, String pseudonyme) throws IOException {
+		SocketChannel sc = SocketChannel.open(new InetSocketAddress("localhost", port));
+		ByteBuffer bb = ByteBuffer.allocate(64);
+		Protocol.V1.putString(bb, StandardCharsets.UTF_8.encode(pseudonyme));
+		sc.write(bb.flip());
+		sc.configureBlocking(false);
+		return sc;
+	}
+
+	/**
+	 * Reads the bytes received until they contain the expected text or the delay is
+	 * over, during the whole delay if the expected text is null.
+	 */
+	private static String readUntil(SocketChannel sc, String expected, long millis)
+			throws IOException, InterruptedException {
+		StringBuilder received = new StringBuilder();
+		ByteBuffer bb = ByteBuffer.allocate(1_024);
+		long deadline = System.currentTimeMillis() + millis;
+		while ((expected == null || received.indexOf(expected) == -1) && System.currentTimeMillis() < deadline) {
+			if (sc.read(bb) == -1) {
+				break;
+			}
+			received.append(StandardCharsets.ISO_8859_1.decode(bb.flip()));
+			bb.clear();
+			Thread.sleep(5);
+		}
+		return received.toString();
+	}
+
+	@Test
+	void testNodeRelay() throws IOException, InterruptedException {
+		int portA = freePort();
+		int portB = freePort();
+		int nodePortA = freePort();
+		int nodePortB = freePort();
+		// both nodes dial each other, only one of the two links is kept
+		ServerChatOS nodeA = new ServerChatOS(portA, 0, nodePortA, List.of(new InetSocketAddress("localhost", nodePortB)));
+		ServerChatOS nodeB = new ServerChatOS(portB, 1, nodePortB, List.of(new InetSocketAddress("localhost", nodePortA)));
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		List<Thread> launchers = new ArrayList<>();
+		for (ServerChatOS node : List.of(nodeA, nodeB)) {
+			Thread launcher = new Thread(() -> {
+				try {
+					node.launch();
+				} catch (IOException e) {
+					// the test fails on the missing messages
+				}
+			});
+			launcher.start();
+			launchers.add(launcher);
+		}
+		try (SocketChannel alice = login(portA, "alice"); SocketChannel bob = login(portB, "bob")) {
+			// the links are stable, bob is announced once and never removed
+			String received = readUntil(alice, null, 4_000);
+			assertTrue(received.contains("bob"));
+			assertEquals(received.indexOf("bob"), received.lastIndexOf("bob"));
+			ByteBuffer broadcast = ByteBuffer.allocate(64).put((byte) 0);
+			Protocol.V1.putString(broadcast, StandardCharsets.UTF_8.encode("hello from bob"));
+			bob.write(broadcast.flip());
+			assertTrue(readUntil(alice, "hello from bob", 5_000).contains("hello from bob"));
+		} finally {
+			System.setOut(out);
+			for (Thread launcher : launchers) {
+				launcher.interrupt();
+				launcher.join(1_000);
+			}
+		}
+	}
+
+	@Test
+	void testFloodPolicy() throws IOException, InterruptedException {
+		// a throttled client is told once and stays connected
+		FloodControl throttle = floodServer(Policy.THROTTLE, (port, alice, bob) -> {
+			assertEquals(2, flood(alice, bob, 3));
+			assertTrue(readUntil(alice, "\u000e\u0000\u0000", 2_000).contains("\u000e\u0000\u0000"));
+			assertEquals(0, flood(alice, bob, 1));
+			assertFalse(readUntil(alice, null, 300).contains("\u000e\u0000\u0000"));
+			try (SocketChannel carol = login(port, "carol")) {
+				assertTrue(readUntil(alice, "carol", 2_000).contains("carol"));
+			}
+		});
+		assertEquals(2, throttle.getDropped(Traffic.BROADCAST));
+		assertEquals(0, throttle.getDisconnected());
+
+		// a client flooding under the disconnect policy is closed
+		FloodControl disconnect = floodServer(Policy.DISCONNECT, (port, alice, bob) -> {
+			assertEquals(2, flood(alice, bob, 3));
+			readUntil(alice, null, 1_000);
+			assertEquals(-1, alice.read(ByteBuffer.allocate(16)));
+		});
+		assertEquals(1, disconnect.getDropped(Traffic.BROADCAST));
+		assertEquals(1, disconnect.getDisconnected());
+	}
+
+	private interface FloodScenario {
+		void run(int port, SocketChannel alice, SocketChannel bob) throws IOException, InterruptedException;
+	}
+
+	/**
+	 * Runs a scenario on a server letting 2 broadcasts through per client, then
+	 * stops the server and returns its flood control.
+	 */
+	private static FloodControl floodServer(Policy policy, FloodScenario scenario)
+			throws IOException, InterruptedException {
+		int port = freePort();
+		ServerChatOS server = new ServerChatOS(port);
+		FloodControl floodControl = new FloodControl();
+		floodControl.setLimit("broadcast=2/0");
+		floodControl.setPolicy(policy);
+		server.setFloodControl(floodControl);
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Thread launcher = new Thread(() -> {
+			try {
+				server.launch();
+			} catch (IOException e) {
+				// the test fails on the missing messages
+			}
+		});
+		launcher.start();
+		try (SocketChannel alice = login(port, "alice"); SocketChannel bob = login(port, "bob")) {
+			assertTrue(readUntil(alice, "bob", 2_000).contains("bob"));
+			scenario.run(port, alice, bob);
+		} finally {
+			System.setOut(out);
+			launcher.interrupt();
+			launcher.join(1_000);
+		}
+		return floodControl;
+	}
+
+	/**
+	 * Sends broadcasts from a client and returns how many of them reached the
+	 * other one.
+	 */
+	private static int flood(SocketChannel sender, SocketChannel receiver, int count)
+			throws IOException, InterruptedException {
+		String tag = "flood" + System.nanoTime() + "-";
+		for (int i = 0; i < count; i++) {
+			ByteBuffer broadcast = ByteBuffer.allocate(64).put((byte) 0);
+			Protocol.V1.putString(broadcast, StandardCharsets.UTF_8.encode(tag + i + "."));
+			sender.write(broadcast.flip());
+		}
+		String received = readUntil(receiver, null, 500);
+		int reached = 0;
+		for (int i = 0; i < count; i++) {
+			if (received.contains(tag + i + ".")) {
+				reached++;
+			}
+		}
+		return reached;
+	}
+
+	@Test
+	void testLoginTooLong() throws IOException, InterruptedException {
+		int port = freePort();
+		ServerChatOS server = new ServerChatOS(port);
+		PrintStream out = System.out;
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		Thread launcher = new Thread(() -> {
+			try {
+				server.launch();
+			} catch (IOException e) {
+				// the test fails on the missing messages
+			}
+		});
+		launcher.start();
+		try (SocketChannel alice = login(port, "alice")) {
+			assertTrue(readUntil(alice, "alice", 2_000).contains("alice"));
+
+			// a V1 login above the limit is refused
+			try (SocketChannel mallory = SocketChannel.open(new InetSocketAddress("localhost", port))) {
+				ByteBuffer bb = ByteBuffer.allocate(2 + LoginReader.MAX_PSEUDONYME_BYTES + 1);
+				Protocol.V1.putString(bb, StandardCharsets.UTF_8.encode("x".repeat(LoginReader.MAX_PSEUDONYME_BYTES + 1)));
+				mallory.write(bb.flip());
+				mallory.configureBlocking(false);
+				assertEquals("\u00ff", readUntil(mallory, null, 1_000));
+			}
+
+			// a V2 login too long for the V1 framing of alice doesn't stop the server
+			try (SocketChannel mallory = SocketChannel.open(new InetSocketAddress("localhost", port))) {
+				ByteBuffer login = FrameWriter.get(Protocol.V2)
+						.putByte((byte) (Protocol.VERSION_MARKER | Protocol.V2.getVersion())).putByte((byte) 0)
+						.putString("x".repeat(40_000)).toBuffer();
+				try {
+					while (login.hasRemaining()) {
+						mallory.write(login);
+					}
+				} catch (IOException e) {
+					// the server closed the connection before the end of the login
+				}
+			}
+			try (SocketChannel carol = login(port, "carol")) {
+				assertTrue(readUntil(alice, "carol", 3_000).contains("carol"));
+			}
+		} finally {
+			System.setOut(out);
+			launcher.interrupt();
+			launcher.join(1_000);
+		}
+	}
+
+	@Test
+	void testClientDirectory() {
+		ClientDirectory directory = new ClientDirectory();
+		assertTrue(directory.add((short) 5, "alice", 0));
+		assertTrue(directory.add((short) 2048, "bob", 1));
+		assertTrue(directory.add((short) 2049, "carol", 1));
+		assertTrue(directory.add((short) 3, "dave", 0));
+		assertFalse(directory.add((short) 5, "eve", 0));
+		assertFalse(directory.add((short) 7, "alice", 0));
+		assertEquals(4, directory.size());
+		assertEquals(Optional.of((short) 2048), directory.idOf("bob"));
+		assertEquals(Optional.of(1), directory.nodeOf((short) 2049));
+
+		// pages sorted by ID, each one starting after the last ID of the previous one
+		List<ShortString> first = directory.page((short) -1, 2);
+		assertEquals(List.of((short) 3, (short) 5), first.stream().map(ShortString::getShort).toList());
+		assertTrue(directory.hasAfter((short) 5));
+		List<ShortString> second = directory.page((short) 5, 2);
+		assertEquals(List.of("bob", "carol"), second.stream().map(ShortString::getString).toList());
+		assertFalse(directory.hasAfter((short) 2049));
+		assertEquals(List.of(), directory.page((short) 2049, 2));
+
+		assertEquals(Optional.of("dave"), directory.remove((short) 3));
+		assertEquals(Optional.empty(), directory.remove((short) 3));
+		assertFalse(directory.contains("dave"));
+		assertEquals(List.of(), directory.startingWith("da", 10));
+
+		// the clients of a node are removed at once, the others are kept
+		assertEquals(List.of((short) 2048, (short) 2049), directory.removeNode(1).stream().sorted().toList());
+		assertEquals(List.of(), directory.removeNode(1));
+		assertEquals(1, directory.size());
+		assertEquals(Optional.of("alice"), directory.pseudonymeOf((short) 5));
+		assertTrue(directory.add((short) 2048, "bob", 1));
+	}
+
+	@Test
+	void testDirectListener() throws IOException, InterruptedException {
+		InputStream in = System.in;
+		System.setIn(new ByteArrayInputStream(new byte[0]));
+		try (ServerSocketChannel ssc = ServerSocketChannel.open()) {
+			ssc.bind(new InetSocketAddress("localhost", 0));
+			ClientChatOS client = new ClientChatOS(Files.createTempDirectory("chatos").toString(), "bob",
+					(InetSocketAddress) ssc.getLocalAddress(),
+					new Version(Protocol.V2.getVersion(), Protocol.FLAG_DIRECT));
+			Thread launcher = new Thread(() -> {
+				try {
+					client.launch();
+				} catch (IOException e) {
+					// the test fails on the missing answers
+				}
+			});
+			launcher.start();
+			try (SocketChannel sc = ssc.accept()) {
+				sc.configureBlocking(false);
+				readFully(sc, ByteBuffer.allocate(2 + 1 + 3));
+				// the server accepts the direct mode, sends alice then her demand
+				ByteBuffer answer = FrameWriter.get(Protocol.V2).putByte((byte) 7).putByte((byte) Protocol.V2.getVersion())
+						.putByte((byte) Protocol.FLAG_DIRECT).putByte((byte) 0).putShort((short) 1).putShort((short) 3)
+						.putString("alice").putByte((byte) 4).putShort((short) 3).toBuffer();
+				while (answer.hasRemaining()) {
+					sc.write(answer);
+				}
+				Thread.sleep(300);
+				client.sendCommand("%alice 1");
+				ByteBuffer response = readFully(sc, ByteBuffer.allocate(1 + Integer.BYTES + 1 + Long.BYTES));
+				assertEquals(4, response.get());
+				InetSocketAddress listener = new InetSocketAddress("127.0.0.1", response.getInt());
+				assertEquals(3, response.get());
+				long token = response.getLong();
+
+				// a connection sending another token is closed, the listener keeps waiting
+				try (SocketChannel stranger = SocketChannel.open(listener)) {
+					stranger.write(ByteBuffer.allocate(Long.BYTES).putLong(token + 1).flip());
+					stranger.configureBlocking(false);
+					long deadline = System.currentTimeMillis() + 5_000;
+					while (stranger.read(ByteBuffer.allocate(1)) != -1) {
+						assertTrue(System.currentTimeMillis() < deadline);
+						Thread.sleep(5);
+					}
+				}
+				try (SocketChannel alice = SocketChannel.open(listener)) {
+					alice.write(ByteBuffer.allocate(Long.BYTES).putLong(token).flip());
+					alice.write(StandardCharsets.US_ASCII.encode("GET missing.txt HTTP/1.1\r\n\r\n"));
+					alice.configureBlocking(false);
+					assertTrue(readUntil(alice, "HTTP/1.1 404", 5_000).contains("HTTP/1.1 404"));
+				}
+				// the listener is closed once the connection is made
+				assertThrows(IOException.class, () -> SocketChannel.open(listener).close());
+			} finally {
+				launcher.interrupt();
+				launcher.join(1_000);
+				System.setIn(in);
+			}
+		}
+	}
+
+	/**
+	 * Encodes messages of 16 bytes, opcode 0, ID and string framed with
+	 * {@link Protocol#V1}, received by a {@link TestContext}.
+	 */
+	private static ByteBuffer testMessages(int first, int count) {
+		FrameWriter writer = FrameWriter.get(Protocol.V1);
+		for (int i = first; i < first + count; i++) {
+			writer.putByte((byte) 0).putShort((short) 1).putString(String.format("%011d", i));
+		}
+		return writer.toBuffer();
+	}
+
+	/**
+	 * Reads the socket of the context until it processed the expected number of
+	 * messages or the delay is over.
+	 */
+	private static void readMessages(Selector selector, TestContext context, int expected) throws IOException {
+		long deadline = System.currentTimeMillis() + 5_000;
+		while (context.messages.size() < expected && System.currentTimeMillis() < deadline) {
+			selector.select(10);
+			for (SelectionKey key : selector.selectedKeys()) {
+				if (key.isValid() && key.isReadable()) {
+					context.doRead();
+				}
+			}
+			selector.selectedKeys().clear();
+		}
+	}
+
+	@Test
+	void testContextParkWhileProcessing() throws IOException, InterruptedException {
+		assertEquals(16, testMessages(0, 1).remaining());
+		for (boolean deflate : new boolean[] { false, true }) {
+			try (Selector selector = Selector.open(); ServerSocketChannel ssc = ServerSocketChannel.open()) {
+				ssc.bind(new InetSocketAddress("localhost", 0));
+				try (SocketChannel peer = SocketChannel.open(ssc.getLocalAddress()); SocketChannel sc = ssc.accept()) {
+					sc.configureBlocking(false);
+					SelectionKey key = sc.register(selector, SelectionKey.OP_READ);
+					TestContext context = new TestContext(key);
+					key.attach(context);
+					if (deflate) {
+						context.enableInflate();
+					}
+					context.setParkWhenIdle(true);
+					assertTrue(context.isParked());
+					context.reply = true;
+					DeflateCodec codec = new DeflateCodec();
+
+					// the receive buffer is filled up to a message boundary, each answer is
+					// written at once, the context stays unparked until every message is read
+					ByteBuffer messages = testMessages(0, 256);
+					peer.write(deflate ? codec.deflate(messages) : messages);
+					readMessages(selector, context, 256);
+					assertEquals(256, context.messages.size());
+					assertEquals("00000000255", context.messages.get(255));
+					assertFalse(context.parkedWhileProcessing);
+					assertTrue(context.isParked());
+					assertEquals(256, readFully(peer, ByteBuffer.allocate(256)).remaining());
+
+					// the next messages unpark it
+					messages = testMessages(256, 16);
+					peer.write(deflate ? codec.deflate(messages) : messages);
+					readMessages(selector, context, 272);
+					assertEquals(272, context.messages.size());
+					assertFalse(context.parkedWhileProcessing);
+					assertTrue(context.isParked());
+					context.silentlyClose();
+				}
+			}
+		}
+	}
+
+	@Test
+	void testContextFrameBudget() throws IOException, InterruptedException {
+		for (boolean deflate : new boolean[] { false, true }) {
+			try (Selector selector = Selector.open(); ServerSocketChannel ssc = ServerSocketChannel.open()) {
+				ssc.bind(new InetSocketAddress("localhost", 0));
+				try (SocketChannel peer = SocketChannel.open(ssc.getLocalAddress()); SocketChannel sc = ssc.accept()) {
+					sc.configureBlocking(false);
+					SelectionKey key = sc.register(selector, SelectionKey.OP_READ);
+					TestContext context = new TestContext(key);
+					key.attach(context);
+					if (deflate) {
+						context.enableInflate();
+					}
+					context.setParkWhenIdle(true);
+					assertThrows(IllegalArgumentException.class, () -> context.setFrameBudget(0));
+					context.setFrameBudget(4);
+					DeflateCodec codec = new DeflateCodec();
+					ByteBuffer messages = testMessages(0, 10);
+					peer.write(deflate ? codec.deflate(messages) : messages);
+					Thread.sleep(50);
+
+					// the read stops after 4 frames, the socket isn't read until the context
+					// is resumed
+					readMessages(selector, context, 4);
+					assertEquals(4, context.messages.size());
+					assertEquals(1, context.backlogs);
+					assertFalse(context.isParked());
+					assertEquals(0, key.interestOps() & SelectionKey.OP_READ);
+
+					context.resume();
+					assertEquals(8, context.messages.size());
+					assertEquals("00000000007", context.messages.get(7));
+					assertEquals(2, context.backlogs);
+					assertEquals(0, key.interestOps() & SelectionKey.OP_READ);
+
+					// the last frames don't exhaust the budget, the socket is read again
+					context.resume();
+					assertEquals(10, context.messages.size());
+					assertEquals("00000000009", context.messages.get(9));
+					assertEquals(2, context.backlogs);
+					assertTrue(context.isParked());
+					assertEquals(SelectionKey.OP_READ, key.interestOps());
+
+					// a context not backlogged isn't processed
+					context.resume();
+					assertEquals(10, context.messages.size());
+					assertTrue(context.isParked());
+
+					messages = testMessages(10, 2);
+					peer.write(deflate ? codec.deflate(messages) : messages);
+					readMessages(selector, context, 12);
+					assertEquals(12, context.messages.size());
+					assertEquals(2, context.backlogs);
+					context.silentlyClose();
+				}
+			}
+		}
+	}
+
+	private static ByteBuffer testFrame(int value) {
+		ByteBuffer frame = ByteBuffer.allocate(600);
+		while (frame.hasRemaining()) {
+			frame.put((byte) value);
+		}
+		return frame.flip();
+	}
+
+	@Test
+	void testContextQueueFrame() throws IOException, InterruptedException, DataFormatException {
+		BufferPool pool = ContextAbstract.getBufferPool();
+		ByteBuffer expected = ByteBuffer.allocate(5 * 600);
+		for (int i = 0; i < 5; i++) {
+			expected.put(testFrame(i));
+		}
+		expected.flip();
+		try (Selector selector = Selector.open(); ServerSocketChannel ssc = ServerSocketChannel.open()) {
+			ssc.bind(new InetSocketAddress("localhost", 0));
+			try (SocketChannel peer = SocketChannel.open(ssc.getLocalAddress()); SocketChannel sc = ssc.accept()) {
+				sc.configureBlocking(false);
+				// a pending write keeps the frames in the context until doWrite
+				SelectionKey key = sc.register(selector, SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				TestContext context = new TestContext(key);
+				key.attach(context);
+
+				// 2 free buffers of 1 KiB, so the frames spilled don't allocate
+				ByteBuffer spill = pool.take(1_024);
+				pool.give(pool.take(1_024));
+				pool.give(spill);
+
+				// 3 frames fit in the 2 KiB of bbout, the next ones spill in 2 leased buffers
+				long leases = pool.getLeases();
+				long freeBytes = pool.getFreeBytes();
+				for (int i = 0; i < 5; i++) {
+					context.queueFrame(testFrame(i));
+					assertEquals(i < 3 ? 0 : i - 2, pool.getLeases() - leases);
+				}
+				assertEquals(freeBytes - 2 * 1_024, pool.getFreeBytes());
+
+				// the leased buffers are given back once copied into bbout
+				while ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+					context.doWrite();
+				}
+				assertEquals(freeBytes, pool.getFreeBytes());
+				assertEquals(expected, readFully(peer, ByteBuffer.allocate(expected.remaining())));
+
+				// or when the context is closed, with bbin and bbout
+				key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+				for (int i = 0; i < 5; i++) {
+					context.queueFrame(testFrame(i));
+				}
+				assertEquals(freeBytes - 2 * 1_024, pool.getFreeBytes());
+				context.silentlyClose();
+				assertEquals(freeBytes + BufferProfile.CHAT.getMinReceive() + BufferProfile.CHAT.getSend(),
+						pool.getFreeBytes());
+				context.queueFrame(testFrame(0));
+				assertEquals(freeBytes + BufferProfile.CHAT.getMinReceive() + BufferProfile.CHAT.getSend(),
+						pool.getFreeBytes());
+			}
+
+			// a compressed frame is queued as data, no buffer is leased
+			try (SocketChannel peer = SocketChannel.open(ssc.getLocalAddress()); SocketChannel sc = ssc.accept()) {
+				sc.configureBlocking(false);
+				SelectionKey key = sc.register(selector, SelectionKey.OP_READ);
+				TestContext context = new TestContext(key);
+				key.attach(context);
+				context.enableDeflate();
+				long leases = pool.getLeases();
+				for (int i = 0; i < 5; i++) {
+					context.queueFrame(testFrame(i));
+				}
+				assertEquals(leases, pool.getLeases());
+				while ((key.interestOps() & SelectionKey.OP_WRITE) != 0) {
+					context.doWrite();
+				}
+				DeflateCodec codec = new DeflateCodec();
+				ByteBuffer received = ByteBuffer.allocate(4_096);
+				ByteBuffer inflated = ByteBuffer.allocate(expected.remaining());
+				long deadline = System.currentTimeMillis() + 5_000;
+				while (inflated.hasRemaining() && System.currentTimeMillis() < deadline) {
+					if (peer.read(received) == -1) {
+						break;
+					}
+					codec.inflate(received, inflated);
+				}
+				assertEquals(expected, inflated.flip());
+				context.silentlyClose();
+			}
+		}
+	}
+
+	@Test
+	void testAsyncIOFailure() throws IOException {
+		try (Selector selector = Selector.open()) {
+			AsyncIO workers = AsyncIO.pooled(selector, 1, 1);
+			List<Object> results = new ArrayList<>();
+			for (int i = 0; i < 3; i++) {
+				int round = i;
+				workers.submit(() -> {
+					if (round == 1) {
+						throw new IllegalStateException("broken task");
+					}
+					return round;
+				}, results::add, results::add);
+				long deadline = System.currentTimeMillis() + 5_000;
+				while (results.size() == round && System.currentTimeMillis() < deadline) {
+					selector.select(100);
+					workers.runCompletions();
+				}
+				// the slot of the task is given back even if it failed
+				assertEquals(0, workers.getPending());
+			}
+			assertEquals(0, results.get(0));
+			IOException failure = (IOException) results.get(1);
+			assertEquals("broken task", failure.getCause().getMessage());
+			assertEquals(2, results.get(2));
+			workers.shutdown();
+		}
+	}
 }